@@ -0,0 +1,52 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import com.book.records.FineAccrual;
+import com.db.ConnectionPool;
+import com.db.DriverManagerDataSource;
+import com.db.KeyGenerator;
+
+/**
+ * Entry point for the nightly fine accrual job. Runs without the UI, so it
+ * can be started by cron after the library closes.
+ * 
+ * @author Kevin Petersen
+ */
+public class AccrueFines {
+	/**
+	 * Entry point. Brings the fines of every overdue loan up to date.
+	 * 
+	 * @param args url, username, password and optionally the chunk size
+	 */
+	public static void main(String args[]) {
+		if(args.length < 3) {
+			System.out.println("Usage: java com.AccrueFines <url> <username> <password> [chunk size]");
+			System.exit(-1);
+		}
+		int chunkSize = (args.length > 3 ? Integer.parseInt(args[3]) : FineAccrual.DEFAULT_CHUNK_SIZE);
+
+		int status = 0;
+		try {
+			// Load the Oracle JDBC driver
+			DriverManager.registerDriver(new oracle.jdbc.driver.OracleDriver());
+			ConnectionPool.initialize(new DriverManagerDataSource(args[0],
+					args[1], args[2]), 1);
+			int accrued = FineAccrual.run(chunkSize);
+			System.out.println(accrued + " fines accrued.");
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			status = -1;
+		} finally {
+			System.out.println(FineAccrual.getStatistics());
+			KeyGenerator.close();
+			ConnectionPool.close();
+		}
+		System.exit(status);
+	}
+}
\ No newline at end of file
@@ -4,8 +4,8 @@
 
 package com;
 
-import java.sql.Connection;
-
+import com.date.DateParser;
+import com.date.SimulatedClock;
 import com.ui.LoginWindow;
 
 /**
@@ -14,14 +14,23 @@ import com.ui.LoginWindow;
  * @author Kevin Petersen
  */
 public class Main {
-	public static Connection con;
-	
 	/**
 	 * Entry point. Loads the UI.
 	 * 
+	 * With "-simulate speed [YYYY-MM-DD]" the library runs on a simulated
+	 * clock, starting on the given day or today, with speed simulated
+	 * seconds passing for each real second. A speed of 86400 makes a day
+	 * pass each second.
+	 * 
 	 * @param args Arguments from the command line
 	 */
 	public static void main(String args[]) {
+		if(args.length > 1 && args[0].equals("-simulate")) {
+			double speed = Double.parseDouble(args[1]);
+			String start = (args.length > 2 ? args[2] : DateParser.today().toString());
+			SimulatedClock.install(start, speed);
+			System.out.println("Simulating from " + start + " at " + speed + " times real time.");
+		}
 		new LoginWindow().displayWindow();
 	}
 }
\ No newline at end of file
@@ -5,11 +5,16 @@
 package com.book;
 
 import java.sql.*;
-import java.util.ArrayList;
 import java.util.List;
 
-import com.Main;
+import com.book.records.HoldQueue;
 import com.book.records.HoldRequest;
+import com.db.ConnectionPool;
+import com.db.EntityCache;
+import com.db.KeyGenerator;
+import com.db.Sql;
+import com.db.UnitOfWork;
+import com.search.CatalogIndex;
 
 /**
  * Representation of a book as described by Book in tables.sql.
@@ -17,7 +22,17 @@ import com.book.records.HoldRequest;
  * @author Kevin Petersen
  */
 public class Book {
-	private static Connection con = Main.con;  
+	private static final KeyGenerator keys = new KeyGenerator("Book",
+			"SELECT MAX(callNumber) FROM Book", KeyGenerator.DEFAULT_BLOCK_SIZE);
+	
+	private static final EntityCache<Integer, Book> cache =
+			new EntityCache<Integer, Book>("Book", EntityCache.DEFAULT_CAPACITY);
+	
+	private static final Sql.Row<Book> ROW = new Sql.Row<Book>() {
+		public Book read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private int callNumber;
 	private float isbn;
@@ -76,8 +91,9 @@ public class Book {
 			String publisher, int year) throws SQLException {
 		int callNumber = generateKey();
 		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO Book VALUES (?,?,?,?,?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO Book VALUES (?,?,?,?,?,?)");
 			
 			ps.setInt(1, callNumber);
 			ps.setFloat(2, isbn);
@@ -87,11 +103,13 @@ public class Book {
 			ps.setInt(6, year);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
-			return new Book(callNumber, isbn, title, mainAuthor, publisher, year);
+			Book book = new Book(callNumber, isbn, title, mainAuthor, publisher, year);
+			cache.put(callNumber, book);
+			CatalogIndex.bookChanged(callNumber, title, mainAuthor, publisher, year);
+			return book;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -102,28 +120,20 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
 	/**
-	 * Generates a new key for an entry in the Borrower table
+	 * Generates a new key for an entry in the Book table
 	 * 
 	 * @return An unused unique key for this table
 	 * @throws SQLException
-	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             if a new block of keys could not be reserved
 	 */
 	private static int generateKey() throws SQLException {
-		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(callNumber) as maxCallNumber FROM Book");
-			ResultSet r = ps.executeQuery();
-			
-			return (r.next() ? r.getInt("maxCallNumber") + 1 : 1);
-		} catch (SQLException sql) {
-			System.out.println("Message: " + sql.getMessage());
-			throw sql;
-		}
+		return keys.nextKey();
 	}
 
 	/**
@@ -139,20 +149,28 @@ public class Book {
 	 *             a ResultSet object
 	 */
 	public static Book get(int callNumber) throws SQLException {
+		Book cached = cache.get(callNumber);
+		if(cached != null) {
+			return cached;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Book WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Book WHERE callNumber=?");
 			ps.setInt(1, callNumber);
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			Book book = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(book != null) {
+				return book;
 			} else {
 				throw new SQLException("No such Book.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -167,19 +185,15 @@ public class Book {
 	 *             a ResultSet object
 	 */
 	public static List<Book> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Book");
-			ResultSet r = ps.executeQuery();
-			List<Book> allBooks = new ArrayList<Book>();
-			
-			while(r.next()) {
-				allBooks.add(parseLine(r));
-			}
-			
-			return allBooks;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Book");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -205,7 +219,34 @@ public class Book {
 		
 		int year = r.getInt("year");
 		
-		return new Book(callNumber, isbn, title, mainAuthor, publisher, year);
+		Book book = new Book(callNumber, isbn, title, mainAuthor, publisher, year);
+		cache.put(callNumber, book);
+		return book;
+	}
+
+	/**
+	 * Reads a Book from the current row of a query that includes the columns of
+	 * the Book table. If the same book has already been loaded, that object is
+	 * returned instead, so rows that share a book share one object.
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @return The book referenced by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	public static Book load(ResultSet r) throws SQLException {
+		Book cached = cache.get(r.getInt("callNumber"));
+		return (cached != null ? cached : parseLine(r));
+	}
+
+	/**
+	 * @return The cache of Book objects, for reading its statistics or
+	 *         changing its capacity
+	 */
+	public static EntityCache<Integer, Book> getCache() {
+		return cache;
 	}
 
 	/**
@@ -217,13 +258,16 @@ public class Book {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM Book WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM Book WHERE callNumber=?");
 			ps.setInt(1, this.callNumber);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			
+			cache.remove(this.callNumber);
+			CatalogIndex.bookRemoved(this.callNumber);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -234,11 +278,30 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
+
+	/**
+	 * Records a change to one column of this book in the open unit of work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "Book", "callNumber=?", column, type, value, this.callNumber);
+	}
 	
 	/**
-	 * Searches the BookCopy table for a copy of this book that's "in"
+	 * Searches the BookCopy table for a copy of this book that's "in". The
+	 * copy is not reserved: BookCopy.checkout() only lends it if it is still
+	 * in by then.
 	 * 
 	 * @return An available BookCopy object
 	 * @throws SQLException
@@ -247,66 +310,50 @@ public class Book {
 	 *             a ResultSet object
 	 */
 	public BookCopy findAvailableCopy() throws SQLException {
-		int copyNo;
+		Integer copyNo;
 		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT copyNo FROM BookCopy WHERE callNumber=? AND status='in'");
+			PreparedStatement ps = Sql.prepare(con, "SELECT copyNo FROM BookCopy WHERE callNumber=? AND status='in'");
 			ps.setInt(1, this.callNumber);
-			ResultSet r = ps.executeQuery();
+			ps.setMaxRows(1);
+			copyNo = Sql.first(ps, Sql.INT);
 			
-			if(r.next()) {
-				copyNo = r.getInt("copyNo");
-			} else {
+			if(copyNo == null) {
 				throw new SQLException("No available copies.");
 			} 
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 
 		return BookCopy.get(this, copyNo);
 	}
 	
+	/**
+	 * @return true if someone has a hold request on this book
+	 * @throws SQLException
+	 *             if the hold queue of this book had to be loaded and a
+	 *             database access error occurs
+	 */
 	public boolean hasHold() throws SQLException {
-		PreparedStatement ps = con.prepareStatement("SELECT * FROM HoldRequest WHERE callNumber=?");
-		ps.setInt(1, this.callNumber);
-		ps.setMaxRows(1);
-		ResultSet r = ps.executeQuery();
-		
-		return r.next();
+		return (HoldQueue.next(this) != null);
 	}
 	
+	/**
+	 * @return The hold request next in line for this book
+	 * @throws SQLException
+	 *             if this book has no holds, or its hold queue had to be
+	 *             loaded and a database access error occurs
+	 */
 	public HoldRequest getHold() throws SQLException {
-		Date minDate;
-		int hid;
-		
-		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MIN(issuedDate) as minDate FROM HoldRequest WHERE callNumber=?");
-			ps.setInt(1, this.callNumber);
-			ResultSet r = ps.executeQuery();
-			
-			if(r.next()) {
-				minDate = r.getDate("minDate");
-			} else {
-				throw new SQLException("No holds.");
-			}
-			
-			ps = con.prepareStatement("SELECT hid FROM HoldRequest WHERE callNumber=? AND issuedDate=?");
-			ps.setInt(1, this.callNumber);
-			ps.setDate(2, minDate);
-			r = ps.executeQuery();
-			
-			if(r.next()) {
-				hid = r.getInt("hid");
-			} else {
-				throw new SQLException("No holds.");
-			}
-		} catch (SQLException sql) {
-			System.out.println("Message: " + sql.getMessage());
-			throw sql;
+		HoldRequest hold = HoldQueue.next(this);
+		if(hold == null) {
+			throw new SQLException("No holds.");
 		}
-		
-		return HoldRequest.get(hid);
+		return hold;
 	}
 
 	/**
@@ -334,17 +381,24 @@ public class Book {
 	 *             ResultSet object
 	 */
 	public void setIsbn(float isbn) throws SQLException {
+		if(defer("isbn", Types.FLOAT, isbn)) {
+			this.isbn = isbn;
+			cache.put(this.callNumber, this);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Book SET isbn=? WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Book SET isbn=? WHERE callNumber=?");
 			ps.setInt(2, this.callNumber);
 			
 			ps.setFloat(1, isbn);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.isbn = isbn;
+			cache.put(this.callNumber, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -355,6 +409,8 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -376,17 +432,28 @@ public class Book {
 	 *             ResultSet object
 	 */
 	public void setTitle(String title) throws SQLException {
+		if(defer("title", Types.VARCHAR, title)) {
+			this.title = title;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Book SET title=? WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Book SET title=? WHERE callNumber=?");
 			ps.setInt(2, this.callNumber);
 			
 			ps.setString(1, title);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.title = title;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -397,6 +464,8 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -418,17 +487,28 @@ public class Book {
 	 *             ResultSet object
 	 */
 	public void setMainAuthor(String mainAuthor) throws SQLException {
+		if(defer("mainAuthor", Types.VARCHAR, mainAuthor)) {
+			this.mainAuthor = mainAuthor;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Book SET mainAuthor=? WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Book SET mainAuthor=? WHERE callNumber=?");
 			ps.setInt(2, this.callNumber);
 			
 			ps.setString(1, mainAuthor);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.mainAuthor = mainAuthor;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -439,6 +519,8 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -460,17 +542,28 @@ public class Book {
 	 *             ResultSet object
 	 */
 	public void setPublisher(String publisher) throws SQLException {
+		if(defer("publisher", Types.VARCHAR, publisher)) {
+			this.publisher = publisher;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Book SET publisher=? WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Book SET publisher=? WHERE callNumber=?");
 			ps.setInt(2, this.callNumber);
 			
 			ps.setString(1, publisher);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.publisher = publisher;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -481,6 +574,8 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -502,17 +597,28 @@ public class Book {
 	 *             ResultSet object
 	 */
 	public void setYear(int year) throws SQLException {
+		if(defer("year", Types.INTEGER, year)) {
+			this.year = year;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Book SET year=? WHERE callNumber=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Book SET year=? WHERE callNumber=?");
 			ps.setInt(2, this.callNumber);
 			
 			ps.setInt(1, year);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.year = year;
+			cache.put(this.callNumber, this);
+			CatalogIndex.bookChanged(this.callNumber, this.title, this.mainAuthor,
+					this.publisher, this.year);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -523,6 +629,8 @@ public class Book {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
@@ -9,14 +9,27 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
-import com.Main;
 import com.book.records.Borrowing;
 import com.book.records.Fine;
+import com.book.records.HoldQueue;
+import com.book.records.HoldRequest;
 import com.borrower.Borrower;
 import com.date.DateParser;
+import com.date.EpochDay;
+import com.db.ConnectionPool;
+import com.db.EntityCache;
+import com.db.Sql;
+import com.db.UnitOfWork;
+import com.notify.Notification;
+import com.notify.NotificationWorker;
+import com.policy.BorrowerSnapshot;
 
 /**
  * Representation of a book as described by Book in tables.sql.
@@ -24,7 +37,29 @@ import com.date.DateParser;
  * @author Kevin Petersen
  */
 public class BookCopy {
-	private static Connection con = Main.con;  
+	private static final EntityCache<Long, BookCopy> cache =
+			new EntityCache<Long, BookCopy>("BookCopy", EntityCache.DEFAULT_CAPACITY);
+	
+	// Copies looked at per search when claiming, and searches per claim
+	private static final int CLAIM_CANDIDATES = 8;
+	private static final int CLAIM_ROUNDS = 3;
+	// Oracle error code for a row locked by a NOWAIT query
+	private static final int RESOURCE_BUSY = 54;
+	// Books counted per query by countByStatus()
+	private static final int COUNT_BATCH = 20;
+	
+	private static final Random random = new Random();
+	private static long claims = 0;
+	private static long conflicts = 0;
+	private static long skipped = 0;
+	private static long retries = 0;
+	private static long exhausted = 0;
+	
+	private static final Sql.Row<BookCopy> ROW = new Sql.Row<BookCopy>() {
+		public BookCopy read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private Book callNumber;
 	private int copyNo;
@@ -62,21 +97,23 @@ public class BookCopy {
 	 */
 	public static BookCopy add(Book callNumber, String status)
 			throws SQLException {
-		int copyNo = generateKey(callNumber);
-		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO BookCopy VALUES (?,?,?)");
+			int copyNo = generateKey(con, callNumber);
+			
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO BookCopy VALUES (?,?,?)");
 			
 			ps.setInt(1, callNumber.getCallNumber());
 			ps.setInt(2, copyNo);
 			ps.setString(3, status);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
-			return new BookCopy(callNumber, copyNo, status);
+			BookCopy copy = new BookCopy(callNumber, copyNo, status);
+			cache.put(key(callNumber.getCallNumber(), copyNo), copy);
+			return copy;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -87,29 +124,36 @@ public class BookCopy {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
 	/**
-	 * Generates a new copyNo for an entry in the BookCopy table
+	 * Generates a new copyNo for an entry in the BookCopy table, as part of
+	 * the transaction that inserts it. The Book's row is locked until that
+	 * transaction ends, so copies of the same Book added at other desks wait
+	 * and are numbered after it. Each Book's copies are numbered in order
+	 * without gaps, as a number is only taken when its insert commits.
 	 * 
+	 * @param con
+	 *            Connection of the transaction the copy is inserted in
 	 * @return An unused unique copyNo for this Book
 	 * @throws SQLException
-	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             if the Book does not exist or a database access error occurs
 	 */
-	private static int generateKey(Book callNumber) throws SQLException {
-		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(copyNo) as maxCopyNo FROM BookCopy WHERE callNumber=?");
-			ps.setInt(1, callNumber.getCallNumber());
-			ResultSet r = ps.executeQuery();
-			
-			return (r.next() ? r.getInt("maxCopyNo") + 1 : 1);
-		} catch (SQLException sql) {
-			System.out.println("Message: " + sql.getMessage());
-			throw sql;
+	private static int generateKey(Connection con, Book callNumber)
+			throws SQLException {
+		PreparedStatement ps = Sql.prepare(con, "SELECT callNumber FROM Book WHERE callNumber=? FOR UPDATE");
+		ps.setInt(1, callNumber.getCallNumber());
+		if(Sql.first(ps, Sql.INT) == null) {
+			throw new SQLException("Book " + callNumber.getCallNumber() + " does not exist.");
 		}
+		
+		ps = Sql.prepare(con, "SELECT MAX(copyNo) FROM BookCopy WHERE callNumber=?");
+		ps.setInt(1, callNumber.getCallNumber());
+		Integer largest = Sql.first(ps, Sql.INT);
+		return (largest != null ? largest + 1 : 1);
 	}
 
 	/**
@@ -127,22 +171,30 @@ public class BookCopy {
 	 *             a ResultSet object
 	 */
 	public static BookCopy get(Book callNumber, int copyNo) throws SQLException {
+		BookCopy cached = cache.get(key(callNumber.getCallNumber(), copyNo));
+		if(cached != null) {
+			return cached;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM BookCopy WHERE callNumber=? AND copyNo=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM BookCopy WHERE callNumber=? AND copyNo=?");
 			ps.setInt(1, callNumber.getCallNumber());
 			ps.setInt(2, copyNo);
 
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			BookCopy copy = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(copy != null) {
+				return copy;
 			} else {
 				throw new SQLException("No such Copy of this Book.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -158,47 +210,95 @@ public class BookCopy {
 	 *             a ResultSet object
 	 */
 	public static List<BookCopy> getCheckedOut() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM BookCopy WHERE status='out' ORDER BY callNumber, copyNo");
-			ResultSet r = ps.executeQuery();
-			List<BookCopy> allBooks = new ArrayList<BookCopy>();
-			
-			while(r.next()) {
-				allBooks.add(parseLine(r));
-			}
-			
-			return allBooks;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM BookCopy WHERE status='out' ORDER BY callNumber, copyNo");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
 	/**
-	 * Looks up all the entries in the BookCopy table that are checked out and
-	 * returns the corresponding objects in a list.
+	 * Looks up all the entries in the BookCopy table that are overdue and
+	 * returns the corresponding objects in a list, oldest due date first.
 	 * 
 	 * @return A List of BookCopy objects representing the entries of the
-	 *         BookCopy table that are checked out
+	 *         BookCopy table that are overdue
 	 * @throws SQLException
 	 *             if a database access error occurs; this method is called on a
 	 *             closed PreparedStatement or the SQL statement does not return
 	 *             a ResultSet object
 	 */
 	public static List<BookCopy> getOverdue() throws SQLException {
-		List<BookCopy> out = getCheckedOut();
+		List<Borrowing> records = Borrowing.getOverdue();
 		List<BookCopy> overdue = new ArrayList<BookCopy>();
 		
-		for(BookCopy b : out) {
-			Borrowing borid = Borrowing.getLast(b);
-			if(DateParser.today().after(borid.getInDate())) {
-				overdue.add(b);
-			}
+		for(Borrowing borid : records) {
+			overdue.add(borid.getCallNumber());
 		}
 		
 		return overdue;
 	}
 	
+	/**
+	 * Counts the copies of several books by status with one query per
+	 * COUNT_BATCH books. The IN list always has COUNT_BATCH entries, padded by
+	 * repeating the last call number, so the statement is prepared only once.
+	 * 
+	 * @param callNumbers
+	 *            Call numbers of the books
+	 * @return For each book that has copies, the number of its copies with
+	 *         each status, such as "in", "out" or "on-hold"
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static Map<Integer, Map<String, Integer>> countByStatus(int[] callNumbers)
+			throws SQLException {
+		final Map<Integer, Map<String, Integer>> counts = new HashMap<Integer, Map<String, Integer>>();
+		if(callNumbers.length == 0) {
+			return counts;
+		}
+		
+		StringBuilder query = new StringBuilder("SELECT callNumber, status, COUNT(*) AS copies FROM BookCopy WHERE callNumber IN (");
+		for(int i = 0; i < COUNT_BATCH; i++) {
+			query.append(i == 0 ? "?" : ",?");
+		}
+		query.append(") GROUP BY callNumber, status");
+		
+		Connection con = ConnectionPool.getConnection();
+		try {
+			for(int start = 0; start < callNumbers.length; start += COUNT_BATCH) {
+				PreparedStatement ps = Sql.prepare(con, query.toString());
+				for(int i = 0; i < COUNT_BATCH; i++) {
+					ps.setInt(i + 1, callNumbers[Math.min(start + i, callNumbers.length - 1)]);
+				}
+				Sql.list(ps, new Sql.Row<Void>() {
+					public Void read(ResultSet r) throws SQLException {
+						Map<String, Integer> book = counts.get(r.getInt("callNumber"));
+						if(book == null) {
+							book = new HashMap<String, Integer>();
+							counts.put(r.getInt("callNumber"), book);
+						}
+						book.put(r.getString("status"), r.getInt("copies"));
+						return null;
+					}
+				});
+			}
+			return counts;
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+	
 	/**
 	 * Looks up all the entries in the BookCopy table and returns the corresponding
 	 * objects in a list.
@@ -210,19 +310,15 @@ public class BookCopy {
 	 *             a ResultSet object
 	 */
 	public static List<BookCopy> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM BookCopy");
-			ResultSet r = ps.executeQuery();
-			List<BookCopy> allBooks = new ArrayList<BookCopy>();
-			
-			while(r.next()) {
-				allBooks.add(parseLine(r));
-			}
-			
-			return allBooks;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM BookCopy");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -238,11 +334,69 @@ public class BookCopy {
 	 *             occurs or this method is called on a closed result set
 	 */
 	private static BookCopy parseLine(ResultSet r) throws SQLException {
-		Book callNumber = Book.get(r.getInt("callNumber"));
+		return parseLine(r, Book.get(r.getInt("callNumber")));
+	}
+	
+	/**
+	 * Reads the data from the current row in the result set and generates the
+	 * corresponding BookCopy object
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @param callNumber
+	 *            Book object this is a copy of
+	 * @return The copy represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	private static BookCopy parseLine(ResultSet r, Book callNumber)
+			throws SQLException {
 		int copyNo = r.getInt("copyNo");
 		String status = r.getString("status");
 		
-		return new BookCopy(callNumber, copyNo, status);
+		BookCopy copy = new BookCopy(callNumber, copyNo, status);
+		cache.put(key(callNumber.getCallNumber(), copyNo), copy);
+		return copy;
+	}
+
+	/**
+	 * Reads a BookCopy and its Book from the current row of a query that joins
+	 * the BookCopy and Book tables. Objects already loaded for the same keys
+	 * are reused, so rows that share a copy or book share one object.
+	 * 
+	 * @param r
+	 *            Result Set of a joined query
+	 * @return The copy referenced by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	public static BookCopy load(ResultSet r) throws SQLException {
+		Book callNumber = Book.load(r);
+		BookCopy cached = cache.get(key(callNumber.getCallNumber(), r.getInt("copyNo")));
+		return (cached != null ? cached : parseLine(r, callNumber));
+	}
+
+	/**
+	 * Builds the cache key for a copy
+	 * 
+	 * @param callNumber
+	 *            Call number of the Book this is a copy of
+	 * @param copyNo
+	 *            This book's copy number
+	 * @return Both halves of the primary key packed into one value
+	 */
+	private static Long key(int callNumber, int copyNo) {
+		return ((long) callNumber << 32) | (copyNo & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return The cache of BookCopy objects, for reading its statistics or
+	 *         changing its capacity
+	 */
+	public static EntityCache<Long, BookCopy> getCache() {
+		return cache;
 	}
 
 	/**
@@ -254,14 +408,16 @@ public class BookCopy {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM BookCopy WHERE callNumber=? AND copyNo=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM BookCopy WHERE callNumber=? AND copyNo=?");
 			ps.setInt(1, this.callNumber.getCallNumber());
 			ps.setInt(2, this.copyNo);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			
+			cache.remove(key(this.callNumber.getCallNumber(), this.copyNo));
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -272,39 +428,417 @@ public class BookCopy {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
+
+	/**
+	 * Records a change to one column of this copy in the open unit of work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "BookCopy", "callNumber=? AND copyNo=?", column, type, value, this.callNumber.getCallNumber(), this.copyNo);
+	}
 	
+	/**
+	 * Lends this copy to a borrower. The copy is only taken if it is still in,
+	 * and the borrow, the copy's status and its entry in the CurrentLoan table
+	 * are committed together.
+	 * 
+	 * @param bid
+	 *            Borrower taking out the copy
+	 * @return The new borrow record
+	 * @throws SQLException
+	 *             if the copy is not in or a database access error occurs;
+	 *             nothing is committed
+	 */
 	public Borrowing checkout(Borrower bid) throws SQLException {
-		Date outDate = DateParser.today();
-		Date dueDate = DateParser.todayPlusDays(bid.getType().getBookTimeLimit());
-		Borrowing record = Borrowing.add(bid, this, outDate, dueDate);
-		this.setStatus("out");
-		System.out.println("Copy #" + this.copyNo + " of Book with Call Number "
-				+ this.callNumber.getCallNumber() + " checked out.");
-		return record;
+		// Both from one reading of the clock, which may be simulated
+		int today = EpochDay.today();
+		Date outDate = EpochDay.toDate(today);
+		Date dueDate = EpochDay.toDate(today + bid.getType().getBookTimeLimit());
+		
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "UPDATE BookCopy SET status='out' WHERE callNumber=? AND copyNo=? AND status='in'");
+			ps.setInt(1, this.callNumber.getCallNumber());
+			ps.setInt(2, this.copyNo);
+			if(Sql.update(ps) != 1) {
+				countClaim(0, 1, 0);
+				throw new SQLException("Copy is not available.");
+			}
+			countClaim(1, 0, 0);
+			this.status = "out";
+			cache.put(key(this.callNumber.getCallNumber(), this.copyNo), this);
+			
+			Borrowing record = Borrowing.add(bid, this, outDate, dueDate);
+			
+			ps = Sql.prepare(con, "INSERT INTO CurrentLoan VALUES (?,?,?)");
+			ps.setInt(1, this.callNumber.getCallNumber());
+			ps.setInt(2, this.copyNo);
+			ps.setInt(3, record.getBorid());
+			Sql.update(ps);
+			
+			ConnectionPool.commit(con);
+			System.out.println("Copy #" + this.copyNo + " of Book with Call Number "
+					+ this.callNumber.getCallNumber() + " checked out.");
+			return record;
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
 	}
 	
-	public void doReturn() throws SQLException {
-		Borrowing record = Borrowing.getLast(this);
+	/**
+	 * Lends one available copy of each of several books to a borrower in a
+	 * single transaction. A copy held for the borrower is lent first; other
+	 * copies are claimed as described for claim(), the
+	 * borrows and their CurrentLoan entries are inserted as batches, and
+	 * everything is committed once.
+	 * 
+	 * @param bid
+	 *            Borrower taking out the books
+	 * @param callNumbers
+	 *            Call numbers of the books to lend; a book may be listed more
+	 *            than once to take out several copies
+	 * @return The new borrow records, one per call number in the same order,
+	 *         with null for each book that doesn't exist or has no copy in
+	 * @throws SQLException
+	 *             if a database access error occurs; nothing is committed
+	 */
+	public static List<Borrowing> checkout(Borrower bid, int[] callNumbers)
+			throws SQLException {
+		// Both from one reading of the clock, which may be simulated
+		int today = EpochDay.today();
+		Date outDate = EpochDay.toDate(today);
+		Date dueDate = EpochDay.toDate(today + bid.getType().getBookTimeLimit());
 		
-		int daysLate = DateParser.daysBetween(DateParser.today(), record.getInDate());
-		if(daysLate > 0) {
-			Fine.add(Fine.FEE_PER_DAY*daysLate, DateParser.today(), null, record);
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			List<BookCopy> copies = new ArrayList<BookCopy>();
+			for(int callNumber : callNumbers) {
+				Book book;
+				try {
+					book = Book.get(callNumber);
+				} catch (SQLException sql) {
+					copies.add(null);
+					continue;
+				}
+				BookCopy copy = claimHeld(con, book, bid);
+				copies.add(copy != null ? copy : claim(con, book));
+			}
+			
+			List<Borrowing> records = Borrowing.add(bid, copies, outDate, dueDate);
+			
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO CurrentLoan VALUES (?,?,?)");
+			try {
+				for(Borrowing record : records) {
+					if(record == null) {
+						continue;
+					}
+					ps.setInt(1, record.getCallNumber().callNumber.getCallNumber());
+					ps.setInt(2, record.getCallNumber().copyNo);
+					ps.setInt(3, record.getBorid());
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			Sql.batch(ps);
+			
+			ConnectionPool.commit(con);
+			return records;
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
+	}
+	
+	/**
+	 * Marks one copy of a book that's "in" as "out". Each claimer starts at a
+	 * random copy among the first few that are in, so desks lending the same
+	 * title at once spread over different copies. A copy is locked with NOWAIT
+	 * before it is updated, so a claimer never waits on a copy another desk is
+	 * in the middle of claiming; it moves on to the next one instead.
+	 * 
+	 * @param con
+	 *            Connection of the transaction the claim is part of
+	 * @param book
+	 *            Book to claim a copy of
+	 * @return The claimed copy, or null if the book has no copy in
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private static BookCopy claim(Connection con, Book book) throws SQLException {
+		int callNumber = book.getCallNumber();
 		
-		// Check for hold
-		if(this.callNumber.hasHold()) {
-			this.setStatus("on-hold");
-			int bid = this.callNumber.getHold().getBid().getBid();
-			System.out.println("Notify borrower #" + bid);
-		} else {
-			this.setStatus("in");
+		for(int round = 0; round < CLAIM_ROUNDS; round++) {
+			List<Integer> candidates = findCandidates(con, callNumber);
+			if(candidates.isEmpty()) {
+				break;
+			}
+			
+			int start = random.nextInt(candidates.size());
+			boolean busy = false;
+			for(int i = 0; i < candidates.size(); i++) {
+				int copyNo = candidates.get((start + i) % candidates.size());
+				
+				PreparedStatement ps = Sql.prepare(con, "SELECT copyNo FROM BookCopy WHERE callNumber=? AND copyNo=? AND status='in' FOR UPDATE NOWAIT");
+				ps.setInt(1, callNumber);
+				ps.setInt(2, copyNo);
+				try {
+					if(!Sql.exists(ps)) {
+						// Claimed and committed by another desk since the search
+						countClaim(0, 1, 0);
+						continue;
+					}
+				} catch (SQLException sql) {
+					if(sql.getErrorCode() != RESOURCE_BUSY) {
+						throw sql;
+					}
+					// Another desk holds it; its claim will most likely commit
+					countClaim(0, 0, 1);
+					busy = true;
+					continue;
+				}
+				
+				ps = Sql.prepare(con, "UPDATE BookCopy SET status='out' WHERE callNumber=? AND copyNo=? AND status='in'");
+				ps.setInt(1, callNumber);
+				ps.setInt(2, copyNo);
+				if(Sql.update(ps) == 1) {
+					countClaim(1, 0, 0);
+					BookCopy copy = get(book, copyNo);
+					copy.status = "out";
+					cache.put(key(callNumber, copyNo), copy);
+					return copy;
+				}
+			}
+			
+			// Search again only if more copies may be in than were looked at
+			if(!busy && candidates.size() < CLAIM_CANDIDATES) {
+				break;
+			}
+			countRetry();
+		}
+		
+		countExhausted();
+		return null;
+	}
+	
+	/**
+	 * Marks the copy of a book that is being held for a borrower as "out" and
+	 * removes it from HeldCopy.
+	 * 
+	 * @param con
+	 *            Connection of the transaction the claim is part of
+	 * @param book
+	 *            Book to claim a copy of
+	 * @param bid
+	 *            Borrower picking up the copy
+	 * @return The claimed copy, or null if no copy of the book is held for
+	 *         the borrower
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private static BookCopy claimHeld(Connection con, Book book, Borrower bid)
+			throws SQLException {
+		int callNumber = book.getCallNumber();
+		
+		PreparedStatement ps = Sql.prepare(con, "SELECT copyNo FROM HeldCopy WHERE callNumber=? AND bid=?");
+		ps.setInt(1, callNumber);
+		ps.setInt(2, bid.getBid());
+		ps.setMaxRows(1);
+		Integer copyNo = Sql.first(ps, Sql.INT);
+		if(copyNo == null) {
+			return null;
+		}
+		
+		ps = Sql.prepare(con, "DELETE FROM HeldCopy WHERE callNumber=? AND copyNo=? AND bid=?");
+		ps.setInt(1, callNumber);
+		ps.setInt(2, copyNo);
+		ps.setInt(3, bid.getBid());
+		if(Sql.update(ps) != 1) {
+			// The hold ran out in the meantime
+			return null;
+		}
+		
+		ps = Sql.prepare(con, "UPDATE BookCopy SET status='out' WHERE callNumber=? AND copyNo=?");
+		ps.setInt(1, callNumber);
+		ps.setInt(2, copyNo);
+		Sql.update(ps);
+		
+		BookCopy copy = get(book, copyNo);
+		copy.status = "out";
+		cache.put(key(callNumber, copyNo), copy);
+		return copy;
+	}
+	
+	/**
+	 * @return Copy numbers of up to CLAIM_CANDIDATES copies of a book that
+	 *         are in
+	 */
+	private static List<Integer> findCandidates(Connection con, int callNumber)
+			throws SQLException {
+		PreparedStatement ps = Sql.prepare(con, "SELECT copyNo FROM BookCopy WHERE callNumber=? AND status='in'");
+		ps.setInt(1, callNumber);
+		ps.setMaxRows(CLAIM_CANDIDATES);
+		return Sql.list(ps, Sql.INT);
+	}
+	
+	private static synchronized void countClaim(int claimed, int taken, int busy) {
+		claims += claimed;
+		conflicts += taken;
+		skipped += busy;
+	}
+	
+	private static synchronized void countRetry() {
+		retries++;
+	}
+	
+	private static synchronized void countExhausted() {
+		exhausted++;
+	}
+	
+	/**
+	 * @return A one line summary of the copy claiming counters: copies
+	 *         claimed, copies found already taken, copies skipped because
+	 *         another desk had them locked, searches repeated and claims that
+	 *         found no copy in
+	 */
+	public static synchronized String getClaimStatistics() {
+		return "Claims: " + claims + " claimed, " + conflicts + " taken, "
+				+ skipped + " skipped busy, " + retries + " retries, "
+				+ exhausted + " none in";
+	}
+	
+	/**
+	 * Takes this copy back, fining the borrower if it is late; a fine already
+	 * accrued for the borrow is brought up to date. If its book has
+	 * a hold request, the copy is held for the borrower next in line: the
+	 * request is taken out of the queue, the copy is recorded in HeldCopy and
+	 * a notification for the borrower is put in the outbox. All of it is
+	 * committed together; the notification is delivered afterwards by the
+	 * NotificationWorker.
+	 * 
+	 * @throws SQLException
+	 *             if this copy is not checked out or a database access error
+	 *             occurs; nothing is committed
+	 */
+	public void doReturn() throws SQLException {
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			Borrowing record = Borrowing.getCurrent(this);
+			
+			int today = EpochDay.today();
+			int daysLate = today - EpochDay.fromDate(record.getInDate());
+			if(daysLate > 0) {
+				Fine.accrue(Fine.FEE_PER_DAY*daysLate, EpochDay.toDate(today), record);
+			}
+			
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM CurrentLoan WHERE callNumber=? AND copyNo=?");
+			ps.setInt(1, this.callNumber.getCallNumber());
+			ps.setInt(2, this.copyNo);
+			Sql.update(ps);
+			BorrowerSnapshot.changed(record.getBid().getBid());
+			
+			// Hold the copy for the next borrower in line, if any
+			holdForNext();
+			
+			ConnectionPool.commit(con);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 		
 		System.out.print("Book returned.");
 	}
 	
+	/**
+	 * Holds this copy for the first hold request on its book that this
+	 * transaction can claim, or puts it back "in" if there is none, as part
+	 * of the current transaction. A request claimed by another transaction
+	 * first, such as the return of another copy, is passed over.
+	 * 
+	 * @return The hold request filled, or null if the copy was put back in
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	HoldRequest holdForNext() throws SQLException {
+		List<HoldRequest> line = HoldQueue.current(this.callNumber);
+		for(HoldRequest hold : line) {
+			if(hold(hold)) {
+				if(!"on-hold".equals(this.status)) {
+					this.setStatus("on-hold");
+				}
+				return hold;
+			}
+		}
+		this.setStatus("in");
+		return null;
+	}
+	
+	/**
+	 * Holds this copy for the borrower of a hold request, as part of the
+	 * current transaction. The request is claimed, the copy is recorded in
+	 * HeldCopy and the borrower's notification is put in the outbox. Once
+	 * committed, HoldExpiry starts counting down the pickup period.
+	 * 
+	 * @param hold
+	 *            The hold request being filled
+	 * @return true if the copy was held, false if the request had already
+	 *         been claimed and nothing was written
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private boolean hold(final HoldRequest hold) throws SQLException {
+		final Date today = DateParser.today();
+		
+		Connection con = ConnectionPool.getConnection();
+		try {
+			if(!hold.claim()) {
+				return false;
+			}
+			
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO HeldCopy VALUES (?,?,?,?)");
+			ps.setInt(1, this.callNumber.getCallNumber());
+			ps.setInt(2, this.copyNo);
+			ps.setInt(3, hold.getBid().getBid());
+			ps.setDate(4, today);
+			Sql.update(ps);
+			
+			Notification.add(hold.getBid(), "\"" + this.callNumber.getTitle()
+					+ "\" is being held for you at the front desk.", today);
+			
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(hold.getBid().getBid());
+			ConnectionPool.afterCommit(new Runnable() {
+				public void run() {
+					HoldExpiry.schedule(callNumber.getCallNumber(), copyNo,
+							hold.getBid().getBid(), today);
+					NotificationWorker.wake();
+				}
+			});
+			return true;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+	
 	/**
 	 * @return Book object this is a copy of
 	 */
@@ -337,18 +871,25 @@ public class BookCopy {
 	 *             ResultSet object
 	 */
 	public void setStatus(String status) throws SQLException {
+		if(defer("status", Types.VARCHAR, status)) {
+			this.status = status;
+			cache.put(key(this.callNumber.getCallNumber(), this.copyNo), this);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE BookCopy SET status=? WHERE callNumber=? AND copyNo=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE BookCopy SET status=? WHERE callNumber=? AND copyNo=?");
 			ps.setInt(2, this.callNumber.getCallNumber());
 			ps.setInt(3, this.copyNo);
 			
 			ps.setString(1, status);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.status = status;
+			cache.put(key(this.callNumber.getCallNumber(), this.copyNo), this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -359,6 +900,8 @@ public class BookCopy {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
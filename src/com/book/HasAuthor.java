@@ -8,10 +8,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
-import com.Main;
+import com.db.ConnectionPool;
+import com.db.Sql;
+import com.search.CatalogIndex;
 
 /**
  * Representation of a book having an author as described by HasAuthor in tables.sql.
@@ -19,7 +20,11 @@ import com.Main;
  * @author Kevin Petersen
  */
 public class HasAuthor {
-	private static Connection con = Main.con;  
+	private static final Sql.Row<HasAuthor> ROW = new Sql.Row<HasAuthor>() {
+		public HasAuthor read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private Book callNumber;
 	private String name;
@@ -52,17 +57,18 @@ public class HasAuthor {
 	 *             ResultSet object
 	 */
 	public static HasAuthor add(Book callNumber, String name) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO HasAuthor VALUES (?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO HasAuthor VALUES (?,?)");
 			
 			ps.setInt(1, callNumber.getCallNumber());
 			ps.setString(2, name);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			CatalogIndex.authorAdded(callNumber.getCallNumber(), name);
 			return new HasAuthor(callNumber, name);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -74,6 +80,8 @@ public class HasAuthor {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -92,22 +100,25 @@ public class HasAuthor {
 	 *             a ResultSet object
 	 */
 	public static HasAuthor get(Book callNumber, String name) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM HasAuthor WHERE callNumber=? AND name=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM HasAuthor WHERE callNumber=? AND name=?");
 			ps.setInt(1, callNumber.getCallNumber());
 			ps.setString(2, name);
 			
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			HasAuthor hasAuthor = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(hasAuthor != null) {
+				return hasAuthor;
 			} else {
 				throw new SQLException("No such Book-Author relation.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -122,19 +133,15 @@ public class HasAuthor {
 	 *             a ResultSet object
 	 */
 	public static List<HasAuthor> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM HasAuthor");
-			ResultSet r = ps.executeQuery();
-			List<HasAuthor> allAuthors = new ArrayList<HasAuthor>();
-			
-			while(r.next()) {
-				allAuthors.add(parseLine(r));
-			}
-			
-			return allAuthors;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM HasAuthor");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -165,14 +172,15 @@ public class HasAuthor {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM HasAuthor WHERE callNumber=? AND name=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM HasAuthor WHERE callNumber=? AND name=?");
 			ps.setInt(1, this.callNumber.getCallNumber());
 			ps.setString(2, this.name);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			CatalogIndex.authorRemoved(this.callNumber.getCallNumber(), this.name);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -183,6 +191,8 @@ public class HasAuthor {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -204,17 +214,19 @@ public class HasAuthor {
 	 *             ResultSet object
 	 */
 	public void setCallNumber(Book callNumber) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HasAuthor SET callNumber=? WHERE callNumber=? AND name=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HasAuthor SET callNumber=? WHERE callNumber=? AND name=?");
 			ps.setInt(2, this.callNumber.getCallNumber());
 			ps.setString(3, this.name);
 			
 			ps.setInt(1, callNumber.getCallNumber());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			CatalogIndex.authorRemoved(this.callNumber.getCallNumber(), this.name);
+			CatalogIndex.authorAdded(callNumber.getCallNumber(), this.name);
 			this.callNumber = callNumber;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -226,6 +238,8 @@ public class HasAuthor {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -247,17 +261,19 @@ public class HasAuthor {
 	 *             ResultSet object
 	 */
 	public void setName(String name) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HasAuthor SET name=? WHERE callNumber=? AND name=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HasAuthor SET name=? WHERE callNumber=? AND name=?");
 			ps.setInt(2, this.callNumber.getCallNumber());
 			ps.setString(3, this.name);
 			
 			ps.setString(1, name);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			CatalogIndex.authorRemoved(this.callNumber.getCallNumber(), this.name);
+			CatalogIndex.authorAdded(this.callNumber.getCallNumber(), name);
 			this.name = name;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -269,6 +285,8 @@ public class HasAuthor {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
@@ -8,10 +8,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
-import com.Main;
+import com.db.ConnectionPool;
+import com.db.Sql;
+import com.search.CatalogIndex;
 
 /**
  * Representation of a book having a subject as described by HasSubject in tables.sql.
@@ -19,7 +20,11 @@ import com.Main;
  * @author Kevin Petersen
  */
 public class HasSubject {
-	private static Connection con = Main.con;  
+	private static final Sql.Row<HasSubject> ROW = new Sql.Row<HasSubject>() {
+		public HasSubject read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private Book callNumber;
 	private String subject;
@@ -52,17 +57,18 @@ public class HasSubject {
 	 *             ResultSet object
 	 */
 	public static HasSubject add(Book callNumber, String subject) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO HasSubject VALUES (?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO HasSubject VALUES (?,?)");
 			
 			ps.setInt(1, callNumber.getCallNumber());
 			ps.setString(2, subject);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			CatalogIndex.subjectAdded(callNumber.getCallNumber(), subject);
 			return new HasSubject(callNumber, subject);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -74,6 +80,8 @@ public class HasSubject {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -92,22 +100,25 @@ public class HasSubject {
 	 *             a ResultSet object
 	 */
 	public static HasSubject get(Book callNumber, String subject) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM HasSubject WHERE callNumber=? AND subject=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM HasSubject WHERE callNumber=? AND subject=?");
 			ps.setInt(1, callNumber.getCallNumber());
 			ps.setString(2, subject);
 			
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			HasSubject hasSubject = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(hasSubject != null) {
+				return hasSubject;
 			} else {
 				throw new SQLException("No such Book-Subject relation.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -122,19 +133,15 @@ public class HasSubject {
 	 *             a ResultSet object
 	 */
 	public static List<HasSubject> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM HasSubject");
-			ResultSet r = ps.executeQuery();
-			List<HasSubject> allSubjects = new ArrayList<HasSubject>();
-			
-			while(r.next()) {
-				allSubjects.add(parseLine(r));
-			}
-			
-			return allSubjects;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM HasSubject");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -165,14 +172,15 @@ public class HasSubject {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM HasSubject WHERE callNumber=? AND subject=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM HasSubject WHERE callNumber=? AND subject=?");
 			ps.setInt(1, this.callNumber.getCallNumber());
 			ps.setString(2, this.subject);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			CatalogIndex.subjectRemoved(this.callNumber.getCallNumber(), this.subject);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -183,6 +191,8 @@ public class HasSubject {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -204,17 +214,19 @@ public class HasSubject {
 	 *             ResultSet object
 	 */
 	public void setCallNumber(Book callNumber) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HasSubject SET callNumber=? WHERE callNumber=? AND subject=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HasSubject SET callNumber=? WHERE callNumber=? AND subject=?");
 			ps.setInt(2, this.callNumber.getCallNumber());
 			ps.setString(3, this.subject);
 			
 			ps.setInt(1, callNumber.getCallNumber());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			CatalogIndex.subjectRemoved(this.callNumber.getCallNumber(), this.subject);
+			CatalogIndex.subjectAdded(callNumber.getCallNumber(), this.subject);
 			this.callNumber = callNumber;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -226,6 +238,8 @@ public class HasSubject {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -247,17 +261,19 @@ public class HasSubject {
 	 *             ResultSet object
 	 */
 	public void setName(String subject) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HasSubject SET subject=? WHERE callNumber=? AND subject=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HasSubject SET subject=? WHERE callNumber=? AND subject=?");
 			ps.setInt(2, this.callNumber.getCallNumber());
 			ps.setString(3, this.subject);
 			
 			ps.setString(1, subject);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			CatalogIndex.subjectRemoved(this.callNumber.getCallNumber(), this.subject);
+			CatalogIndex.subjectAdded(this.callNumber.getCallNumber(), subject);
 			this.subject = subject;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -269,6 +285,8 @@ public class HasSubject {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
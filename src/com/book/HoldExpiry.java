@@ -0,0 +1,314 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.borrower.Borrower;
+import com.date.DateParser;
+import com.date.EpochDay;
+import com.db.ConnectionPool;
+import com.db.Sql;
+import com.notify.Notification;
+import com.notify.NotificationWorker;
+import com.policy.BorrowerSnapshot;
+
+/**
+ * Background thread that ends the holds on copies nobody picked up. A copy in
+ * HeldCopy is kept for its borrower for PICKUP_DAYS days; after that it goes
+ * to the next hold request on its book, or back on the shelf if there is
+ * none.
+ *
+ * Pickup deadlines are kept in a hashed timing wheel with one slot per day.
+ * A hold is put in the slot of the day it runs out, so each day only that
+ * slot is looked at instead of the whole HeldCopy table; holds further away
+ * than one turn of the wheel stay in their slot until their day comes round.
+ * Copies that were picked up are not taken out of the wheel: when their day
+ * comes, their HeldCopy entry is gone and they are skipped. Expired holds are
+ * handled BATCH_SIZE per transaction. The wheel is filled from HeldCopy when
+ * the thread starts.
+ *
+ * @author Kevin Petersen
+ */
+public class HoldExpiry implements Runnable {
+	public static final int PICKUP_DAYS = 7;
+	public static final int BATCH_SIZE = 50;
+
+	// Number of days one turn of the wheel covers; a power of two
+	private static final int SLOTS = 64;
+	private static final long CHECK_INTERVAL = 60 * 60 * 1000;
+
+	private static final Sql.Row<Entry> ROW = new Sql.Row<Entry>() {
+		public Entry read(ResultSet r) throws SQLException {
+			return new Entry(r.getInt("callNumber"), r.getInt("copyNo"),
+					r.getInt("bid"), r.getDate("heldDate"));
+		}
+	};
+
+	private static final List<List<Entry>> wheel = new ArrayList<List<Entry>>();
+	// Last day whose slot has been handled
+	private static long now = EpochDay.today() - 1;
+	private static int size = 0;
+	private static HoldExpiry worker;
+
+	private static long expired = 0;
+	private static long passedOn = 0;
+	private static long shelved = 0;
+	private static long failures = 0;
+
+	static {
+		for(int i = 0; i < SLOTS; i++) {
+			wheel.add(new ArrayList<Entry>());
+		}
+	}
+
+	private boolean running = true;
+
+	/**
+	 * A copy held for a borrower, and the first day it is no longer held
+	 */
+	private static class Entry {
+		private int callNumber;
+		private int copyNo;
+		private int bid;
+		private Date heldDate;
+		private long expiresOn;
+
+		private Entry(int callNumber, int copyNo, int bid, Date heldDate) {
+			this.callNumber = callNumber;
+			this.copyNo = copyNo;
+			this.bid = bid;
+			this.heldDate = heldDate;
+			this.expiresOn = day(heldDate) + PICKUP_DAYS + 1;
+		}
+	}
+
+	private HoldExpiry() {
+	}
+
+	/**
+	 * Starts the thread, stopping the one already running. The wheel is
+	 * filled from the HeldCopy table on the new thread, and holds that ran
+	 * out while the program was not running are handled straight away.
+	 */
+	public static synchronized void start() {
+		stop();
+		worker = new HoldExpiry();
+		Thread thread = new Thread(worker, "HoldExpiry");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the thread after the batch it is handling, if any
+	 */
+	public static synchronized void stop() {
+		if(worker == null) {
+			return;
+		}
+
+		synchronized(worker) {
+			worker.running = false;
+			worker.notify();
+		}
+		worker = null;
+	}
+
+	/**
+	 * Starts the pickup period of a copy that has just been held for a
+	 * borrower
+	 *
+	 * @param callNumber
+	 *            Book the copy is of
+	 * @param copyNo
+	 *            Copy number of the copy
+	 * @param bid
+	 *            Borrower the copy is held for
+	 * @param heldDate
+	 *            Date the copy was held, as recorded in HeldCopy
+	 */
+	static void schedule(int callNumber, int copyNo, int bid, Date heldDate) {
+		add(new Entry(callNumber, copyNo, bid, heldDate));
+	}
+
+	private static synchronized void add(Entry e) {
+		// Already due: handle it with the next day looked at
+		long day = Math.max(e.expiresOn, now + 1);
+		wheel.get((int) (day & (SLOTS - 1))).add(e);
+		size++;
+	}
+
+	/**
+	 * Takes the holds that have run out by a day out of the wheel
+	 *
+	 * @param today
+	 *            The day to move the wheel up to
+	 * @return The holds that ran out
+	 */
+	private static synchronized List<Entry> advance(long today) {
+		List<Entry> due = new ArrayList<Entry>();
+		// Each slot only needs looking at once, however many days have passed
+		long days = Math.min(today - now, SLOTS);
+		for(long d = today - days + 1; d <= today; d++) {
+			Iterator<Entry> i = wheel.get((int) (d & (SLOTS - 1))).iterator();
+			while(i.hasNext()) {
+				Entry e = i.next();
+				if(e.expiresOn <= today) {
+					i.remove();
+					due.add(e);
+				}
+			}
+		}
+		size -= due.size();
+		now = Math.max(now, today);
+		return due;
+	}
+
+	public void run() {
+		try {
+			rebuild();
+		} catch (SQLException sql) {
+			countFailure();
+		}
+
+		while(true) {
+			synchronized(this) {
+				if(!this.running) {
+					return;
+				}
+			}
+
+			List<Entry> due = advance(EpochDay.today());
+			for(int i = 0; i < due.size(); i += BATCH_SIZE) {
+				expire(due.subList(i, Math.min(due.size(), i + BATCH_SIZE)));
+			}
+
+			synchronized(this) {
+				if(this.running) {
+					try {
+						wait(EpochDay.getClock().realMillis(CHECK_INTERVAL));
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the wheel with the copies currently in HeldCopy
+	 */
+	private static void rebuild() throws SQLException {
+		List<Entry> held;
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM HeldCopy");
+			ps.setFetchSize(BATCH_SIZE);
+			held = Sql.list(ps, ROW);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		// A hold already in the wheel may be added again; the second entry
+		// finds its HeldCopy entry gone and is skipped
+		for(Entry e : held) {
+			add(e);
+		}
+	}
+
+	/**
+	 * Ends a batch of holds in one transaction. Each copy still in HeldCopy is
+	 * held for the next hold request on its book, or put back "in". If the
+	 * transaction fails, the holds are put back in the wheel to be tried with
+	 * the next day.
+	 */
+	private static void expire(List<Entry> batch) {
+		int moved = 0;
+		int in = 0;
+		int ended = 0;
+
+		try {
+			Connection con = ConnectionPool.beginTransaction();
+			try {
+				for(Entry e : batch) {
+					PreparedStatement ps = Sql.prepare(con, "DELETE FROM HeldCopy WHERE callNumber=? AND copyNo=? AND bid=? AND heldDate<?");
+					ps.setInt(1, e.callNumber);
+					ps.setInt(2, e.copyNo);
+					ps.setInt(3, e.bid);
+					ps.setDate(4, DateParser.todayPlusDays(-PICKUP_DAYS));
+					if(Sql.update(ps) != 1) {
+						// Picked up, or held again since
+						continue;
+					}
+					ended++;
+					BorrowerSnapshot.changed(e.bid);
+
+					Book book = Book.get(e.callNumber);
+					BookCopy copy = BookCopy.get(book, e.copyNo);
+					Notification.add(Borrower.get(e.bid), "Your hold on \""
+							+ book.getTitle() + "\" has expired.", DateParser.today());
+
+					// Holds already filled in this batch are still in the
+					// queue until it commits, but can no longer be claimed
+					if(copy.holdForNext() != null) {
+						moved++;
+					} else {
+						in++;
+					}
+				}
+
+				ConnectionPool.commit(con);
+			} finally {
+				ConnectionPool.release(con);
+			}
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			countFailure();
+			for(Entry e : batch) {
+				add(e);
+			}
+			return;
+		}
+
+		countExpired(ended, moved, in);
+		NotificationWorker.wake();
+	}
+
+	/**
+	 * @return Number of days from the epoch to a date, in the local time zone
+	 */
+	private static long day(Date date) {
+		return EpochDay.fromDate(date);
+	}
+
+	private static synchronized void countExpired(int ended, int moved, int in) {
+		expired += ended;
+		passedOn += moved;
+		shelved += in;
+	}
+
+	private static synchronized void countFailure() {
+		failures++;
+	}
+
+	/**
+	 * @return A one line summary of the hold expiry counters
+	 */
+	public static synchronized String getStatistics() {
+		return "Hold expiry: " + size + " copies held, " + expired + " expired, "
+				+ passedOn + " passed to the next hold, " + shelved
+				+ " put back in, " + failures + " failed attempts";
+	}
+}
@@ -0,0 +1,123 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.borrower.Borrower;
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * What a borrower owes and has out: the balance of their unpaid fines, the
+ * fines themselves and their current loans. The fines and loans are read
+ * together in one query, and the balance is the total of the fines read.
+ * The FineLedger is reconciled with them, so it sees fines charged or paid by
+ * other processes.
+ *
+ * @author Kevin Petersen
+ */
+public class AccountStatus {
+	private static final String FINE = "F";
+	private static final String LOAN = "L";
+
+	private Borrower bid;
+	private long balance;
+	private List<Fine> fines = new ArrayList<Fine>();
+	private List<Borrowing> loans = new ArrayList<Borrowing>();
+
+	private AccountStatus(Borrower bid) {
+		this.bid = bid;
+	}
+
+	/**
+	 * Looks up the unpaid fines and current loans of a borrower
+	 *
+	 * @param bid
+	 *            The borrower
+	 * @return The borrower's account, with fines oldest first and loans in
+	 *         due date order
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static AccountStatus get(Borrower bid) throws SQLException {
+		final AccountStatus status = new AccountStatus(bid);
+		long since = FineLedger.getChanges();
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT '" + FINE + "' kind, "
+					+ "f.fid, f.amount, f.issuedDate, f.paidDate, " + Borrowing.COLUMNS
+					+ " FROM Fine f JOIN Borrowing bo ON bo.borid = f.borid "
+					+ Borrowing.REFERENCES + " WHERE bo.bid=? AND f.paidDate IS NULL"
+					+ " UNION ALL SELECT '" + LOAN + "', NULL, NULL, NULL, NULL, "
+					+ Borrowing.COLUMNS + " FROM " + Borrowing.CURRENT
+					+ " WHERE bo.bid=? ORDER BY kind, issuedDate, inDate");
+			ps.setInt(1, bid.getBid());
+			ps.setInt(2, bid.getBid());
+			final Map<Integer, Borrowing> borrowings = new HashMap<Integer, Borrowing>();
+
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					Borrowing borid = Borrowing.parseJoined(r, borrowings);
+					if(FINE.equals(r.getString("kind"))) {
+						status.fines.add(Fine.parseLine(r, borid));
+					} else {
+						status.loans.add(borid);
+					}
+					return null;
+				}
+			});
+			
+			for(Fine fine : status.fines) {
+				status.balance += FineLedger.toCents(fine.getAmount());
+			}
+			FineLedger.reconcile(bid.getBid(), status.fines, since);
+			return status;
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * @return The borrower
+	 */
+	public Borrower getBid() {
+		return this.bid;
+	}
+
+	/**
+	 * @return Total of the borrower's unpaid fines in cents
+	 */
+	public long getBalance() {
+		return this.balance;
+	}
+
+	/**
+	 * @return The borrower's unpaid fines, oldest first
+	 */
+	public List<Fine> getFines() {
+		return this.fines;
+	}
+
+	/**
+	 * @return The borrower's current loans, in due date order
+	 */
+	public List<Borrowing> getLoans() {
+		return this.loans;
+	}
+}
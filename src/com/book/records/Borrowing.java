@@ -9,14 +9,23 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import com.Main;
 import com.book.Book;
 import com.book.BookCopy;
 import com.borrower.Borrower;
 import com.date.DateParser;
+import com.db.ConnectionPool;
+import com.db.KeyGenerator;
+import com.db.Sql;
+import com.db.UnitOfWork;
+import com.policy.BorrowerSnapshot;
 
 /**
  * Representation of a borrow as described by Borrowing in tables.sql.
@@ -24,7 +33,71 @@ import com.date.DateParser;
  * @author Kevin Petersen
  */
 public class Borrowing {
-	private static Connection con = Main.con;  
+	private static final KeyGenerator keys = new KeyGenerator("Borrowing",
+			"SELECT MAX(borid) FROM Borrowing", KeyGenerator.DEFAULT_BLOCK_SIZE);
+	
+	/**
+	 * Columns of a Borrower and its BorrowerType, aliased b and t
+	 */
+	static final String BORROWER_COLUMNS = "b.bid, b.password, b.name, "
+			+ "b.address, b.phone, b.emailAddress, b.sinOrStNo, b.expiryDate, "
+			+ "b.type, t.bookTimeLimit";
+	
+	/**
+	 * Columns of a BookCopy and its Book, aliased c and k
+	 */
+	static final String COPY_COLUMNS = "c.callNumber, c.copyNo, c.status, "
+			+ "k.isbn, k.title, k.mainAuthor, k.publisher, k.year";
+	
+	/**
+	 * Columns read by parseJoined(), for a query over JOINS
+	 */
+	static final String COLUMNS = "bo.borid, bo.outDate, bo.inDate, "
+			+ BORROWER_COLUMNS + ", " + COPY_COLUMNS;
+	
+	/**
+	 * Joins from Borrowing, aliased bo, to everything it references
+	 */
+	static final String REFERENCES = "JOIN Borrower b ON b.bid = bo.bid "
+			+ "JOIN BorrowerType t ON t.type = b.type "
+			+ "JOIN BookCopy c ON c.callNumber = bo.callNumber AND c.copyNo = bo.copyNo "
+			+ "JOIN Book k ON k.callNumber = c.callNumber";
+	
+	/**
+	 * Borrowing, aliased bo, joined with everything it references
+	 */
+	static final String JOINS = "Borrowing bo " + REFERENCES;
+	
+	/**
+	 * The open borrow of each checked out copy, aliased l, joined with its
+	 * Borrowing and everything the Borrowing references
+	 */
+	static final String CURRENT = "CurrentLoan l JOIN Borrowing bo ON bo.borid = l.borid "
+			+ REFERENCES;
+	
+	/**
+	 * Moves the due date of a borrow that is still out and still due when it
+	 * was read
+	 */
+	private static final String RENEW = "UPDATE Borrowing SET inDate=? WHERE borid=? AND inDate=? "
+			+ "AND borid IN (SELECT borid FROM CurrentLoan)";
+	
+	/**
+	 * Number of rows fetched per round trip by the large list queries
+	 */
+	private static final int FETCH_SIZE = 100;
+	
+	private static final Sql.Row<Borrowing> ROW = new Sql.Row<Borrowing>() {
+		public Borrowing read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
+	
+	private static final Sql.Row<Borrowing> JOINED = new Sql.Row<Borrowing>() {
+		public Borrowing read(ResultSet r) throws SQLException {
+			return parseJoined(r);
+		}
+	};
 	
 	private int borid;
 	private Borrower bid;
@@ -76,8 +149,9 @@ public class Borrowing {
 			Date outDate, Date inDate) throws SQLException {
 		int borid = generateKey();
 		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO Borrowing VALUES (?,?,?,?,?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO Borrowing VALUES (?,?,?,?,?,?)");
 			
 			ps.setInt(1, borid);
 			ps.setInt(2, bid.getBid());
@@ -87,11 +161,15 @@ public class Borrowing {
 			ps.setDate(6, inDate);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
-			return new Borrowing(borid, bid, callNumber, outDate, inDate);
+			Borrowing record = new Borrowing(borid, bid, callNumber, outDate, inDate);
+			Popularity.borrowed(record);
+			Trending.borrowed(record);
+			Recommender.borrowed(record);
+			BorrowerSnapshot.changed(bid.getBid());
+			return record;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -102,30 +180,99 @@ public class Borrowing {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
 	/**
-	 * Generates a new key for an entry in the Borrower table
+	 * Add a borrow record to the Borrowing table for each of several copies,
+	 * sending the inserts as one batch.
 	 * 
-	 * @return An unused unique key for this table
+	 * @param bid
+	 *            Borrower that borrowed the books
+	 * @param copies
+	 *            Books that were borrowed; null entries are skipped
+	 * @param outDate
+	 *            Date borrowed
+	 * @param inDate
+	 *            Date returned
+	 * @return Objects representing the newly created entries, in the order of
+	 *         copies, with null wherever copies has null
 	 * @throws SQLException
 	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             closed PreparedStatement or the SQL statement returns a
+	 *             ResultSet object
 	 */
-	private static int generateKey() throws SQLException {
+	public static List<Borrowing> add(Borrower bid, List<BookCopy> copies,
+			Date outDate, Date inDate) throws SQLException {
+		List<Borrowing> records = new ArrayList<Borrowing>();
+		for(BookCopy callNumber : copies) {
+			records.add(callNumber == null ? null
+					: new Borrowing(generateKey(), bid, callNumber, outDate, inDate));
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(borid) as maxBorid FROM Borrowing");
-			ResultSet r = ps.executeQuery();
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO Borrowing VALUES (?,?,?,?,?,?)");
+			
+			try {
+				for(Borrowing record : records) {
+					if(record == null) {
+						continue;
+					}
+					ps.setInt(1, record.borid);
+					ps.setInt(2, bid.getBid());
+					ps.setInt(3, record.callNumber.getCallNumber().getCallNumber());
+					ps.setInt(4, record.callNumber.getCopyNo());
+					ps.setDate(5, outDate);
+					ps.setDate(6, inDate);
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			
+			// All inputs are OK
+			Sql.batch(ps);
+			ConnectionPool.commit(con);
 			
-			return (r.next() ? r.getInt("maxBorid") + 1 : 1);
+			for(Borrowing record : records) {
+				if(record != null) {
+					Popularity.borrowed(record);
+					Trending.borrowed(record);
+					Recommender.borrowed(record);
+				}
+			}
+			BorrowerSnapshot.changed(bid.getBid());
+			return records;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
+			try {
+				// Undo
+				con.rollback();
+			} catch (SQLException sql2) {
+				System.out.println("Message: " + sql2.getMessage());
+				System.exit(-1);
+			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
+	/**
+	 * Generates a new key for an entry in the Borrowing table
+	 * 
+	 * @return An unused unique key for this table
+	 * @throws SQLException
+	 *             if a new block of keys could not be reserved
+	 */
+	private static int generateKey() throws SQLException {
+		return keys.nextKey();
+	}
+	
 	/**
 	 * Looks up the entry for the given key in the Borrowing table and returns
 	 * the corresponding object.
@@ -139,66 +286,99 @@ public class Borrowing {
 	 *             a ResultSet object
 	 */
 	public static Borrowing get(int borid) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Borrowing WHERE borid=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Borrowing WHERE borid=?");
 			ps.setInt(1, borid);
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			Borrowing borrowing = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(borrowing != null) {
+				return borrowing;
 			} else {
 				throw new SQLException("No such Borrow record.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
 	/**
-	 * Looks up the entry for the given key in the Borrowing table and returns
-	 * the corresponding object.
+	 * Looks up the open borrow of a copy that is checked out, by its entry in
+	 * the CurrentLoan table.
 	 * 
-	 * @param borid
-	 *            The primary key used to look up the entry
-	 * @return A Borrowing object representing the entry with the given key
+	 * @param callNumber
+	 *            The copy that is checked out
+	 * @return A Borrowing object representing the open borrow of the copy
 	 * @throws SQLException
-	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             if the copy is not checked out; if a database access error
+	 *             occurs; this method is called on a closed PreparedStatement
+	 *             or the SQL statement does not return a ResultSet object
 	 */
-	public static Borrowing getLast(BookCopy callNumber) throws SQLException {
-		Date recent;
-		int borid;
-		
+	public static Borrowing getCurrent(final BookCopy callNumber) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(outDate) as recent FROM Borrowing WHERE callNumber=? AND copyNo=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT bo.* FROM CurrentLoan l JOIN Borrowing bo ON bo.borid = l.borid WHERE l.callNumber=? AND l.copyNo=?");
 			ps.setInt(1, callNumber.getCallNumber().getCallNumber());
 			ps.setInt(2, callNumber.getCopyNo());
-			ResultSet r = ps.executeQuery();
-			if(r.next()) {
-				recent = r.getDate("recent");
+			Borrowing borid = Sql.first(ps, new Sql.Row<Borrowing>() {
+				public Borrowing read(ResultSet r) throws SQLException {
+					return parseLine(r, callNumber);
+				}
+			});
+			
+			if(borid != null) {
+				return borid;
 			} else {
-				throw new SQLException("No such Borrow record.");
+				throw new SQLException("Copy is not checked out.");
 			}
-			
-			ps = con.prepareStatement("SELECT borid FROM Borrowing WHERE callNumber=? AND copyNo=? AND outDate=?");
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Looks up the most recent borrow of a copy, whether or not it has been
+	 * returned. Of two borrows made on the same day, the later one wins.
+	 * 
+	 * @param callNumber
+	 *            The copy that was borrowed
+	 * @return A Borrowing object representing the last borrow of the copy
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static Borrowing getLast(final BookCopy callNumber) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Borrowing WHERE callNumber=? AND copyNo=? ORDER BY outDate DESC, borid DESC");
 			ps.setInt(1, callNumber.getCallNumber().getCallNumber());
 			ps.setInt(2, callNumber.getCopyNo());
-			ps.setDate(3, recent);
-			r = ps.executeQuery();
-			if(r.next()) {
-				borid = r.getInt("borid");
+			ps.setMaxRows(1);
+			Borrowing borid = Sql.first(ps, new Sql.Row<Borrowing>() {
+				public Borrowing read(ResultSet r) throws SQLException {
+					return parseLine(r, callNumber);
+				}
+			});
+			
+			if(borid != null) {
+				return borid;
 			} else {
 				throw new SQLException("No such Borrow record.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
-		
-		return Borrowing.get(borid);
 	}
 	
 	/**
@@ -212,38 +392,103 @@ public class Borrowing {
 	 *             a ResultSet object
 	 */
 	public static List<Borrowing> getCheckedOut() throws SQLException {
-		List<BookCopy> outBooks = BookCopy.getCheckedOut();
-		List<Borrowing> records = new ArrayList<Borrowing>();
-		
-		for(BookCopy b : outBooks) {
-			records.add(getLast(b));
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT " + COLUMNS + " FROM " + CURRENT
+					+ " ORDER BY c.callNumber, c.copyNo");
+			ps.setFetchSize(FETCH_SIZE);
+			return Sql.list(ps, JOINED);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
-		
-		return records;
 	}
 
 	/**
-	 * Looks up all the entries in the Borrowing table and returns the corresponding
-	 * objects in a list.
+	 * Looks up the open borrows of a borrower, soonest due date first.
 	 * 
-	 * @return A List of Borrowing objects representing the entries of the Borrowing table
+	 * @param bid
+	 *            The borrower
+	 * @return A List of Borrowing objects for the borrower's current loans
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static List<Borrowing> getCheckedOut(Borrower bid) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT " + COLUMNS + " FROM " + CURRENT
+					+ " WHERE bo.bid=? ORDER BY bo.inDate, c.callNumber, c.copyNo");
+			ps.setInt(1, bid.getBid());
+			ps.setFetchSize(FETCH_SIZE);
+			return Sql.list(ps, JOINED);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Looks up the open borrows whose due date has passed, oldest due date
+	 * first.
+	 * 
+	 * @return A List of Borrowing objects for overdue copies, in due date order
 	 * @throws SQLException
 	 *             if a database access error occurs; this method is called on a
 	 *             closed PreparedStatement or the SQL statement does not return
 	 *             a ResultSet object
 	 */
 	public static List<Borrowing> getOverdue() throws SQLException {
-		List<BookCopy> outBooks = BookCopy.getCheckedOut();
-		List<Borrowing> overdue = new ArrayList<Borrowing>();
+		return getOverdue(0, 0);
+	}
+
+	/**
+	 * Looks up one page of the open borrows whose due date has passed, in a
+	 * single query. Borrows are ordered by due date, oldest first, then by
+	 * call number and copy number, so consecutive pages don't overlap.
+	 * 
+	 * @param first
+	 *            Number of overdue borrows to skip
+	 * @param max
+	 *            Largest number of borrows to return, or 0 for all of them
+	 * @return A List of Borrowing objects for overdue copies, in due date order
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static List<Borrowing> getOverdue(int first, int max)
+			throws SQLException {
+		String query = "SELECT " + COLUMNS + " FROM " + CURRENT
+				+ " WHERE bo.inDate < ?"
+				+ " ORDER BY bo.inDate, c.callNumber, c.copyNo";
+		if(max > 0) {
+			// Oracle numbers rows as they are returned, so page around ROWNUM
+			query = "SELECT * FROM (SELECT q.*, ROWNUM rn FROM (" + query
+					+ ") q WHERE ROWNUM <= ?) WHERE rn > ?";
+		}
 		
-		for(BookCopy b : outBooks) {
-			Borrowing borid = getLast(b);
-			if(DateParser.today().after(borid.getInDate())) {
-				overdue.add(borid);
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, query);
+			ps.setDate(1, DateParser.today());
+			if(max > 0) {
+				ps.setInt(2, first + max);
+				ps.setInt(3, first);
 			}
+			ps.setFetchSize(FETCH_SIZE);
+			return Sql.list(ps, JOINED);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
-		
-		return overdue;
 	}
 
 	/**
@@ -257,19 +502,15 @@ public class Borrowing {
 	 *             a ResultSet object
 	 */
 	public static List<Borrowing> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Borrowing");
-			ResultSet r = ps.executeQuery();
-			List<Borrowing> allBorrowings = new ArrayList<Borrowing>();
-			
-			while(r.next()) {
-				allBorrowings.add(parseLine(r));
-			}
-			
-			return allBorrowings;
+			PreparedStatement ps = Sql.prepare(con, "SELECT " + COLUMNS + " FROM " + JOINS);
+			return Sql.list(ps, JOINED);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -285,11 +526,50 @@ public class Borrowing {
 	 *             occurs or this method is called on a closed result set
 	 */
 	private static Borrowing parseLine(ResultSet r) throws SQLException {
+		Book b = Book.get(r.getInt("callNumber"));
+		return parseLine(r, BookCopy.get(b, r.getInt("copyNo")));
+	}
+
+	/**
+	 * Reads the data from the current row in the result set and generates the
+	 * corresponding Borrowing object
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @param callNumber
+	 *            Book that was borrowed
+	 * @return The borrow represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	private static Borrowing parseLine(ResultSet r, BookCopy callNumber)
+			throws SQLException {
 		int borid = r.getInt("borid");
 		Borrower bid = Borrower.get(r.getInt("bid"));
 		
-		Book b = Book.get(r.getInt("callNumber"));
-		BookCopy callNumber = BookCopy.get(b, r.getInt("copyNo"));
+		Date outDate = r.getDate("outDate");
+		Date inDate = r.getDate("inDate");
+		
+		return new Borrowing(borid, bid, callNumber, outDate, inDate);
+	}
+
+	/**
+	 * Reads a Borrowing, its Borrower and its BookCopy from the current row of
+	 * a query selecting COLUMNS from JOINS. Borrowers, types, copies and books
+	 * already loaded are reused rather than looked up again.
+	 * 
+	 * @param r
+	 *            Result Set of a joined query
+	 * @return The borrow represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	static Borrowing parseJoined(ResultSet r) throws SQLException {
+		int borid = r.getInt("borid");
+		Borrower bid = Borrower.load(r);
+		BookCopy callNumber = BookCopy.load(r);
 		
 		Date outDate = r.getDate("outDate");
 		Date inDate = r.getDate("inDate");
@@ -297,6 +577,170 @@ public class Borrowing {
 		return new Borrowing(borid, bid, callNumber, outDate, inDate);
 	}
 
+	/**
+	 * Same as parseJoined(), but returns the Borrowing already in loaded if
+	 * the current row repeats a borrow
+	 * 
+	 * @param r
+	 *            Result Set of a joined query
+	 * @param loaded
+	 *            Borrows read so far from this result set, by borid
+	 * @return The borrow represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	static Borrowing parseJoined(ResultSet r, Map<Integer, Borrowing> loaded)
+			throws SQLException {
+		Borrowing borid = loaded.get(r.getInt("borid"));
+		if(borid == null) {
+			borid = parseJoined(r);
+			loaded.put(borid.getBorid(), borid);
+		}
+		return borid;
+	}
+
+	/**
+	 * Renews every loan of a borrower that may be renewed, as described for
+	 * renew(), in one transaction. The new due dates are written as one batch.
+	 * A loan returned or renewed by someone else in the meantime is not
+	 * changed by the batch, and is left out.
+	 * 
+	 * @param bid
+	 *            The borrower
+	 * @return The loans renewed, each with its new due date as its inDate;
+	 *         loans that may not be renewed are left out
+	 * @throws SQLException
+	 *             if a database access error occurs; nothing is committed
+	 */
+	public static List<Borrowing> renew(Borrower bid) throws SQLException {
+		Date dueDate = DateParser.todayPlusDays(bid.getType().getBookTimeLimit());
+		List<Borrowing> renewed = new ArrayList<Borrowing>();
+		
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			for(Borrowing loan : getCheckedOut(bid)) {
+				if(loan.whyNotRenewable(dueDate) == null) {
+					renewed.add(loan);
+				}
+			}
+			if(renewed.isEmpty()) {
+				return renewed;
+			}
+			
+			PreparedStatement ps = Sql.prepare(con, RENEW);
+			try {
+				for(Borrowing loan : renewed) {
+					ps.setDate(1, dueDate);
+					ps.setInt(2, loan.borid);
+					ps.setDate(3, loan.inDate);
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			int[] counts = Sql.batch(ps);
+			
+			List<Borrowing> done = new ArrayList<Borrowing>();
+			Set<Integer> dueThen = null;
+			for(int i = 0; i < renewed.size(); i++) {
+				Borrowing loan = renewed.get(i);
+				if(counts[i] == Statement.SUCCESS_NO_INFO && dueThen == null) {
+					// The driver did not say which rows changed; read back
+					// the loans now due on the new date
+					dueThen = new HashSet<Integer>();
+					for(Borrowing current : getCheckedOut(bid)) {
+						if(current.inDate.equals(dueDate)) {
+							dueThen.add(current.borid);
+						}
+					}
+				}
+				if(counts[i] == 1 || (counts[i] == Statement.SUCCESS_NO_INFO
+						&& dueThen.contains(loan.borid))) {
+					done.add(loan);
+				}
+			}
+			
+			ConnectionPool.commit(con);
+			for(Borrowing loan : done) {
+				loan.inDate = dueDate;
+			}
+			return done;
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+	
+	/**
+	 * Renews this loan: it becomes due bookTimeLimit days from today, as if
+	 * the book were checked out again. A loan may not be renewed once it is
+	 * overdue, or while anyone has a hold request on its book.
+	 * 
+	 * @return The new due date
+	 * @throws SQLException
+	 *             if the loan may not be renewed or a database access error
+	 *             occurs
+	 */
+	public Date renew() throws SQLException {
+		Date dueDate = DateParser.todayPlusDays(this.bid.getType().getBookTimeLimit());
+		String reason = whyNotRenewable(dueDate);
+		if(reason != null) {
+			throw new SQLException(reason);
+		}
+		
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, RENEW);
+			ps.setDate(1, dueDate);
+			ps.setInt(2, this.borid);
+			ps.setDate(3, this.inDate);
+			if(Sql.update(ps) != 1) {
+				throw new SQLException("Loan has been returned or changed.");
+			}
+			ConnectionPool.commit(con);
+			
+			this.inDate = dueDate;
+			return dueDate;
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			try {
+				// Undo
+				con.rollback();
+			} catch (SQLException sql2) {
+				System.out.println("Message: " + sql2.getMessage());
+				System.exit(-1);
+			}
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+	
+	/**
+	 * @param dueDate
+	 *            Due date the loan would be renewed to
+	 * @return Why this loan may not be renewed, or null if it may
+	 * @throws SQLException
+	 *             if a database access error occurs while the hold queue of
+	 *             the book is read again
+	 */
+	private String whyNotRenewable(Date dueDate) throws SQLException {
+		if(DateParser.daysBetween(DateParser.today(), this.inDate) > 0) {
+			return "Loan is overdue.";
+		}
+		if(!HoldQueue.current(this.callNumber.getCallNumber()).isEmpty()) {
+			return "Book is on hold for another borrower.";
+		}
+		if(!dueDate.after(this.inDate)) {
+			return "Loan is already due on " + this.inDate + ".";
+		}
+		return null;
+	}
+	
 	/**
 	 * Deletes a borrow from the Borrowing table.
 	 * 
@@ -306,13 +750,13 @@ public class Borrowing {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM Borrowing WHERE borid=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM Borrowing WHERE borid=?");
 			ps.setInt(1, this.borid);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -323,9 +767,26 @@ public class Borrowing {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
+	/**
+	 * Records a change to one column of this borrow in the open unit of work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "Borrowing", "borid=?", column, type, value, this.borid);
+	}
+
 	/**
 	 * @return Primary key id number for this borrow
 	 */
@@ -351,15 +812,20 @@ public class Borrowing {
 	 *             ResultSet object
 	 */
 	public void setBid(Borrower bid) throws SQLException {
+		if(defer("bid", Types.INTEGER, bid.getBid())) {
+			this.bid = bid;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrowing SET bid=? WHERE borid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrowing SET bid=? WHERE borid=?");
 			ps.setInt(2, this.borid);
 			
 			ps.setInt(1, bid.getBid());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.bid = bid;
 		} catch (SQLException sql) {
@@ -372,6 +838,8 @@ public class Borrowing {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -393,16 +861,22 @@ public class Borrowing {
 	 *             ResultSet object
 	 */
 	public void setCallNumber(BookCopy callNumber) throws SQLException {
+		if(defer("callNumber", Types.INTEGER, callNumber.getCallNumber().getCallNumber())
+				&& defer("copyNo", Types.INTEGER, callNumber.getCopyNo())) {
+			this.callNumber = callNumber;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrowing SET callNumber=?, copyNo=? WHERE borid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrowing SET callNumber=?, copyNo=? WHERE borid=?");
 			ps.setInt(3, this.borid);
 			
 			ps.setInt(1, callNumber.getCallNumber().getCallNumber());
 			ps.setInt(2, callNumber.getCopyNo());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.callNumber = callNumber;
 		} catch (SQLException sql) {
@@ -415,6 +889,8 @@ public class Borrowing {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -436,15 +912,20 @@ public class Borrowing {
 	 *             ResultSet object
 	 */
 	public void setOutDate(Date outDate) throws SQLException {
+		if(defer("outDate", Types.DATE, outDate)) {
+			this.outDate = outDate;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrowing SET outDate=? WHERE borid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrowing SET outDate=? WHERE borid=?");
 			ps.setInt(2, this.borid);
 			
 			ps.setDate(1, outDate);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.outDate = outDate;
 		} catch (SQLException sql) {
@@ -457,6 +938,8 @@ public class Borrowing {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -478,15 +961,20 @@ public class Borrowing {
 	 *             ResultSet object
 	 */
 	public void setInDate(Date inDate) throws SQLException {
+		if(defer("inDate", Types.DATE, inDate)) {
+			this.inDate = inDate;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrowing SET inDate=? WHERE borid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrowing SET inDate=? WHERE borid=?");
 			ps.setInt(2, this.borid);
 			
 			ps.setDate(1, inDate);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.inDate = inDate;
 		} catch (SQLException sql) {
@@ -499,6 +987,8 @@ public class Borrowing {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
@@ -9,10 +9,15 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.sql.Types;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import com.Main;
+import com.db.ConnectionPool;
+import com.db.KeyGenerator;
+import com.db.Sql;
+import com.db.UnitOfWork;
 
 /**
  * Representation of a fine as described by Fine in tables.sql.
@@ -22,7 +27,20 @@ import com.Main;
 public class Fine {
 	public static final float FEE_PER_DAY = (float) 0.10;
 
-	private static Connection con = Main.con;
+	private static final KeyGenerator keys = new KeyGenerator("Fine",
+			"SELECT MAX(fid) FROM Fine", KeyGenerator.DEFAULT_BLOCK_SIZE);
+	
+	private static final Sql.Row<Fine> ROW = new Sql.Row<Fine>() {
+		public Fine read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
+	
+	private static final Sql.Row<Float> FLOAT = new Sql.Row<Float>() {
+		public Float read(ResultSet r) throws SQLException {
+			return r.getFloat(1);
+		}
+	};
 	
 	private int fid;
 	private float amount;
@@ -74,8 +92,9 @@ public class Fine {
 			Borrowing borid) throws SQLException {
 		int fid = generateKey();
 		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO Fine VALUES (?,?,?,?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO Fine VALUES (?,?,?,?,?)");
 			
 			ps.setInt(1, fid);
 			ps.setFloat(2, amount);
@@ -84,9 +103,11 @@ public class Fine {
 			ps.setInt(5, borid.getBorid());
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			if(paidDate == null) {
+				FineLedger.charged(fid, borid, amount);
+			}
 			
 			return new Fine(fid, amount, issuedDate, paidDate, borid);
 		} catch (SQLException sql) {
@@ -99,30 +120,131 @@ public class Fine {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
 	/**
-	 * Generates a new key for an entry in the Borrower table
+	 * Charges a fine for a borrow: its unpaid fine, such as one accrued by
+	 * FineAccrual, is updated to the amount still owed, or a fine is added if
+	 * it has none. Fines for the borrow that were already paid, such as one
+	 * accrued while the book was still out, are taken off the total.
 	 * 
-	 * @return An unused unique key for this table
+	 * @param amount
+	 *            Amount owed in total for the borrow, paid or not
+	 * @param issuedDate
+	 *            Date charged
+	 * @param borid
+	 *            Borrow that caused fine
 	 * @throws SQLException
 	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             closed PreparedStatement or the SQL statement returns a
+	 *             ResultSet object
 	 */
-	private static int generateKey() throws SQLException {
+	public static void accrue(float amount, Date issuedDate, Borrowing borid)
+			throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(fid) as maxFid FROM Fine");
-			ResultSet r = ps.executeQuery();
+			PreparedStatement ps = Sql.prepare(con, "SELECT NVL(SUM(amount),0) FROM Fine WHERE borid=? AND paidDate IS NOT NULL");
+			ps.setInt(1, borid.getBorid());
+			amount -= Sql.first(ps, FLOAT);
+			
+			ps = Sql.prepare(con, "SELECT fid FROM Fine WHERE borid=? AND paidDate IS NULL");
+			ps.setInt(1, borid.getBorid());
+			ps.setMaxRows(1);
+			Integer fid = Sql.first(ps, Sql.INT);
 			
-			return (r.next() ? r.getInt("maxFid") + 1 : 1);
+			if(fid == null) {
+				if(FineLedger.toCents(amount) > 0) {
+					add(amount, issuedDate, null, borid);
+				}
+				return;
+			}
+			
+			ps = Sql.prepare(con, "UPDATE Fine SET amount=?, issuedDate=? WHERE fid=?");
+			ps.setFloat(1, amount);
+			ps.setDate(2, issuedDate);
+			ps.setInt(3, fid);
+			
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			FineLedger.charged(fid, borid, amount);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
+			try {
+				// Undo
+				con.rollback();
+			} catch (SQLException sql2) {
+				System.out.println("Message: " + sql2.getMessage());
+				System.exit(-1);
+			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
+	/**
+	 * Pays several fines at once. The fines are updated as one batch and
+	 * committed together, so either all of them are paid or none are.
+	 * 
+	 * @param fines
+	 *            Fines being paid
+	 * @param paidDate
+	 *            Date paid
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement returns a
+	 *             ResultSet object
+	 */
+	public static void pay(List<Fine> fines, Date paidDate) throws SQLException {
+		if(fines.isEmpty()) {
+			return;
+		}
+		
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Fine SET paidDate=? WHERE fid=?");
+			try {
+				for(Fine fine : fines) {
+					ps.setDate(1, paidDate);
+					ps.setInt(2, fine.fid);
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			Sql.batch(ps);
+			
+			for(Fine fine : fines) {
+				FineLedger.settled(fine.fid);
+			}
+			ConnectionPool.commit(con);
+			
+			for(Fine fine : fines) {
+				fine.paidDate = paidDate;
+			}
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+	
+	/**
+	 * Generates a new key for an entry in the Fine table
+	 * 
+	 * @return An unused unique key for this table
+	 * @throws SQLException
+	 *             if a new block of keys could not be reserved
+	 */
+	static int generateKey() throws SQLException {
+		return keys.nextKey();
+	}
+	
 	/**
 	 * Looks up the entry for the given key in the Fine table and returns
 	 * the corresponding object.
@@ -136,20 +258,23 @@ public class Fine {
 	 *             a ResultSet object
 	 */
 	public static Fine get(int fid) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Fine WHERE fid=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Fine WHERE fid=?");
 			ps.setInt(1, fid);
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			Fine fine = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(fine != null) {
+				return fine;
 			} else {
 				throw new SQLException("No such Fine.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -164,19 +289,23 @@ public class Fine {
 	 *             a ResultSet object
 	 */
 	public static List<Fine> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Fine");
-			ResultSet r = ps.executeQuery();
-			List<Fine> allFines = new ArrayList<Fine>();
-			
-			while(r.next()) {
-				allFines.add(parseLine(r));
-			}
+			PreparedStatement ps = Sql.prepare(con, "SELECT f.fid, f.amount, f.issuedDate, f.paidDate, "
+					+ Borrowing.COLUMNS + " FROM Fine f JOIN Borrowing bo ON bo.borid = f.borid "
+					+ Borrowing.REFERENCES);
+			final Map<Integer, Borrowing> borrowings = new HashMap<Integer, Borrowing>();
 			
-			return allFines;
+			return Sql.list(ps, new Sql.Row<Fine>() {
+				public Fine read(ResultSet r) throws SQLException {
+					return parseLine(r, Borrowing.parseJoined(r, borrowings));
+				}
+			});
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -192,11 +321,28 @@ public class Fine {
 	 *             occurs or this method is called on a closed result set
 	 */
 	private static Fine parseLine(ResultSet r) throws SQLException {
+		return parseLine(r, Borrowing.get(r.getInt("borid")));
+	}
+	
+	/**
+	 * Reads the data from the current row in the result set and generates the
+	 * corresponding Fine object
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @param borid
+	 *            Borrow that caused the fine
+	 * @return The fine represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	static Fine parseLine(ResultSet r, Borrowing borid)
+			throws SQLException {
 		int fid = r.getInt("fid");
 		float amount = r.getFloat("amount");
 		Date issuedDate = r.getDate("issuedDate");
 		Date paidDate = r.getDate("paidDate");
-		Borrowing borid = Borrowing.get(r.getInt("borid"));
 		
 		return new Fine(fid, amount, issuedDate, paidDate, borid);
 	}
@@ -210,13 +356,14 @@ public class Fine {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM Fine WHERE fid=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM Fine WHERE fid=?");
 			ps.setInt(1, this.fid);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			FineLedger.settled(this.fid);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -227,6 +374,35 @@ public class Fine {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Records a change to one column of this fine in the open unit of work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "Fine", "fid=?", column, type, value, this.fid);
+	}
+
+	/**
+	 * Brings this fine's entry in the FineLedger up to date once the change
+	 * just made to it is committed
+	 */
+	private void recharge() {
+		if(this.paidDate == null) {
+			FineLedger.charged(this.fid, this.borid, this.amount);
+		} else {
+			FineLedger.settled(this.fid);
 		}
 	}
 
@@ -255,17 +431,24 @@ public class Fine {
 	 *             ResultSet object
 	 */
 	public void setAmount(float amount) throws SQLException {
+		if(defer("amount", Types.FLOAT, amount)) {
+			this.amount = amount;
+			recharge();
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Fine SET amount=? WHERE fid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Fine SET amount=? WHERE fid=?");
 			ps.setInt(2, this.fid);
 			
 			ps.setFloat(1, amount);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.amount = amount;
+			recharge();
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -276,6 +459,8 @@ public class Fine {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -297,15 +482,20 @@ public class Fine {
 	 *             ResultSet object
 	 */
 	public void setIssuedDate(Date issuedDate) throws SQLException {
+		if(defer("issuedDate", Types.DATE, issuedDate)) {
+			this.issuedDate = issuedDate;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Fine SET issuedDate=? WHERE fid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Fine SET issuedDate=? WHERE fid=?");
 			ps.setInt(2, this.fid);
 			
 			ps.setDate(1, issuedDate);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.issuedDate = issuedDate;
 		} catch (SQLException sql) {
@@ -318,6 +508,8 @@ public class Fine {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -339,17 +531,24 @@ public class Fine {
 	 *             ResultSet object
 	 */
 	public void setPaidDate(Date paidDate) throws SQLException {
+		if(defer("paidDate", Types.DATE, paidDate)) {
+			this.paidDate = paidDate;
+			recharge();
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Fine SET paidDate=? WHERE fid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Fine SET paidDate=? WHERE fid=?");
 			ps.setInt(2, this.fid);
 			
 			ps.setDate(1, paidDate);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.paidDate = paidDate;
+			recharge();
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -360,6 +559,8 @@ public class Fine {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -381,17 +582,24 @@ public class Fine {
 	 *             ResultSet object
 	 */
 	public void setBorid(Borrowing borid) throws SQLException {
+		if(defer("borid", Types.INTEGER, borid.getBorid())) {
+			this.borid = borid;
+			recharge();
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Fine SET borid=? WHERE fid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Fine SET borid=? WHERE fid=?");
 			ps.setInt(2, this.fid);
 			
 			ps.setInt(1, borid.getBorid());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.borid = borid;
+			recharge();
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -402,6 +610,8 @@ public class Fine {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import com.date.DateParser;
+import com.date.EpochDay;
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * Batch job bringing the fines of every overdue loan up to date, so
+ * borrowers see what they owe before they return their books. Each loan
+ * still out past its due date owes FEE_PER_DAY for each day late, less what
+ * was already paid on it: the unpaid fine is updated to that amount if the
+ * loan has one and added otherwise. Returning the book later brings the
+ * same fine up to date again.
+ *
+ * Loans are read in call order of borid, a chunk at a time, along with their
+ * unpaid fine and the total of their paid ones. The fines of a chunk are
+ * written as two JDBC batches, one of updates and one of inserts, and
+ * committed together with the last borid of the chunk in JobCheckpoint. A
+ * run that is stopped part way carries on from there when started again the
+ * same day; a run that finished does nothing more that day.
+ *
+ * @author Kevin Petersen
+ */
+public class FineAccrual {
+	public static final String JOB = "FineAccrual";
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	// Marks a run that finished
+	private static final int DONE = Integer.MAX_VALUE;
+
+	private static final String OVERDUE = "SELECT * FROM ("
+			+ "SELECT l.borid, bo.bid, bo.inDate, f.fid, "
+			+ "(SELECT NVL(SUM(p.amount),0) FROM Fine p "
+			+ "WHERE p.borid = l.borid AND p.paidDate IS NOT NULL) paid FROM CurrentLoan l "
+			+ "JOIN Borrowing bo ON bo.borid = l.borid "
+			+ "LEFT JOIN Fine f ON f.borid = l.borid AND f.paidDate IS NULL "
+			+ "WHERE bo.inDate < ? AND l.borid > ? ORDER BY l.borid, f.fid"
+			+ ") WHERE ROWNUM <= ?";
+
+	private static final Sql.Row<int[]> ROW = new Sql.Row<int[]>() {
+		public int[] read(ResultSet r) throws SQLException {
+			int borid = r.getInt("borid");
+			int bid = r.getInt("bid");
+			int dueDay = EpochDay.fromDate(r.getDate("inDate"));
+			int fid = r.getInt("fid");
+			fid = (r.wasNull() ? 0 : fid);
+			int paid = (int) FineLedger.toCents(r.getFloat("paid"));
+			return new int[] { borid, bid, dueDay, fid, paid };
+		}
+	};
+
+	private static long updated = 0;
+	private static long inserted = 0;
+	private static long chunks = 0;
+
+	private FineAccrual() {
+	}
+
+	/**
+	 * Brings the fine of every overdue loan up to date, carrying on from the
+	 * checkpoint of an earlier run today
+	 *
+	 * @param chunkSize
+	 *            Number of loans written and committed at a time
+	 * @return Number of fines updated or added by this run
+	 * @throws SQLException
+	 *             if a database access error occurs; chunks already committed
+	 *             stay committed and are skipped by the next run
+	 */
+	public static int run(int chunkSize) throws SQLException {
+		Date today = DateParser.today();
+		int lastKey = checkpoint(today);
+		if(lastKey == DONE) {
+			System.out.println("Fines already accrued today.");
+			return 0;
+		}
+
+		int accrued = 0;
+		while(true) {
+			int[] result = accrue(today, lastKey, chunkSize);
+			accrued += result[1];
+			if(result[0] == lastKey) {
+				break;
+			}
+			lastKey = result[0];
+		}
+		save(today, DONE);
+		return accrued;
+	}
+
+	/**
+	 * Reads the checkpoint of this job, starting a new one if the last run
+	 * was for another day
+	 *
+	 * @return The last borid done today, 0 if none, or DONE
+	 */
+	private static int checkpoint(final Date today) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT runDate, lastKey FROM JobCheckpoint WHERE job=?");
+			ps.setString(1, JOB);
+			int[] found = Sql.first(ps, new Sql.Row<int[]>() {
+				public int[] read(ResultSet r) throws SQLException {
+					return new int[] { DateParser.daysBetween(today, r.getDate("runDate")),
+							r.getInt("lastKey") };
+				}
+			});
+
+			if(found != null && found[0] == 0) {
+				return found[1];
+			}
+			if(found == null) {
+				ps = Sql.prepare(con, "INSERT INTO JobCheckpoint VALUES (?,?,0)");
+				ps.setString(1, JOB);
+				ps.setDate(2, today);
+				Sql.update(ps);
+				ConnectionPool.commit(con);
+				return 0;
+			}
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		save(today, 0);
+		return 0;
+	}
+
+	/**
+	 * Records how far today's run has got
+	 */
+	private static void save(Date today, int lastKey) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "UPDATE JobCheckpoint SET runDate=?, lastKey=? WHERE job=?");
+			ps.setDate(1, today);
+			ps.setInt(2, lastKey);
+			ps.setString(3, JOB);
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Brings the fines of the next chunk of overdue loans up to date and
+	 * moves the checkpoint past them, all in one transaction
+	 *
+	 * @return The last borid of the chunk, or lastKey if there were no loans
+	 *         left, and the number of fines written
+	 */
+	private static int[] accrue(Date today, int lastKey, int chunkSize)
+			throws SQLException {
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			PreparedStatement ps = Sql.prepare(con, OVERDUE);
+			ps.setDate(1, today);
+			ps.setInt(2, lastKey);
+			ps.setInt(3, chunkSize);
+			ps.setFetchSize(chunkSize);
+			List<int[]> loans = Sql.list(ps, ROW);
+			if(loans.isEmpty()) {
+				return new int[] { lastKey, 0 };
+			}
+
+			PreparedStatement update = Sql.prepare(con, "UPDATE Fine SET amount=?, issuedDate=? WHERE fid=?");
+			PreparedStatement insert = Sql.prepare(con, "INSERT INTO Fine VALUES (?,?,?,NULL,?)");
+			// The run's day, so loans are charged alike even past midnight
+			int day = EpochDay.fromDate(today);
+			int updates = 0;
+			int inserts = 0;
+			int last = lastKey;
+			try {
+				for(int[] loan : loans) {
+					// A loan with several unpaid fines is listed once for each
+					if(loan[0] == last) {
+						continue;
+					}
+					last = loan[0];
+
+					float amount = Fine.FEE_PER_DAY * (day - loan[2]) - loan[4] / 100f;
+					int fid = loan[3];
+					if(fid == 0 && FineLedger.toCents(amount) <= 0) {
+						// Paid up to date while still out
+						continue;
+					}
+					if(fid != 0) {
+						update.setFloat(1, amount);
+						update.setDate(2, today);
+						update.setInt(3, fid);
+						update.addBatch();
+						updates++;
+					} else {
+						fid = Fine.generateKey();
+						insert.setInt(1, fid);
+						insert.setFloat(2, amount);
+						insert.setDate(3, today);
+						insert.setInt(4, loan[0]);
+						insert.addBatch();
+						inserts++;
+					}
+					FineLedger.charged(fid, loan[1], amount);
+				}
+			} catch (SQLException sql) {
+				Sql.release(update);
+				Sql.release(insert);
+				throw sql;
+			}
+			try {
+				Sql.batch(update);
+			} catch (SQLException sql) {
+				Sql.release(insert);
+				throw sql;
+			}
+			Sql.batch(insert);
+
+			save(today, last);
+			ConnectionPool.commit(con);
+			countChunk(updates, inserts);
+			return new int[] { last, updates + inserts };
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	private static synchronized void countChunk(int updates, int inserts) {
+		updated += updates;
+		inserted += inserts;
+		chunks++;
+	}
+
+	/**
+	 * @return A one line summary of the fine accrual counters
+	 */
+	public static synchronized String getStatistics() {
+		return "Fine accrual: " + updated + " fines updated, " + inserted
+				+ " added, " + chunks + " chunks committed";
+	}
+}
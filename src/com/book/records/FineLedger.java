@@ -0,0 +1,433 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * Running balance of unpaid fines of each borrower, so a balance is read
+ * without joining Fine to Borrowing and summing amounts. The unpaid fines are
+ * read from the Fine table in one pass when start() is called at login, and
+ * are then kept up to date by Fine and FineAccrual as changes are committed.
+ * Fines charged or paid by other processes, such as AccrueFines or another
+ * desk, are picked up by reconciling a borrower's balance with the Fine table
+ * whenever their fines are read anyway, by AccountStatus and BorrowerSnapshot.
+ *
+ * Amounts are kept in cents, as longs, so adding and taking away fines never
+ * rounds. Each unpaid fine is kept along with its borrower and amount, which
+ * is what a change to it is worked out from.
+ *
+ * @author Kevin Petersen
+ */
+public class FineLedger {
+	private static final int FETCH_SIZE = 500;
+
+	private static final int NOT_LOADED = 0;
+	private static final int LOADING = 1;
+	private static final int LOADED = 2;
+
+	// Unpaid fines by fid
+	private static final Map<Integer, Charge> charges = new HashMap<Integer, Charge>();
+	// Balances by bid, of borrowers with unpaid fines
+	private static final Map<Integer, Balance> balances = new HashMap<Integer, Balance>();
+	private static int state = NOT_LOADED;
+	// Changes committed while the fines are read, or null if they are not
+	private static List<Charge> pending = null;
+
+	private static long changes = 0;
+	private static long reads = 0;
+	private static long reconciled = 0;
+
+	/**
+	 * An unpaid fine, or with a bid of 0 a fine that was paid or deleted
+	 */
+	private static class Charge {
+		private int fid;
+		private int bid;
+		private long cents;
+
+		private Charge(int fid, int bid, long cents) {
+			this.fid = fid;
+			this.bid = bid;
+			this.cents = cents;
+		}
+	}
+
+	/**
+	 * What one borrower owes
+	 */
+	private static class Balance {
+		private long cents = 0;
+		private Set<Integer> fids = new HashSet<Integer>();
+	}
+
+	private FineLedger() {
+	}
+
+	/**
+	 * Reads the unpaid fines on a background thread
+	 */
+	public static void start() {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ensureLoaded();
+				} catch (SQLException sql) {
+					System.out.println("Message: " + sql.getMessage());
+				}
+			}
+		}, "FineLedger");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Reads the unpaid fines again, replacing every balance
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public static void rebuild() throws SQLException {
+		synchronized(FineLedger.class) {
+			while(state == LOADING) {
+				try {
+					FineLedger.class.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the fine balances.");
+				}
+			}
+			state = NOT_LOADED;
+		}
+		ensureLoaded();
+	}
+
+	/**
+	 * Reads the unpaid fines unless they are read already or being read, in
+	 * which case this waits for them
+	 *
+	 * @throws SQLException
+	 *             if the fines had to be read and a database access error
+	 *             occurs
+	 */
+	private static void ensureLoaded() throws SQLException {
+		synchronized(FineLedger.class) {
+			while(state == LOADING) {
+				try {
+					FineLedger.class.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the fine balances.");
+				}
+			}
+			if(state == LOADED) {
+				return;
+			}
+			state = LOADING;
+			pending = new ArrayList<Charge>();
+		}
+
+		boolean loaded = false;
+		try {
+			load();
+			loaded = true;
+		} finally {
+			synchronized(FineLedger.class) {
+				state = (loaded ? LOADED : NOT_LOADED);
+				pending = null;
+				FineLedger.class.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reads every unpaid fine in the Fine table. The table is read without
+	 * holding the lock; changes committed meanwhile are applied afterwards in
+	 * the order they were committed. Each gives a fine's whole new state, so
+	 * one the read already saw is applied again harmlessly.
+	 */
+	private static void load() throws SQLException {
+		final List<Charge> read = new ArrayList<Charge>();
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT f.fid, bo.bid, f.amount FROM Fine f "
+					+ "JOIN Borrowing bo ON bo.borid = f.borid WHERE f.paidDate IS NULL");
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					read.add(new Charge(r.getInt("fid"), r.getInt("bid"),
+							toCents(r.getFloat("amount"))));
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		synchronized(FineLedger.class) {
+			charges.clear();
+			balances.clear();
+			for(Charge charge : read) {
+				apply(charge);
+			}
+			for(Charge charge : pending) {
+				apply(charge);
+			}
+		}
+	}
+
+	/**
+	 * Records the amount of an unpaid fine once it is committed, whether the
+	 * fine is new or was already owed
+	 *
+	 * @param fid
+	 *            The fine
+	 * @param borid
+	 *            Borrow that caused the fine
+	 * @param amount
+	 *            Amount now owed for it
+	 */
+	static void charged(int fid, Borrowing borid, float amount) {
+		charged(fid, borid.getBid().getBid(), amount);
+	}
+
+	/**
+	 * Records the amount of an unpaid fine once it is committed
+	 *
+	 * @param fid
+	 *            The fine
+	 * @param bid
+	 *            Borrower who owes it
+	 * @param amount
+	 *            Amount now owed for it
+	 */
+	static void charged(int fid, int bid, float amount) {
+		changed(new Charge(fid, bid, toCents(amount)));
+	}
+
+	/**
+	 * Takes a fine off its borrower's balance once its payment or deletion is
+	 * committed
+	 *
+	 * @param fid
+	 *            The fine
+	 */
+	static void settled(int fid) {
+		changed(new Charge(fid, 0, 0));
+	}
+
+	private static void changed(final Charge charge) {
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				synchronized(FineLedger.class) {
+					changes++;
+					if(state == LOADED) {
+						apply(charge);
+					} else if(state == LOADING) {
+						pending.add(charge);
+					}
+					// Not loaded yet: the fine will be read from the table
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replaces what was recorded for a fine. Call with the lock held.
+	 */
+	private static void apply(Charge charge) {
+		Charge old = charges.remove(charge.fid);
+		if(old != null) {
+			Balance balance = balances.get(old.bid);
+			balance.cents -= old.cents;
+			balance.fids.remove(old.fid);
+			if(balance.fids.isEmpty()) {
+				balances.remove(old.bid);
+			}
+		}
+
+		if(charge.bid != 0) {
+			charges.put(charge.fid, charge);
+			Balance balance = balances.get(charge.bid);
+			if(balance == null) {
+				balance = new Balance();
+				balances.put(charge.bid, balance);
+			}
+			balance.cents += charge.cents;
+			balance.fids.add(charge.fid);
+		}
+	}
+
+	/**
+	 * @param bid
+	 *            The borrower
+	 * @return Total of the borrower's unpaid fines in cents
+	 * @throws SQLException
+	 *             if the fines had to be read and a database access error
+	 *             occurs
+	 */
+	public static long balance(int bid) throws SQLException {
+		ensureLoaded();
+
+		synchronized(FineLedger.class) {
+			reads++;
+			Balance balance = balances.get(bid);
+			return (balance == null ? 0 : balance.cents);
+		}
+	}
+
+	/**
+	 * @param bid
+	 *            The borrower
+	 * @return Number of the borrower's unpaid fines
+	 * @throws SQLException
+	 *             if the fines had to be read and a database access error
+	 *             occurs
+	 */
+	public static int openFines(int bid) throws SQLException {
+		ensureLoaded();
+
+		synchronized(FineLedger.class) {
+			reads++;
+			Balance balance = balances.get(bid);
+			return (balance == null ? 0 : balance.fids.size());
+		}
+	}
+
+	/**
+	 * Reads a borrower's unpaid fines from the Fine table and reconciles
+	 * their balance with them
+	 *
+	 * @param bid
+	 *            The borrower
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public static void refresh(final int bid) throws SQLException {
+		long since = getChanges();
+		final List<Charge> read = new ArrayList<Charge>();
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT f.fid, f.amount FROM Fine f "
+					+ "JOIN Borrowing bo ON bo.borid = f.borid WHERE bo.bid=? AND f.paidDate IS NULL");
+			ps.setInt(1, bid);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					read.add(new Charge(r.getInt("fid"), bid, toCents(r.getFloat("amount"))));
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		replace(bid, read, since);
+	}
+
+	/**
+	 * Reconciles a borrower's balance with their unpaid fines as just read
+	 * from the Fine table
+	 *
+	 * @param bid
+	 *            The borrower
+	 * @param fines
+	 *            Every unpaid fine of the borrower
+	 * @param since
+	 *            What getChanges() returned before the fines were read
+	 */
+	static void reconcile(int bid, List<Fine> fines, long since) {
+		List<Charge> read = new ArrayList<Charge>();
+		for(Fine fine : fines) {
+			read.add(new Charge(fine.getFid(), bid, toCents(fine.getAmount())));
+		}
+		replace(bid, read, since);
+	}
+
+	/**
+	 * Replaces what is recorded for a borrower with the fines read. This is
+	 * skipped if a change was committed since the read began, as the read may
+	 * be older than what the ledger already has; the next read reconciles.
+	 */
+	private static void replace(int bid, List<Charge> read, long since) {
+		synchronized(FineLedger.class) {
+			if(state != LOADED || changes != since) {
+				return;
+			}
+			Balance balance = balances.get(bid);
+			if(balance != null) {
+				for(Integer fid : new ArrayList<Integer>(balance.fids)) {
+					apply(new Charge(fid, 0, 0));
+				}
+			}
+			for(Charge charge : read) {
+				apply(charge);
+			}
+			reconciled++;
+		}
+	}
+
+	/**
+	 * @return Number of changes committed so far, to be passed to reconcile()
+	 *         along with fines read afterwards
+	 */
+	static synchronized long getChanges() {
+		return changes;
+	}
+
+	/**
+	 * @param amount
+	 *            An amount of dollars as stored in the Fine table
+	 * @return The amount in whole cents
+	 */
+	public static long toCents(float amount) {
+		return Math.round(amount * 100.0);
+	}
+
+	/**
+	 * @param cents
+	 *            An amount in cents
+	 * @return The amount in dollars for display, such as $1.20
+	 */
+	public static String format(long cents) {
+		String sign = (cents < 0 ? "-" : "");
+		cents = Math.abs(cents);
+		long part = cents % 100;
+		return sign + "$" + (cents / 100) + "." + (part < 10 ? "0" : "") + part;
+	}
+
+	/**
+	 * @return A one line summary of the fine balances
+	 */
+	public static synchronized String getStatistics() {
+		long owed = 0;
+		for(Balance balance : balances.values()) {
+			owed += balance.cents;
+		}
+		return "Fine ledger: " + charges.size() + " unpaid fines owed by "
+				+ balances.size() + " borrowers, " + format(owed) + " in total, "
+				+ changes + " changes, " + reads + " reads, " + reconciled
+				+ " reconciled";
+	}
+}
@@ -0,0 +1,289 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.book.Book;
+import com.db.ConnectionPool;
+
+/**
+ * The hold requests on each book, kept in memory in the order they are to be
+ * served: by issued date, then by hid for holds issued on the same day. The
+ * queue of a book is read from the HoldRequest table the first time it is
+ * needed and is then kept in step by HoldRequest as holds are added, deleted
+ * or changed, once those changes are committed. Holds placed or filled at
+ * other desks are seen once the queue is MAX_AGE old and is read again.
+ * Filling a hold and renewing a loan read the table through current()
+ * instead, so they always see them.
+ *
+ * Each queue is a sorted list with a moving head, so the next hold is read
+ * without searching, serving it only moves the head, and a borrower's place
+ * in line is found by binary search. New holds are issued today and so
+ * normally go on the end.
+ *
+ * @author Kevin Petersen
+ */
+public class HoldQueue {
+	// As ORDER BY issuedDate, hid: holds with no date go last, as Oracle
+	// sorts nulls
+	private static final Comparator<HoldRequest> ORDER = new Comparator<HoldRequest>() {
+		public int compare(HoldRequest a, HoldRequest b) {
+			Date da = a.getIssuedDate();
+			Date db = b.getIssuedDate();
+			if(da == null || db == null) {
+				if(da != db) {
+					return (da == null ? 1 : -1);
+				}
+			} else {
+				int c = da.compareTo(db);
+				if(c != 0) {
+					return c;
+				}
+			}
+			return (a.getHid() < b.getHid() ? -1 : (a.getHid() == b.getHid() ? 0 : 1));
+		}
+	};
+
+	// Nanoseconds a queue is used for before it is read again
+	private static final long MAX_AGE = 60 * 1000000000L;
+
+	private static final Map<Integer, HoldQueue> queues = new HashMap<Integer, HoldQueue>();
+
+	private static long reads = 0;
+	private static long loads = 0;
+
+	private boolean loaded = false;
+	private long loadedAt;
+	private List<HoldRequest> holds = new ArrayList<HoldRequest>();
+	// Index of the first hold still in line
+	private int head = 0;
+
+	private HoldQueue() {
+	}
+
+	/**
+	 * @param callNumber
+	 *            Call number of a book
+	 * @return The queue of the book, which may not have been loaded yet
+	 */
+	private static HoldQueue of(int callNumber) {
+		synchronized(queues) {
+			HoldQueue queue = queues.get(callNumber);
+			if(queue == null) {
+				queue = new HoldQueue();
+				queues.put(callNumber, queue);
+			}
+			return queue;
+		}
+	}
+
+	/**
+	 * Gets the hold request that is next in line for a book
+	 *
+	 * @param book
+	 *            The book
+	 * @return The oldest hold request on the book, or null if it has none
+	 * @throws SQLException
+	 *             if the queue had to be loaded and a database access error
+	 *             occurs
+	 */
+	public static HoldRequest next(Book book) throws SQLException {
+		HoldQueue queue = of(book.getCallNumber());
+		synchronized(queue) {
+			queue.load(book);
+			return (queue.head < queue.holds.size() ? queue.holds.get(queue.head) : null);
+		}
+	}
+
+	/**
+	 * Reads the hold requests on a book from the HoldRequest table as part of
+	 * the current transaction, bypassing the queue, so holds placed or filled
+	 * at other desks are seen. The queue itself is left alone, as what the
+	 * transaction reads may never be committed.
+	 *
+	 * @param book
+	 *            The book
+	 * @return Every hold request on the book, oldest first
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public static List<HoldRequest> current(Book book) throws SQLException {
+		countRead();
+		return HoldRequest.getQueue(book);
+	}
+
+	/**
+	 * @param book
+	 *            The book
+	 * @return Number of hold requests on the book
+	 * @throws SQLException
+	 *             if the queue had to be loaded and a database access error
+	 *             occurs
+	 */
+	public static int size(Book book) throws SQLException {
+		HoldQueue queue = of(book.getCallNumber());
+		synchronized(queue) {
+			queue.load(book);
+			return queue.holds.size() - queue.head;
+		}
+	}
+
+	/**
+	 * Finds the place of a hold request in the queue of its book
+	 *
+	 * @param hold
+	 *            The hold request
+	 * @return 1 if the hold is next in line, 2 if it is second and so on, or 0
+	 *         if it is no longer in the queue
+	 * @throws SQLException
+	 *             if the queue had to be loaded and a database access error
+	 *             occurs
+	 */
+	public static int position(HoldRequest hold) throws SQLException {
+		HoldQueue queue = of(hold.getCallNumber().getCallNumber());
+		synchronized(queue) {
+			queue.load(hold.getCallNumber());
+			int i = queue.find(hold);
+			return (i < 0 ? 0 : i - queue.head + 1);
+		}
+	}
+
+	/**
+	 * Puts a hold request that has just been added in the queue of its book,
+	 * once it is committed
+	 */
+	static void added(final HoldRequest hold) {
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				HoldQueue queue = of(hold.getCallNumber().getCallNumber());
+				synchronized(queue) {
+					queue.insert(hold);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes a hold request that has just been deleted out of the queue of its
+	 * book, once the deletion is committed
+	 */
+	static void removed(final HoldRequest hold) {
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				HoldQueue queue = of(hold.getCallNumber().getCallNumber());
+				synchronized(queue) {
+					queue.remove(hold);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Drops the queue of a book once the current changes are committed, so it
+	 * is read again from the table. Used when a hold changes its book or date.
+	 */
+	static void changed(final int callNumber) {
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				synchronized(queues) {
+					queues.remove(callNumber);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the queue from the HoldRequest table unless it was loaded less
+	 * than MAX_AGE ago. The queue's lock is held, so changes committed
+	 * meanwhile are applied afterwards; each is applied to the rows
+	 * harmlessly whether they include it or not.
+	 */
+	private void load(Book book) throws SQLException {
+		countRead();
+		if(this.loaded && System.nanoTime() - this.loadedAt < MAX_AGE) {
+			return;
+		}
+
+		List<HoldRequest> rows = HoldRequest.getQueue(book);
+		List<HoldRequest> holds = new ArrayList<HoldRequest>(rows.size());
+		for(HoldRequest hold : rows) {
+			// Keep the hold objects already in the queue
+			int i = find(hold);
+			holds.add(i >= 0 ? this.holds.get(i) : hold);
+		}
+		this.holds = holds;
+		this.head = 0;
+		this.loaded = true;
+		this.loadedAt = System.nanoTime();
+		countLoad();
+	}
+
+	private int find(HoldRequest hold) {
+		int i = Collections.binarySearch(this.holds.subList(this.head, this.holds.size()), hold, ORDER);
+		return (i < 0 ? i - this.head : i + this.head);
+	}
+
+	private void insert(HoldRequest hold) {
+		int i = find(hold);
+		if(i >= 0) {
+			return;
+		}
+
+		i = -(i + 1);
+		if(i == this.holds.size()) {
+			this.holds.add(hold);
+		} else {
+			this.holds.add(i, hold);
+		}
+	}
+
+	private void remove(HoldRequest hold) {
+		int i = find(hold);
+		if(i < 0) {
+			return;
+		}
+
+		if(i == this.head) {
+			this.holds.set(this.head++, null);
+			// Drop the served holds once they make up half the list
+			if(this.head > this.holds.size() / 2) {
+				this.holds.subList(0, this.head).clear();
+				this.head = 0;
+			}
+		} else {
+			this.holds.remove(i);
+		}
+	}
+
+	private static synchronized void countRead() {
+		reads++;
+	}
+
+	private static synchronized void countLoad() {
+		loads++;
+	}
+
+	/**
+	 * @return A one line summary of the hold queue counters
+	 */
+	public static String getStatistics() {
+		int size;
+		synchronized(queues) {
+			size = queues.size();
+		}
+		synchronized(HoldQueue.class) {
+			return "Hold queues: " + size + " books, " + reads + " reads, "
+					+ loads + " loaded from the table";
+		}
+	}
+}
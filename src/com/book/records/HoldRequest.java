@@ -9,12 +9,15 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.sql.Types;
 import java.util.List;
 
-import com.Main;
 import com.book.Book;
 import com.borrower.Borrower;
+import com.db.ConnectionPool;
+import com.db.KeyGenerator;
+import com.db.Sql;
+import com.db.UnitOfWork;
 
 /**
  * Representation of a hold request as described by HoldRequest in tables.sql.
@@ -22,7 +25,14 @@ import com.borrower.Borrower;
  * @author Kevin Petersen
  */
 public class HoldRequest {
-	private static Connection con = Main.con;  
+	private static final KeyGenerator keys = new KeyGenerator("HoldRequest",
+			"SELECT MAX(hid) FROM HoldRequest", KeyGenerator.DEFAULT_BLOCK_SIZE);
+	
+	private static final Sql.Row<HoldRequest> ROW = new Sql.Row<HoldRequest>() {
+		public HoldRequest read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private int hid;
 	private Borrower bid;
@@ -68,8 +78,9 @@ public class HoldRequest {
 			throws SQLException {
 		int hid = generateKey();
 		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO HoldRequest VALUES (?,?,?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO HoldRequest VALUES (?,?,?,?)");
 			
 			ps.setInt(1, hid);
 			ps.setInt(2, bid.getBid());
@@ -77,11 +88,13 @@ public class HoldRequest {
 			ps.setDate(4, issuedDate);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
-			return new HoldRequest(hid, bid, callNumber, issuedDate);
+			HoldRequest hold = new HoldRequest(hid, bid, callNumber, issuedDate);
+			HoldQueue.added(hold);
+			Trending.requested(hold);
+			return hold;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -92,6 +105,8 @@ public class HoldRequest {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -100,20 +115,10 @@ public class HoldRequest {
 	 * 
 	 * @return An unused unique key for this table
 	 * @throws SQLException
-	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             if a new block of keys could not be reserved
 	 */
 	private static int generateKey() throws SQLException {
-		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(hid) as maxHid FROM HoldRequest");
-			ResultSet r = ps.executeQuery();
-			
-			return (r.next() ? r.getInt("maxHid") + 1 : 1);
-		} catch (SQLException sql) {
-			System.out.println("Message: " + sql.getMessage());
-			throw sql;
-		}
+		return keys.nextKey();
 	}
 	
 	/**
@@ -129,20 +134,23 @@ public class HoldRequest {
 	 *             a ResultSet object
 	 */
 	public static HoldRequest get(int hid) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM HoldRequest WHERE hid=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM HoldRequest WHERE hid=?");
 			ps.setInt(1, hid);
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			HoldRequest holdRequest = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(holdRequest != null) {
+				return holdRequest;
 			} else {
 				throw new SQLException("No such Hold Request.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -157,19 +165,56 @@ public class HoldRequest {
 	 *             a ResultSet object
 	 */
 	public static List<HoldRequest> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM HoldRequest");
-			ResultSet r = ps.executeQuery();
-			List<HoldRequest> allHoldRequests = new ArrayList<HoldRequest>();
-			
-			while(r.next()) {
-				allHoldRequests.add(parseLine(r));
-			}
-			
-			return allHoldRequests;
+			PreparedStatement ps = Sql.prepare(con, "SELECT h.hid, h.issuedDate, "
+					+ Borrowing.BORROWER_COLUMNS + ", k.* FROM HoldRequest h"
+					+ " JOIN Borrower b ON b.bid = h.bid"
+					+ " JOIN BorrowerType t ON t.type = b.type"
+					+ " JOIN Book k ON k.callNumber = h.callNumber");
+			return Sql.list(ps, new Sql.Row<HoldRequest>() {
+				public HoldRequest read(ResultSet r) throws SQLException {
+					return parseLine(r, Borrower.load(r), Book.load(r));
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+	
+	/**
+	 * Looks up the hold requests on a book in the order they are to be served
+	 * 
+	 * @param callNumber
+	 *            Book the holds are on
+	 * @return A List of HoldRequest objects, oldest first
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	static List<HoldRequest> getQueue(final Book callNumber) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT h.hid, h.issuedDate, "
+					+ Borrowing.BORROWER_COLUMNS + " FROM HoldRequest h"
+					+ " JOIN Borrower b ON b.bid = h.bid"
+					+ " JOIN BorrowerType t ON t.type = b.type"
+					+ " WHERE h.callNumber=? ORDER BY h.issuedDate, h.hid");
+			ps.setInt(1, callNumber.getCallNumber());
+			return Sql.list(ps, new Sql.Row<HoldRequest>() {
+				public HoldRequest read(ResultSet r) throws SQLException {
+					return parseLine(r, Borrower.load(r), callNumber);
+				}
+			});
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -185,9 +230,28 @@ public class HoldRequest {
 	 *             occurs or this method is called on a closed result set
 	 */
 	private static HoldRequest parseLine(ResultSet r) throws SQLException {
+		return parseLine(r, Borrower.get(r.getInt("bid")),
+				Book.get(r.getInt("callNumber")));
+	}
+	
+	/**
+	 * Reads the data from the current row in the result set and generates the
+	 * corresponding HoldRequest object
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @param bid
+	 *            Borrower that requested the hold
+	 * @param callNumber
+	 *            Book to be held
+	 * @return The hold request represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	private static HoldRequest parseLine(ResultSet r, Borrower bid,
+			Book callNumber) throws SQLException {
 		int hid = r.getInt("hid");
-		Borrower bid = Borrower.get(r.getInt("bid"));
-		Book callNumber = Book.get(r.getInt("callNumber"));
 		Date issuedDate = r.getDate("issuedDate");
 		
 		return new HoldRequest(hid, bid, callNumber, issuedDate);
@@ -202,13 +266,14 @@ public class HoldRequest {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM HoldRequest WHERE hid=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM HoldRequest WHERE hid=?");
 			ps.setInt(1, this.hid);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			HoldQueue.removed(this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -219,9 +284,51 @@ public class HoldRequest {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
+	/**
+	 * Deletes this hold request as part of the current transaction, so a copy
+	 * can be held for it. The delete waits for any other transaction claiming
+	 * the same request, so of two copies returned at once only one gets it.
+	 * 
+	 * @return true if this transaction claimed the request, false if it was
+	 *         already gone
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public boolean claim() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM HoldRequest WHERE hid=?");
+			ps.setInt(1, this.hid);
+			
+			int claimed = Sql.update(ps);
+			// Gone either way
+			HoldQueue.removed(this);
+			return claimed == 1;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Records a change to one column of this hold request in the open unit of work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "HoldRequest", "hid=?", column, type, value, this.hid);
+	}
+
 	/**
 	 * @return Primary key id number for this hold request
 	 */
@@ -247,15 +354,20 @@ public class HoldRequest {
 	 *             ResultSet object
 	 */
 	public void setBid(Borrower bid) throws SQLException {
+		if(defer("bid", Types.INTEGER, bid.getBid())) {
+			this.bid = bid;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HoldRequest SET bid=? WHERE hid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HoldRequest SET bid=? WHERE hid=?");
 			ps.setInt(2, this.hid);
 			
 			ps.setInt(1, bid.getBid());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.bid = bid;
 		} catch (SQLException sql) {
@@ -268,6 +380,8 @@ public class HoldRequest {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -289,16 +403,25 @@ public class HoldRequest {
 	 *             ResultSet object
 	 */
 	public void setCallNumber(Book callNumber) throws SQLException {
+		if(defer("callNumber", Types.INTEGER, callNumber.getCallNumber())) {
+			HoldQueue.changed(this.callNumber.getCallNumber());
+			HoldQueue.changed(callNumber.getCallNumber());
+			this.callNumber = callNumber;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HoldRequest SET callNumber=? WHERE hid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HoldRequest SET callNumber=? WHERE hid=?");
 			ps.setInt(2, this.hid);
 			
 			ps.setInt(1, callNumber.getCallNumber());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			HoldQueue.changed(this.callNumber.getCallNumber());
+			HoldQueue.changed(callNumber.getCallNumber());
 			this.callNumber = callNumber;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -310,6 +433,8 @@ public class HoldRequest {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -331,16 +456,23 @@ public class HoldRequest {
 	 *             ResultSet object
 	 */
 	public void setIssuedDate(Date issuedDate) throws SQLException {
+		if(defer("issuedDate", Types.DATE, issuedDate)) {
+			HoldQueue.changed(this.callNumber.getCallNumber());
+			this.issuedDate = issuedDate;
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE HoldRequest SET issuedDate=? WHERE hid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE HoldRequest SET issuedDate=? WHERE hid=?");
 			ps.setInt(2, this.hid);
 			
 			ps.setDate(1, issuedDate);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			HoldQueue.changed(this.callNumber.getCallNumber());
 			this.issuedDate = issuedDate;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
@@ -352,6 +484,8 @@ public class HoldRequest {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to int counts kept in two plain arrays with open
+ * addressing, so neither keys nor counts are boxed. Keys must not be
+ * Integer.MIN_VALUE, which marks a free slot; call numbers and borrower ids
+ * never are. There is no removal: counts only grow.
+ *
+ * Not thread safe.
+ *
+ * @author Kevin Petersen
+ */
+class IntIntMap {
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+
+	IntIntMap() {
+		this(4);
+	}
+
+	/**
+	 * @param expected
+	 *            Number of keys to make room for
+	 */
+	IntIntMap(int expected) {
+		int capacity = 8;
+		while(capacity * 3 / 4 < expected) {
+			capacity *= 2;
+		}
+		this.keys = new int[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(this.keys, FREE);
+	}
+
+	/**
+	 * @return Slot holding the key, or the free slot it would go in
+	 */
+	private int slot(int key) {
+		int mask = this.keys.length - 1;
+		// Spread the bits, since keys are mostly small consecutive numbers
+		int h = key * 0x9E3779B9;
+		int i = (h ^ (h >>> 16)) & mask;
+		while(this.keys[i] != FREE && this.keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * @return The key's count, or 0 if it has none
+	 */
+	int get(int key) {
+		int i = slot(key);
+		return (this.keys[i] == FREE ? 0 : this.values[i]);
+	}
+
+	/**
+	 * @return true if the key has a count
+	 */
+	boolean contains(int key) {
+		return this.keys[slot(key)] != FREE;
+	}
+
+	/**
+	 * Adds to a key's count, starting it at 0 if it has none
+	 *
+	 * @return The new count
+	 */
+	int add(int key, int delta) {
+		int i = slot(key);
+		if(this.keys[i] == FREE) {
+			if((this.size + 1) * 4 > this.keys.length * 3) {
+				grow();
+				i = slot(key);
+			}
+			this.keys[i] = key;
+			this.size++;
+		}
+		this.values[i] += delta;
+		return this.values[i];
+	}
+
+	/**
+	 * Adds every count of another map to this one
+	 */
+	void addAll(IntIntMap other) {
+		for(int i = 0; i < other.keys.length; i++) {
+			if(other.keys[i] != FREE) {
+				add(other.keys[i], other.values[i]);
+			}
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		this.keys = new int[oldKeys.length * 2];
+		this.values = new int[oldKeys.length * 2];
+		Arrays.fill(this.keys, FREE);
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != FREE) {
+				int j = slot(oldKeys[i]);
+				this.keys[j] = oldKeys[i];
+				this.values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * @return Number of keys
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return Number of slots; keyAt and valueAt take slots from 0 to this
+	 */
+	int capacity() {
+		return this.keys.length;
+	}
+
+	/**
+	 * @return true if the slot holds a key
+	 */
+	boolean used(int slot) {
+		return this.keys[slot] != FREE;
+	}
+
+	int keyAt(int slot) {
+		return this.keys[slot];
+	}
+
+	int valueAt(int slot) {
+		return this.values[slot];
+	}
+
+	/**
+	 * @return The keys in no particular order, in a new array
+	 */
+	int[] keys() {
+		int[] out = new int[this.size];
+		int n = 0;
+		for(int key : this.keys) {
+			if(key != FREE) {
+				out[n++] = key;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return Approximate bytes used by the map
+	 */
+	long memory() {
+		return 16 + 2 * (16 + 4L * this.keys.length);
+	}
+}
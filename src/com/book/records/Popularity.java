@@ -0,0 +1,444 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.date.DateParser;
+import com.date.EpochDay;
+import com.db.ConnectionPool;
+import com.db.Sql;
+import com.search.CatalogIndex;
+
+/**
+ * Number of times each book was checked out per week, month and year, so the
+ * most popular books of a period are listed without a GROUP BY over the
+ * Borrowing table. The counts are read from the Borrowing table when start()
+ * is called at login, and are then kept up to date by Borrowing as checkouts
+ * are committed.
+ *
+ * Counts are exact: a period needs one int per book checked out in it. Each
+ * period also keeps its TOP_SIZE most checked out books in order, updated as
+ * each checkout is counted, so its top books are read without sorting. Only
+ * the last WEEKS_KEPT weeks and MONTHS_KEPT months are kept; years are kept
+ * for as long as the library has had books.
+ *
+ * @author Kevin Petersen
+ */
+public class Popularity {
+	public static final int WEEK = 0;
+	public static final int MONTH = 1;
+	public static final int YEAR = 2;
+	public static final int TOP_SIZE = 100;
+
+	private static final int WEEKS_KEPT = 10;
+	private static final int MONTHS_KEPT = 25;
+	private static final int FETCH_SIZE = 500;
+
+	private static final int NOT_LOADED = 0;
+	private static final int LOADING = 1;
+	private static final int LOADED = 2;
+
+	// For each of WEEK, MONTH and YEAR, the counts of each period by its key
+	private static final List<Map<Integer, Tally>> periods = new ArrayList<Map<Integer, Tally>>();
+	private static int state = NOT_LOADED;
+	// Checkouts committed while the history is read, or null if it is not
+	private static List<Checkout> pending = null;
+
+	private static long checkouts = 0;
+	private static long reads = 0;
+
+	static {
+		for(int period = WEEK; period <= YEAR; period++) {
+			periods.add(new HashMap<Integer, Tally>());
+		}
+	}
+
+	/**
+	 * A book being checked out
+	 */
+	private static class Checkout {
+		private int borid;
+		private int callNumber;
+		private Date outDate;
+
+		private Checkout(int borid, int callNumber, Date outDate) {
+			this.borid = borid;
+			this.callNumber = callNumber;
+			this.outDate = outDate;
+		}
+	}
+
+	/**
+	 * The counts of one period
+	 */
+	private static class Tally {
+		private Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+		// Call numbers of the most checked out books, most first
+		private List<Integer> top = new ArrayList<Integer>();
+
+		private int count(int callNumber) {
+			int[] n = this.counts.get(callNumber);
+			return (n == null ? 0 : n[0]);
+		}
+
+		/**
+		 * Counts checkouts of a book, moving it up the top books if it now
+		 * has more than those ahead of it. Counts only grow, so a book not in
+		 * the top books only has to beat the last of them to get in.
+		 */
+		private void add(int callNumber, int n) {
+			int[] count = this.counts.get(callNumber);
+			if(count == null) {
+				count = new int[1];
+				this.counts.put(callNumber, count);
+			}
+			count[0] += n;
+
+			int i = this.top.indexOf(callNumber);
+			if(i < 0) {
+				if(this.top.size() < TOP_SIZE) {
+					this.top.add(callNumber);
+					i = this.top.size() - 1;
+				} else if(count(this.top.get(TOP_SIZE - 1)) < count[0]) {
+					i = TOP_SIZE - 1;
+					this.top.set(i, callNumber);
+				} else {
+					return;
+				}
+			}
+			while(i > 0 && count(this.top.get(i - 1)) < count[0]) {
+				this.top.set(i, this.top.get(i - 1));
+				this.top.set(i - 1, callNumber);
+				i--;
+			}
+		}
+	}
+
+	private Popularity() {
+	}
+
+	/**
+	 * Reads the checkout history on a background thread
+	 */
+	public static void start() {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ensureLoaded();
+				} catch (SQLException sql) {
+					System.out.println("Message: " + sql.getMessage());
+				}
+			}
+		}, "Popularity");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Reads the checkout history unless it is read already or being read, in
+	 * which case this waits for it
+	 *
+	 * @throws SQLException
+	 *             if the history had to be read and a database access error
+	 *             occurs
+	 */
+	private static void ensureLoaded() throws SQLException {
+		synchronized(Popularity.class) {
+			while(state == LOADING) {
+				try {
+					Popularity.class.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the checkout history.");
+				}
+			}
+			if(state == LOADED) {
+				return;
+			}
+			state = LOADING;
+			pending = new ArrayList<Checkout>();
+		}
+
+		boolean loaded = false;
+		try {
+			load();
+			loaded = true;
+		} finally {
+			synchronized(Popularity.class) {
+				state = (loaded ? LOADED : NOT_LOADED);
+				pending = null;
+				Popularity.class.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Counts every checkout in the Borrowing table. The table is read without
+	 * holding the lock; checkouts committed meanwhile are counted afterwards
+	 * unless the read already saw them.
+	 */
+	private static void load() throws SQLException {
+		final Date today = DateParser.today();
+		// Dates may be stored without the time of day
+		final Date dayAgo = DateParser.todayPlusDays(-1);
+		final int firstWeek = key(WEEK, today) - WEEKS_KEPT + 1;
+		final int firstMonth = key(MONTH, today) - MONTHS_KEPT + 1;
+		final List<Map<Integer, Tally>> read = new ArrayList<Map<Integer, Tally>>();
+		for(int period = WEEK; period <= YEAR; period++) {
+			read.add(new HashMap<Integer, Tally>());
+		}
+		// Checkouts from today, which may also be pending
+		final Set<Integer> recent = new HashSet<Integer>();
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT borid, callNumber, outDate FROM Borrowing");
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					int callNumber = r.getInt("callNumber");
+					Date outDate = r.getDate("outDate");
+					if(outDate == null) {
+						return null;
+					}
+					int week = key(WEEK, outDate);
+					int month = key(MONTH, outDate);
+					if(week >= firstWeek) {
+						tally(read.get(WEEK), week).add(callNumber, 1);
+					}
+					if(month >= firstMonth) {
+						tally(read.get(MONTH), month).add(callNumber, 1);
+					}
+					tally(read.get(YEAR), key(YEAR, outDate)).add(callNumber, 1);
+					if(outDate.after(dayAgo)) {
+						recent.add(r.getInt("borid"));
+					}
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		synchronized(Popularity.class) {
+			for(int period = WEEK; period <= YEAR; period++) {
+				periods.get(period).clear();
+				periods.get(period).putAll(read.get(period));
+			}
+			for(Checkout checkout : pending) {
+				if(!recent.contains(checkout.borid)) {
+					count(checkout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts a checkout once it is committed
+	 *
+	 * @param record
+	 *            The new borrow record
+	 */
+	static void borrowed(Borrowing record) {
+		final Checkout checkout = new Checkout(record.getBorid(),
+				record.getCallNumber().getCallNumber().getCallNumber(),
+				record.getOutDate());
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				synchronized(Popularity.class) {
+					checkouts++;
+					if(state == LOADED) {
+						count(checkout);
+					} else if(state == LOADING) {
+						pending.add(checkout);
+					}
+					// Not loaded yet: the checkout will be read from the table
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds a checkout to the counts of its week, month and year, dropping
+	 * weeks and months no longer kept. Call with the lock held.
+	 */
+	private static void count(Checkout checkout) {
+		for(int period = WEEK; period <= YEAR; period++) {
+			Map<Integer, Tally> tallies = periods.get(period);
+			int key = key(period, checkout.outDate);
+			if(!tallies.containsKey(key) && period != YEAR) {
+				int kept = (period == WEEK ? WEEKS_KEPT : MONTHS_KEPT);
+				for(Integer old : new ArrayList<Integer>(tallies.keySet())) {
+					if(old <= key - kept) {
+						tallies.remove(old);
+					}
+				}
+			}
+			tally(tallies, key).add(checkout.callNumber, 1);
+		}
+	}
+
+	/**
+	 * @return The counts of a period, created empty if there are none yet
+	 */
+	private static Tally tally(Map<Integer, Tally> tallies, int key) {
+		Tally tally = tallies.get(key);
+		if(tally == null) {
+			tally = new Tally();
+			tallies.put(key, tally);
+		}
+		return tally;
+	}
+
+	/**
+	 * @param period
+	 *            WEEK, MONTH or YEAR
+	 * @param date
+	 *            A date in the period
+	 * @return Number of the period counting from the epoch for weeks, which
+	 *         start on Monday, and months, or the year itself
+	 */
+	private static int key(int period, Date date) {
+		int day = EpochDay.fromDate(date);
+		switch(period) {
+		case WEEK:
+			// The epoch was a Thursday
+			return (day + 3) / 7;
+		case MONTH:
+			return EpochDay.year(day) * 12 + EpochDay.month(day) - 1;
+		default:
+			return EpochDay.year(day);
+		}
+	}
+
+	/**
+	 * Gets the most checked out books of a period
+	 *
+	 * @param period
+	 *            WEEK, MONTH or YEAR
+	 * @param date
+	 *            A date in the period, such as today for this week
+	 * @param n
+	 *            Largest number of books to return, at most TOP_SIZE
+	 * @return Call numbers of up to n books and their number of checkouts,
+	 *         most first
+	 * @throws SQLException
+	 *             if the history had to be read and a database access error
+	 *             occurs
+	 */
+	public static Map<Integer, Integer> top(int period, Date date, int n)
+			throws SQLException {
+		ensureLoaded();
+
+		Map<Integer, Integer> top = new LinkedHashMap<Integer, Integer>();
+		synchronized(Popularity.class) {
+			reads++;
+			Tally tally = periods.get(period).get(key(period, date));
+			if(tally != null) {
+				for(Integer callNumber : tally.top.subList(0, Math.min(n, tally.top.size()))) {
+					top.put(callNumber, tally.count(callNumber));
+				}
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Gets the most checked out books of a period having a subject
+	 *
+	 * @param period
+	 *            WEEK, MONTH or YEAR
+	 * @param date
+	 *            A date in the period, such as today for this week
+	 * @param subject
+	 *            Subject the books must have
+	 * @param n
+	 *            Largest number of books to return
+	 * @return Call numbers of up to n books and their number of checkouts,
+	 *         most first
+	 * @throws SQLException
+	 *             if the history or the catalog index had to be read and a
+	 *             database access error occurs
+	 */
+	public static Map<Integer, Integer> top(int period, Date date,
+			String subject, int n) throws SQLException {
+		ensureLoaded();
+
+		int[] books;
+		synchronized(Popularity.class) {
+			reads++;
+			Tally tally = periods.get(period).get(key(period, date));
+			if(tally == null) {
+				return new LinkedHashMap<Integer, Integer>();
+			}
+			books = new int[tally.counts.size()];
+			int i = 0;
+			for(Integer callNumber : tally.counts.keySet()) {
+				books[i++] = callNumber;
+			}
+		}
+		Arrays.sort(books);
+		books = CatalogIndex.narrow(books, CatalogIndex.SUBJECT, subject);
+
+		// Pick the n largest counts
+		Map<Integer, Integer> top = new LinkedHashMap<Integer, Integer>();
+		synchronized(Popularity.class) {
+			Tally tally = periods.get(period).get(key(period, date));
+			if(tally == null) {
+				return top;
+			}
+			int[] best = new int[Math.min(n, books.length)];
+			int found = 0;
+			for(int callNumber : books) {
+				int count = tally.count(callNumber);
+				int j = found;
+				while(j > 0 && tally.count(best[j - 1]) < count) {
+					j--;
+				}
+				if(j < best.length) {
+					System.arraycopy(best, j, best, j + 1, Math.min(found, best.length - 1) - j);
+					best[j] = callNumber;
+					found = Math.min(found + 1, best.length);
+				}
+			}
+			for(int i = 0; i < found; i++) {
+				top.put(best[i], tally.count(best[i]));
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * @return A one line summary of the popularity counters
+	 */
+	public static synchronized String getStatistics() {
+		long entries = 0;
+		int tallies = 0;
+		for(Map<Integer, Tally> period : periods) {
+			tallies += period.size();
+			for(Tally tally : period.values()) {
+				entries += tally.counts.size();
+			}
+		}
+		return "Popularity: " + tallies + " periods, " + entries + " counts; "
+				+ checkouts + " checkouts, " + reads + " reads";
+	}
+}
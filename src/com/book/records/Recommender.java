@@ -0,0 +1,427 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * "Borrowers who borrowed this also borrowed": for each pair of books, the
+ * number of borrowers who have borrowed both. Each book has a row of the
+ * books borrowed with it and those counts, so the books most often borrowed
+ * with a book are found by scanning only its row.
+ *
+ * The counts are built from the Borrowing table when start() is called at
+ * login, with the borrowers split among the processors, and are then kept
+ * up to date by Borrowing as checkouts are committed: a borrower taking out
+ * a book for the first time adds one to its pair with every book the
+ * borrower had taken out before. Borrowing the same book again adds nothing.
+ *
+ * @author Kevin Petersen
+ */
+public class Recommender {
+	private static final int FETCH_SIZE = 1000;
+	// Borrowers counted by one task before the rest are split off
+	private static final int MIN_TASK_BORROWERS = 1000;
+
+	private static final int NOT_LOADED = 0;
+	private static final int LOADING = 1;
+	private static final int LOADED = 2;
+
+	// Books borrowed with each book, and by how many borrowers
+	private static Map<Integer, IntIntMap> rows = new HashMap<Integer, IntIntMap>();
+	// Books each borrower has borrowed
+	private static Map<Integer, IntIntMap> histories = new HashMap<Integer, IntIntMap>();
+	private static int state = NOT_LOADED;
+	// Checkouts committed while the history is read, or null if it is not
+	private static List<int[]> pending = null;
+
+	private static long checkouts = 0;
+	private static long reads = 0;
+	private static long buildMillis = 0;
+
+	private Recommender() {
+	}
+
+	/**
+	 * Builds the counts on a background thread
+	 */
+	public static void start() {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ensureLoaded();
+				} catch (SQLException sql) {
+					System.out.println("Message: " + sql.getMessage());
+				}
+			}
+		}, "Recommender");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Builds the counts unless they are built already or being built, in
+	 * which case this waits for them
+	 *
+	 * @throws SQLException
+	 *             if the counts had to be built and a database access error
+	 *             occurs
+	 */
+	private static void ensureLoaded() throws SQLException {
+		synchronized(Recommender.class) {
+			while(state == LOADING) {
+				try {
+					Recommender.class.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the recommendations.");
+				}
+			}
+			if(state == LOADED) {
+				return;
+			}
+			state = LOADING;
+			pending = new ArrayList<int[]>();
+		}
+
+		boolean loaded = false;
+		try {
+			load();
+			loaded = true;
+		} finally {
+			synchronized(Recommender.class) {
+				state = (loaded ? LOADED : NOT_LOADED);
+				pending = null;
+				Recommender.class.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reads who borrowed what from the Borrowing table and counts the pairs.
+	 * The table is read without holding the lock; checkouts committed
+	 * meanwhile are applied afterwards, and those the read already saw add
+	 * nothing.
+	 */
+	private static void load() throws SQLException {
+		// Borrower and book of each checkout, in an array grown as needed
+		final long[][] read = { new long[1024] };
+		final int[] count = new int[1];
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT bid, callNumber FROM Borrowing");
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					if(count[0] == read[0].length) {
+						read[0] = Arrays.copyOf(read[0], count[0] * 2);
+					}
+					read[0][count[0]++] = pair(r.getInt("bid"), r.getInt("callNumber"));
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+		long[] pairs = Arrays.copyOf(read[0], count[0]);
+
+		long start = System.currentTimeMillis();
+		Build build = build(pairs, Runtime.getRuntime().availableProcessors());
+		long millis = System.currentTimeMillis() - start;
+
+		synchronized(Recommender.class) {
+			rows = build.rows;
+			histories = build.histories;
+			buildMillis = millis;
+			for(int[] checkout : pending) {
+				count(checkout[0], checkout[1]);
+			}
+		}
+	}
+
+	/**
+	 * @return A borrower and book packed in a long, sorting by borrower first
+	 */
+	static long pair(int bid, int callNumber) {
+		return ((long) bid << 32) | (callNumber & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Counts built from a list of checkouts
+	 */
+	static class Build {
+		Map<Integer, IntIntMap> rows;
+		Map<Integer, IntIntMap> histories = new HashMap<Integer, IntIntMap>();
+	}
+
+	/**
+	 * Counts the pairs of books borrowed by the same borrowers. The
+	 * checkouts are sorted by borrower, and the borrowers split into ranges
+	 * counted in parallel; the counts of two ranges are then added together.
+	 *
+	 * @param pairs
+	 *            Borrower and book of each checkout, as made by pair(); sorted
+	 *            in place
+	 * @param parallelism
+	 *            Number of threads to count with
+	 * @return The counts, and the books of each borrower
+	 */
+	static Build build(long[] pairs, int parallelism) {
+		Arrays.sort(pairs);
+
+		// Distinct books of each borrower, borrowers in order
+		final int[] books = new int[pairs.length];
+		int[] starts = new int[pairs.length + 1];
+		int[] bids = new int[pairs.length];
+		int n = 0;
+		int borrowers = 0;
+		for(int i = 0; i < pairs.length; i++) {
+			if(i > 0 && pairs[i] == pairs[i - 1]) {
+				continue;
+			}
+			int bid = (int) (pairs[i] >>> 32);
+			if(borrowers == 0 || bids[borrowers - 1] != bid) {
+				bids[borrowers] = bid;
+				starts[borrowers] = n;
+				borrowers++;
+			}
+			books[n++] = (int) pairs[i];
+		}
+		starts[borrowers] = n;
+
+		Build build = new Build();
+		for(int b = 0; b < borrowers; b++) {
+			IntIntMap history = new IntIntMap(starts[b + 1] - starts[b]);
+			for(int i = starts[b]; i < starts[b + 1]; i++) {
+				history.add(books[i], 1);
+			}
+			build.histories.put(bids[b], history);
+		}
+
+		int minTask = Math.max(MIN_TASK_BORROWERS, borrowers / (4 * parallelism) + 1);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			build.rows = pool.invoke(new Count(books, starts, 0, borrowers, minTask));
+		} finally {
+			pool.shutdown();
+		}
+		return build;
+	}
+
+	/**
+	 * Counts the pairs of books of a range of borrowers
+	 */
+	private static class Count extends RecursiveTask<Map<Integer, IntIntMap>> {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] books;
+		private final int[] starts;
+		private final int from;
+		private final int to;
+		private final int minTask;
+
+		private Count(int[] books, int[] starts, int from, int to, int minTask) {
+			this.books = books;
+			this.starts = starts;
+			this.from = from;
+			this.to = to;
+			this.minTask = minTask;
+		}
+
+		protected Map<Integer, IntIntMap> compute() {
+			if(this.to - this.from <= this.minTask) {
+				Map<Integer, IntIntMap> counted = new HashMap<Integer, IntIntMap>();
+				for(int b = this.from; b < this.to; b++) {
+					for(int i = this.starts[b]; i < this.starts[b + 1]; i++) {
+						IntIntMap row = row(counted, this.books[i]);
+						for(int j = this.starts[b]; j < this.starts[b + 1]; j++) {
+							if(j != i) {
+								row.add(this.books[j], 1);
+							}
+						}
+					}
+				}
+				return counted;
+			}
+
+			int middle = (this.from + this.to) >>> 1;
+			Count left = new Count(this.books, this.starts, this.from, middle, this.minTask);
+			Count right = new Count(this.books, this.starts, middle, this.to, this.minTask);
+			left.fork();
+			Map<Integer, IntIntMap> a = right.compute();
+			Map<Integer, IntIntMap> b = left.join();
+
+			// Add the smaller counts into the larger
+			if(a.size() < b.size()) {
+				Map<Integer, IntIntMap> t = a;
+				a = b;
+				b = t;
+			}
+			for(Map.Entry<Integer, IntIntMap> e : b.entrySet()) {
+				IntIntMap row = a.get(e.getKey());
+				if(row == null) {
+					a.put(e.getKey(), e.getValue());
+				} else {
+					row.addAll(e.getValue());
+				}
+			}
+			return a;
+		}
+	}
+
+	/**
+	 * @return The row of a book, created empty if it has none yet
+	 */
+	private static IntIntMap row(Map<Integer, IntIntMap> rows, int callNumber) {
+		IntIntMap row = rows.get(callNumber);
+		if(row == null) {
+			row = new IntIntMap();
+			rows.put(callNumber, row);
+		}
+		return row;
+	}
+
+	/**
+	 * Counts a checkout once it is committed
+	 *
+	 * @param record
+	 *            The new borrow record
+	 */
+	static void borrowed(Borrowing record) {
+		final int bid = record.getBid().getBid();
+		final int callNumber = record.getCallNumber().getCallNumber().getCallNumber();
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				synchronized(Recommender.class) {
+					checkouts++;
+					if(state == LOADED) {
+						count(bid, callNumber);
+					} else if(state == LOADING) {
+						pending.add(new int[] { bid, callNumber });
+					}
+					// Not loaded yet: the checkout will be read from the table
+				}
+			}
+		});
+	}
+
+	/**
+	 * Pairs a book with every other book its borrower has borrowed, unless
+	 * the borrower has borrowed it before. Call with the lock held.
+	 */
+	private static void count(int bid, int callNumber) {
+		IntIntMap history = histories.get(bid);
+		if(history == null) {
+			history = new IntIntMap();
+			histories.put(bid, history);
+		}
+		if(history.contains(callNumber)) {
+			return;
+		}
+
+		IntIntMap row = row(rows, callNumber);
+		for(int i = 0; i < history.capacity(); i++) {
+			if(history.used(i)) {
+				int other = history.keyAt(i);
+				row.add(other, 1);
+				row(rows, other).add(callNumber, 1);
+			}
+		}
+		history.add(callNumber, 1);
+	}
+
+	/**
+	 * Gets the books most often borrowed by the borrowers of a book
+	 *
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param k
+	 *            Largest number of books to return
+	 * @return Call numbers of up to k books and the number of borrowers who
+	 *         borrowed both, most first
+	 * @throws SQLException
+	 *             if the counts had to be built and a database access error
+	 *             occurs
+	 */
+	public static Map<Integer, Integer> related(int callNumber, int k)
+			throws SQLException {
+		ensureLoaded();
+
+		Map<Integer, Integer> related = new LinkedHashMap<Integer, Integer>();
+		synchronized(Recommender.class) {
+			reads++;
+			IntIntMap row = rows.get(callNumber);
+			if(row == null) {
+				return related;
+			}
+
+			// Pick the k largest counts, smaller call numbers first among equals
+			int[] best = new int[Math.min(k, row.size())];
+			int[] bestCounts = new int[best.length];
+			int found = 0;
+			for(int slot = 0; slot < row.capacity(); slot++) {
+				if(!row.used(slot)) {
+					continue;
+				}
+				int other = row.keyAt(slot);
+				int count = row.valueAt(slot);
+				int j = found;
+				while(j > 0 && (bestCounts[j - 1] < count
+						|| (bestCounts[j - 1] == count && best[j - 1] > other))) {
+					j--;
+				}
+				if(j < best.length) {
+					int shift = Math.min(found, best.length - 1) - j;
+					System.arraycopy(best, j, best, j + 1, shift);
+					System.arraycopy(bestCounts, j, bestCounts, j + 1, shift);
+					best[j] = other;
+					bestCounts[j] = count;
+					found = Math.min(found + 1, best.length);
+				}
+			}
+			for(int i = 0; i < found; i++) {
+				related.put(best[i], bestCounts[i]);
+			}
+		}
+		return related;
+	}
+
+	/**
+	 * @return A one line summary of the recommender counters
+	 */
+	public static synchronized String getStatistics() {
+		long pairs = 0;
+		long bytes = 0;
+		for(IntIntMap row : rows.values()) {
+			pairs += row.size();
+			bytes += 32 + row.memory();
+		}
+		for(IntIntMap history : histories.values()) {
+			bytes += 32 + history.memory();
+		}
+		return "Recommender: " + rows.size() + " books, " + histories.size()
+				+ " borrowers, " + pairs + " pair counts, about "
+				+ (bytes / 1024) + " KB, built in " + buildMillis + " ms; "
+				+ checkouts + " checkouts, " + reads + " reads";
+	}
+}
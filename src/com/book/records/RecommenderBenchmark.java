@@ -0,0 +1,63 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.util.Random;
+
+/**
+ * Times building the recommender's counts from a made up checkout history,
+ * with one thread and with every processor. Popular books are borrowed far
+ * more often than the rest, as in a real library.
+ *
+ * Run as: java com.book.records.RecommenderBenchmark [checkouts] [borrowers]
+ * [books]
+ *
+ * @author Kevin Petersen
+ */
+public class RecommenderBenchmark {
+	private static final int DEFAULT_CHECKOUTS = 3000000;
+	private static final int DEFAULT_BORROWERS = 100000;
+	private static final int DEFAULT_BOOKS = 50000;
+	private static final int RUNS = 3;
+
+	/**
+	 * @param args
+	 *            Number of checkouts, borrowers and books to make up
+	 */
+	public static void main(String[] args) {
+		int checkouts = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CHECKOUTS);
+		int borrowers = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BORROWERS);
+		int books = (args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BOOKS);
+
+		Random random = new Random(304);
+		long[] history = new long[checkouts];
+		for(int i = 0; i < checkouts; i++) {
+			double r = random.nextDouble();
+			int callNumber = 1 + (int) (books * r * r * r);
+			history[i] = Recommender.pair(1 + random.nextInt(borrowers), callNumber);
+		}
+		System.out.println(checkouts + " checkouts by " + borrowers
+				+ " borrowers of " + books + " books");
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		for(int parallelism : new int[] { 1, processors }) {
+			long best = Long.MAX_VALUE;
+			long pairs = 0;
+			for(int run = 0; run < RUNS; run++) {
+				long[] copy = history.clone();
+				long start = System.nanoTime();
+				Recommender.Build build = Recommender.build(copy, parallelism);
+				best = Math.min(best, System.nanoTime() - start);
+
+				pairs = 0;
+				for(IntIntMap row : build.rows.values()) {
+					pairs += row.size();
+				}
+			}
+			System.out.println(parallelism + " thread(s): best of " + RUNS + " "
+					+ (best / 1000000) + " ms, " + pairs + " pair counts");
+		}
+	}
+}
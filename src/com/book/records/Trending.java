@@ -0,0 +1,442 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.book.records;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.date.DateParser;
+import com.date.EpochDay;
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * Scores of the books being checked out and requested the most lately. Each
+ * checkout or hold request adds its weight to the book's score, and the
+ * weight halves every half-life from then on. Scores are kept for each of
+ * HALF_LIVES, so a short half-life showing this week's rush can be compared
+ * with a longer one.
+ *
+ * Rather than decaying every score as time passes, each weight is scaled up
+ * by 2^(t / halfLife) for its time t, measured from a landmark time; the
+ * score now is then the sum times 2^(-now / halfLife), the same factor for
+ * every book. So stored scores only grow, their order never changes with
+ * time, and the top books are kept in order as each event is counted. When
+ * the factors grow too large the landmark is moved forward and every score
+ * scaled down once.
+ *
+ * The scores are read from the Borrowing and HoldRequest tables when start()
+ * is called at login, and are then kept up to date by Borrowing and
+ * HoldRequest as their rows are committed. Each change publishes a new,
+ * unchanging ranking, so reading the top books takes no lock.
+ *
+ * @author Kevin Petersen
+ */
+public class Trending {
+	// Half-lives in days
+	public static final int[] HALF_LIVES = { 1, 7, 30 };
+	public static final int TOP_SIZE = 100;
+
+	private static final double CHECKOUT_WEIGHT = 1.0;
+	// A hold means every copy was out
+	private static final double HOLD_WEIGHT = 2.0;
+	// Events older than this many of the longest half-life count for less
+	// than a thousandth and are not read
+	private static final int HISTORY_HALF_LIVES = 10;
+	// Largest power of two a weight is scaled by before the landmark moves
+	private static final double MAX_EXPONENT = 512;
+	private static final int FETCH_SIZE = 500;
+
+	private static final int NOT_LOADED = 0;
+	private static final int LOADING = 1;
+	private static final int LOADED = 2;
+
+	private static final Trending[] all = new Trending[HALF_LIVES.length];
+	private static int state = NOT_LOADED;
+	// Events committed while the history is read, or null if it is not
+	private static List<Event> pending = null;
+
+	private static long events = 0;
+	private static final AtomicLong reads = new AtomicLong();
+	private static long rescales = 0;
+
+	static {
+		for(int i = 0; i < HALF_LIVES.length; i++) {
+			all[i] = new Trending(HALF_LIVES[i]);
+		}
+	}
+
+	private final int halfLife;
+	// Time in days since the epoch that weights are scaled from
+	private double landmark;
+	private Map<Integer, double[]> scores = new HashMap<Integer, double[]>();
+	// Call numbers of the books with the highest scores, highest first
+	private List<Integer> top = new ArrayList<Integer>();
+	private volatile Ranking ranking;
+
+	/**
+	 * A checkout or hold request
+	 */
+	private static class Event {
+		private boolean hold;
+		// borid or hid
+		private int id;
+		private int callNumber;
+		private double time;
+		private double weight;
+
+		private Event(boolean hold, int id, int callNumber, Date date) {
+			this.hold = hold;
+			this.id = id;
+			this.callNumber = callNumber;
+			this.time = EpochDay.fromDate(date);
+			this.weight = (hold ? HOLD_WEIGHT : CHECKOUT_WEIGHT);
+		}
+	}
+
+	/**
+	 * The top books for one half-life at some moment; never changed once
+	 * published
+	 */
+	private static class Ranking {
+		private final int[] callNumbers;
+		// Scaled scores
+		private final double[] scores;
+		private final double landmark;
+
+		private Ranking(int[] callNumbers, double[] scores, double landmark) {
+			this.callNumbers = callNumbers;
+			this.scores = scores;
+			this.landmark = landmark;
+		}
+	}
+
+	private Trending(int halfLife) {
+		this.halfLife = halfLife;
+		clear(EpochDay.today());
+	}
+
+	/**
+	 * Reads the history on a background thread
+	 */
+	public static void start() {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ensureLoaded();
+				} catch (SQLException sql) {
+					System.out.println("Message: " + sql.getMessage());
+				}
+			}
+		}, "Trending");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Throws away the scores and reads them again from the Borrowing and
+	 * HoldRequest tables
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs; the scores are then read
+	 *             again when next needed
+	 */
+	public static void rebuild() throws SQLException {
+		synchronized(Trending.class) {
+			while(state == LOADING) {
+				try {
+					Trending.class.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the trending scores.");
+				}
+			}
+			state = NOT_LOADED;
+		}
+		ensureLoaded();
+	}
+
+	/**
+	 * Reads the history unless it is read already or being read, in which
+	 * case this waits for it
+	 *
+	 * @throws SQLException
+	 *             if the history had to be read and a database access error
+	 *             occurs
+	 */
+	private static void ensureLoaded() throws SQLException {
+		synchronized(Trending.class) {
+			while(state == LOADING) {
+				try {
+					Trending.class.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the trending scores.");
+				}
+			}
+			if(state == LOADED) {
+				return;
+			}
+			state = LOADING;
+			pending = new ArrayList<Event>();
+		}
+
+		boolean loaded = false;
+		try {
+			load();
+			loaded = true;
+		} finally {
+			synchronized(Trending.class) {
+				state = (loaded ? LOADED : NOT_LOADED);
+				pending = null;
+				Trending.class.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Scores every checkout and hold request recent enough to count. The
+	 * tables are read without holding the lock; events committed meanwhile
+	 * are scored afterwards unless the read already saw them.
+	 */
+	private static void load() throws SQLException {
+		// Dates may be stored without the time of day
+		final Date dayAgo = DateParser.todayPlusDays(-1);
+		Date since = DateParser.todayPlusDays(-HISTORY_HALF_LIVES * HALF_LIVES[HALF_LIVES.length - 1]);
+		final List<Event> read = new ArrayList<Event>();
+		// Events from today, which may also be pending
+		final Set<Integer> recentBorrows = new HashSet<Integer>();
+		final Set<Integer> recentHolds = new HashSet<Integer>();
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT borid, callNumber, outDate FROM Borrowing WHERE outDate>=?");
+			ps.setDate(1, since);
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					Date outDate = r.getDate("outDate");
+					read.add(new Event(false, r.getInt("borid"), r.getInt("callNumber"), outDate));
+					if(outDate.after(dayAgo)) {
+						recentBorrows.add(r.getInt("borid"));
+					}
+					return null;
+				}
+			});
+
+			ps = Sql.prepare(con, "SELECT hid, callNumber, issuedDate FROM HoldRequest WHERE issuedDate>=?");
+			ps.setDate(1, since);
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					Date issuedDate = r.getDate("issuedDate");
+					read.add(new Event(true, r.getInt("hid"), r.getInt("callNumber"), issuedDate));
+					if(issuedDate.after(dayAgo)) {
+						recentHolds.add(r.getInt("hid"));
+					}
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		synchronized(Trending.class) {
+			for(Trending scores : all) {
+				scores.clear(EpochDay.today());
+				for(Event event : read) {
+					scores.add(event);
+				}
+				for(Event event : pending) {
+					if(!(event.hold ? recentHolds : recentBorrows).contains(event.id)) {
+						scores.add(event);
+					}
+				}
+				scores.publish();
+			}
+		}
+	}
+
+	/**
+	 * Scores a checkout once it is committed
+	 *
+	 * @param record
+	 *            The new borrow record
+	 */
+	static void borrowed(Borrowing record) {
+		counted(new Event(false, record.getBorid(),
+				record.getCallNumber().getCallNumber().getCallNumber(),
+				record.getOutDate()));
+	}
+
+	/**
+	 * Scores a hold request once it is committed
+	 *
+	 * @param hold
+	 *            The new hold request
+	 */
+	static void requested(HoldRequest hold) {
+		counted(new Event(true, hold.getHid(),
+				hold.getCallNumber().getCallNumber(), hold.getIssuedDate()));
+	}
+
+	private static void counted(final Event event) {
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				synchronized(Trending.class) {
+					events++;
+					if(state == LOADED) {
+						for(Trending scores : all) {
+							scores.add(event);
+							scores.publish();
+						}
+					} else if(state == LOADING) {
+						pending.add(event);
+					}
+					// Not loaded yet: the event will be read from its table
+				}
+			}
+		});
+	}
+
+	/**
+	 * Empties the scores, scaling weights from a new landmark. Call with the
+	 * lock held.
+	 */
+	private void clear(double landmark) {
+		this.landmark = landmark;
+		this.scores.clear();
+		this.top.clear();
+		this.ranking = new Ranking(new int[0], new double[0], landmark);
+	}
+
+	/**
+	 * Adds an event's weight to its book's score, moving the book up the top
+	 * books if it now scores more than those ahead of it. Call with the lock
+	 * held.
+	 */
+	private void add(Event event) {
+		double exponent = (event.time - this.landmark) / this.halfLife;
+		if(exponent > MAX_EXPONENT) {
+			rescale(event.time);
+			exponent = 0;
+		}
+
+		double[] score = this.scores.get(event.callNumber);
+		if(score == null) {
+			score = new double[1];
+			this.scores.put(event.callNumber, score);
+		}
+		score[0] += event.weight * Math.pow(2, exponent);
+
+		int i = this.top.indexOf(event.callNumber);
+		if(i < 0) {
+			if(this.top.size() < TOP_SIZE) {
+				this.top.add(event.callNumber);
+				i = this.top.size() - 1;
+			} else if(score(this.top.get(TOP_SIZE - 1)) < score[0]) {
+				i = TOP_SIZE - 1;
+				this.top.set(i, event.callNumber);
+			} else {
+				return;
+			}
+		}
+		while(i > 0 && score(this.top.get(i - 1)) < score[0]) {
+			this.top.set(i, this.top.get(i - 1));
+			this.top.set(i - 1, event.callNumber);
+			i--;
+		}
+	}
+
+	private double score(int callNumber) {
+		double[] score = this.scores.get(callNumber);
+		return (score == null ? 0 : score[0]);
+	}
+
+	/**
+	 * Moves the landmark to a later time, scaling every score down to match
+	 */
+	private void rescale(double landmark) {
+		double factor = Math.pow(2, -(landmark - this.landmark) / this.halfLife);
+		for(double[] score : this.scores.values()) {
+			score[0] *= factor;
+		}
+		this.landmark = landmark;
+		rescales++;
+	}
+
+	/**
+	 * Makes the current top books visible to readers
+	 */
+	private void publish() {
+		int[] callNumbers = new int[this.top.size()];
+		double[] scaled = new double[this.top.size()];
+		for(int i = 0; i < callNumbers.length; i++) {
+			callNumbers[i] = this.top.get(i);
+			scaled[i] = score(callNumbers[i]);
+		}
+		this.ranking = new Ranking(callNumbers, scaled, this.landmark);
+	}
+
+	/**
+	 * Gets the books with the highest scores now
+	 *
+	 * @param halfLife
+	 *            One of HALF_LIVES
+	 * @param n
+	 *            Largest number of books to return, at most TOP_SIZE
+	 * @return Call numbers of up to n books and their scores, highest first;
+	 *         empty until the history has been read
+	 * @throws IllegalArgumentException
+	 *             if halfLife is not one of HALF_LIVES
+	 */
+	public static Map<Integer, Double> top(int halfLife, int n) {
+		Trending scores = null;
+		for(Trending t : all) {
+			if(t.halfLife == halfLife) {
+				scores = t;
+			}
+		}
+		if(scores == null) {
+			throw new IllegalArgumentException("No scores with a half-life of " + halfLife + " days.");
+		}
+		reads.incrementAndGet();
+
+		Ranking ranking = scores.ranking;
+		double now = EpochDay.today();
+		double factor = Math.pow(2, -(now - ranking.landmark) / halfLife);
+		Map<Integer, Double> top = new LinkedHashMap<Integer, Double>();
+		for(int i = 0; i < Math.min(n, ranking.callNumbers.length); i++) {
+			top.put(ranking.callNumbers[i], ranking.scores[i] * factor);
+		}
+		return top;
+	}
+
+	/**
+	 * @return A one line summary of the trending counters
+	 */
+	public static synchronized String getStatistics() {
+		int books = 0;
+		for(Trending scores : all) {
+			books = Math.max(books, scores.scores.size());
+		}
+		return "Trending: " + books + " books scored, " + events + " events, "
+				+ reads.get() + " reads, " + rescales + " rescales";
+	}
+}
@@ -9,11 +9,16 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.sql.Types;
 import java.util.List;
 
-import com.Main;
 import com.date.DateParser;
+import com.db.ConnectionPool;
+import com.db.EntityCache;
+import com.db.KeyGenerator;
+import com.db.Sql;
+import com.db.UnitOfWork;
+import com.policy.BorrowerSnapshot;
 
 /**
  * Representation of a borrower as described by Borrower in tables.sql.
@@ -21,7 +26,17 @@ import com.date.DateParser;
  * @author Kevin Petersen
  */
 public class Borrower {
-	private static Connection con = Main.con;  
+	private static final KeyGenerator keys = new KeyGenerator("Borrower",
+			"SELECT MAX(bid) FROM Borrower", KeyGenerator.DEFAULT_BLOCK_SIZE);
+	
+	private static final EntityCache<Integer, Borrower> cache =
+			new EntityCache<Integer, Borrower>("Borrower", EntityCache.DEFAULT_CAPACITY);
+	
+	private static final Sql.Row<Borrower> ROW = new Sql.Row<Borrower>() {
+		public Borrower read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private int bid;
 	private String password;
@@ -100,8 +115,9 @@ public class Borrower {
 			Date expiryDate, BorrowerType type) throws SQLException {
 		int bid = generateKey();
 		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO Borrower VALUES (?,?,?,?,?,?,?,?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO Borrower VALUES (?,?,?,?,?,?,?,?,?)");
 			
 			ps.setInt(1, bid);
 			ps.setString(2, password);
@@ -114,12 +130,13 @@ public class Borrower {
 			ps.setString(9, type.getType());
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
-			return new Borrower(bid, password, name, address, phone,
+			Borrower borrower = new Borrower(bid, password, name, address, phone,
 					emailAddress, sinOrStNo, expiryDate, type);
+			cache.put(bid, borrower);
+			return borrower;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -130,6 +147,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -138,20 +157,10 @@ public class Borrower {
 	 * 
 	 * @return An unused unique key for this table
 	 * @throws SQLException
-	 *             if a database access error occurs; this method is called on a
-	 *             closed PreparedStatement or the SQL statement does not return
-	 *             a ResultSet object
+	 *             if a new block of keys could not be reserved
 	 */
 	private static int generateKey() throws SQLException {
-		try {
-			PreparedStatement ps = con.prepareStatement("SELECT MAX(bid) as maxBid FROM Borrower");
-			ResultSet r = ps.executeQuery();
-			
-			return (r.next() ? r.getInt("maxBid") + 1 : 1);
-		} catch (SQLException sql) {
-			System.out.println("Message: " + sql.getMessage());
-			throw sql;
-		}
+		return keys.nextKey();
 	}
 	
 	/**
@@ -167,20 +176,28 @@ public class Borrower {
 	 *             a ResultSet object
 	 */
 	public static Borrower get(int bid) throws SQLException {
+		Borrower cached = cache.get(bid);
+		if(cached != null) {
+			return cached;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Borrower WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Borrower WHERE bid=?");
 			ps.setInt(1, bid);
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			Borrower borrower = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(borrower != null) {
+				return borrower;
 			} else {
 				throw new SQLException("No such Borrower.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -195,19 +212,15 @@ public class Borrower {
 	 *             a ResultSet object
 	 */
 	public static List<Borrower> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM Borrower");
-			ResultSet r = ps.executeQuery();
-			List<Borrower> allBorrowers = new ArrayList<Borrower>();
-			
-			while(r.next()) {
-				allBorrowers.add(parseLine(r));
-			}
-			
-			return allBorrowers;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM Borrower");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 	
@@ -223,6 +236,24 @@ public class Borrower {
 	 *             occurs or this method is called on a closed result set
 	 */
 	private static Borrower parseLine(ResultSet r) throws SQLException {
+		return parseLine(r, BorrowerType.get(r.getString("type")));
+	}
+	
+	/**
+	 * Reads the data from the current row in the result set and generates the
+	 * corresponding Borrower object
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @param type
+	 *            Type of the borrower
+	 * @return The borrower represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	private static Borrower parseLine(ResultSet r, BorrowerType type)
+			throws SQLException {
 		int bid = r.getInt("bid");
 		String password = r.getString("password");
 		String name = r.getString("name");
@@ -241,10 +272,36 @@ public class Borrower {
 		Date expiryDate = r.getDate("expiryDate");
 		expiryDate = (r.wasNull() ? null : expiryDate);
 		
-		BorrowerType type = BorrowerType.get(r.getString("type"));
-		
-		return new Borrower(bid, password, name, address, phone,
+		Borrower borrower = new Borrower(bid, password, name, address, phone,
 				emailAddress, sinOrStNo, expiryDate, type);
+		cache.put(bid, borrower);
+		return borrower;
+	}
+
+	/**
+	 * Reads a Borrower and its BorrowerType from the current row of a query
+	 * that joins the Borrower and BorrowerType tables. Objects already loaded
+	 * for the same keys are reused, so rows that share a borrower share one
+	 * object.
+	 * 
+	 * @param r
+	 *            Result Set of a joined query
+	 * @return The borrower referenced by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	public static Borrower load(ResultSet r) throws SQLException {
+		Borrower cached = cache.get(r.getInt("bid"));
+		return (cached != null ? cached : parseLine(r, BorrowerType.load(r)));
+	}
+
+	/**
+	 * @return The cache of Borrower objects, for reading its statistics or
+	 *         changing its capacity
+	 */
+	public static EntityCache<Integer, Borrower> getCache() {
+		return cache;
 	}
 
 	/**
@@ -256,13 +313,15 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM Borrower WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM Borrower WHERE bid=?");
 			ps.setInt(1, this.bid);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			
+			cache.remove(this.bid);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -273,9 +332,89 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Records a change to one column of this borrower in the open unit of work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "Borrower", "bid=?", column, type, value, this.bid);
+	}
+	
+	/**
+	 * Updates every field of this borrower that differs from the given value,
+	 * as one unit of work: the changed columns are written by a single UPDATE
+	 * and committed once, however many of them there are.
+	 * 
+	 * @param password
+	 *            This borrower's password
+	 * @param name
+	 *            Borrower's full name
+	 * @param address
+	 *            Borrower's full address
+	 * @param phone
+	 *            Borrower's phone number
+	 * @param emailAddress
+	 *            Borrower's email address
+	 * @param sinOrStNo
+	 *            Borrower's student number if a student, SIN otherwise
+	 * @param expiryDate
+	 *            Library card expiry date
+	 * @param type
+	 *            Type of borrower
+	 * @throws SQLException
+	 *             if a database access error occurs; nothing is committed
+	 */
+	public void update(String password, String name, String address,
+			float phone, String emailAddress, float sinOrStNo, Date expiryDate,
+			BorrowerType type) throws SQLException {
+		UnitOfWork.begin();
+		try {
+			if(!password.equals(this.password)) {
+				setPassword(password);
+			}
+			if(!name.equals(this.name)) {
+				setName(name);
+			}
+			if(!same(address, this.address)) {
+				setAddress(address);
+			}
+			if(phone != this.phone) {
+				setPhone(phone);
+			}
+			if(!same(emailAddress, this.emailAddress)) {
+				setEmailAddress(emailAddress);
+			}
+			if(sinOrStNo != this.sinOrStNo) {
+				setSinOrStNo(sinOrStNo);
+			}
+			if(!same(expiryDate, this.expiryDate)) {
+				setExpiryDate(expiryDate);
+			}
+			if(!type.getType().equals(this.type.getType())) {
+				setType(type);
+			}
+			UnitOfWork.commit();
+		} finally {
+			UnitOfWork.end();
 		}
 	}
 	
+	private static boolean same(Object a, Object b) {
+		return (a == null ? b == null : a.equals(b));
+	}
+	
 	/**
 	 * Determines if this borrower is eligible to borrow books.
 	 * 
@@ -310,17 +449,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setPassword(String password) throws SQLException {
+		if(defer("password", Types.VARCHAR, password)) {
+			this.password = password;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET password=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET password=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setString(1, password);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.password = password;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -331,6 +479,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -352,17 +502,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setName(String name) throws SQLException {
+		if(defer("name", Types.VARCHAR, name)) {
+			this.name = name;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET name=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET name=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setString(1, name);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.name = name;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -373,6 +532,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -394,17 +555,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setAddress(String address) throws SQLException {
+		if(defer("address", Types.VARCHAR, address)) {
+			this.address = address;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET address=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET address=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setString(1, address);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.address = address;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -415,6 +585,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -436,17 +608,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setPhone(float phone) throws SQLException {
+		if(defer("phone", Types.FLOAT, phone)) {
+			this.phone = phone;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET phone=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET phone=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setFloat(1, phone);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.phone = phone;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -457,6 +638,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -478,17 +661,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setEmailAddress(String emailAddress) throws SQLException {
+		if(defer("emailAddress", Types.VARCHAR, emailAddress)) {
+			this.emailAddress = emailAddress;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET emailAddress=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET emailAddress=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setString(1, emailAddress);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.emailAddress = emailAddress;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -499,6 +691,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -520,17 +714,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setSinOrStNo(float sinOrStNo) throws SQLException {
+		if(defer("sinOrStNo", Types.FLOAT, sinOrStNo)) {
+			this.sinOrStNo = sinOrStNo;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET sinOrStNo=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET sinOrStNo=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setFloat(1, sinOrStNo);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.sinOrStNo = sinOrStNo;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -541,6 +744,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -562,17 +767,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setExpiryDate(Date expiryDate) throws SQLException {
+		if(defer("expiryDate", Types.DATE, expiryDate)) {
+			this.expiryDate = expiryDate;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET expiryDate=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET expiryDate=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setDate(1, expiryDate);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.expiryDate = expiryDate;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -583,6 +797,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -604,17 +820,26 @@ public class Borrower {
 	 *             ResultSet object
 	 */
 	public void setType(BorrowerType type) throws SQLException {
+		if(defer("type", Types.VARCHAR, type.getType())) {
+			this.type = type;
+			cache.put(this.bid, this);
+			BorrowerSnapshot.changed(this.bid);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE Borrower SET type=? WHERE bid=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Borrower SET type=? WHERE bid=?");
 			ps.setInt(2, this.bid);
 			
 			ps.setString(1, type.getType());
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			BorrowerSnapshot.changed(this.bid);
 			
 			this.type = type;
+			cache.put(this.bid, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -625,6 +850,8 @@ public class Borrower {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 }
\ No newline at end of file
@@ -8,10 +8,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.sql.Types;
 import java.util.List;
 
-import com.Main;
+import com.db.ConnectionPool;
+import com.db.EntityCache;
+import com.db.Sql;
+import com.db.UnitOfWork;
 
 /**
  * Representation of a type of borrower as described by BorrowerType in
@@ -20,7 +23,14 @@ import com.Main;
  * @author Kevin Petersen
  */
 public class BorrowerType {
-	private static Connection con = Main.con;
+	private static final EntityCache<String, BorrowerType> cache =
+			new EntityCache<String, BorrowerType>("BorrowerType", EntityCache.DEFAULT_CAPACITY);
+	
+	private static final Sql.Row<BorrowerType> ROW = new Sql.Row<BorrowerType>() {
+		public BorrowerType read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
 	
 	private String type;
 	private int bookTimeLimit;
@@ -54,18 +64,20 @@ public class BorrowerType {
 	 */
 	public static BorrowerType add(String type, int bookTimeLimit)
 			throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("INSERT INTO BorrowerType VALUES (?,?)");
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO BorrowerType VALUES (?,?)");
 			
 			ps.setString(1, type);
 			ps.setInt(2, bookTimeLimit);
 			
 			// All inputs are OK
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
-			return new BorrowerType(type, bookTimeLimit);
+			BorrowerType borrowerType = new BorrowerType(type, bookTimeLimit);
+			cache.put(type, borrowerType);
+			return borrowerType;
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -76,6 +88,8 @@ public class BorrowerType {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -92,20 +106,28 @@ public class BorrowerType {
 	 *             a ResultSet object
 	 */
 	public static BorrowerType get(String type) throws SQLException {
+		BorrowerType cached = cache.get(type);
+		if(cached != null) {
+			return cached;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM BorrowerType WHERE type=?");
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM BorrowerType WHERE type=?");
 			ps.setString(1, type);
 			ps.setMaxRows(1);
-			ResultSet r = ps.executeQuery();
+			BorrowerType borrowerType = Sql.first(ps, ROW);
 			
-			if(r.next()) {
-				return parseLine(r);
+			if(borrowerType != null) {
+				return borrowerType;
 			} else {
 				throw new SQLException("No such Borrower Type.");
 			}
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -120,19 +142,15 @@ public class BorrowerType {
 	 *             a ResultSet object
 	 */
 	public static List<BorrowerType> getAll() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("SELECT * FROM BorrowerType");
-			ResultSet r = ps.executeQuery();
-			List<BorrowerType> allTypes = new ArrayList<BorrowerType>();
-			
-			while(r.next()) {
-				allTypes.add(parseLine(r));
-			}
-			
-			return allTypes;
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM BorrowerType");
+			return Sql.list(ps, ROW);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -151,7 +169,34 @@ public class BorrowerType {
 		String type = r.getString("type");
 		int bookTimeLimit = r.getInt("bookTimeLimit");
 		
-		return new BorrowerType(type, bookTimeLimit);
+		BorrowerType borrowerType = new BorrowerType(type, bookTimeLimit);
+		cache.put(type, borrowerType);
+		return borrowerType;
+	}
+
+	/**
+	 * Reads a BorrowerType from the current row of a query that includes the
+	 * columns of the BorrowerType table. If the same type has already been
+	 * loaded, that object is returned instead.
+	 * 
+	 * @param r
+	 *            Result Set of a query
+	 * @return The borrower type referenced by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	public static BorrowerType load(ResultSet r) throws SQLException {
+		BorrowerType cached = cache.get(r.getString("type"));
+		return (cached != null ? cached : parseLine(r));
+	}
+
+	/**
+	 * @return The cache of BorrowerType objects, for reading its statistics or
+	 *         changing its capacity
+	 */
+	public static EntityCache<String, BorrowerType> getCache() {
+		return cache;
 	}
 
 	/**
@@ -163,13 +208,15 @@ public class BorrowerType {
 	 *             ResultSet object
 	 */
 	public void delete() throws SQLException {
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("DELETE FROM BorrowerType WHERE type=?");
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM BorrowerType WHERE type=?");
 			ps.setString(1, this.type);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+			
+			cache.remove(this.type);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -180,9 +227,27 @@ public class BorrowerType {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
+	/**
+	 * Records a change to one column of this borrower type in the open unit of
+	 * work
+	 * 
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @return true if a unit of work is open and will write the change
+	 */
+	private boolean defer(String column, int type, Object value) {
+		return UnitOfWork.defer(this, "BorrowerType", "type=?", column, type, value, this.type);
+	}
+
 	/**
 	 * @return Primary key string describing this BorrowerType
 	 */
@@ -201,17 +266,24 @@ public class BorrowerType {
 	 *             ResultSet object
 	 */
 	public void setType(String type) throws SQLException {
+		if(UnitOfWork.isActive()) {
+			// Changes recorded so far are keyed by the old type
+			UnitOfWork.flush();
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
-			PreparedStatement ps = con.prepareStatement("UPDATE BorrowerType SET type=? WHERE type=?");
+			PreparedStatement ps = Sql.prepare(con, "UPDATE BorrowerType SET type=? WHERE type=?");
 			ps.setString(2, this.type);
 			
 			ps.setString(1, type);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
+			cache.remove(this.type);
 			this.type = type;
+			cache.put(this.type, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -222,6 +294,8 @@ public class BorrowerType {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
 
@@ -243,18 +317,25 @@ public class BorrowerType {
 	 *             ResultSet object
 	 */
 	public void setBookTimeLimit(int bookTimeLimit) throws SQLException {
+		if(defer("bookTimeLimit", Types.INTEGER, bookTimeLimit)) {
+			this.bookTimeLimit = bookTimeLimit;
+			cache.put(this.type, this);
+			return;
+		}
+		
+		Connection con = ConnectionPool.getConnection();
 		try {
 			PreparedStatement ps = 
-					con.prepareStatement("UPDATE BorrowerType SET bookTimeLimit=? WHERE type=?");
+					Sql.prepare(con, "UPDATE BorrowerType SET bookTimeLimit=? WHERE type=?");
 			ps.setString(2, this.type);
 			
 			ps.setInt(1, bookTimeLimit);
 			
-			ps.executeUpdate();
-			con.commit();
-			ps.close();
+			Sql.update(ps);
+			ConnectionPool.commit(con);
 			
 			this.bookTimeLimit = bookTimeLimit;
+			cache.put(this.type, this);
 		} catch (SQLException sql) {
 			System.out.println("Message: " + sql.getMessage());
 			try {
@@ -265,6 +346,8 @@ public class BorrowerType {
 				System.exit(-1);
 			}
 			throw sql;
+		} finally {
+			ConnectionPool.release(con);
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,43 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.date;
+
+/**
+ * Source of the current time for EpochDay.today() and so for DateParser and
+ * everything that dates loans, fines and holds. Replacing it with
+ * EpochDay.setClock() changes what "today" is for the whole library; see
+ * SimulatedClock.
+ *
+ * @author Kevin Petersen
+ */
+public interface Clock {
+	/**
+	 * The computer's own clock
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		public long realMillis(long millis) {
+			return millis;
+		}
+	};
+
+	/**
+	 * @return The current time in milliseconds since the epoch, as
+	 *         System.currentTimeMillis()
+	 */
+	public long currentTimeMillis();
+
+	/**
+	 * For background jobs that wait a while between runs
+	 *
+	 * @param millis
+	 *            A span of time on this clock
+	 * @return How long the span takes in real time, at least 1 ms
+	 */
+	public long realMillis(long millis);
+}
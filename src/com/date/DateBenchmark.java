@@ -0,0 +1,174 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.date;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Times the date arithmetic the checkout, return and fine code does on every
+ * loan, once with Calendar as DateParser used to and once with EpochDay, and
+ * counts the day differences on which the two disagree. Before timing, the
+ * start of every day from 1901 to 2036 is checked against java.time in the
+ * local zone and in zones whose clocks change at midnight, where some days
+ * have no midnight or two. TimeZone and java.time only agree on every zone's
+ * offsets within those years.
+ *
+ * Run as: java com.date.DateBenchmark [operations]
+ *
+ * @author Kevin Petersen
+ */
+public class DateBenchmark {
+	private static final int DEFAULT_OPERATIONS = 2000000;
+	private static final int RUNS = 5;
+	// Loans are spread over this many days from 2010-01-01
+	private static final int SPAN = 4 * 365;
+	// Zones checked as well as the local one: Sao Paulo and Havana have days
+	// with no midnight, such as 1951-12-01 and 1965-06-01
+	private static final String[] ZONES = { "America/Sao_Paulo",
+			"America/Havana", "America/Santiago", "Asia/Beirut" };
+
+	// Keeps results alive so the work is not optimized away
+	private static long sink = 0;
+
+	/**
+	 * @param args
+	 *            Number of each operation to time per run
+	 */
+	public static void main(String[] args) {
+		int operations = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OPERATIONS);
+
+		int first = EpochDay.of(2010, 1, 1);
+		String[] texts = new String[SPAN];
+		Date[] dates = new Date[SPAN];
+		for(int i = 0; i < SPAN; i++) {
+			texts[i] = EpochDay.format(first + i);
+			dates[i] = EpochDay.toDate(first + i);
+		}
+
+		int wrong = 0;
+		for(int i = 0; i + 14 < SPAN; i++) {
+			if(calendarDaysBetween(dates[i + 14], dates[i]) != 14) {
+				wrong++;
+			}
+			if(DateParser.daysBetween(dates[i + 14], dates[i]) != 14) {
+				throw new IllegalStateException("EpochDay is wrong at " + texts[i]);
+			}
+		}
+		System.out.println(operations + " operations per run over " + SPAN
+				+ " days; Calendar got " + wrong + " 14 day loans wrong");
+
+		int days = checkStartOfDay(TimeZone.getDefault().getID());
+		for(String id : ZONES) {
+			checkStartOfDay(id);
+		}
+		System.out.println("Start of day matches java.time on " + days
+				+ " days in each of " + (ZONES.length + 1) + " zones");
+
+		for(int run = 0; run < 2; run++) {
+			boolean calendar = (run == 0);
+			long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+			for(int r = 0; r < RUNS; r++) {
+				long start = System.nanoTime();
+				for(int i = 0; i < operations; i++) {
+					Date d = (calendar ? calendarConvertToDate(texts[i % SPAN])
+							: DateParser.convertToDate(texts[i % SPAN]));
+					sink += d.getTime();
+				}
+				best[0] = Math.min(best[0], System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for(int i = 0; i < operations; i++) {
+					sink += (calendar ? calendarToday().getTime() : EpochDay.today());
+				}
+				best[1] = Math.min(best[1], System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for(int i = 0; i < operations; i++) {
+					Date d = (calendar ? calendarTodayPlusDays(14) : DateParser.todayPlusDays(14));
+					sink += d.getTime();
+				}
+				best[2] = Math.min(best[2], System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for(int i = 0; i < operations; i++) {
+					Date a = dates[i % SPAN];
+					Date b = dates[(i * 7) % SPAN];
+					sink += (calendar ? calendarDaysBetween(a, b) : DateParser.daysBetween(a, b));
+				}
+				best[3] = Math.min(best[3], System.nanoTime() - start);
+			}
+			System.out.println((calendar ? "Calendar:" : "EpochDay:") + " parse "
+					+ nanosEach(best[0], operations) + ", today "
+					+ nanosEach(best[1], operations) + ", today plus days "
+					+ nanosEach(best[2], operations) + ", days between "
+					+ nanosEach(best[3], operations) + " (best of " + RUNS + ")");
+		}
+		if(sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Checks EpochDay.toMillis() against LocalDate.atStartOfDay() for every
+	 * day from 1901 to 2036 in a zone
+	 *
+	 * @return Number of days checked
+	 */
+	private static int checkStartOfDay(String id) {
+		TimeZone zone = TimeZone.getTimeZone(id);
+		ZoneId zoneId = ZoneId.of(id);
+		int first = EpochDay.of(1901, 1, 1);
+		int end = EpochDay.of(2037, 1, 1);
+		for(int day = first; day < end; day++) {
+			long expected = LocalDate.ofEpochDay(day).atStartOfDay(zoneId).toInstant().toEpochMilli();
+			if(EpochDay.toMillis(day, zone) != expected) {
+				throw new IllegalStateException("EpochDay.toMillis is wrong on "
+						+ EpochDay.format(day) + " in " + id);
+			}
+		}
+		return end - first;
+	}
+
+	private static String nanosEach(long nanos, int operations) {
+		return (nanos / operations) + " ns";
+	}
+
+	// DateParser as it was, for comparison
+
+	private static Date calendarConvertToDate(String dateString) {
+		int year = Integer.parseInt(dateString.substring(0, 4));
+		int month = Integer.parseInt(dateString.substring(5, 7));
+		int day = Integer.parseInt(dateString.substring(8));
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(0);
+		cal.set(year, month - 1, day);
+		return new Date(cal.getTimeInMillis());
+	}
+
+	private static Date calendarToday() {
+		Calendar cal = Calendar.getInstance();
+		return new Date(cal.getTimeInMillis());
+	}
+
+	private static Date calendarTodayPlusDays(int days) {
+		Calendar cal = Calendar.getInstance();
+		cal.add(Calendar.DAY_OF_MONTH, days);
+		return new Date(cal.getTimeInMillis());
+	}
+
+	private static int calendarDaysBetween(Date a, Date b) {
+		Calendar calA = Calendar.getInstance();
+		calA.setTime(a);
+		Calendar calB = Calendar.getInstance();
+		calB.setTime(b);
+		int daysA = 365 * calA.get(Calendar.YEAR) + calA.get(Calendar.DAY_OF_YEAR);
+		int daysB = 365 * calB.get(Calendar.YEAR) + calB.get(Calendar.DAY_OF_YEAR);
+		return daysA - daysB;
+	}
+}
@@ -0,0 +1,288 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.date;
+
+import java.sql.Date;
+import java.util.TimeZone;
+
+/**
+ * Dates as ints counting days from 1970-01-01, in the library's time zone.
+ * Day arithmetic is plain int arithmetic and exact across leap years, and
+ * nothing here allocates except toDate(), which is only needed where a date
+ * goes to or comes from JDBC. Conversions to and from years, months and days
+ * use the proleptic Gregorian calendar.
+ *
+ * Today's day is cached with the times it starts and ends, so today() only
+ * reads the clock, and works the day out again when the clock passes
+ * midnight.
+ *
+ * @author Kevin Petersen
+ */
+public class EpochDay {
+	public static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+	// Days from 0000-03-01 to 1970-01-01
+	private static final int EPOCH_SHIFT = 719468;
+	private static final int DAYS_PER_ERA = 146097;
+	// Range of UTC offsets in use, from -12:00 to +14:00
+	private static final long MIN_OFFSET = -12 * 60 * 60 * 1000;
+	private static final long MAX_OFFSET = 14 * 60 * 60 * 1000;
+
+	private static final TimeZone zone = TimeZone.getDefault();
+
+	private static volatile Clock clock = Clock.SYSTEM;
+	private static volatile Today today = new Today(Long.MIN_VALUE, 0, Long.MIN_VALUE);
+
+	/**
+	 * A day and the times it starts and ends; replaced, never changed
+	 */
+	private static class Today {
+		private final long start;
+		private final int day;
+		private final long end;
+
+		private Today(long start, int day, long end) {
+			this.start = start;
+			this.day = day;
+			this.end = end;
+		}
+	}
+
+	private EpochDay() {
+	}
+
+	/**
+	 * @param year
+	 *            The year
+	 * @param month
+	 *            The month, 1 for January to 12
+	 * @param day
+	 *            The day of the month; days past the end of the month run on
+	 *            into the next
+	 * @return The date as a number of days since 1970-01-01
+	 */
+	public static int of(int year, int month, int day) {
+		int y = (month <= 2 ? year - 1 : year);
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * DAYS_PER_ERA + dayOfEra - EPOCH_SHIFT;
+	}
+
+	/**
+	 * @param epochDay
+	 *            Days since 1970-01-01
+	 * @return The date as year * 10000 + month * 100 + day, such as 20130315
+	 */
+	public static int toYearMonthDay(int epochDay) {
+		int z = epochDay + EPOCH_SHIFT;
+		int era = (z >= 0 ? z : z - DAYS_PER_ERA + 1) / DAYS_PER_ERA;
+		int dayOfEra = z - era * DAYS_PER_ERA;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = (mp < 10 ? mp + 3 : mp - 9);
+		int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * @return The year of a date
+	 */
+	public static int year(int epochDay) {
+		return toYearMonthDay(epochDay) / 10000;
+	}
+
+	/**
+	 * @return The month of a date, 1 for January to 12
+	 */
+	public static int month(int epochDay) {
+		return toYearMonthDay(epochDay) / 100 % 100;
+	}
+
+	/**
+	 * @return The day of the month of a date, from 1
+	 */
+	public static int dayOfMonth(int epochDay) {
+		return toYearMonthDay(epochDay) % 100;
+	}
+
+	/**
+	 * @return Number of days in a month of a year
+	 */
+	public static int lengthOfMonth(int year, int month) {
+		if(month == 2) {
+			boolean leap = (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0));
+			return (leap ? 29 : 28);
+		}
+		return (month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31);
+	}
+
+	/**
+	 * Reads a date in the format YYYY-MM-DD (ISO 8601) without creating any
+	 * objects
+	 *
+	 * @param text
+	 *            The date, with nothing before or after it
+	 * @return The date as a number of days since 1970-01-01
+	 * @throws NumberFormatException
+	 *             if the text is not a date in the format YYYY-MM-DD
+	 */
+	public static int parse(CharSequence text) {
+		if(text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+			throw new NumberFormatException("Not a date in the form YYYY-MM-DD: " + text);
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 7);
+		int day = digits(text, 8, 10);
+		if(month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+			throw new NumberFormatException("No such date: " + text);
+		}
+		return of(year, month, day);
+	}
+
+	private static int digits(CharSequence text, int from, int to) {
+		int n = 0;
+		for(int i = from; i < to; i++) {
+			int digit = text.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				throw new NumberFormatException("Not a date in the form YYYY-MM-DD: " + text);
+			}
+			n = n * 10 + digit;
+		}
+		return n;
+	}
+
+	/**
+	 * @return The date in the format YYYY-MM-DD
+	 */
+	public static String format(int epochDay) {
+		int ymd = toYearMonthDay(epochDay);
+		int month = ymd / 100 % 100;
+		int day = ymd % 100;
+		return (ymd / 10000) + (month < 10 ? "-0" : "-") + month
+				+ (day < 10 ? "-0" : "-") + day;
+	}
+
+	/**
+	 * @param millis
+	 *            A time in milliseconds since the epoch
+	 * @return The day the time falls on in the library's time zone
+	 */
+	public static int fromMillis(long millis) {
+		long local = millis + zone.getOffset(millis);
+		return (int) (local >= 0 ? local / MILLIS_PER_DAY : (local + 1) / MILLIS_PER_DAY - 1);
+	}
+
+	/**
+	 * @param epochDay
+	 *            Days since 1970-01-01
+	 * @return The time the day starts in the library's time zone
+	 */
+	public static long toMillis(int epochDay) {
+		return toMillis(epochDay, zone);
+	}
+
+	/**
+	 * Works out when a day starts in a time zone, as
+	 * LocalDate.atStartOfDay(zone) does. Midnight normally comes once. When
+	 * the clocks go back across it, it comes twice and the earlier one is
+	 * taken. When they go forward across it there is no midnight, and the day
+	 * starts at the first instant after the gap.
+	 *
+	 * @param epochDay
+	 *            Days since 1970-01-01
+	 * @param zone
+	 *            The time zone
+	 * @return The time the day starts in the time zone
+	 */
+	static long toMillis(int epochDay, TimeZone zone) {
+		long utc = epochDay * MILLIS_PER_DAY;
+		// Midnight falls between these two times for any offset in use
+		int early = zone.getOffset(utc - MAX_OFFSET);
+		int late = zone.getOffset(utc - MIN_OFFSET);
+		if(early == late) {
+			return utc - early;
+		}
+
+		long byEarly = utc - early;
+		long byLate = utc - late;
+		boolean earlyValid = (zone.getOffset(byEarly) == early);
+		boolean lateValid = (zone.getOffset(byLate) == late);
+		if(earlyValid && lateValid) {
+			return Math.min(byEarly, byLate);
+		} else if(earlyValid) {
+			return byEarly;
+		} else if(lateValid) {
+			return byLate;
+		}
+
+		// Midnight is in a gap: find the instant the later offset starts
+		long lo = Math.min(byEarly, byLate);
+		long hi = Math.max(byEarly, byLate);
+		while(hi - lo > 1) {
+			long mid = lo + (hi - lo) / 2;
+			if(zone.getOffset(mid) == late) {
+				hi = mid;
+			} else {
+				lo = mid;
+			}
+		}
+		return hi;
+	}
+
+	/**
+	 * @param date
+	 *            A date read from JDBC, or any other time
+	 * @return The day the date falls on
+	 */
+	public static int fromDate(java.util.Date date) {
+		return fromMillis(date.getTime());
+	}
+
+	/**
+	 * @param epochDay
+	 *            Days since 1970-01-01
+	 * @return The day as a SQL Date at its start, for JDBC
+	 */
+	public static Date toDate(int epochDay) {
+		return new Date(toMillis(epochDay));
+	}
+
+	/**
+	 * @return Today as a number of days since 1970-01-01, by the clock
+	 */
+	public static int today() {
+		long now = clock.currentTimeMillis();
+		Today t = today;
+		if(now < t.start || now >= t.end) {
+			int day = fromMillis(now);
+			t = new Today(toMillis(day), day, toMillis(day + 1));
+			today = t;
+		}
+		return t.day;
+	}
+
+	/**
+	 * @return The clock today() reads
+	 */
+	public static Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Makes today() read another clock from now on
+	 *
+	 * @param source
+	 *            The new clock
+	 */
+	public static void setClock(Clock source) {
+		clock = source;
+		// Force today() to look at the new clock's day
+		today = new Today(Long.MIN_VALUE, 0, Long.MIN_VALUE);
+	}
+}
@@ -0,0 +1,99 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.date;
+
+/**
+ * A clock that starts at a chosen time and runs a number of times faster
+ * than real time, and can be moved forward by hand. Installed with
+ * EpochDay.setClock(), it lets a semester or a year of circulation be played
+ * through in minutes: due dates, fines, hold pickups and trending scores all
+ * follow it, and background jobs that use realMillis() wait for simulated
+ * rather than real hours.
+ *
+ * Simulated time never runs backwards, whatever the computer's clock does.
+ *
+ * @author Kevin Petersen
+ */
+public class SimulatedClock implements Clock {
+	private final long start;
+	private final double speed;
+	private final long realStart = System.nanoTime();
+
+	// Total time moved forward by advance()
+	private volatile long skipped = 0;
+
+	/**
+	 * @param start
+	 *            Time the clock starts at, in milliseconds since the epoch
+	 * @param speed
+	 *            Simulated milliseconds per real millisecond; 0 stops the
+	 *            clock, so it only moves with advance()
+	 */
+	public SimulatedClock(long start, double speed) {
+		if(speed < 0) {
+			throw new IllegalArgumentException("Speed may not be negative: " + speed);
+		}
+		this.start = start;
+		this.speed = speed;
+	}
+
+	/**
+	 * Makes a clock starting at the beginning of a day and installs it for
+	 * the whole library
+	 *
+	 * @param startDate
+	 *            First day, in the form YYYY-MM-DD
+	 * @param speed
+	 *            Simulated milliseconds per real millisecond
+	 * @return The installed clock
+	 * @throws NumberFormatException
+	 *             if startDate is not a date in the form YYYY-MM-DD
+	 */
+	public static SimulatedClock install(String startDate, double speed) {
+		SimulatedClock clock = new SimulatedClock(
+				EpochDay.toMillis(EpochDay.parse(startDate)), speed);
+		EpochDay.setClock(clock);
+		return clock;
+	}
+
+	public long currentTimeMillis() {
+		double elapsed = (System.nanoTime() - this.realStart) / 1000000.0 * this.speed;
+		return this.start + this.skipped + (long) elapsed;
+	}
+
+	public long realMillis(long millis) {
+		if(this.speed == 0) {
+			return millis;
+		}
+		return Math.max(1, (long) (millis / this.speed));
+	}
+
+	/**
+	 * Moves the clock forward
+	 *
+	 * @param millis
+	 *            Time to skip, in milliseconds
+	 */
+	public synchronized void advance(long millis) {
+		if(millis < 0) {
+			throw new IllegalArgumentException("Time may not go backwards: " + millis);
+		}
+		this.skipped += millis;
+	}
+
+	/**
+	 * Moves the clock forward a number of whole days
+	 */
+	public void advanceDays(int days) {
+		advance(days * EpochDay.MILLIS_PER_DAY);
+	}
+
+	/**
+	 * @return Simulated milliseconds per real millisecond
+	 */
+	public double getSpeed() {
+		return this.speed;
+	}
+}
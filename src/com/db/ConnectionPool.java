@@ -0,0 +1,477 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * Bounded pool of database connections shared by every desk running in this
+ * process. A thread borrows a connection with getConnection() and hands it
+ * back with release(). Borrowing is reentrant: while a thread holds a
+ * connection, nested calls get the same one, so an operation that calls other
+ * operations stays on a single session. While a thread holds a connection it
+ * also has its own EntityCache request tier.
+ *
+ * Entity classes commit through commit() rather than on the connection. Inside
+ * a transaction started with beginTransaction() those commits are deferred, so
+ * the statements of every nested operation commit or roll back together.
+ *
+ * @author Kevin Petersen
+ */
+public class ConnectionPool {
+	public static final int DEFAULT_MAX_SIZE = 4;
+
+	private static final Object lock = new Object();
+	private static final LinkedList<Connection> idle = new LinkedList<Connection>();
+	private static final ThreadLocal<Lease> lease = new ThreadLocal<Lease>();
+
+	private static DataSource source;
+	private static int maxSize = DEFAULT_MAX_SIZE;
+	private static int active = 0;
+	private static int opened = 0;
+
+	private static long borrowCount = 0;
+	private static long waitCount = 0;
+	private static long waitNanos = 0;
+
+	/**
+	 * A connection held by a thread, and how many nested borrows are using it
+	 */
+	private static class Lease {
+		private Connection con;
+		private int depth = 1;
+		// Depth the open transaction was begun at, or 0 if there is none
+		private int transaction = 0;
+		// Whether the transaction has work that still needs its commit
+		private boolean pending = false;
+		// Work to run once the transaction commits
+		private List<Runnable> onCommit = new ArrayList<Runnable>();
+
+		private Lease(Connection con) {
+			this.con = con;
+		}
+	}
+
+	private ConnectionPool() {
+	}
+
+	/**
+	 * Sets up the pool to draw connections from the given source. One
+	 * connection is opened straight away so bad credentials are reported here.
+	 *
+	 * @param dataSource
+	 *            Where new physical connections come from
+	 * @param size
+	 *            Maximum number of connections open at once
+	 * @throws SQLException
+	 *             if a connection to the database could not be opened
+	 */
+	public static void initialize(DataSource dataSource, int size)
+			throws SQLException {
+		close();
+
+		Connection con = open(dataSource);
+		synchronized(lock) {
+			source = dataSource;
+			maxSize = Math.max(1, size);
+			opened++;
+			idle.add(con);
+		}
+	}
+
+	/**
+	 * Opens a new physical connection in the mode every pooled connection uses
+	 *
+	 * @param dataSource
+	 *            Where the connection comes from
+	 * @return A connection with auto commit disabled
+	 * @throws SQLException
+	 *             if a connection to the database could not be opened
+	 */
+	private static Connection open(DataSource dataSource) throws SQLException {
+		Connection con = dataSource.getConnection();
+		// Disable auto commit mode
+		con.setAutoCommit(false);
+		return con;
+	}
+
+	/**
+	 * Opens a connection outside the pool, for work that has to commit
+	 * independently of whatever the calling thread has in progress. The caller
+	 * is responsible for closing it.
+	 *
+	 * @return A connection with auto commit disabled
+	 * @throws SQLException
+	 *             if the pool has not been initialized or the connection could
+	 *             not be opened
+	 */
+	public static Connection openConnection() throws SQLException {
+		DataSource from = getDataSource();
+		if(from == null) {
+			throw new SQLException("Connection pool has not been initialized.");
+		}
+		return open(from);
+	}
+
+	/**
+	 * Gets the connection held by the current thread, borrowing one from the
+	 * pool if it doesn't have one yet. Every call must be matched by a call to
+	 * release().
+	 *
+	 * @return A connection with auto commit disabled
+	 * @throws SQLException
+	 *             if the pool has not been initialized or a new connection
+	 *             could not be opened
+	 */
+	public static Connection getConnection() throws SQLException {
+		Lease l = lease.get();
+		if(l != null) {
+			l.depth++;
+			return l.con;
+		}
+
+		Connection con = borrow();
+		lease.set(new Lease(con));
+		EntityCache.beginRequest();
+		return con;
+	}
+
+	/**
+	 * Gets the connection held by the current thread like getConnection(), and
+	 * starts a transaction on it unless one is already open. Until the caller
+	 * commits, commits made by nested operations are deferred. If the caller
+	 * releases the connection without committing, the transaction is rolled
+	 * back. Every call must be matched by a call to release().
+	 *
+	 * @return A connection with auto commit disabled
+	 * @throws SQLException
+	 *             if the pool has not been initialized or a new connection
+	 *             could not be opened
+	 */
+	public static Connection beginTransaction() throws SQLException {
+		Connection con = getConnection();
+		Lease l = lease.get();
+		if(l.transaction == 0) {
+			l.transaction = l.depth;
+			l.pending = true;
+		}
+		return con;
+	}
+
+	/**
+	 * Commits the work done on a connection obtained from this pool. Inside a
+	 * transaction, only the call made at the level that began it commits;
+	 * calls from nested operations leave the work for it.
+	 *
+	 * @param con
+	 *            The connection to commit
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public static void commit(Connection con) throws SQLException {
+		Lease l = held(con);
+		if(l.transaction == 0) {
+			con.commit();
+		} else if(l.transaction == l.depth) {
+			con.commit();
+			l.pending = false;
+			runOnCommit(l);
+		} else {
+			l.pending = true;
+		}
+	}
+
+	/**
+	 * Runs some work once what the current thread has done so far is
+	 * committed: straight away if it has no transaction open, otherwise when
+	 * the transaction commits. If the transaction is rolled back instead, the
+	 * work is dropped. Used to keep in-memory structures in step with the
+	 * committed rows.
+	 *
+	 * @param work
+	 *            What to run after the commit
+	 */
+	public static void afterCommit(Runnable work) {
+		Lease l = lease.get();
+		if(l == null || l.transaction == 0) {
+			work.run();
+		} else {
+			l.onCommit.add(work);
+		}
+	}
+
+	private static void runOnCommit(Lease l) {
+		List<Runnable> work = new ArrayList<Runnable>(l.onCommit);
+		l.onCommit.clear();
+		for(Runnable r : work) {
+			r.run();
+		}
+	}
+
+	/**
+	 * @return true if the current thread has a transaction open
+	 */
+	public static boolean inTransaction() {
+		Lease l = lease.get();
+		return (l != null && l.transaction != 0);
+	}
+
+	/**
+	 * @return The lease the current thread holds con under
+	 */
+	private static Lease held(Connection con) {
+		Lease l = lease.get();
+		if(l == null || l.con != con) {
+			throw new IllegalStateException("Connection is not held by this thread.");
+		}
+		return l;
+	}
+
+	/**
+	 * Hands back a connection obtained from getConnection(). The connection
+	 * only returns to the pool once the outermost borrow on this thread
+	 * releases it. Releasing at the level that began a transaction ends it,
+	 * rolling back anything left uncommitted.
+	 *
+	 * @param con
+	 *            The connection to release
+	 */
+	public static void release(Connection con) {
+		Lease l = held(con);
+
+		if(l.transaction == l.depth) {
+			l.transaction = 0;
+			if(l.pending) {
+				l.pending = false;
+				l.onCommit.clear();
+				try {
+					con.rollback();
+				} catch (SQLException sql) {
+					System.out.println("Message: " + sql.getMessage());
+				}
+				// Objects cached during the transaction may not match the rows
+				EntityCache.discardRequest();
+			}
+		}
+
+		if(--l.depth == 0) {
+			lease.remove();
+			EntityCache.endRequest();
+			giveBack(con);
+		}
+	}
+
+	/**
+	 * Takes an idle connection, opens a new one if the pool is below its
+	 * maximum size, or waits for another thread to release one.
+	 */
+	private static Connection borrow() throws SQLException {
+		DataSource from;
+
+		synchronized(lock) {
+			if(source == null) {
+				throw new SQLException("Connection pool has not been initialized.");
+			}
+
+			long start = System.nanoTime();
+			boolean waited = false;
+			while(idle.isEmpty() && opened >= maxSize) {
+				waited = true;
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for a connection.");
+				}
+			}
+
+			borrowCount++;
+			if(waited) {
+				waitCount++;
+				waitNanos += System.nanoTime() - start;
+			}
+
+			active++;
+			if(!idle.isEmpty()) {
+				return idle.removeFirst();
+			}
+
+			// Reserve the slot, then open the connection outside the lock
+			opened++;
+			from = source;
+		}
+
+		try {
+			return open(from);
+		} catch (SQLException sql) {
+			synchronized(lock) {
+				opened--;
+				active--;
+				lock.notify();
+			}
+			throw sql;
+		}
+	}
+
+	/**
+	 * Returns a connection to the idle list, or closes it if the pool has
+	 * shrunk or been closed since it was borrowed.
+	 */
+	private static void giveBack(Connection con) {
+		StatementCache.releaseAll(con);
+		boolean keep;
+
+		synchronized(lock) {
+			active--;
+			keep = (source != null && opened <= maxSize);
+			if(keep) {
+				idle.addFirst(con);
+			} else {
+				opened--;
+			}
+			lock.notify();
+		}
+
+		if(!keep) {
+			closeQuietly(con);
+		}
+	}
+
+	/**
+	 * Closes every idle connection and stops handing out new ones. Connections
+	 * still in use are closed as they are released.
+	 */
+	public static void close() {
+		LinkedList<Connection> toClose;
+
+		synchronized(lock) {
+			source = null;
+			toClose = new LinkedList<Connection>(idle);
+			opened -= idle.size();
+			idle.clear();
+			lock.notifyAll();
+		}
+
+		for(Connection con : toClose) {
+			closeQuietly(con);
+		}
+	}
+
+	private static void closeQuietly(Connection con) {
+		StatementCache.discard(con);
+		try {
+			con.close();
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+		}
+	}
+
+	/**
+	 * @return The source new connections are opened from, or null if the pool
+	 *         is not initialized
+	 */
+	public static DataSource getDataSource() {
+		synchronized(lock) {
+			return source;
+		}
+	}
+
+	/**
+	 * @return Maximum number of connections open at once
+	 */
+	public static int getMaxSize() {
+		synchronized(lock) {
+			return maxSize;
+		}
+	}
+
+	/**
+	 * Changes the maximum number of connections open at once. If the pool
+	 * shrinks, surplus connections are closed as they are released.
+	 *
+	 * @param size
+	 *            Maximum number of connections open at once
+	 */
+	public static void setMaxSize(int size) {
+		LinkedList<Connection> toClose = new LinkedList<Connection>();
+
+		synchronized(lock) {
+			maxSize = Math.max(1, size);
+			while(opened > maxSize && !idle.isEmpty()) {
+				toClose.add(idle.removeLast());
+				opened--;
+			}
+			lock.notifyAll();
+		}
+
+		for(Connection con : toClose) {
+			closeQuietly(con);
+		}
+	}
+
+	/**
+	 * @return Number of connections currently borrowed by a thread
+	 */
+	public static int getActiveCount() {
+		synchronized(lock) {
+			return active;
+		}
+	}
+
+	/**
+	 * @return Number of open connections waiting in the pool
+	 */
+	public static int getIdleCount() {
+		synchronized(lock) {
+			return idle.size();
+		}
+	}
+
+	/**
+	 * @return Number of times a thread borrowed a connection from the pool
+	 */
+	public static long getBorrowCount() {
+		synchronized(lock) {
+			return borrowCount;
+		}
+	}
+
+	/**
+	 * @return Number of borrows that had to wait for a connection to free up
+	 */
+	public static long getWaitCount() {
+		synchronized(lock) {
+			return waitCount;
+		}
+	}
+
+	/**
+	 * @return Total time threads have spent waiting for a connection, in
+	 *         milliseconds
+	 */
+	public static long getWaitTime() {
+		synchronized(lock) {
+			return waitNanos / 1000000;
+		}
+	}
+
+	/**
+	 * @return A one line summary of the pool's counters
+	 */
+	public static String getStatistics() {
+		synchronized(lock) {
+			return "Connections: " + active + " active, " + idle.size()
+					+ " idle, " + maxSize + " max; " + borrowCount
+					+ " borrows, " + waitCount + " waited "
+					+ (waitNanos / 1000000) + " ms";
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Minimal DataSource that opens a new physical connection through the
+ * DriverManager every time one is requested. Used as the default source for
+ * the ConnectionPool.
+ *
+ * @author Kevin Petersen
+ */
+public class DriverManagerDataSource implements DataSource {
+	private String url;
+	private String username;
+	private String password;
+
+	/**
+	 * @param url
+	 *            JDBC url of the database. Ex.
+	 *            jdbc:oracle:thin:@dbhost.ugrad.cs.ubc.ca:1522:ug
+	 * @param username
+	 *            Username to sign in with. Ex. ora_x1y2
+	 * @param password
+	 *            Password for the username Ex. a12345678
+	 */
+	public DriverManagerDataSource(String url, String username, String password) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+	}
+
+	/**
+	 * Opens a new connection with the username and password this source was
+	 * built with.
+	 */
+	public Connection getConnection() throws SQLException {
+		return DriverManager.getConnection(this.url, this.username, this.password);
+	}
+
+	/**
+	 * Opens a new connection with the given username and password.
+	 */
+	public Connection getConnection(String username, String password)
+			throws SQLException {
+		return DriverManager.getConnection(this.url, username, password);
+	}
+
+	public PrintWriter getLogWriter() {
+		return DriverManager.getLogWriter();
+	}
+
+	public void setLogWriter(PrintWriter out) {
+		DriverManager.setLogWriter(out);
+	}
+
+	public int getLoginTimeout() {
+		return DriverManager.getLoginTimeout();
+	}
+
+	public void setLoginTimeout(int seconds) {
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+}
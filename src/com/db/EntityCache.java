@@ -0,0 +1,269 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cache of entity objects keyed by primary key, in two tiers. The request tier
+ * is an identity map that lives for as long as the current thread holds a
+ * pooled connection, so every lookup of a key during one operation returns the
+ * same object. The shared tier is a bounded least recently used map that
+ * survives between operations; a capacity of 0 turns it off.
+ *
+ * The shared tier is off unless a capacity is given or set with
+ * setCapacity(). It hands every thread the same objects, so a setter's change
+ * is seen by other threads before it is committed, and nothing in it notices
+ * writes made by other processes. Only turn it on for entries that are
+ * replaced rather than changed, or when this process is the only writer and
+ * stale reads are acceptable.
+ *
+ * @author Kevin Petersen
+ */
+public class EntityCache<K, V> {
+	public static final int DEFAULT_CAPACITY = 0;
+
+	private static final List<EntityCache<?, ?>> caches =
+			new CopyOnWriteArrayList<EntityCache<?, ?>>();
+	private static final ThreadLocal<Map<EntityCache<?, ?>, Map<Object, Object>>> request =
+			new ThreadLocal<Map<EntityCache<?, ?>, Map<Object, Object>>>();
+
+	private String name;
+	private int capacity;
+	private LinkedHashMap<K, V> shared;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param name
+	 *            Name of the cached table, used when reporting statistics
+	 * @param capacity
+	 *            Maximum number of entries kept in the shared tier
+	 */
+	public EntityCache(String name, int capacity) {
+		this.name = name;
+		this.capacity = Math.max(0, capacity);
+		this.shared = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if(size() > EntityCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		caches.add(this);
+	}
+
+	/**
+	 * Starts the request tier for the current thread. Called by the
+	 * ConnectionPool when a thread takes a connection.
+	 */
+	static void beginRequest() {
+		request.set(new HashMap<EntityCache<?, ?>, Map<Object, Object>>());
+	}
+
+	/**
+	 * Drops the request tier for the current thread. Called by the
+	 * ConnectionPool when a thread gives its connection back.
+	 */
+	static void endRequest() {
+		request.remove();
+	}
+
+	/**
+	 * Forgets, in the shared tier as well, every object the current thread
+	 * has looked up or cached during this request. Called by the
+	 * ConnectionPool when a transaction is rolled back.
+	 */
+	static void discardRequest() {
+		Map<EntityCache<?, ?>, Map<Object, Object>> maps = request.get();
+		if(maps == null) {
+			return;
+		}
+
+		for(Map.Entry<EntityCache<?, ?>, Map<Object, Object>> e : maps.entrySet()) {
+			EntityCache<?, ?> cache = e.getKey();
+			synchronized(cache) {
+				cache.shared.keySet().removeAll(e.getValue().keySet());
+			}
+			e.getValue().clear();
+		}
+	}
+
+	/**
+	 * @return This cache's part of the current thread's request tier, or null
+	 *         if the thread is not in a request
+	 */
+	private Map<Object, Object> requestMap(boolean create) {
+		Map<EntityCache<?, ?>, Map<Object, Object>> maps = request.get();
+		if(maps == null) {
+			return null;
+		}
+
+		Map<Object, Object> map = maps.get(this);
+		if(map == null && create) {
+			map = new HashMap<Object, Object>();
+			maps.put(this, map);
+		}
+		return map;
+	}
+
+	/**
+	 * Looks up the object cached for a key
+	 *
+	 * @param key
+	 *            Primary key of the entry
+	 * @return The cached object, or null if the key is not cached
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V get(K key) {
+		Map<Object, Object> map = requestMap(false);
+		V value = (map == null ? null : (V) map.get(key));
+
+		if(value == null) {
+			value = this.shared.get(key);
+			if(value != null && map != null) {
+				map.put(key, value);
+			}
+		}
+
+		if(value == null) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Caches an object, replacing whatever was cached for its key
+	 *
+	 * @param key
+	 *            Primary key of the entry
+	 * @param value
+	 *            Object representing the entry
+	 */
+	public synchronized void put(K key, V value) {
+		Map<Object, Object> map = requestMap(true);
+		if(map != null) {
+			map.put(key, value);
+		}
+
+		if(this.capacity > 0) {
+			this.shared.put(key, value);
+		}
+	}
+
+	/**
+	 * Forgets the object cached for a key
+	 *
+	 * @param key
+	 *            Primary key of the entry
+	 */
+	public synchronized void remove(K key) {
+		Map<Object, Object> map = requestMap(false);
+		if(map != null) {
+			map.remove(key);
+		}
+
+		this.shared.remove(key);
+	}
+
+	/**
+	 * Empties the shared tier
+	 */
+	public synchronized void clear() {
+		this.shared.clear();
+	}
+
+	/**
+	 * @return Maximum number of entries kept in the shared tier
+	 */
+	public synchronized int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Changes the maximum number of entries kept in the shared tier, evicting
+	 * the least recently used entries if it shrinks. 0 turns it off.
+	 *
+	 * @param capacity
+	 *            Maximum number of entries kept in the shared tier
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = Math.max(0, capacity);
+
+		while(this.shared.size() > this.capacity) {
+			K eldest = this.shared.keySet().iterator().next();
+			this.shared.remove(eldest);
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * @return Name of the cached table
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return Number of entries in the shared tier
+	 */
+	public synchronized int getSize() {
+		return this.shared.size();
+	}
+
+	/**
+	 * @return Number of lookups answered from the cache
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return Number of lookups that had to go to the database
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return Number of entries pushed out of the shared tier to stay within
+	 *         its capacity
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return A one line summary of this cache's counters
+	 */
+	public synchronized String toString() {
+		return this.name + ": " + this.shared.size() + "/" + this.capacity
+				+ " entries, " + this.hits + " hits, " + this.misses
+				+ " misses, " + this.evictions + " evictions";
+	}
+
+	/**
+	 * @return A summary of the counters of every cache, one per line
+	 */
+	public static String getStatistics() {
+		StringBuilder s = new StringBuilder();
+		for(EntityCache<?, ?> cache : caches) {
+			s.append(cache.toString()).append('\n');
+		}
+		return s.toString();
+	}
+}
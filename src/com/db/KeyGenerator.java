@@ -0,0 +1,183 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out primary keys for one table from blocks reserved in the KeyBlock
+ * table. Each reservation claims blockSize keys in a single short transaction
+ * on a dedicated connection, after which keys are handed out from memory. Two
+ * processes never receive the same key because the reservation runs under the
+ * row lock of the KeyBlock entry.
+ *
+ * @author Kevin Petersen
+ */
+public class KeyGenerator {
+	public static final int DEFAULT_BLOCK_SIZE = 20;
+
+	private static final Object sessionLock = new Object();
+	private static Connection session;
+
+	private String name;
+	private String seedQuery;
+	private int blockSize;
+	private volatile Block block = new Block(0, 0);
+
+	/**
+	 * A range of reserved keys, from next up to but not including limit
+	 */
+	private static class Block {
+		private AtomicInteger next;
+		private int limit;
+
+		private Block(int first, int limit) {
+			this.next = new AtomicInteger(first);
+			this.limit = limit;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            Name of the KeyBlock entry keys are reserved from
+	 * @param seedQuery
+	 *            Query returning the largest key in use, run once to create
+	 *            the KeyBlock entry if it does not exist yet
+	 * @param blockSize
+	 *            Number of keys reserved per round trip
+	 */
+	public KeyGenerator(String name, String seedQuery, int blockSize) {
+		this.name = name;
+		this.seedQuery = seedQuery;
+		this.blockSize = Math.max(1, blockSize);
+	}
+
+	/**
+	 * @return An unused unique key
+	 * @throws SQLException
+	 *             if a new block of keys could not be reserved
+	 */
+	public int nextKey() throws SQLException {
+		while(true) {
+			Block b = this.block;
+			int key = b.next.getAndIncrement();
+			if(key < b.limit) {
+				return key;
+			}
+
+			synchronized(this) {
+				// Only the first thread to find the block empty reserves another
+				if(this.block == b) {
+					this.block = reserve();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Claims the next blockSize keys from the KeyBlock table
+	 *
+	 * @return The newly reserved block
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private Block reserve() throws SQLException {
+		synchronized(sessionLock) {
+			Connection con = session();
+
+			try {
+				for(int attempt = 0; ; attempt++) {
+					PreparedStatement ps = Sql.prepare(con, "UPDATE KeyBlock SET nextKey=nextKey+? WHERE name=?");
+					ps.setInt(1, this.blockSize);
+					ps.setString(2, this.name);
+					int updated = Sql.update(ps);
+
+					if(updated > 0) {
+						ps = Sql.prepare(con, "SELECT nextKey FROM KeyBlock WHERE name=?");
+						ps.setString(1, this.name);
+						Integer limit = Sql.first(ps, Sql.INT);
+						if(limit == null) {
+							throw new SQLException("KeyBlock entry " + this.name + " has no next key.");
+						}
+
+						con.commit();
+						return new Block(limit - this.blockSize, limit);
+					}
+
+					try {
+						int first = seed(con);
+						con.commit();
+						return new Block(first, first + this.blockSize);
+					} catch (SQLException sql) {
+						// Another process created the entry first; reserve from it
+						con.rollback();
+						if(attempt > 0) {
+							throw sql;
+						}
+					}
+				}
+			} catch (SQLException sql) {
+				System.out.println("Message: " + sql.getMessage());
+				closeSession();
+				throw sql;
+			}
+		}
+	}
+
+	/**
+	 * Creates the KeyBlock entry for this generator, starting after the
+	 * largest key already in use, and reserves the first block from it
+	 *
+	 * @return The first key of the reserved block
+	 */
+	private int seed(Connection con) throws SQLException {
+		Integer largest = Sql.first(Sql.prepare(con, this.seedQuery), Sql.INT);
+		int first = (largest != null ? largest + 1 : 1);
+
+		PreparedStatement ps = Sql.prepare(con, "INSERT INTO KeyBlock VALUES (?,?)");
+		ps.setString(1, this.name);
+		ps.setInt(2, first + this.blockSize);
+		Sql.update(ps);
+
+		return first;
+	}
+
+	/**
+	 * @return The connection reservations run on, opened on first use. It is
+	 *         kept apart from the pool so a reservation never commits work the
+	 *         calling thread has in progress.
+	 */
+	private static Connection session() throws SQLException {
+		if(session == null) {
+			session = ConnectionPool.openConnection();
+		}
+		return session;
+	}
+
+	private static void closeSession() {
+		if(session != null) {
+			StatementCache.discard(session);
+			try {
+				session.close();
+			} catch (SQLException sql) {
+				System.out.println("Message: " + sql.getMessage());
+			}
+			session = null;
+		}
+	}
+
+	/**
+	 * Closes the connection used for reserving keys. Keys already reserved are
+	 * still handed out; the connection is reopened when a new block is needed.
+	 */
+	public static void close() {
+		synchronized(sessionLock) {
+			closeSession();
+		}
+	}
+}
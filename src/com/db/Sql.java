@@ -0,0 +1,232 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers the entity classes run their statements through. Statements come
+ * from the StatementCache of the connection and go back to it once executed;
+ * result sets are always closed before these methods return, so no cursor is
+ * left open on the database.
+ *
+ * @author Kevin Petersen
+ */
+public class Sql {
+	private static int openResults = 0;
+
+	/**
+	 * Reads an object from the current row of a result set
+	 */
+	public interface Row<T> {
+		/**
+		 * @param r
+		 *            Result set positioned on a row
+		 * @return The object represented by the row
+		 * @throws SQLException
+		 *             if the columnLabel is not valid; if a database access
+		 *             error occurs or this method is called on a closed result
+		 *             set
+		 */
+		T read(ResultSet r) throws SQLException;
+	}
+
+	/**
+	 * Reads the first column of a row as an int
+	 */
+	public static final Row<Integer> INT = new Row<Integer>() {
+		public Integer read(ResultSet r) throws SQLException {
+			int value = r.getInt(1);
+			return (r.wasNull() ? null : value);
+		}
+	};
+
+	/**
+	 * Reads the first column of a row as a date
+	 */
+	public static final Row<Date> DATE = new Row<Date>() {
+		public Date read(ResultSet r) throws SQLException {
+			return r.getDate(1);
+		}
+	};
+
+	private Sql() {
+	}
+
+	/**
+	 * Gets a prepared statement for the given SQL from the connection's
+	 * statement cache. It must be handed back with release(), or by running it
+	 * through one of the other methods of this class.
+	 *
+	 * @param con
+	 *            Connection obtained from the ConnectionPool
+	 * @param sql
+	 *            SQL of the statement
+	 * @return A statement with its parameters cleared
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public static PreparedStatement prepare(Connection con, String sql)
+			throws SQLException {
+		return StatementCache.of(con).prepare(sql);
+	}
+
+	/**
+	 * Hands a statement obtained from prepare() back to its cache
+	 *
+	 * @param ps
+	 *            The statement to release
+	 */
+	public static void release(PreparedStatement ps) {
+		try {
+			StatementCache.of(ps.getConnection()).release(ps);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+		}
+	}
+
+	/**
+	 * Runs an update and releases the statement
+	 *
+	 * @param ps
+	 *            Statement obtained from prepare() with its parameters set
+	 * @return Number of rows changed
+	 * @throws SQLException
+	 *             if a database access error occurs or the SQL statement
+	 *             returns a ResultSet object
+	 */
+	public static int update(PreparedStatement ps) throws SQLException {
+		try {
+			return ps.executeUpdate();
+		} finally {
+			release(ps);
+		}
+	}
+
+	/**
+	 * Runs the batch of commands added to a statement and releases it
+	 *
+	 * @param ps
+	 *            Statement obtained from prepare() with its batch added
+	 * @return Number of rows changed by each command, as reported by the driver
+	 * @throws SQLException
+	 *             if a database access error occurs or one of the commands
+	 *             fails
+	 */
+	public static int[] batch(PreparedStatement ps) throws SQLException {
+		try {
+			return ps.executeBatch();
+		} finally {
+			release(ps);
+		}
+	}
+
+	/**
+	 * Runs a query, reads every row it returns and releases the statement
+	 *
+	 * @param ps
+	 *            Statement obtained from prepare() with its parameters set
+	 * @param row
+	 *            How to read each row
+	 * @return The objects read, in the order of the rows
+	 * @throws SQLException
+	 *             if a database access error occurs or the SQL statement does
+	 *             not return a ResultSet object
+	 */
+	public static <T> List<T> list(PreparedStatement ps, Row<T> row)
+			throws SQLException {
+		List<T> list = new ArrayList<T>();
+		ResultSet r = open(ps);
+		try {
+			while(r.next()) {
+				list.add(row.read(r));
+			}
+			return list;
+		} finally {
+			close(r, ps);
+		}
+	}
+
+	/**
+	 * Runs a query, reads the first row it returns and releases the statement
+	 *
+	 * @param ps
+	 *            Statement obtained from prepare() with its parameters set
+	 * @param row
+	 *            How to read the row
+	 * @return The object read, or null if the query returned no rows
+	 * @throws SQLException
+	 *             if a database access error occurs or the SQL statement does
+	 *             not return a ResultSet object
+	 */
+	public static <T> T first(PreparedStatement ps, Row<T> row)
+			throws SQLException {
+		ResultSet r = open(ps);
+		try {
+			return (r.next() ? row.read(r) : null);
+		} finally {
+			close(r, ps);
+		}
+	}
+
+	/**
+	 * Runs a query and tells whether it returned any rows, then releases the
+	 * statement
+	 *
+	 * @param ps
+	 *            Statement obtained from prepare() with its parameters set
+	 * @return true if the query returned at least one row
+	 * @throws SQLException
+	 *             if a database access error occurs or the SQL statement does
+	 *             not return a ResultSet object
+	 */
+	public static boolean exists(PreparedStatement ps) throws SQLException {
+		ResultSet r = open(ps);
+		try {
+			return r.next();
+		} finally {
+			close(r, ps);
+		}
+	}
+
+	private static ResultSet open(PreparedStatement ps) throws SQLException {
+		ResultSet r;
+		try {
+			r = ps.executeQuery();
+		} catch (SQLException sql) {
+			release(ps);
+			throw sql;
+		}
+		countResults(1);
+		return r;
+	}
+
+	private static void close(ResultSet r, PreparedStatement ps) {
+		countResults(-1);
+		try {
+			r.close();
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+		}
+		release(ps);
+	}
+
+	private static synchronized void countResults(int n) {
+		openResults += n;
+	}
+
+	/**
+	 * @return Number of result sets currently being read
+	 */
+	public static synchronized int getOpenResultCount() {
+		return openResults;
+	}
+}
@@ -0,0 +1,275 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prepared statements of one connection, kept open and keyed by their SQL so
+ * the database parses each statement once per session. A statement is handed
+ * to one caller at a time; if its SQL is asked for again while it is still in
+ * use, an extra statement is prepared and closed as soon as it is released.
+ * The least recently used statements are closed once the cache is full.
+ *
+ * @author Kevin Petersen
+ */
+public class StatementCache {
+	public static final int DEFAULT_CAPACITY = 50;
+
+	private static final Map<Connection, StatementCache> caches =
+			new IdentityHashMap<Connection, StatementCache>();
+	private static int capacity = DEFAULT_CAPACITY;
+
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+	private static int open = 0;
+
+	private Connection con;
+	private LinkedHashMap<String, PreparedStatement> statements;
+	private Set<PreparedStatement> inUse =
+			Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+	private Map<PreparedStatement, String> sqlOf =
+			new IdentityHashMap<PreparedStatement, String>();
+
+	private StatementCache(Connection con) {
+		this.con = con;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * @param con
+	 *            An open connection
+	 * @return The statement cache of the connection, created on first use
+	 */
+	static StatementCache of(Connection con) {
+		synchronized(caches) {
+			StatementCache cache = caches.get(con);
+			if(cache == null) {
+				cache = new StatementCache(con);
+				caches.put(con, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Closes every statement cached for a connection. Called by the
+	 * ConnectionPool before it closes the connection.
+	 *
+	 * @param con
+	 *            The connection about to be closed
+	 */
+	static void discard(Connection con) {
+		StatementCache cache;
+		synchronized(caches) {
+			cache = caches.remove(con);
+		}
+
+		if(cache != null) {
+			cache.closeAll();
+		}
+	}
+
+	/**
+	 * Hands every statement of a connection back to the cache, closing the
+	 * extra ones. Called by the ConnectionPool when the connection returns to
+	 * it, so a statement not released after an error is still reusable.
+	 *
+	 * @param con
+	 *            The connection returning to the pool
+	 */
+	static void releaseAll(Connection con) {
+		StatementCache cache;
+		synchronized(caches) {
+			cache = caches.get(con);
+		}
+
+		if(cache != null) {
+			for(PreparedStatement ps : cache.inUseCopy()) {
+				cache.release(ps);
+			}
+		}
+	}
+
+	/**
+	 * Gets a statement for the given SQL, preparing it if it isn't cached or
+	 * the cached one is in use
+	 *
+	 * @param sql
+	 *            SQL of the statement
+	 * @return A statement with its parameters cleared
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this.statements.get(sql);
+
+		if(ps != null && !this.inUse.contains(ps)) {
+			countHit();
+			ps.clearParameters();
+			// A batch left behind by a failed caller must not run again
+			ps.clearBatch();
+		} else {
+			countMiss();
+			boolean extra = (ps != null);
+			ps = this.con.prepareStatement(sql);
+			countOpened(1);
+			if(!extra) {
+				this.statements.put(sql, ps);
+				this.sqlOf.put(ps, sql);
+				evict();
+			}
+		}
+
+		this.inUse.add(ps);
+		return ps;
+	}
+
+	/**
+	 * Marks a statement free for its next caller, or closes it if it was an
+	 * extra statement or has been evicted while in use
+	 *
+	 * @param ps
+	 *            A statement obtained from prepare()
+	 */
+	synchronized void release(PreparedStatement ps) {
+		if(!this.inUse.remove(ps)) {
+			return;
+		}
+
+		if(!this.sqlOf.containsKey(ps)) {
+			close(ps);
+		}
+	}
+
+	/**
+	 * Closes the least recently used free statements until the cache is
+	 * within its capacity
+	 */
+	private void evict() {
+		int max = getCapacity();
+		Iterator<Map.Entry<String, PreparedStatement>> i = this.statements.entrySet().iterator();
+		while(this.statements.size() > max && i.hasNext()) {
+			PreparedStatement ps = i.next().getValue();
+			i.remove();
+			this.sqlOf.remove(ps);
+			countEviction();
+			// A statement in use is closed when it is released
+			if(!this.inUse.contains(ps)) {
+				close(ps);
+			}
+		}
+	}
+
+	private synchronized PreparedStatement[] inUseCopy() {
+		return this.inUse.toArray(new PreparedStatement[this.inUse.size()]);
+	}
+
+	private synchronized void closeAll() {
+		for(PreparedStatement ps : this.statements.values()) {
+			close(ps);
+		}
+		for(PreparedStatement ps : this.inUse) {
+			if(!this.sqlOf.containsKey(ps)) {
+				close(ps);
+			}
+		}
+		this.statements.clear();
+		this.sqlOf.clear();
+		this.inUse.clear();
+	}
+
+	private static void close(PreparedStatement ps) {
+		countOpened(-1);
+		try {
+			ps.close();
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+		}
+	}
+
+	private static synchronized void countHit() {
+		hits++;
+	}
+
+	private static synchronized void countMiss() {
+		misses++;
+	}
+
+	private static synchronized void countEviction() {
+		evictions++;
+	}
+
+	private static synchronized void countOpened(int n) {
+		open += n;
+	}
+
+	/**
+	 * @return Maximum number of statements cached per connection
+	 */
+	public static synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Changes the maximum number of statements cached per connection. Caches
+	 * over the new limit shrink as they prepare new statements.
+	 *
+	 * @param size
+	 *            Maximum number of statements cached per connection
+	 */
+	public static synchronized void setCapacity(int size) {
+		capacity = Math.max(1, size);
+	}
+
+	/**
+	 * @return Number of statements reused from a cache
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of statements that had to be prepared
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Number of statements closed to keep a cache within its capacity
+	 */
+	public static synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return Number of prepared statements currently open, each holding a
+	 *         cursor on the database
+	 */
+	public static synchronized int getOpenCount() {
+		return open;
+	}
+
+	/**
+	 * @return A one line summary of the statement counters
+	 */
+	public static synchronized String getStatistics() {
+		long total = hits + misses;
+		return "Statements: " + open + " open, " + hits + " hits, " + misses
+				+ " misses (" + (total == 0 ? 0 : 100 * hits / total)
+				+ "% hit rate), " + evictions + " evictions; "
+				+ Sql.getOpenResultCount() + " result sets open";
+	}
+}
@@ -0,0 +1,262 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the changes made by entity setters on the current thread instead
+ * of writing each one straight away. While a unit of work is open, a setter
+ * only updates its object and marks the column dirty. flush() then writes one
+ * UPDATE per changed entry, touching only its dirty columns, and sends updates
+ * with the same SQL as one batch. Everything, including other operations run
+ * while the unit of work is open, is committed once by commit().
+ *
+ * <pre>
+ * UnitOfWork.begin();
+ * try {
+ *     borrower.setAddress(address);
+ *     borrower.setPhone(phone);
+ *     UnitOfWork.commit();
+ * } finally {
+ *     UnitOfWork.end();
+ * }
+ * </pre>
+ *
+ * Without an open unit of work setters commit immediately, as before.
+ *
+ * @author Kevin Petersen
+ */
+public class UnitOfWork {
+	private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+	private static long flushes = 0;
+	private static long updates = 0;
+	private static long batches = 0;
+
+	private Connection con;
+	private int depth = 1;
+	private Map<Object, Change> changes = new IdentityHashMap<Object, Change>();
+	private List<Change> order = new ArrayList<Change>();
+
+	/**
+	 * The dirty columns of one entry
+	 */
+	private static class Change {
+		private String table;
+		private String where;
+		private Object[] keys;
+		private LinkedHashMap<String, Object> columns = new LinkedHashMap<String, Object>();
+		// SQL type of each column, for binding nulls
+		private Map<String, Integer> types = new HashMap<String, Integer>();
+
+		private Change(String table, String where, Object[] keys) {
+			this.table = table;
+			this.where = where;
+			this.keys = keys;
+		}
+
+		private String sql() {
+			StringBuilder s = new StringBuilder("UPDATE ").append(this.table).append(" SET ");
+			boolean first = true;
+			for(String column : this.columns.keySet()) {
+				s.append(first ? "" : ", ").append(column).append("=?");
+				first = false;
+			}
+			return s.append(" WHERE ").append(this.where).toString();
+		}
+
+		private void bind(PreparedStatement ps) throws SQLException {
+			int i = 1;
+			for(Map.Entry<String, Object> e : this.columns.entrySet()) {
+				if(e.getValue() == null) {
+					ps.setNull(i++, this.types.get(e.getKey()));
+				} else {
+					ps.setObject(i++, e.getValue());
+				}
+			}
+			for(Object key : this.keys) {
+				ps.setObject(i++, key);
+			}
+		}
+	}
+
+	private UnitOfWork(Connection con) {
+		this.con = con;
+	}
+
+	/**
+	 * Opens a unit of work on the current thread, or joins the one already
+	 * open. Every call must be matched by a call to end().
+	 *
+	 * @throws SQLException
+	 *             if a connection could not be obtained
+	 */
+	public static void begin() throws SQLException {
+		UnitOfWork work = current.get();
+		if(work != null) {
+			work.depth++;
+			return;
+		}
+
+		current.set(new UnitOfWork(ConnectionPool.beginTransaction()));
+	}
+
+	/**
+	 * @return true if a unit of work is open on the current thread
+	 */
+	public static boolean isActive() {
+		return current.get() != null;
+	}
+
+	/**
+	 * Marks a column of an entry dirty in the open unit of work. Used by the
+	 * entity setters; later changes to the same column replace earlier ones.
+	 *
+	 * @param entity
+	 *            Object representing the entry
+	 * @param table
+	 *            Table the entry is in
+	 * @param where
+	 *            Condition selecting the entry, with a ? for each key value
+	 * @param column
+	 *            Column that changed
+	 * @param type
+	 *            SQL type of the column, from java.sql.Types
+	 * @param value
+	 *            New value of the column
+	 * @param keys
+	 *            Primary key values of the entry, in the order of where
+	 * @return true if the change was recorded, false if no unit of work is
+	 *         open and the caller has to write it itself
+	 */
+	public static boolean defer(Object entity, String table, String where,
+			String column, int type, Object value, Object... keys) {
+		UnitOfWork work = current.get();
+		if(work == null) {
+			return false;
+		}
+
+		Change change = work.changes.get(entity);
+		if(change == null) {
+			change = new Change(table, where, keys);
+			work.changes.put(entity, change);
+			work.order.add(change);
+		}
+		change.columns.put(column, value);
+		change.types.put(column, type);
+		return true;
+	}
+
+	/**
+	 * Writes the changes recorded so far without committing them. Updates
+	 * with the same SQL are sent as one batch.
+	 *
+	 * @throws SQLException
+	 *             if no unit of work is open or a database access error occurs
+	 */
+	public static void flush() throws SQLException {
+		UnitOfWork work = open();
+		if(work.order.isEmpty()) {
+			return;
+		}
+
+		Map<String, List<Change>> bySql = new LinkedHashMap<String, List<Change>>();
+		for(Change change : work.order) {
+			String sql = change.sql();
+			List<Change> same = bySql.get(sql);
+			if(same == null) {
+				same = new ArrayList<Change>();
+				bySql.put(sql, same);
+			}
+			same.add(change);
+		}
+
+		for(Map.Entry<String, List<Change>> e : bySql.entrySet()) {
+			PreparedStatement ps = Sql.prepare(work.con, e.getKey());
+			try {
+				for(Change change : e.getValue()) {
+					change.bind(ps);
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			Sql.batch(ps);
+		}
+
+		count(work.order.size(), bySql.size());
+		work.changes.clear();
+		work.order.clear();
+	}
+
+	/**
+	 * Flushes the recorded changes and commits everything done since the unit
+	 * of work was opened. Inside a nested unit of work, the commit is left to
+	 * the outermost one.
+	 *
+	 * @throws SQLException
+	 *             if no unit of work is open or a database access error occurs
+	 */
+	public static void commit() throws SQLException {
+		UnitOfWork work = open();
+		flush();
+		if(work.depth == 1) {
+			ConnectionPool.commit(work.con);
+		}
+	}
+
+	/**
+	 * Closes the unit of work opened by the matching begin(). If the outermost
+	 * unit of work ends without being committed, its changes are rolled back
+	 * and the objects it touched are dropped from the entity caches.
+	 */
+	public static void end() {
+		UnitOfWork work = current.get();
+		if(work == null) {
+			throw new IllegalStateException("No unit of work is open.");
+		}
+
+		if(--work.depth == 0) {
+			current.remove();
+			if(!work.order.isEmpty()) {
+				// Setters already changed these objects
+				EntityCache.discardRequest();
+			}
+			ConnectionPool.release(work.con);
+		}
+	}
+
+	private static UnitOfWork open() throws SQLException {
+		UnitOfWork work = current.get();
+		if(work == null) {
+			throw new SQLException("No unit of work is open.");
+		}
+		return work;
+	}
+
+	private static synchronized void count(int rows, int statements) {
+		flushes++;
+		updates += rows;
+		batches += statements;
+	}
+
+	/**
+	 * @return A one line summary of the unit of work counters
+	 */
+	public static synchronized String getStatistics() {
+		return "Units of work: " + flushes + " flushes, " + updates
+				+ " entries updated in " + batches + " batches";
+	}
+}
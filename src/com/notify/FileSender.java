@@ -0,0 +1,47 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.notify;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Stand-in sender that appends each notification as a line to a local file
+ * instead of contacting the borrower. Used until the library has a mail
+ * server to send through, and for testing.
+ *
+ * @author Kevin Petersen
+ */
+public class FileSender implements NotificationSender {
+	private File file;
+
+	/**
+	 * @param file
+	 *            File the notifications are appended to
+	 */
+	public FileSender(File file) {
+		this.file = file;
+	}
+
+	public void send(List<Notification> batch) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(this.file, true), "UTF-8"));
+		try {
+			for(Notification n : batch) {
+				out.println(n.getCreatedDate() + "\t#" + n.getBid().getBid()
+						+ "\t" + n.getBid().getEmailAddress() + "\t" + n.getMessage());
+			}
+		} finally {
+			out.close();
+		}
+		if(out.checkError()) {
+			throw new IOException("Could not write to " + this.file + ".");
+		}
+	}
+}
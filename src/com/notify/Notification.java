@@ -0,0 +1,287 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.notify;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import com.borrower.Borrower;
+import com.db.ConnectionPool;
+import com.db.KeyGenerator;
+import com.db.Sql;
+
+/**
+ * Representation of a notification as described by Notification in
+ * tables.sql. The Notification table is an outbox: a notification is added in
+ * the same transaction as the change it reports, and the NotificationWorker
+ * delivers and deletes it later.
+ *
+ * Every desk runs a worker, so a worker claims the notifications it is about
+ * to send by writing its id into claimedBy before reading them. A claim
+ * lasts LEASE seconds; one whose worker stopped part way is then taken over
+ * by another worker and the notifications sent again.
+ *
+ * @author Kevin Petersen
+ */
+public class Notification {
+	private static final KeyGenerator keys = new KeyGenerator("Notification",
+			"SELECT MAX(nid) FROM Notification", KeyGenerator.DEFAULT_BLOCK_SIZE);
+
+	// Seconds a claim lasts before another worker may take it over
+	public static final int LEASE = 300;
+
+	// Id of this process's worker in claimedBy
+	private static final String CLAIMANT = UUID.randomUUID().toString();
+
+	// Notifications nobody holds a current claim on
+	private static final String UNCLAIMED = "(claimedBy IS NULL OR claimedAt < SYSDATE - ?/86400)";
+
+	private static final Sql.Row<Notification> ROW = new Sql.Row<Notification>() {
+		public Notification read(ResultSet r) throws SQLException {
+			return parseLine(r);
+		}
+	};
+
+	private int nid;
+	private Borrower bid;
+	private String message;
+	private Date createdDate;
+
+	/**
+	 * Constructor used only by this class to enforce an instance being a valid
+	 * entry in the Notification table
+	 *
+	 * @param nid
+	 *            Primary key id number for this notification
+	 * @param bid
+	 *            Borrower to notify
+	 * @param message
+	 *            What to tell the borrower
+	 * @param createdDate
+	 *            Date the notification was created
+	 */
+	private Notification(int nid, Borrower bid, String message, Date createdDate) {
+		this.nid = nid;
+		this.bid = bid;
+		this.message = message;
+		this.createdDate = createdDate;
+	}
+
+	/**
+	 * Add a notification to the Notification table. Inside a transaction it is
+	 * committed with the rest of the transaction.
+	 *
+	 * @param bid
+	 *            Borrower to notify
+	 * @param message
+	 *            What to tell the borrower
+	 * @param createdDate
+	 *            Date the notification was created
+	 * @return Object representing the newly created entry
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement returns a
+	 *             ResultSet object
+	 */
+	public static Notification add(Borrower bid, String message, Date createdDate)
+			throws SQLException {
+		int nid = generateKey();
+
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "INSERT INTO Notification (nid, bid, message, createdDate) VALUES (?,?,?,?)");
+
+			ps.setInt(1, nid);
+			ps.setInt(2, bid.getBid());
+			ps.setString(3, message);
+			ps.setDate(4, createdDate);
+
+			// All inputs are OK
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+
+			return new Notification(nid, bid, message, createdDate);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Generates a new key for an entry in the Notification table
+	 *
+	 * @return An unused unique key for this table
+	 * @throws SQLException
+	 *             if a new block of keys could not be reserved
+	 */
+	private static int generateKey() throws SQLException {
+		return keys.nextKey();
+	}
+
+	/**
+	 * Claims the oldest notifications still waiting to be delivered that no
+	 * other worker holds a claim on, and reads them. The claim is committed
+	 * before they are read, so two workers never send the same notification
+	 * unless one's lease ran out.
+	 *
+	 * @param max
+	 *            Largest number of notifications to claim
+	 * @return A List of up to max Notification objects claimed by this
+	 *         worker, oldest first
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	static List<Notification> claimNext(int max) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			// The claim is checked again as each row is updated, so a row
+			// another worker claims first is left to it
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Notification SET claimedBy=?, claimedAt=SYSDATE "
+					+ "WHERE nid IN (SELECT nid FROM (SELECT nid FROM Notification WHERE " + UNCLAIMED
+					+ " ORDER BY createdAt, nid) WHERE ROWNUM <= ?) AND " + UNCLAIMED);
+			ps.setString(1, CLAIMANT);
+			ps.setInt(2, LEASE);
+			ps.setInt(3, max);
+			ps.setInt(4, LEASE);
+			Sql.update(ps);
+			ConnectionPool.commit(con);
+
+			ps = Sql.prepare(con, "SELECT * FROM Notification WHERE claimedBy=? ORDER BY createdAt, nid");
+			ps.setString(1, CLAIMANT);
+			ps.setMaxRows(max);
+			ps.setFetchSize(max);
+			return Sql.list(ps, ROW);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Reads the data from the current row in the result set and generates the
+	 * corresponding Notification object
+	 *
+	 * @param r
+	 *            Result Set of a query
+	 * @return The notification represented by the current row of data
+	 * @throws SQLException
+	 *             if the columnLabel is not valid; if a database access error
+	 *             occurs or this method is called on a closed result set
+	 */
+	private static Notification parseLine(ResultSet r) throws SQLException {
+		int nid = r.getInt("nid");
+		Borrower bid = Borrower.get(r.getInt("bid"));
+		String message = r.getString("message");
+		Date createdDate = r.getDate("createdDate");
+
+		return new Notification(nid, bid, message, createdDate);
+	}
+
+	/**
+	 * Deletes delivered notifications from the Notification table as one batch
+	 *
+	 * @param sent
+	 *            The notifications that were delivered
+	 * @throws SQLException
+	 *             if a database access error occurs; nothing is committed
+	 */
+	static void delete(List<Notification> sent) throws SQLException {
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "DELETE FROM Notification WHERE nid=? AND claimedBy=?");
+			try {
+				for(Notification n : sent) {
+					ps.setInt(1, n.nid);
+					ps.setString(2, CLAIMANT);
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			Sql.batch(ps);
+
+			ConnectionPool.commit(con);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * Gives up this worker's claim on notifications it could not deliver, so
+	 * any worker may send them without waiting for the lease to run out
+	 *
+	 * @param unsent
+	 *            The notifications that were not delivered
+	 * @throws SQLException
+	 *             if a database access error occurs; nothing is committed
+	 */
+	static void unclaim(List<Notification> unsent) throws SQLException {
+		Connection con = ConnectionPool.beginTransaction();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "UPDATE Notification SET claimedBy=NULL, claimedAt=NULL WHERE nid=? AND claimedBy=?");
+			try {
+				for(Notification n : unsent) {
+					ps.setInt(1, n.nid);
+					ps.setString(2, CLAIMANT);
+					ps.addBatch();
+				}
+			} catch (SQLException sql) {
+				Sql.release(ps);
+				throw sql;
+			}
+			Sql.batch(ps);
+
+			ConnectionPool.commit(con);
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * @return Primary key id number for this notification
+	 */
+	public int getNid() {
+		return this.nid;
+	}
+
+	/**
+	 * @return Borrower to notify
+	 */
+	public Borrower getBid() {
+		return this.bid;
+	}
+
+	/**
+	 * @return What to tell the borrower
+	 */
+	public String getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * @return Date the notification was created
+	 */
+	public Date getCreatedDate() {
+		return this.createdDate;
+	}
+}
@@ -0,0 +1,28 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.notify;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delivers notifications to borrowers, by whatever means the library uses.
+ * Called only from the NotificationWorker thread.
+ *
+ * @author Kevin Petersen
+ */
+public interface NotificationSender {
+	/**
+	 * Delivers a batch of notifications. If this throws, the whole batch is
+	 * kept in the outbox and offered again later, so a sender may see a
+	 * notification more than once.
+	 *
+	 * @param batch
+	 *            Notifications to deliver, oldest first
+	 * @throws IOException
+	 *             if the notifications could not be delivered
+	 */
+	void send(List<Notification> batch) throws IOException;
+}
@@ -0,0 +1,193 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.notify;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Background thread that drains the Notification outbox. Desks only add rows
+ * to the outbox as part of their own transactions and call wake(); the worker
+ * then claims the oldest notifications in batches, hands each batch to the
+ * sender and deletes it once delivered. Workers at other desks skip the
+ * notifications this one has claimed. If nothing wakes it, it looks at the
+ * outbox every interval anyway, which also retries batches that failed.
+ *
+ * Delivery is at least once: a notification is deleted only after its batch
+ * was sent, so one that was sent just before the process stopped is sent
+ * again, by whichever worker claims it once the lease has run out.
+ *
+ * @author Kevin Petersen
+ */
+public class NotificationWorker implements Runnable {
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	public static final long DEFAULT_INTERVAL = 30000;
+
+	private static NotificationWorker worker;
+
+	private static long sent = 0;
+	private static long batches = 0;
+	private static long failures = 0;
+
+	private NotificationSender sender;
+	private int batchSize;
+	private long interval;
+	private Thread thread;
+	private boolean running = true;
+	private boolean woken = false;
+
+	private NotificationWorker(NotificationSender sender, int batchSize,
+			long interval) {
+		this.sender = sender;
+		this.batchSize = Math.max(1, batchSize);
+		this.interval = Math.max(1, interval);
+	}
+
+	/**
+	 * Starts the worker with the default batch size and interval, stopping
+	 * the one already running
+	 *
+	 * @param sender
+	 *            Where notifications are delivered
+	 */
+	public static void start(NotificationSender sender) {
+		start(sender, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Starts the worker, stopping the one already running
+	 *
+	 * @param sender
+	 *            Where notifications are delivered
+	 * @param batchSize
+	 *            Largest number of notifications handed to the sender at once
+	 * @param interval
+	 *            Longest time between two looks at the outbox, in milliseconds
+	 */
+	public static synchronized void start(NotificationSender sender,
+			int batchSize, long interval) {
+		stop();
+		worker = new NotificationWorker(sender, batchSize, interval);
+		worker.thread = new Thread(worker, "NotificationWorker");
+		worker.thread.setDaemon(true);
+		worker.thread.start();
+	}
+
+	/**
+	 * Stops the worker after the batch it is sending, if any
+	 */
+	public static synchronized void stop() {
+		if(worker == null) {
+			return;
+		}
+
+		synchronized(worker) {
+			worker.running = false;
+			worker.notify();
+		}
+		worker = null;
+	}
+
+	/**
+	 * Tells the worker there are new notifications in the outbox. Returns
+	 * straight away; the notifications are delivered on the worker's thread.
+	 */
+	public static synchronized void wake() {
+		if(worker == null) {
+			return;
+		}
+
+		synchronized(worker) {
+			worker.woken = true;
+			worker.notify();
+		}
+	}
+
+	public void run() {
+		while(true) {
+			synchronized(this) {
+				if(!this.running) {
+					return;
+				}
+				this.woken = false;
+			}
+
+			drain();
+
+			synchronized(this) {
+				if(this.running && !this.woken) {
+					try {
+						wait(this.interval);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends batches until the outbox is empty or a batch fails
+	 */
+	private void drain() {
+		while(true) {
+			List<Notification> batch;
+			try {
+				batch = Notification.claimNext(this.batchSize);
+			} catch (SQLException sql) {
+				countFailure();
+				return;
+			}
+
+			if(batch.isEmpty()) {
+				return;
+			}
+
+			try {
+				this.sender.send(batch);
+			} catch (IOException io) {
+				System.out.println("Message: " + io.getMessage());
+				countFailure();
+				try {
+					Notification.unclaim(batch);
+				} catch (SQLException sql) {
+					// Claimed until the lease runs out
+				}
+				return;
+			}
+
+			try {
+				Notification.delete(batch);
+			} catch (SQLException sql) {
+				// Sent; they will be sent again next time
+				countFailure();
+				return;
+			}
+			countSent(batch.size());
+
+			if(batch.size() < this.batchSize) {
+				return;
+			}
+		}
+	}
+
+	private static synchronized void countSent(int n) {
+		sent += n;
+		batches++;
+	}
+
+	private static synchronized void countFailure() {
+		failures++;
+	}
+
+	/**
+	 * @return A one line summary of the notification counters
+	 */
+	public static synchronized String getStatistics() {
+		return "Notifications: " + sent + " sent in " + batches + " batches, "
+				+ failures + " failed attempts";
+	}
+}
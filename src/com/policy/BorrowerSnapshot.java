@@ -0,0 +1,162 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.policy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.book.records.FineLedger;
+import com.borrower.Borrower;
+import com.db.ConnectionPool;
+import com.db.EntityCache;
+import com.db.Sql;
+
+/**
+ * What the checkout rules need to know about a borrower: how many books they
+ * have out and which books have a copy held for them, read together in one
+ * query and cached. The balance of their fines is read from the FineLedger
+ * each time; the ledger is reconciled with the Fine table whenever a
+ * snapshot is read. A borrower's snapshot is dropped once a change to them,
+ * their loans or their held copies is committed here, and read again when
+ * next needed. Changes committed by other desks are only seen once the
+ * snapshot is MAX_AGE old, when it is read again.
+ *
+ * @author Kevin Petersen
+ */
+public class BorrowerSnapshot {
+	// Snapshots are never changed, only dropped after a commit, so they are
+	// safe to share between threads
+	private static final int CAPACITY = 10000;
+	// Nanoseconds a snapshot is used for before it is read again
+	private static final long MAX_AGE = 30 * 1000000000L;
+
+	private static final EntityCache<Integer, BorrowerSnapshot> cache =
+			new EntityCache<Integer, BorrowerSnapshot>("BorrowerSnapshot", CAPACITY);
+
+	// Counts committed changes, so a snapshot read while one is committed is
+	// not cached
+	private static long version = 0;
+
+	private Borrower bid;
+	private long readTime = System.nanoTime();
+	private int loans = 0;
+	private Set<Integer> held = new HashSet<Integer>();
+
+	private BorrowerSnapshot(Borrower bid) {
+		this.bid = bid;
+	}
+
+	/**
+	 * Gets the snapshot of a borrower, reading it if it is not cached
+	 *
+	 * @param bid
+	 *            The borrower
+	 * @return The borrower's snapshot
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static BorrowerSnapshot get(Borrower bid) throws SQLException {
+		BorrowerSnapshot cached = cache.get(bid.getBid());
+		if(cached != null && System.nanoTime() - cached.readTime < MAX_AGE) {
+			return cached;
+		}
+
+		long read;
+		synchronized(BorrowerSnapshot.class) {
+			read = version;
+		}
+
+		final BorrowerSnapshot snapshot = new BorrowerSnapshot(bid);
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT 'L' kind, COUNT(*) n FROM CurrentLoan l "
+					+ "JOIN Borrowing bo ON bo.borid = l.borid WHERE bo.bid=? "
+					+ "UNION ALL SELECT 'H', callNumber FROM HeldCopy WHERE bid=?");
+			ps.setInt(1, bid.getBid());
+			ps.setInt(2, bid.getBid());
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					if("L".equals(r.getString("kind"))) {
+						snapshot.loans = r.getInt("n");
+					} else {
+						snapshot.held.add(r.getInt("n"));
+					}
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		FineLedger.refresh(bid.getBid());
+
+		synchronized(BorrowerSnapshot.class) {
+			if(read == version) {
+				cache.put(bid.getBid(), snapshot);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Drops a borrower's snapshot once a change to their loans or held copies
+	 * is committed
+	 *
+	 * @param bid
+	 *            Id of the borrower
+	 */
+	public static void changed(final int bid) {
+		ConnectionPool.afterCommit(new Runnable() {
+			public void run() {
+				synchronized(BorrowerSnapshot.class) {
+					version++;
+					cache.remove(bid);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The borrower
+	 */
+	public Borrower getBid() {
+		return this.bid;
+	}
+
+	/**
+	 * @return Number of books the borrower has out
+	 */
+	public int getLoans() {
+		return this.loans;
+	}
+
+	/**
+	 * @param callNumber
+	 *            Call number of a book
+	 * @return true if a copy of the book is held for the borrower
+	 */
+	public boolean isHeld(int callNumber) {
+		return this.held.contains(callNumber);
+	}
+
+	/**
+	 * @return Total of the borrower's unpaid fines in cents
+	 * @throws SQLException
+	 *             if the fines had to be read and a database access error
+	 *             occurs
+	 */
+	public long getBalance() throws SQLException {
+		return FineLedger.balance(this.bid.getBid());
+	}
+}
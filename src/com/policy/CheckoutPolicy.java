@@ -0,0 +1,106 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.policy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.borrower.BorrowerType;
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * Representation of the checkout limits of a borrower type as described by
+ * CheckoutPolicy in tables.sql. A type with no entry gets the default limits.
+ *
+ * @author Kevin Petersen
+ */
+public class CheckoutPolicy {
+	public static final int DEFAULT_MAX_LOANS = 10;
+	public static final float DEFAULT_FINE_LIMIT = (float) 5.00;
+
+	private static final Sql.Row<CheckoutPolicy> ROW = new Sql.Row<CheckoutPolicy>() {
+		public CheckoutPolicy read(ResultSet r) throws SQLException {
+			return new CheckoutPolicy(r.getString("type"), r.getInt("maxLoans"),
+					r.getFloat("fineLimit"));
+		}
+	};
+
+	private String type;
+	private int maxLoans;
+	private float fineLimit;
+
+	/**
+	 * @param type
+	 *            Borrower type the limits are for
+	 * @param maxLoans
+	 *            Most books a borrower may have out at once, or 0 for no limit
+	 * @param fineLimit
+	 *            Unpaid fines at which a borrower may no longer borrow, or 0
+	 *            for no limit
+	 */
+	private CheckoutPolicy(String type, int maxLoans, float fineLimit) {
+		this.type = type;
+		this.maxLoans = maxLoans;
+		this.fineLimit = fineLimit;
+	}
+
+	/**
+	 * Looks up the limits of a borrower type
+	 *
+	 * @param type
+	 *            The borrower type
+	 * @return The type's entry in the CheckoutPolicy table, or the default
+	 *         limits if it has none
+	 * @throws SQLException
+	 *             if a database access error occurs; this method is called on a
+	 *             closed PreparedStatement or the SQL statement does not return
+	 *             a ResultSet object
+	 */
+	public static CheckoutPolicy get(BorrowerType type) throws SQLException {
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT * FROM CheckoutPolicy WHERE type=?");
+			ps.setString(1, type.getType());
+			ps.setMaxRows(1);
+			CheckoutPolicy policy = Sql.first(ps, ROW);
+
+			if(policy != null) {
+				return policy;
+			} else {
+				return new CheckoutPolicy(type.getType(), DEFAULT_MAX_LOANS, DEFAULT_FINE_LIMIT);
+			}
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+	}
+
+	/**
+	 * @return Borrower type the limits are for
+	 */
+	public String getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return Most books a borrower may have out at once, or 0 for no limit
+	 */
+	public int getMaxLoans() {
+		return this.maxLoans;
+	}
+
+	/**
+	 * @return Unpaid fines at which a borrower may no longer borrow, or 0 for
+	 *         no limit
+	 */
+	public float getFineLimit() {
+		return this.fineLimit;
+	}
+}
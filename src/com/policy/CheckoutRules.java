@@ -0,0 +1,219 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.policy;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.book.Book;
+import com.book.records.FineLedger;
+import com.book.records.HoldQueue;
+import com.book.records.HoldRequest;
+import com.borrower.Borrower;
+import com.borrower.BorrowerType;
+import com.date.DateParser;
+
+/**
+ * Decides whether a checkout may go ahead. The CheckoutPolicy of each
+ * borrower type is compiled once into a list of rules with its limits built
+ * in; rules a type has no limit for are left out. A checkout is then checked
+ * against the borrower's snapshot and the hold queues, which are in memory,
+ * and every rule it breaks is reported, for the whole checkout at once.
+ *
+ * The time spent in each rule is counted for getStatistics().
+ *
+ * @author Kevin Petersen
+ */
+public class CheckoutRules {
+	public static final String CARD = "card";
+	public static final String LOANS = "loans";
+	public static final String FINES = "fines";
+	public static final String HOLDS = "holds";
+
+	// Compiled rules by borrower type
+	private static final ConcurrentMap<String, Rule[]> compiled = new ConcurrentHashMap<String, Rule[]>();
+	// Evaluations, violations and nanoseconds spent, by rule name
+	private static final Map<String, long[]> timings = new LinkedHashMap<String, long[]>();
+
+	private static long checks = 0;
+	private static long compiles = 0;
+
+	/**
+	 * One check made on every checkout
+	 */
+	private static abstract class Rule {
+		private String name;
+
+		private Rule(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Adds a violation to out for each way the checkout breaks this rule
+		 */
+		abstract void check(Borrower bid, BorrowerSnapshot s,
+				int[] callNumbers, List<Violation> out) throws SQLException;
+
+		Violation violation(int item, String message) {
+			return new Violation(this.name, item, message);
+		}
+	}
+
+	private CheckoutRules() {
+	}
+
+	/**
+	 * Checks a checkout against every rule for the borrower's type
+	 *
+	 * @param bid
+	 *            Borrower taking out the books
+	 * @param callNumbers
+	 *            Call numbers of the books to lend, as for BookCopy.checkout()
+	 * @return The rules the checkout breaks, empty if it may go ahead
+	 * @throws SQLException
+	 *             if the rules, snapshot or hold queues had to be read and a
+	 *             database access error occurs
+	 */
+	public static List<Violation> check(Borrower bid, int[] callNumbers)
+			throws SQLException {
+		Rule[] rules = compile(bid.getType());
+		BorrowerSnapshot snapshot = BorrowerSnapshot.get(bid);
+
+		List<Violation> out = new ArrayList<Violation>();
+		for(Rule rule : rules) {
+			int before = out.size();
+			long start = System.nanoTime();
+			rule.check(bid, snapshot, callNumbers, out);
+			count(rule.name, out.size() - before, System.nanoTime() - start);
+		}
+		synchronized(CheckoutRules.class) {
+			checks++;
+		}
+		return out;
+	}
+
+	/**
+	 * Drops the compiled rules, so changes to the CheckoutPolicy table or to
+	 * borrower types are picked up by the next check
+	 */
+	public static void recompile() {
+		compiled.clear();
+	}
+
+	/**
+	 * @return The rules of a borrower type, compiled if they are not yet
+	 */
+	private static Rule[] compile(BorrowerType type) throws SQLException {
+		Rule[] rules = compiled.get(type.getType());
+		if(rules != null) {
+			return rules;
+		}
+
+		CheckoutPolicy policy = CheckoutPolicy.get(type);
+		final String typeName = type.getType();
+		List<Rule> list = new ArrayList<Rule>();
+
+		list.add(new Rule(CARD) {
+			void check(Borrower bid, BorrowerSnapshot s, int[] callNumbers,
+					List<Violation> out) {
+				if(bid.getExpiryDate() != null && !bid.getExpiryDate().after(DateParser.today())) {
+					out.add(violation(-1, "Card expired on " + bid.getExpiryDate() + "."));
+				}
+			}
+		});
+
+		final int maxLoans = policy.getMaxLoans();
+		if(maxLoans > 0) {
+			list.add(new Rule(LOANS) {
+				void check(Borrower bid, BorrowerSnapshot s, int[] callNumbers,
+						List<Violation> out) {
+					int loans = s.getLoans() + callNumbers.length;
+					if(loans > maxLoans) {
+						out.add(violation(-1, "Would have " + loans + " books out; "
+								+ typeName + " borrowers may have " + maxLoans + "."));
+					}
+				}
+			});
+		}
+
+		final long fineLimit = FineLedger.toCents(policy.getFineLimit());
+		if(fineLimit > 0) {
+			list.add(new Rule(FINES) {
+				void check(Borrower bid, BorrowerSnapshot s, int[] callNumbers,
+						List<Violation> out) throws SQLException {
+					long balance = s.getBalance();
+					if(balance >= fineLimit) {
+						out.add(violation(-1, "Owes " + FineLedger.format(balance)
+								+ " in fines; " + typeName + " borrowers may owe less than "
+								+ FineLedger.format(fineLimit) + "."));
+					}
+				}
+			});
+		}
+
+		list.add(new Rule(HOLDS) {
+			void check(Borrower bid, BorrowerSnapshot s, int[] callNumbers,
+					List<Violation> out) throws SQLException {
+				for(int i = 0; i < callNumbers.length; i++) {
+					if(s.isHeld(callNumbers[i])) {
+						continue;
+					}
+					Book book;
+					try {
+						book = Book.get(callNumbers[i]);
+					} catch (SQLException sql) {
+						// Reported by the checkout itself
+						continue;
+					}
+					HoldRequest next = HoldQueue.next(book);
+					if(next != null && next.getBid().getBid() != bid.getBid()) {
+						out.add(violation(i, "\"" + book.getTitle() + "\" is on hold for "
+								+ HoldQueue.size(book) + " other borrowers."));
+					}
+				}
+			}
+		});
+
+		rules = list.toArray(new Rule[list.size()]);
+		Rule[] raced = compiled.putIfAbsent(type.getType(), rules);
+		synchronized(CheckoutRules.class) {
+			compiles++;
+		}
+		return (raced != null ? raced : rules);
+	}
+
+	private static synchronized void count(String rule, int violations, long nanos) {
+		long[] timing = timings.get(rule);
+		if(timing == null) {
+			timing = new long[3];
+			timings.put(rule, timing);
+		}
+		timing[0]++;
+		timing[1] += violations;
+		timing[2] += nanos;
+	}
+
+	/**
+	 * @return A one line summary of the checks made, with the evaluations,
+	 *         violations and average time of each rule
+	 */
+	public static synchronized String getStatistics() {
+		StringBuilder s = new StringBuilder("Checkout rules: ").append(checks)
+				.append(" checks, ").append(compiles).append(" compiles");
+		for(Map.Entry<String, long[]> e : timings.entrySet()) {
+			long[] timing = e.getValue();
+			s.append("; ").append(e.getKey()).append(": ").append(timing[0])
+					.append(" evaluations, ").append(timing[1])
+					.append(" violations, ").append(timing[2] / timing[0] / 1000)
+					.append(" us each");
+		}
+		return s.toString();
+	}
+}
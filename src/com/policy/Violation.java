@@ -0,0 +1,58 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.policy;
+
+/**
+ * A reason a checkout may not go ahead: either the borrower may not borrow
+ * at all, or one of the books requested may not be lent to them.
+ *
+ * @author Kevin Petersen
+ */
+public class Violation {
+	private String rule;
+	private int item;
+	private String message;
+
+	/**
+	 * @param rule
+	 *            Name of the rule broken
+	 * @param item
+	 *            Index of the book in the checkout, or -1 for the checkout as
+	 *            a whole
+	 * @param message
+	 *            Explanation for the desk
+	 */
+	Violation(String rule, int item, String message) {
+		this.rule = rule;
+		this.item = item;
+		this.message = message;
+	}
+
+	/**
+	 * @return Name of the rule broken
+	 */
+	public String getRule() {
+		return this.rule;
+	}
+
+	/**
+	 * @return Index of the book in the checkout, or -1 for the checkout as a
+	 *         whole
+	 */
+	public int getItem() {
+		return this.item;
+	}
+
+	/**
+	 * @return Explanation for the desk
+	 */
+	public String getMessage() {
+		return this.message;
+	}
+
+	public String toString() {
+		return this.message;
+	}
+}
@@ -0,0 +1,432 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of call numbers. The numbers are split by their high 16
+ * bits into chunks of 65536; a chunk holding few numbers keeps them in a
+ * sorted array of their low 16 bits, and a chunk holding more than ARRAY_MAX
+ * keeps a plain bitset of 8 KB. Either way no chunk takes more than 8 KB, and
+ * intersecting two sets only looks at the chunks they share.
+ *
+ * @author Kevin Petersen
+ */
+public class Bitmap {
+	// Largest number of values kept in an array; beyond it a bitset is smaller
+	private static final int ARRAY_MAX = 4096;
+
+	// High 16 bits of each chunk, in increasing order
+	private int[] keys = new int[0];
+	private Container[] containers = new Container[0];
+	private int chunks = 0;
+
+	/**
+	 * @param ids
+	 *            Call numbers in increasing order
+	 * @return A bitmap of the call numbers
+	 */
+	public static Bitmap of(int[] ids) {
+		Bitmap bitmap = new Bitmap();
+		for(int id : ids) {
+			bitmap.add(id);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * @param id
+	 *            A call number
+	 * @return true if it was not in the set yet
+	 */
+	public boolean add(int id) {
+		int high = id >>> 16;
+		// Call numbers mostly arrive in increasing order
+		int i = (this.chunks > 0 && this.keys[this.chunks - 1] == high ? this.chunks - 1
+				: Arrays.binarySearch(this.keys, 0, this.chunks, high));
+		if(i < 0) {
+			i = -(i + 1);
+			if(this.chunks == this.keys.length) {
+				int capacity = Math.max(4, this.chunks * 2);
+				this.keys = Arrays.copyOf(this.keys, capacity);
+				this.containers = Arrays.copyOf(this.containers, capacity);
+			}
+			System.arraycopy(this.keys, i, this.keys, i + 1, this.chunks - i);
+			System.arraycopy(this.containers, i, this.containers, i + 1, this.chunks - i);
+			this.keys[i] = high;
+			this.containers[i] = new ArrayContainer();
+			this.chunks++;
+		}
+
+		Container c = this.containers[i];
+		if(!c.add((char) id)) {
+			return false;
+		}
+		if(c instanceof ArrayContainer && c.cardinality() > ARRAY_MAX) {
+			this.containers[i] = ((ArrayContainer) c).toBitset();
+		}
+		return true;
+	}
+
+	/**
+	 * @param id
+	 *            A call number
+	 * @return true if it was in the set
+	 */
+	public boolean remove(int id) {
+		int i = Arrays.binarySearch(this.keys, 0, this.chunks, id >>> 16);
+		if(i < 0 || !this.containers[i].remove((char) id)) {
+			return false;
+		}
+
+		Container c = this.containers[i];
+		if(c.cardinality() == 0) {
+			System.arraycopy(this.keys, i + 1, this.keys, i, this.chunks - i - 1);
+			System.arraycopy(this.containers, i + 1, this.containers, i, this.chunks - i - 1);
+			this.chunks--;
+			this.containers[this.chunks] = null;
+		} else if(c instanceof BitsetContainer && c.cardinality() <= ARRAY_MAX / 2) {
+			// Well below the limit, so a value added and removed over and
+			// over does not convert the chunk back and forth
+			this.containers[i] = ((BitsetContainer) c).toArray();
+		}
+		return true;
+	}
+
+	/**
+	 * @param id
+	 *            A call number
+	 * @return true if it is in the set
+	 */
+	public boolean contains(int id) {
+		int i = Arrays.binarySearch(this.keys, 0, this.chunks, id >>> 16);
+		return (i >= 0 && this.containers[i].contains((char) id));
+	}
+
+	/**
+	 * @return Number of call numbers in the set
+	 */
+	public int cardinality() {
+		int n = 0;
+		for(int i = 0; i < this.chunks; i++) {
+			n += this.containers[i].cardinality();
+		}
+		return n;
+	}
+
+	/**
+	 * @return The call numbers in both sets, in a new bitmap
+	 */
+	public Bitmap and(Bitmap other) {
+		Bitmap out = new Bitmap();
+		int i = 0;
+		int j = 0;
+		while(i < this.chunks && j < other.chunks) {
+			if(this.keys[i] < other.keys[j]) {
+				i++;
+			} else if(this.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container c = this.containers[i].and(other.containers[j]);
+				if(c.cardinality() > 0) {
+					if(out.chunks == out.keys.length) {
+						int capacity = Math.max(4, out.chunks * 2);
+						out.keys = Arrays.copyOf(out.keys, capacity);
+						out.containers = Arrays.copyOf(out.containers, capacity);
+					}
+					out.keys[out.chunks] = this.keys[i];
+					out.containers[out.chunks] = c;
+					out.chunks++;
+				}
+				i++;
+				j++;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return Number of call numbers in both sets, without building the
+	 *         intersection
+	 */
+	public int andCardinality(Bitmap other) {
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while(i < this.chunks && j < other.chunks) {
+			if(this.keys[i] < other.keys[j]) {
+				i++;
+			} else if(this.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				n += this.containers[i].andCardinality(other.containers[j]);
+				i++;
+				j++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return The call numbers in increasing order, in a new array
+	 */
+	public int[] toArray() {
+		int[] out = new int[cardinality()];
+		int n = 0;
+		for(int i = 0; i < this.chunks; i++) {
+			n = this.containers[i].copyTo(this.keys[i] << 16, out, n);
+		}
+		return out;
+	}
+
+	/**
+	 * @return Approximate bytes used by the set
+	 */
+	long memory() {
+		long bytes = 16 + 24 + 8L * this.keys.length;
+		for(int i = 0; i < this.chunks; i++) {
+			bytes += this.containers[i].memory();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The low 16 bits of the call numbers of one chunk
+	 */
+	private static abstract class Container {
+		abstract boolean add(char value);
+
+		abstract boolean remove(char value);
+
+		abstract boolean contains(char value);
+
+		abstract int cardinality();
+
+		abstract Container and(Container other);
+
+		abstract int andCardinality(Container other);
+
+		/**
+		 * Copies the values, each added to base, into out from offset
+		 *
+		 * @return The offset after the last value copied
+		 */
+		abstract int copyTo(int base, int[] out, int offset);
+
+		abstract long memory();
+	}
+
+	/**
+	 * Values kept in a sorted array
+	 */
+	private static class ArrayContainer extends Container {
+		private char[] values = new char[4];
+		private int size = 0;
+
+		boolean add(char value) {
+			int i = (this.size > 0 && this.values[this.size - 1] < value ? -(this.size + 1)
+					: Arrays.binarySearch(this.values, 0, this.size, value));
+			if(i >= 0) {
+				return false;
+			}
+
+			i = -(i + 1);
+			if(this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			System.arraycopy(this.values, i, this.values, i + 1, this.size - i);
+			this.values[i] = value;
+			this.size++;
+			return true;
+		}
+
+		boolean remove(char value) {
+			int i = Arrays.binarySearch(this.values, 0, this.size, value);
+			if(i < 0) {
+				return false;
+			}
+
+			System.arraycopy(this.values, i + 1, this.values, i, this.size - i - 1);
+			this.size--;
+			return true;
+		}
+
+		boolean contains(char value) {
+			return Arrays.binarySearch(this.values, 0, this.size, value) >= 0;
+		}
+
+		int cardinality() {
+			return this.size;
+		}
+
+		Container and(Container other) {
+			ArrayContainer out = new ArrayContainer();
+			out.values = new char[Math.max(1, Math.min(this.size, other.cardinality()))];
+			if(other instanceof BitsetContainer) {
+				for(int i = 0; i < this.size; i++) {
+					if(other.contains(this.values[i])) {
+						out.values[out.size++] = this.values[i];
+					}
+				}
+				return out;
+			}
+
+			ArrayContainer o = (ArrayContainer) other;
+			int i = 0;
+			int j = 0;
+			while(i < this.size && j < o.size) {
+				if(this.values[i] < o.values[j]) {
+					i++;
+				} else if(this.values[i] > o.values[j]) {
+					j++;
+				} else {
+					out.values[out.size++] = this.values[i];
+					i++;
+					j++;
+				}
+			}
+			return out;
+		}
+
+		int andCardinality(Container other) {
+			int n = 0;
+			if(other instanceof BitsetContainer) {
+				for(int i = 0; i < this.size; i++) {
+					if(other.contains(this.values[i])) {
+						n++;
+					}
+				}
+				return n;
+			}
+
+			ArrayContainer o = (ArrayContainer) other;
+			int i = 0;
+			int j = 0;
+			while(i < this.size && j < o.size) {
+				if(this.values[i] < o.values[j]) {
+					i++;
+				} else if(this.values[i] > o.values[j]) {
+					j++;
+				} else {
+					n++;
+					i++;
+					j++;
+				}
+			}
+			return n;
+		}
+
+		int copyTo(int base, int[] out, int offset) {
+			for(int i = 0; i < this.size; i++) {
+				out[offset++] = base | this.values[i];
+			}
+			return offset;
+		}
+
+		long memory() {
+			return 16 + 16 + 2L * this.values.length;
+		}
+
+		BitsetContainer toBitset() {
+			BitsetContainer bitset = new BitsetContainer();
+			for(int i = 0; i < this.size; i++) {
+				bitset.add(this.values[i]);
+			}
+			return bitset;
+		}
+	}
+
+	/**
+	 * Values kept as bits of 1024 longs
+	 */
+	private static class BitsetContainer extends Container {
+		private long[] words = new long[1024];
+		private int cardinality = 0;
+
+		boolean add(char value) {
+			long bit = 1L << value;
+			if((this.words[value >>> 6] & bit) != 0) {
+				return false;
+			}
+			this.words[value >>> 6] |= bit;
+			this.cardinality++;
+			return true;
+		}
+
+		boolean remove(char value) {
+			long bit = 1L << value;
+			if((this.words[value >>> 6] & bit) == 0) {
+				return false;
+			}
+			this.words[value >>> 6] &= ~bit;
+			this.cardinality--;
+			return true;
+		}
+
+		boolean contains(char value) {
+			return (this.words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		int cardinality() {
+			return this.cardinality;
+		}
+
+		Container and(Container other) {
+			if(other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+
+			BitsetContainer o = (BitsetContainer) other;
+			BitsetContainer out = new BitsetContainer();
+			for(int i = 0; i < this.words.length; i++) {
+				out.words[i] = this.words[i] & o.words[i];
+				out.cardinality += Long.bitCount(out.words[i]);
+			}
+			return (out.cardinality > ARRAY_MAX ? out : out.toArray());
+		}
+
+		int andCardinality(Container other) {
+			if(other instanceof ArrayContainer) {
+				return other.andCardinality(this);
+			}
+
+			BitsetContainer o = (BitsetContainer) other;
+			int n = 0;
+			for(int i = 0; i < this.words.length; i++) {
+				n += Long.bitCount(this.words[i] & o.words[i]);
+			}
+			return n;
+		}
+
+		int copyTo(int base, int[] out, int offset) {
+			for(int i = 0; i < this.words.length; i++) {
+				long word = this.words[i];
+				while(word != 0) {
+					out[offset++] = base | (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		long memory() {
+			return 16 + 16 + 8L * this.words.length;
+		}
+
+		ArrayContainer toArray() {
+			ArrayContainer array = new ArrayContainer();
+			array.values = new char[Math.max(4, this.cardinality)];
+			for(int i = 0; i < this.words.length; i++) {
+				long word = this.words[i];
+				while(word != 0) {
+					array.values[array.size++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return array;
+		}
+	}
+}
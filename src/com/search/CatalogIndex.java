@@ -0,0 +1,810 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.db.ConnectionPool;
+import com.db.Sql;
+
+/**
+ * In-memory inverted index of the catalog, so keyword searches never scan the
+ * Book, HasAuthor and HasSubject tables. Every term of a book's title, main
+ * author, authors and subjects maps to the posting list of the call numbers
+ * it appears in.
+ *
+ * The index is built from the three tables when start() is called at login,
+ * and is then kept up to date by Book, HasAuthor and HasSubject, which report
+ * their changes once they are committed. Searches made before the build is
+ * done wait for it, and build it themselves if start() was never called or
+ * the build failed.
+ *
+ * Titles, author names and subjects can also be completed from what has been
+ * typed so far, and misspelled terms corrected to the closest terms in the
+ * catalog; see PrefixIndex and TrigramIndex.
+ *
+ * Search results can be narrowed by subject, author, publisher and year, and
+ * the number of results with each value of those facets counted; see
+ * FacetIndex.
+ *
+ * A query is a list of terms, all of which must match. Groups of terms can be
+ * separated by OR, so "java code OR sql" finds the books matching both "java"
+ * and "code", and the books matching "sql".
+ *
+ * @author Kevin Petersen
+ */
+public class CatalogIndex {
+	public static final String SUBJECT = "subject";
+	public static final String AUTHOR = "author";
+	public static final String PUBLISHER = "publisher";
+	public static final String YEAR = "year";
+
+	private static final int NOT_BUILT = 0;
+	private static final int BUILDING = 1;
+	private static final int BUILT = 2;
+	private static final int FETCH_SIZE = 500;
+
+	private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private static final Object buildLock = new Object();
+	private static int state = NOT_BUILT;
+
+	private static final Map<String, PostingList> postings = new HashMap<String, PostingList>();
+	private static final Map<Integer, Document> documents = new HashMap<Integer, Document>();
+	private static final PrefixIndex prefixes = new PrefixIndex();
+	private static final TrigramIndex trigrams = new TrigramIndex();
+	private static final FacetIndex facets = new FacetIndex();
+	// Changes made while a build reads the tables, or null if none is
+	private static List<Change> replay = null;
+
+	private static long searches = 0;
+	private static long updates = 0;
+	private static long suggestions = 0;
+
+	/**
+	 * The indexed fields of one book and the terms they contain
+	 */
+	private static class Document {
+		private String title;
+		private String mainAuthor;
+		private String publisher;
+		private int year;
+		private List<String> authors = new ArrayList<String>();
+		private List<String> subjects = new ArrayList<String>();
+		private String[] terms = new String[0];
+
+		private String[] terms() {
+			TreeSet<String> terms = new TreeSet<String>();
+			terms.addAll(Tokenizer.tokenize(this.title));
+			terms.addAll(Tokenizer.tokenize(this.mainAuthor));
+			for(String author : this.authors) {
+				terms.addAll(Tokenizer.tokenize(author));
+			}
+			for(String subject : this.subjects) {
+				terms.addAll(Tokenizer.tokenize(subject));
+			}
+			return terms.toArray(new String[terms.size()]);
+		}
+
+		private Set<String> phrases() {
+			Set<String> phrases = new HashSet<String>();
+			addPhrase(phrases, this.title);
+			addPhrase(phrases, this.mainAuthor);
+			for(String author : this.authors) {
+				addPhrase(phrases, author);
+			}
+			for(String subject : this.subjects) {
+				addPhrase(phrases, subject);
+			}
+			return phrases;
+		}
+
+		/**
+		 * @return Each facet's values for the book; the main author is
+		 *         counted as one of the authors
+		 */
+		private Map<String, Set<String>> facets() {
+			Map<String, Set<String>> facets = new HashMap<String, Set<String>>();
+			Set<String> authors = new HashSet<String>();
+			addPhrase(authors, this.mainAuthor);
+			for(String author : this.authors) {
+				addPhrase(authors, author);
+			}
+			facets.put(AUTHOR, authors);
+			Set<String> subjects = new HashSet<String>();
+			for(String subject : this.subjects) {
+				addPhrase(subjects, subject);
+			}
+			facets.put(SUBJECT, subjects);
+			Set<String> publishers = new HashSet<String>();
+			addPhrase(publishers, this.publisher);
+			facets.put(PUBLISHER, publishers);
+			Set<String> years = new HashSet<String>();
+			if(this.year > 0) {
+				years.add("" + this.year);
+			}
+			facets.put(YEAR, years);
+			return facets;
+		}
+
+		private static void addPhrase(Set<String> phrases, String phrase) {
+			if(phrase != null && phrase.trim().length() > 0) {
+				phrases.add(phrase.trim());
+			}
+		}
+	}
+
+	private CatalogIndex() {
+	}
+
+	/**
+	 * Builds the index on a background thread
+	 */
+	public static void start() {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ensureBuilt();
+				} catch (SQLException sql) {
+					System.out.println("Message: " + sql.getMessage());
+				}
+			}
+		}, "CatalogIndex");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Builds the index unless it is built already or being built, in which
+	 * case this waits for it
+	 *
+	 * @throws SQLException
+	 *             if the index had to be built and a database access error
+	 *             occurs
+	 */
+	private static void ensureBuilt() throws SQLException {
+		synchronized(buildLock) {
+			while(state == BUILDING) {
+				try {
+					buildLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for the catalog index.");
+				}
+			}
+			if(state == BUILT) {
+				return;
+			}
+			state = BUILDING;
+		}
+
+		boolean built = false;
+		try {
+			build();
+			built = true;
+		} finally {
+			synchronized(buildLock) {
+				state = (built ? BUILT : NOT_BUILT);
+				buildLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reads every book, author and subject and indexes them. The tables are
+	 * read without holding the index lock; changes committed meanwhile are
+	 * applied to the old index as usual and applied again to the new one.
+	 */
+	private static void build() throws SQLException {
+		lock.writeLock().lock();
+		try {
+			replay = new ArrayList<Change>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		final TreeMap<Integer, Document> read = new TreeMap<Integer, Document>();
+		Connection con = ConnectionPool.getConnection();
+		try {
+			PreparedStatement ps = Sql.prepare(con, "SELECT callNumber, title, mainAuthor, publisher, year FROM Book");
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					Document doc = new Document();
+					doc.title = r.getString("title");
+					doc.mainAuthor = r.getString("mainAuthor");
+					doc.publisher = r.getString("publisher");
+					doc.year = r.getInt("year");
+					read.put(r.getInt("callNumber"), doc);
+					return null;
+				}
+			});
+
+			ps = Sql.prepare(con, "SELECT callNumber, name FROM HasAuthor");
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					Document doc = read.get(r.getInt("callNumber"));
+					if(doc != null) {
+						doc.authors.add(r.getString("name"));
+					}
+					return null;
+				}
+			});
+
+			ps = Sql.prepare(con, "SELECT callNumber, subject FROM HasSubject");
+			ps.setFetchSize(FETCH_SIZE);
+			Sql.list(ps, new Sql.Row<Void>() {
+				public Void read(ResultSet r) throws SQLException {
+					Document doc = read.get(r.getInt("callNumber"));
+					if(doc != null) {
+						doc.subjects.add(r.getString("subject"));
+					}
+					return null;
+				}
+			});
+		} catch (SQLException sql) {
+			System.out.println("Message: " + sql.getMessage());
+			lock.writeLock().lock();
+			replay = null;
+			lock.writeLock().unlock();
+			throw sql;
+		} finally {
+			ConnectionPool.release(con);
+		}
+
+		lock.writeLock().lock();
+		try {
+			postings.clear();
+			documents.clear();
+			trigrams.clear();
+			facets.clear();
+			Map<String, Integer> phrases = new HashMap<String, Integer>();
+			// In call number order, so every posting list is built by appending
+			for(Map.Entry<Integer, Document> e : read.entrySet()) {
+				documents.put(e.getKey(), e.getValue());
+				reindex(e.getKey(), e.getValue());
+				for(String phrase : e.getValue().phrases()) {
+					Integer n = phrases.get(phrase);
+					phrases.put(phrase, (n == null ? 1 : n + 1));
+				}
+				for(Map.Entry<String, Set<String>> facet : e.getValue().facets().entrySet()) {
+					for(String value : facet.getValue()) {
+						facets.add(facet.getKey(), value, e.getKey());
+					}
+				}
+			}
+			prefixes.rebuild(phrases);
+
+			// Each change leaves the same result when applied twice
+			for(Change change : replay) {
+				change.applyTo();
+			}
+			replay = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the books matching a query
+	 *
+	 * @param query
+	 *            Terms to search for, optionally in groups separated by OR
+	 * @return Call numbers of the matching books, in increasing order
+	 * @throws SQLException
+	 *             if the index had to be built and a database access error
+	 *             occurs
+	 */
+	public static int[] search(String query) throws SQLException {
+		ensureBuilt();
+		countSearch();
+
+		List<List<String>> groups = new ArrayList<List<String>>();
+		List<String> group = new ArrayList<String>();
+		for(String word : query.trim().split("\\s+")) {
+			if(word.equals("OR")) {
+				groups.add(group);
+				group = new ArrayList<String>();
+			} else {
+				group.addAll(Tokenizer.tokenize(word));
+			}
+		}
+		groups.add(group);
+
+		lock.readLock().lock();
+		try {
+			int[] result = new int[0];
+			for(List<String> terms : groups) {
+				if(!terms.isEmpty()) {
+					result = PostingList.union(result, matchAll(terms));
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Completes what a borrower has typed with the titles, author names and
+	 * subjects starting with it
+	 *
+	 * @param typed
+	 *            Text typed so far
+	 * @param max
+	 *            Largest number of suggestions to return
+	 * @return Up to max phrases, those shared by the most books first
+	 * @throws SQLException
+	 *             if the index had to be built and a database access error
+	 *             occurs
+	 */
+	public static List<String> suggest(String typed, int max) throws SQLException {
+		ensureBuilt();
+		countSuggestion();
+
+		lock.readLock().lock();
+		try {
+			return prefixes.complete(typed, max);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces each term of a query that is in no book with the closest term
+	 * that is: within one letter for terms of up to four letters, two for
+	 * longer ones. Among equally close terms, the one in the most books wins.
+	 *
+	 * @param query
+	 *            Terms to search for, optionally in groups separated by OR
+	 * @return The corrected query in lower case, or the query unchanged if
+	 *         every term is known or no close term was found
+	 * @throws SQLException
+	 *             if the index had to be built and a database access error
+	 *             occurs
+	 */
+	public static String correct(String query) throws SQLException {
+		ensureBuilt();
+
+		StringBuilder corrected = new StringBuilder();
+		boolean changed = false;
+		lock.readLock().lock();
+		try {
+			for(String word : query.trim().split("\\s+")) {
+				List<String> terms = (word.equals("OR") ? null : Tokenizer.tokenize(word));
+				if(terms == null) {
+					corrected.append(corrected.length() > 0 ? " " : "").append(word);
+					continue;
+				}
+				for(String term : terms) {
+					String fixed = closest(term);
+					changed |= !fixed.equals(term);
+					corrected.append(corrected.length() > 0 ? " " : "").append(fixed);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return (changed ? corrected.toString() : query);
+	}
+
+	/**
+	 * @return The term itself if some book has it, otherwise the known term
+	 *         closest to it, or the term itself if none is close enough
+	 */
+	private static String closest(String term) {
+		if(postings.containsKey(term) || term.length() < 3) {
+			return term;
+		}
+
+		String best = term;
+		int bestSize = 0;
+		for(String candidate : trigrams.closest(term, (term.length() <= 4 ? 1 : 2))) {
+			int size = postings.get(candidate).size();
+			if(size > bestSize) {
+				best = candidate;
+				bestSize = size;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Counts the books having each value of a facet
+	 *
+	 * @param callNumbers
+	 *            Call numbers of the books to count, such as the results of a
+	 *            search, or null for the whole catalog
+	 * @param facet
+	 *            SUBJECT, AUTHOR, PUBLISHER or YEAR
+	 * @param max
+	 *            Largest number of values to return
+	 * @return Up to max values and their number of books, most books first
+	 * @throws SQLException
+	 *             if the index had to be built and a database access error
+	 *             occurs
+	 */
+	public static Map<String, Integer> facetCounts(int[] callNumbers,
+			String facet, int max) throws SQLException {
+		ensureBuilt();
+		Bitmap within = (callNumbers == null ? null : Bitmap.of(callNumbers));
+
+		lock.readLock().lock();
+		try {
+			return facets.counts(facet, within, max);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Keeps the books having a value of a facet
+	 *
+	 * @param callNumbers
+	 *            Call numbers of the books, in increasing order
+	 * @param facet
+	 *            SUBJECT, AUTHOR, PUBLISHER or YEAR
+	 * @param value
+	 *            Value the books must have
+	 * @return Call numbers of those books having the value, in increasing
+	 *         order
+	 * @throws SQLException
+	 *             if the index had to be built and a database access error
+	 *             occurs
+	 */
+	public static int[] narrow(int[] callNumbers, String facet, String value)
+			throws SQLException {
+		ensureBuilt();
+		Bitmap books = Bitmap.of(callNumbers);
+
+		lock.readLock().lock();
+		try {
+			Bitmap having = facets.get(facet, value);
+			return (having == null ? new int[0] : books.and(having).toArray());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Call numbers of the books containing every term, intersecting
+	 *         the shortest posting lists first
+	 */
+	private static int[] matchAll(List<String> terms) {
+		List<PostingList> lists = new ArrayList<PostingList>();
+		for(String term : terms) {
+			PostingList list = postings.get(term);
+			if(list == null) {
+				return new int[0];
+			}
+			lists.add(list);
+		}
+
+		Collections.sort(lists, new Comparator<PostingList>() {
+			public int compare(PostingList a, PostingList b) {
+				return a.size() - b.size();
+			}
+		});
+
+		int[] result = lists.get(0).toArray();
+		for(int i = 1; i < lists.size() && result.length > 0; i++) {
+			result = PostingList.intersect(result, lists.get(i).toArray());
+		}
+		return result;
+	}
+
+	/**
+	 * Brings the posting lists in line with the current fields of a document
+	 */
+	private static void reindex(int callNumber, Document doc) {
+		String[] old = doc.terms;
+		String[] now = doc.terms();
+
+		for(String term : old) {
+			if(Arrays.binarySearch(now, term) < 0) {
+				PostingList list = postings.get(term);
+				if(list != null) {
+					list.remove(callNumber);
+					if(list.size() == 0) {
+						postings.remove(term);
+						trigrams.remove(term);
+					}
+				}
+			}
+		}
+		for(String term : now) {
+			if(Arrays.binarySearch(old, term) < 0) {
+				PostingList list = postings.get(term);
+				if(list == null) {
+					list = new PostingList();
+					postings.put(term, list);
+					trigrams.add(term);
+				}
+				list.add(callNumber);
+			}
+		}
+		doc.terms = now;
+	}
+
+	/**
+	 * Something that changes one document of the index
+	 */
+	private static abstract class Change implements Runnable {
+		private int callNumber;
+
+		private Change(int callNumber) {
+			this.callNumber = callNumber;
+		}
+
+		public void run() {
+			lock.writeLock().lock();
+			try {
+				applyTo();
+				if(replay != null) {
+					replay.add(this);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+			countUpdate();
+		}
+
+		/**
+		 * Applies the change to the index; called with the write lock held
+		 */
+		private void applyTo() {
+			Document doc = documents.get(this.callNumber);
+			if(doc == null) {
+				doc = new Document();
+				documents.put(this.callNumber, doc);
+			}
+			Set<String> before = doc.phrases();
+			Map<String, Set<String>> valuesBefore = doc.facets();
+			Set<String> after;
+			Map<String, Set<String>> valuesAfter;
+			if(apply(doc)) {
+				reindex(this.callNumber, doc);
+				after = doc.phrases();
+				valuesAfter = doc.facets();
+			} else {
+				Document removed = new Document();
+				reindex(this.callNumber, removed);
+				documents.remove(this.callNumber);
+				after = removed.phrases();
+				valuesAfter = removed.facets();
+			}
+
+			for(Map.Entry<String, Set<String>> e : valuesBefore.entrySet()) {
+				Set<String> now = valuesAfter.get(e.getKey());
+				for(String value : e.getValue()) {
+					if(!now.contains(value)) {
+						facets.remove(e.getKey(), value, this.callNumber);
+					}
+				}
+				for(String value : now) {
+					if(!e.getValue().contains(value)) {
+						facets.add(e.getKey(), value, this.callNumber);
+					}
+				}
+			}
+
+			for(String phrase : before) {
+				if(!after.contains(phrase)) {
+					prefixes.remove(phrase);
+				}
+			}
+			for(String phrase : after) {
+				if(!before.contains(phrase)) {
+					prefixes.add(phrase);
+				}
+			}
+		}
+
+		/**
+		 * @return false if the document is to be removed
+		 */
+		abstract boolean apply(Document doc);
+	}
+
+	/**
+	 * Applies a change once the current transaction commits
+	 */
+	private static void change(Change change) {
+		ConnectionPool.afterCommit(change);
+	}
+
+	/**
+	 * Indexes a book that has just been added or had its title, main author,
+	 * publisher or year changed
+	 *
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param title
+	 *            Book's full title
+	 * @param mainAuthor
+	 *            Book's main author
+	 * @param publisher
+	 *            Book's publisher
+	 * @param year
+	 *            Book's publishing year
+	 */
+	public static void bookChanged(int callNumber, final String title,
+			final String mainAuthor, final String publisher, final int year) {
+		change(new Change(callNumber) {
+			boolean apply(Document doc) {
+				doc.title = title;
+				doc.mainAuthor = mainAuthor;
+				doc.publisher = publisher;
+				doc.year = year;
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Takes a book that has just been deleted out of the index
+	 *
+	 * @param callNumber
+	 *            Call number of the book
+	 */
+	public static void bookRemoved(int callNumber) {
+		change(new Change(callNumber) {
+			boolean apply(Document doc) {
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param name
+	 *            Name of the author just added to the book
+	 */
+	public static void authorAdded(int callNumber, final String name) {
+		change(new Change(callNumber) {
+			boolean apply(Document doc) {
+				if(!doc.authors.contains(name)) {
+					doc.authors.add(name);
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param name
+	 *            Name of the author just removed from the book
+	 */
+	public static void authorRemoved(int callNumber, final String name) {
+		change(new Change(callNumber) {
+			boolean apply(Document doc) {
+				doc.authors.remove(name);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param subject
+	 *            Subject just added to the book
+	 */
+	public static void subjectAdded(int callNumber, final String subject) {
+		change(new Change(callNumber) {
+			boolean apply(Document doc) {
+				if(!doc.subjects.contains(subject)) {
+					doc.subjects.add(subject);
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param subject
+	 *            Subject just removed from the book
+	 */
+	public static void subjectRemoved(int callNumber, final String subject) {
+		change(new Change(callNumber) {
+			boolean apply(Document doc) {
+				doc.subjects.remove(subject);
+				return true;
+			}
+		});
+	}
+
+	private static synchronized void countSearch() {
+		searches++;
+	}
+
+	private static synchronized void countUpdate() {
+		updates++;
+	}
+
+	private static synchronized void countSuggestion() {
+		suggestions++;
+	}
+
+	/**
+	 * @return Approximate bytes used by the index: posting lists, documents,
+	 *         completions, trigrams and facets. Call with the read lock held.
+	 */
+	private static long memory() {
+		long bytes = 0;
+		for(Map.Entry<String, PostingList> e : postings.entrySet()) {
+			// Map entry, term string, list and its array
+			bytes += 32 + (40 + 2L * e.getKey().length()) + 24 + 4L * e.getValue().capacity();
+		}
+		for(Document doc : documents.values()) {
+			bytes += 32 + 16 + 72 + 4L * doc.terms.length + text(doc.title)
+					+ text(doc.mainAuthor) + text(doc.publisher);
+			for(String author : doc.authors) {
+				bytes += 4 + text(author);
+			}
+			for(String subject : doc.subjects) {
+				bytes += 4 + text(subject);
+			}
+		}
+		return bytes + prefixes.memory() + trigrams.memory() + facets.memory();
+	}
+
+	private static long text(String s) {
+		return (s == null ? 0 : 40 + 2L * s.length());
+	}
+
+	/**
+	 * @return A one line summary of the index size and counters
+	 */
+	public static String getStatistics() {
+		int terms;
+		int books;
+		int phrases;
+		int values;
+		long entries = 0;
+		long bytes;
+		lock.readLock().lock();
+		try {
+			terms = postings.size();
+			books = documents.size();
+			phrases = prefixes.size();
+			values = facets.size();
+			for(PostingList list : postings.values()) {
+				entries += list.size();
+			}
+			bytes = memory();
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		synchronized(CatalogIndex.class) {
+			return "Catalog index: " + books + " books, " + terms + " terms, "
+					+ entries + " postings, " + phrases + " completions, " + values + " facet values, about "
+					+ (bytes / 1024) + " KB; " + searches + " searches, "
+					+ suggestions + " suggestions, " + updates + " updates";
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The books having each value of each facet, such as the books with the
+ * subject "Databases" or the books published in 2011, as bitmaps of their
+ * call numbers. Counting the results of a search with each value is then an
+ * intersection of two bitmaps rather than a GROUP BY.
+ *
+ * Not thread safe; CatalogIndex guards it with its lock.
+ *
+ * @author Kevin Petersen
+ */
+class FacetIndex {
+	// Facet name to each value's books
+	private Map<String, Map<String, Bitmap>> facets = new HashMap<String, Map<String, Bitmap>>();
+
+	/**
+	 * Records that a book has a value of a facet
+	 */
+	void add(String facet, String value, int callNumber) {
+		Map<String, Bitmap> values = this.facets.get(facet);
+		if(values == null) {
+			values = new HashMap<String, Bitmap>();
+			this.facets.put(facet, values);
+		}
+		Bitmap books = values.get(value);
+		if(books == null) {
+			books = new Bitmap();
+			values.put(value, books);
+		}
+		books.add(callNumber);
+	}
+
+	/**
+	 * Records that a book no longer has a value of a facet, dropping the
+	 * value after its last book
+	 */
+	void remove(String facet, String value, int callNumber) {
+		Map<String, Bitmap> values = this.facets.get(facet);
+		Bitmap books = (values == null ? null : values.get(value));
+		if(books != null) {
+			books.remove(callNumber);
+			if(books.cardinality() == 0) {
+				values.remove(value);
+			}
+		}
+	}
+
+	/**
+	 * Empties the index
+	 */
+	void clear() {
+		this.facets.clear();
+	}
+
+	/**
+	 * @return The books having a value of a facet, or null if none has it
+	 */
+	Bitmap get(String facet, String value) {
+		Map<String, Bitmap> values = this.facets.get(facet);
+		return (values == null ? null : values.get(value));
+	}
+
+	/**
+	 * Counts the books having each value of a facet
+	 *
+	 * @param facet
+	 *            Name of the facet
+	 * @param within
+	 *            Books to count, or null for all of them
+	 * @param max
+	 *            Largest number of values to return
+	 * @return Up to max values and their number of books, most books first,
+	 *         leaving out values none of the books have
+	 */
+	Map<String, Integer> counts(String facet, Bitmap within, int max) {
+		Map<String, Bitmap> values = this.facets.get(facet);
+		List<Map.Entry<String, Integer>> counted = new ArrayList<Map.Entry<String, Integer>>();
+		if(values != null) {
+			Map<String, Integer> all = new HashMap<String, Integer>();
+			for(Map.Entry<String, Bitmap> e : values.entrySet()) {
+				int n = (within == null ? e.getValue().cardinality() : within.andCardinality(e.getValue()));
+				if(n > 0) {
+					all.put(e.getKey(), n);
+				}
+			}
+			counted.addAll(all.entrySet());
+		}
+
+		Collections.sort(counted, new Comparator<Map.Entry<String, Integer>>() {
+			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+				int c = b.getValue().compareTo(a.getValue());
+				return (c != 0 ? c : a.getKey().compareTo(b.getKey()));
+			}
+		});
+
+		Map<String, Integer> top = new LinkedHashMap<String, Integer>();
+		for(Map.Entry<String, Integer> e : counted.subList(0, Math.min(max, counted.size()))) {
+			top.put(e.getKey(), e.getValue());
+		}
+		return top;
+	}
+
+	/**
+	 * @return Number of distinct values over all facets
+	 */
+	int size() {
+		int n = 0;
+		for(Map<String, Bitmap> values : this.facets.values()) {
+			n += values.size();
+		}
+		return n;
+	}
+
+	/**
+	 * @return Approximate bytes used by the index, counting each value as a
+	 *         separate string
+	 */
+	long memory() {
+		long bytes = 0;
+		for(Map<String, Bitmap> values : this.facets.values()) {
+			for(Map.Entry<String, Bitmap> e : values.entrySet()) {
+				bytes += 32 + 40 + 2L * e.getKey().length() + e.getValue().memory();
+			}
+		}
+		return bytes;
+	}
+}
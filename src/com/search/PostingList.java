@@ -0,0 +1,149 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of call numbers kept in a plain int array, the books a term
+ * appears in. Call numbers are handed out in increasing order, so new books
+ * are normally appended at the end.
+ *
+ * @author Kevin Petersen
+ */
+public class PostingList {
+	private static final int[] EMPTY = new int[0];
+
+	private int[] ids;
+	private int size = 0;
+
+	public PostingList() {
+		this.ids = new int[4];
+	}
+
+	/**
+	 * @param id
+	 *            A call number
+	 * @return true if it was not in the list yet
+	 */
+	public boolean add(int id) {
+		int i = (this.size > 0 && this.ids[this.size - 1] < id ? -(this.size + 1)
+				: Arrays.binarySearch(this.ids, 0, this.size, id));
+		if(i >= 0) {
+			return false;
+		}
+
+		i = -(i + 1);
+		if(this.size == this.ids.length) {
+			this.ids = Arrays.copyOf(this.ids, this.size * 2);
+		}
+		System.arraycopy(this.ids, i, this.ids, i + 1, this.size - i);
+		this.ids[i] = id;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * @param id
+	 *            A call number
+	 * @return true if it was in the list
+	 */
+	public boolean remove(int id) {
+		int i = Arrays.binarySearch(this.ids, 0, this.size, id);
+		if(i < 0) {
+			return false;
+		}
+
+		System.arraycopy(this.ids, i + 1, this.ids, i, this.size - i - 1);
+		this.size--;
+		return true;
+	}
+
+	/**
+	 * @return Number of call numbers in the list
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param i
+	 *            Index of a call number, from 0 to size() - 1
+	 * @return The i-th smallest call number in the list
+	 */
+	int get(int i) {
+		return this.ids[i];
+	}
+
+	/**
+	 * @return The call numbers in increasing order, in a new array
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(this.ids, this.size);
+	}
+
+	/**
+	 * @return Number of ints allocated, for reporting memory use
+	 */
+	int capacity() {
+		return this.ids.length;
+	}
+
+	/**
+	 * @param a
+	 *            Call numbers in increasing order
+	 * @param b
+	 *            Call numbers in increasing order
+	 * @return The call numbers in both, in increasing order
+	 */
+	public static int[] intersect(int[] a, int[] b) {
+		if(a.length == 0 || b.length == 0) {
+			return EMPTY;
+		}
+
+		int[] out = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while(i < a.length && j < b.length) {
+			if(a[i] < b[j]) {
+				i++;
+			} else if(a[i] > b[j]) {
+				j++;
+			} else {
+				out[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * @param a
+	 *            Call numbers in increasing order
+	 * @param b
+	 *            Call numbers in increasing order
+	 * @return The call numbers in either, in increasing order
+	 */
+	public static int[] union(int[] a, int[] b) {
+		int[] out = new int[a.length + b.length];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while(i < a.length || j < b.length) {
+			if(j == b.length || (i < a.length && a[i] < b[j])) {
+				out[n++] = a[i++];
+			} else if(i == a.length || b[j] < a[i]) {
+				out[n++] = b[j++];
+			} else {
+				out[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+}
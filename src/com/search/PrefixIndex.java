@@ -0,0 +1,192 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The titles, author names and subjects of the catalog, for completing what a
+ * borrower has typed so far. Phrases are kept in one sorted array of lower
+ * case keys rather than a tree of nodes: every phrase starting with a prefix
+ * is then a contiguous range found by binary search, like the subtree of a
+ * trie, at the cost of only the strings and a few arrays.
+ *
+ * Not thread safe; CatalogIndex guards it with its lock.
+ *
+ * @author Kevin Petersen
+ */
+class PrefixIndex {
+	// Phrases looked at per completion when ranking by number of books
+	private static final int SCAN_LIMIT = 1000;
+
+	private String[] keys = new String[0];
+	private String[] phrases = new String[0];
+	// Number of books each phrase belongs to
+	private int[] counts = new int[0];
+	private int size = 0;
+
+	/**
+	 * @return The form phrases are compared in: lower case, single spaces
+	 */
+	static String key(String phrase) {
+		StringBuilder key = new StringBuilder(phrase.length());
+		for(String term : phrase.trim().split("\\s+")) {
+			if(key.length() > 0) {
+				key.append(' ');
+			}
+			key.append(term.toLowerCase(Locale.ENGLISH));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Replaces the contents of the index
+	 *
+	 * @param all
+	 *            Every phrase and the number of books it belongs to
+	 */
+	void rebuild(Map<String, Integer> all) {
+		String[][] entries = new String[all.size()][];
+		int n = 0;
+		for(String phrase : all.keySet()) {
+			entries[n++] = new String[] { key(phrase), phrase };
+		}
+		Arrays.sort(entries, new Comparator<String[]>() {
+			public int compare(String[] a, String[] b) {
+				return a[0].compareTo(b[0]);
+			}
+		});
+
+		this.keys = new String[n];
+		this.phrases = new String[n];
+		this.counts = new int[n];
+		this.size = 0;
+		for(String[] e : entries) {
+			// Phrases differing only in case share an entry
+			if(this.size > 0 && this.keys[this.size - 1].equals(e[0])) {
+				this.counts[this.size - 1] += all.get(e[1]);
+				continue;
+			}
+			this.keys[this.size] = e[0];
+			this.phrases[this.size] = e[1];
+			this.counts[this.size] = all.get(e[1]);
+			this.size++;
+		}
+	}
+
+	/**
+	 * Counts one more book with a phrase
+	 */
+	void add(String phrase) {
+		String key = key(phrase);
+		int i = Arrays.binarySearch(this.keys, 0, this.size, key);
+		if(i >= 0) {
+			this.counts[i]++;
+			return;
+		}
+
+		i = -(i + 1);
+		if(this.size == this.keys.length) {
+			int capacity = Math.max(16, this.size * 3 / 2);
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.phrases = Arrays.copyOf(this.phrases, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+		}
+		System.arraycopy(this.keys, i, this.keys, i + 1, this.size - i);
+		System.arraycopy(this.phrases, i, this.phrases, i + 1, this.size - i);
+		System.arraycopy(this.counts, i, this.counts, i + 1, this.size - i);
+		this.keys[i] = key;
+		this.phrases[i] = phrase;
+		this.counts[i] = 1;
+		this.size++;
+	}
+
+	/**
+	 * Counts one less book with a phrase, dropping it after the last one
+	 */
+	void remove(String phrase) {
+		int i = Arrays.binarySearch(this.keys, 0, this.size, key(phrase));
+		if(i < 0 || --this.counts[i] > 0) {
+			return;
+		}
+
+		System.arraycopy(this.keys, i + 1, this.keys, i, this.size - i - 1);
+		System.arraycopy(this.phrases, i + 1, this.phrases, i, this.size - i - 1);
+		System.arraycopy(this.counts, i + 1, this.counts, i, this.size - i - 1);
+		this.size--;
+		this.keys[this.size] = null;
+		this.phrases[this.size] = null;
+	}
+
+	/**
+	 * Finds the phrases starting with what has been typed, preferring those
+	 * that belong to the most books. Only the first SCAN_LIMIT phrases in
+	 * alphabetical order are ranked, so a very short prefix costs no more
+	 * than a long one.
+	 *
+	 * @param prefix
+	 *            What has been typed so far
+	 * @param max
+	 *            Largest number of phrases to return
+	 * @return Up to max phrases
+	 */
+	List<String> complete(String prefix, int max) {
+		List<String> found = new ArrayList<String>();
+		String key = key(prefix);
+		if(key.length() == 0) {
+			return found;
+		}
+
+		int first = Arrays.binarySearch(this.keys, 0, this.size, key);
+		first = (first < 0 ? -(first + 1) : first);
+		int end = first;
+		while(end < this.size && end - first < SCAN_LIMIT && this.keys[end].startsWith(key)) {
+			end++;
+		}
+
+		// Pick the max largest counts, keeping alphabetical order among equals
+		int[] best = new int[Math.min(max, end - first)];
+		int n = 0;
+		for(int i = first; i < end; i++) {
+			int j = n;
+			while(j > 0 && this.counts[best[j - 1]] < this.counts[i]) {
+				j--;
+			}
+			if(j < best.length) {
+				System.arraycopy(best, j, best, j + 1, Math.min(n, best.length - 1) - j);
+				best[j] = i;
+				n = Math.min(n + 1, best.length);
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			found.add(this.phrases[best[i]]);
+		}
+		return found;
+	}
+
+	/**
+	 * @return Number of phrases in the index
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return Approximate bytes used by the index, counting each phrase and
+	 *         its key as separate strings
+	 */
+	long memory() {
+		long bytes = 3 * 16 + (long) this.keys.length * (4 + 4 + 4);
+		for(int i = 0; i < this.size; i++) {
+			bytes += 2 * (40 + 2L * this.keys[i].length());
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,167 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times what the Search window does on each keystroke against a made up
+ * catalog: completing the text typed so far from the prefix index, and
+ * correcting a misspelled word from the trigram index. Titles are made of
+ * words from a made up vocabulary, common words far more often than the rest,
+ * as in a real catalog. Reports the mean, 99th percentile and worst time of
+ * each, and the memory both indexes report.
+ *
+ * Run as: java com.search.SuggestBenchmark [titles] [words] [lookups]
+ *
+ * @author Kevin Petersen
+ */
+public class SuggestBenchmark {
+	private static final int DEFAULT_TITLES = 1000000;
+	private static final int DEFAULT_WORDS = 200000;
+	private static final int DEFAULT_LOOKUPS = 20000;
+	private static final int AUTHORS_PER_TITLE = 3;
+	private static final int SUBJECTS = 2000;
+	private static final int SUGGESTIONS = 10;
+
+	// Keeps results alive so the work is not optimized away
+	private static long sink = 0;
+
+	/**
+	 * @param args
+	 *            Number of titles, vocabulary words and timed lookups of each
+	 *            kind
+	 */
+	public static void main(String[] args) {
+		int titles = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TITLES);
+		int words = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WORDS);
+		int lookups = (args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_LOOKUPS);
+
+		Random random = new Random(304);
+		String[] vocabulary = new String[words];
+		for(int i = 0; i < words; i++) {
+			vocabulary[i] = word(random);
+		}
+
+		long start = System.nanoTime();
+		Map<String, Integer> phrases = new HashMap<String, Integer>();
+		TrigramIndex trigrams = new TrigramIndex();
+		String[] sample = new String[Math.min(titles, lookups)];
+		for(int t = 0; t < titles; t++) {
+			StringBuilder title = new StringBuilder();
+			int length = 1 + random.nextInt(6);
+			for(int i = 0; i < length; i++) {
+				String word = vocabulary[common(random, words)];
+				title.append(i > 0 ? " " : "").append(word);
+				trigrams.add(word);
+			}
+			count(phrases, title.toString());
+			if(t < sample.length) {
+				sample[t] = title.toString();
+			}
+		}
+		for(int a = 0; a < titles / AUTHORS_PER_TITLE; a++) {
+			count(phrases, vocabulary[random.nextInt(words)] + " "
+					+ vocabulary[random.nextInt(words)]);
+		}
+		for(int s = 0; s < SUBJECTS; s++) {
+			count(phrases, vocabulary[common(random, words)]);
+		}
+		PrefixIndex prefixes = new PrefixIndex();
+		prefixes.rebuild(phrases);
+		phrases = null;
+		// So that collecting what building left behind is not timed
+		System.gc();
+		System.out.println(titles + " titles, " + prefixes.size() + " phrases, "
+				+ trigrams.size() + " terms; built in "
+				+ (System.nanoTime() - start) / 1000000 + " ms; prefix index "
+				+ prefixes.memory() / 1024 / 1024 + " MB, trigram index "
+				+ trigrams.memory() / 1024 / 1024 + " MB");
+
+		// Each prefix of a title, as it is typed
+		long[] times = new long[lookups];
+		for(int round = 0; round < 2; round++) {
+			for(int i = 0; i < lookups; i++) {
+				String title = sample[random.nextInt(sample.length)];
+				String typed = title.substring(0, 1 + random.nextInt(title.length()));
+				long t = System.nanoTime();
+				sink += prefixes.complete(typed, SUGGESTIONS).size();
+				times[i] = System.nanoTime() - t;
+			}
+		}
+		report("Complete", times);
+
+		// A word of the vocabulary with one letter changed, dropped or added
+		for(int round = 0; round < 2; round++) {
+			for(int i = 0; i < lookups; i++) {
+				String typo = typo(random, vocabulary[common(random, words)]);
+				long t = System.nanoTime();
+				List<String> closest = trigrams.closest(typo, (typo.length() <= 4 ? 1 : 2));
+				times[i] = System.nanoTime() - t;
+				sink += closest.size();
+			}
+		}
+		report("Correct", times);
+
+		if(sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * @return A vocabulary index, small ones far more often than large ones
+	 */
+	private static int common(Random random, int words) {
+		double r = random.nextDouble();
+		return (int) (words * r * r * r);
+	}
+
+	private static String word(Random random) {
+		int length = 3 + random.nextInt(8);
+		char[] letters = new char[length];
+		for(int i = 0; i < length; i++) {
+			letters[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(letters);
+	}
+
+	private static String typo(Random random, String word) {
+		int i = random.nextInt(word.length());
+		char c = (char) ('a' + random.nextInt(26));
+		switch(random.nextInt(3)) {
+		case 0:
+			return word.substring(0, i) + c + word.substring(i + 1);
+		case 1:
+			return word.substring(0, i) + word.substring(i + 1);
+		default:
+			return word.substring(0, i) + c + word.substring(i);
+		}
+	}
+
+	private static void count(Map<String, Integer> phrases, String phrase) {
+		Integer n = phrases.get(phrase);
+		phrases.put(phrase, (n == null ? 1 : n + 1));
+	}
+
+	private static void report(String what, long[] times) {
+		long total = 0;
+		for(long t : times) {
+			total += t;
+		}
+		Arrays.sort(times);
+		System.out.println(what + ": " + times.length + " lookups, mean "
+				+ micros(total / times.length) + ", 99th percentile "
+				+ micros(times[times.length * 99 / 100]) + ", worst "
+				+ micros(times[times.length - 1]));
+	}
+
+	private static String micros(long nanos) {
+		return (nanos / 1000) + " us";
+	}
+}
@@ -0,0 +1,44 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into the terms the catalog is indexed and searched by: runs of
+ * letters and digits, in lower case. Everything else separates terms.
+ *
+ * @author Kevin Petersen
+ */
+public class Tokenizer {
+	private Tokenizer() {
+	}
+
+	/**
+	 * @param text
+	 *            Text to split; may be null
+	 * @return The terms of the text in the order they appear, with repeats
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> terms = new ArrayList<String>();
+		if(text == null) {
+			return terms;
+		}
+
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++) {
+			boolean inTerm = (i < text.length() && Character.isLetterOrDigit(text.charAt(i)));
+			if(inTerm && start < 0) {
+				start = i;
+			} else if(!inTerm && start >= 0) {
+				terms.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+				start = -1;
+			}
+		}
+		return terms;
+	}
+}
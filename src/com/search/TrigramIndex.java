@@ -0,0 +1,224 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The terms of the catalog indexed by their three letter pieces, for finding
+ * the terms closest to a misspelled word. Each term is padded with a $ at
+ * both ends, so "java" has the trigrams $ja, jav, ava and va$. A word within
+ * d edits of a term shares all but at most 3d of its trigrams with it, so
+ * only terms sharing that many are compared letter by letter.
+ *
+ * The ids of removed terms are handed out again to new ones, so the id space
+ * stays as large as the number of terms. closest() counts shared trigrams in
+ * an array indexed by term id, kept per thread and cleared as it is read, so
+ * a lookup allocates nothing in proportion to the terms it looks at.
+ *
+ * Not thread safe for changes; CatalogIndex guards it with its lock and may
+ * call closest() from several threads under the read lock.
+ *
+ * @author Kevin Petersen
+ */
+class TrigramIndex {
+	// Term of each id, or null for a term that has been removed
+	private List<String> terms = new ArrayList<String>();
+	// Ids of removed terms, to be given to new ones
+	private List<Integer> free = new ArrayList<Integer>();
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private Map<String, PostingList> grams = new HashMap<String, PostingList>();
+
+	// Shared trigram counts by term id and the ids counted, for closest()
+	private final ThreadLocal<int[][]> scratch = new ThreadLocal<int[][]>();
+
+	/**
+	 * @return The distinct trigrams of a term
+	 */
+	static Set<String> trigrams(String term) {
+		String padded = "$" + term + "$";
+		Set<String> grams = new LinkedHashSet<String>();
+		for(int i = 0; i + 3 <= padded.length(); i++) {
+			grams.add(padded.substring(i, i + 3));
+		}
+		return grams;
+	}
+
+	/**
+	 * Indexes a term that has just appeared in the catalog
+	 */
+	void add(String term) {
+		if(this.ids.containsKey(term)) {
+			return;
+		}
+
+		int id;
+		if(this.free.isEmpty()) {
+			id = this.terms.size();
+			this.terms.add(term);
+		} else {
+			id = this.free.remove(this.free.size() - 1);
+			this.terms.set(id, term);
+		}
+		this.ids.put(term, id);
+		for(String gram : trigrams(term)) {
+			PostingList list = this.grams.get(gram);
+			if(list == null) {
+				list = new PostingList();
+				this.grams.put(gram, list);
+			}
+			list.add(id);
+		}
+	}
+
+	/**
+	 * Forgets a term that no longer appears in the catalog
+	 */
+	void remove(String term) {
+		Integer id = this.ids.remove(term);
+		if(id == null) {
+			return;
+		}
+
+		this.terms.set(id, null);
+		this.free.add(id);
+		for(String gram : trigrams(term)) {
+			PostingList list = this.grams.get(gram);
+			if(list != null) {
+				list.remove(id);
+				if(list.size() == 0) {
+					this.grams.remove(gram);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Empties the index
+	 */
+	void clear() {
+		this.terms.clear();
+		this.free.clear();
+		this.ids.clear();
+		this.grams.clear();
+	}
+
+	/**
+	 * Finds the terms with the fewest edits from a word
+	 *
+	 * @param word
+	 *            A word in lower case
+	 * @param maxDistance
+	 *            Largest number of inserted, deleted or changed letters
+	 *            allowed
+	 * @return The terms at the smallest distance found, or an empty list if
+	 *         none is within maxDistance
+	 */
+	List<String> closest(String word, int maxDistance) {
+		Set<String> wordGrams = trigrams(word);
+		int needed = Math.max(1, wordGrams.size() - 3 * maxDistance);
+
+		int[][] s = this.scratch.get();
+		if(s == null || s[0].length < this.terms.size()) {
+			int length = Math.max(16, this.terms.size() + this.terms.size() / 2);
+			s = new int[][] { new int[length], new int[length] };
+			this.scratch.set(s);
+		}
+		// Trigrams shared with the word, by term id; all zero between calls
+		int[] shared = s[0];
+		// Ids with a count, in the order first seen
+		int[] seen = s[1];
+		int n = 0;
+		for(String gram : wordGrams) {
+			PostingList list = this.grams.get(gram);
+			if(list == null) {
+				continue;
+			}
+			for(int i = 0; i < list.size(); i++) {
+				int id = list.get(i);
+				if(shared[id]++ == 0) {
+					seen[n++] = id;
+				}
+			}
+		}
+
+		List<String> best = new ArrayList<String>();
+		int bestDistance = maxDistance + 1;
+		for(int i = 0; i < n; i++) {
+			int id = seen[i];
+			int count = shared[id];
+			shared[id] = 0;
+			if(count < needed) {
+				continue;
+			}
+			String term = this.terms.get(id);
+			int d = distance(word, term, bestDistance);
+			if(d < bestDistance) {
+				best.clear();
+				bestDistance = d;
+			}
+			if(d == bestDistance) {
+				best.add(term);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return The edit distance between a and b, or limit if it is at least
+	 *         limit
+	 */
+	static int distance(String a, String b, int limit) {
+		if(Math.abs(a.length() - b.length()) >= limit) {
+			return limit;
+		}
+
+		int[] prev = new int[b.length() + 1];
+		int[] row = new int[b.length() + 1];
+		for(int j = 0; j <= b.length(); j++) {
+			prev[j] = j;
+		}
+		for(int i = 1; i <= a.length(); i++) {
+			row[0] = i;
+			int smallest = row[0];
+			for(int j = 1; j <= b.length(); j++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+				row[j] = Math.min(Math.min(row[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+				smallest = Math.min(smallest, row[j]);
+			}
+			if(smallest >= limit) {
+				return limit;
+			}
+			int[] t = prev;
+			prev = row;
+			row = t;
+		}
+		return Math.min(prev[b.length()], limit);
+	}
+
+	/**
+	 * @return Number of terms in the index
+	 */
+	int size() {
+		return this.ids.size();
+	}
+
+	/**
+	 * @return Approximate bytes used by the index; the term strings are
+	 *         shared with the posting lists of CatalogIndex and not counted
+	 */
+	long memory() {
+		long bytes = 16 + 4L * this.terms.size() + 20L * this.free.size() + 48L * this.ids.size();
+		for(PostingList list : this.grams.values()) {
+			bytes += 48 + 40 + 16 + 4L * list.capacity();
+		}
+		return bytes;
+	}
+}
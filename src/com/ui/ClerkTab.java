@@ -17,6 +17,7 @@ import javax.swing.JButton;
 import javax.swing.JPanel;
 
 import com.ui.clerk.Checkout;
+import com.ui.clerk.EditBorrower;
 import com.ui.clerk.NewBorrower;
 import com.ui.clerk.Overdue;
 import com.ui.clerk.Return;
@@ -42,6 +43,11 @@ class ClerkTab extends JPanel {
 			new NewBorrower().displayWindow();
 		}
 	};
+	private ActionListener editBorrowerAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			new EditBorrower().displayWindow();
+		}
+	};
 	private ActionListener overdueAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
 			try {
@@ -64,6 +70,7 @@ class ClerkTab extends JPanel {
 		addCheckoutButton();
 		addReturnButton();
 		addNewBorrowerButton();
+		addEditBorrowerButton();
 		addOverdueButton();
 	}
 	
@@ -111,12 +118,26 @@ class ClerkTab extends JPanel {
 		JButton button = new JButton("Add Borrower");
 		button.setPreferredSize(new Dimension(BUTTON_WIDTH, BUTTON_HEIGHT));
 		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(5, 10, 10, 5);
+		c.insets = new Insets(5, 10, 5, 5);
 		gb.setConstraints(button, c);
 		this.add(button);
 		button.addActionListener(this.newBorrowerAction);
 	}
 
+	/**
+	 * Builds the edit borrower button and adds it to the window 
+	 */
+	private void addEditBorrowerButton() {
+		// Place the edit borrower button
+		JButton button = new JButton("Edit Borrower");
+		button.setPreferredSize(new Dimension(BUTTON_WIDTH, BUTTON_HEIGHT));
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		c.insets = new Insets(5, 5, 5, 10);
+		gb.setConstraints(button, c);
+		this.add(button);
+		button.addActionListener(this.editBorrowerAction);
+	}
+
 	/**
 	 * Builds the overdue button and adds it to the window 
 	 */
@@ -124,8 +145,8 @@ class ClerkTab extends JPanel {
 		// Place the overdue button
 		JButton button = new JButton("Overdue");
 		button.setPreferredSize(new Dimension(BUTTON_WIDTH, BUTTON_HEIGHT));
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(5, 5, 10, 10);
+		c.gridwidth = GridBagConstraints.RELATIVE;
+		c.insets = new Insets(5, 10, 10, 5);
 		gb.setConstraints(button, c);
 		this.add(button);
 		button.addActionListener(this.overdueAction);
@@ -38,6 +38,11 @@ class LibrarianTab extends JPanel {
 			new Popular().displayWindow();
 		}
 	};
+	private ActionListener trendingAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			new TrendingNow().displayWindow();
+		}
+	};
 	
 	private static final int BUTTON_HEIGHT = MainMenu.BUTTON_HEIGHT;
 	private static final int BUTTON_WIDTH = MainMenu.BUTTON_WIDTH;
@@ -51,6 +56,7 @@ class LibrarianTab extends JPanel {
 		addNewBookButton();
 		addCheckedOutButton();
 		addPopularButton();
+		addTrendingButton();
 	}
 	
 	/**
@@ -98,11 +104,26 @@ class LibrarianTab extends JPanel {
 		// Place the popular button
 		JButton button = new JButton("Popular Books");
 		button.setPreferredSize(new Dimension(BUTTON_WIDTH, BUTTON_HEIGHT));
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(5, 10, 10, 10);
+		c.gridwidth = GridBagConstraints.RELATIVE;
+		c.insets = new Insets(5, 10, 10, 5);
 		c.anchor = GridBagConstraints.CENTER;
 		gb.setConstraints(button, c);
 		this.add(button);
 		button.addActionListener(this.popularAction);
 	}
+
+	/**
+	 * Builds the trending button and adds it to the window 
+	 */
+	private void addTrendingButton() {
+		// Place the trending button
+		JButton button = new JButton("Trending Now");
+		button.setPreferredSize(new Dimension(BUTTON_WIDTH, BUTTON_HEIGHT));
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		c.insets = new Insets(5, 5, 10, 10);
+		c.anchor = GridBagConstraints.CENTER;
+		gb.setConstraints(button, c);
+		this.add(button);
+		button.addActionListener(this.trendingAction);
+	}
 }
@@ -13,6 +13,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
@@ -24,7 +25,16 @@ import javax.swing.JPanel;
 import javax.swing.JPasswordField;
 import javax.swing.JTextField;
 
-import com.Main;
+import com.book.HoldExpiry;
+import com.book.records.FineLedger;
+import com.book.records.Popularity;
+import com.book.records.Recommender;
+import com.book.records.Trending;
+import com.db.ConnectionPool;
+import com.db.DriverManagerDataSource;
+import com.notify.FileSender;
+import com.notify.NotificationWorker;
+import com.search.CatalogIndex;
 
 /**
  * This class implements a graphical login window to connect to the Oracle
@@ -186,9 +196,15 @@ public class LoginWindow {
 		String connectURL = "jdbc:oracle:thin:@dbhost.ugrad.cs.ubc.ca:1522:ug";
 		
 		try {
-			Main.con = DriverManager.getConnection(connectURL, username, password);
-			// Disable auto commit mode
-			Main.con.setAutoCommit(false);
+			ConnectionPool.initialize(new DriverManagerDataSource(connectURL,
+					username, password), ConnectionPool.DEFAULT_MAX_SIZE);
+			NotificationWorker.start(new FileSender(new File("notifications.log")));
+			HoldExpiry.start();
+			CatalogIndex.start();
+			Popularity.start();
+			Trending.start();
+			Recommender.start();
+			FineLedger.start();
 			System.out.println("\nConnected to Oracle!");
 			return true;
 		} catch (SQLException sql) {
@@ -8,14 +8,13 @@ import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.sql.Connection;
-import java.sql.SQLException;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 
-import com.Main;
+import com.db.ConnectionPool;
+import com.db.KeyGenerator;
 
 /**
  * Implements a text based menu used to connect to the database.
@@ -27,8 +26,6 @@ public class MainMenu {
 	private JPanel contentPane = new JPanel();
 	private JTabbedPane tabbedPane = new JTabbedPane();
 	
-	private Connection con = Main.con;
-	
 	static final int BUTTON_HEIGHT = 30;
 	static final int BUTTON_WIDTH = 200;
 	
@@ -50,13 +47,9 @@ public class MainMenu {
 		frame.setContentPane(contentPane);
 		frame.addWindowListener(new WindowAdapter() {
 			public void windowClosing(WindowEvent e) {
-				try {
-					con.close();
-					System.exit(0);
-				} catch (SQLException sql) {
-					System.out.println("Message: " + sql.getMessage());
-					System.exit(-1);
-				}
+				KeyGenerator.close();
+				ConnectionPool.close();
+				System.exit(0);
 			}
 		});
 	}
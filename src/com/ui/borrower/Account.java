@@ -13,84 +13,59 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.sql.Date;
 import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
 
+import com.book.BookCopy;
+import com.book.records.AccountStatus;
+import com.book.records.Borrowing;
+import com.book.records.Fine;
+import com.book.records.FineLedger;
 import com.borrower.Borrower;
-import com.borrower.BorrowerType;
-import com.date.DateParser;
 
 /**
- * This class implements a graphical login window to connect to the Oracle
- * database.
- * 
+ * This class implements a graphical window showing a borrower what they owe
+ * and what they have out: their balance, unpaid fines and current loans.
+ *
  * @author Kevin Petersen
  */
 public class Account {
-	private JFrame frame = new JFrame("New Borrower");
+	private JFrame frame = new JFrame("Account Status");
 	private JPanel contentPane = new JPanel();
 	private GridBagLayout gb = new GridBagLayout();
 	private GridBagConstraints c = new GridBagConstraints();
-	
+
 	private static final int FIELD_WIDTH = 30;
+	private static final String[] FINE_COLUMNS = { "Fine", "Call Number",
+			"Title", "Issued", "Amount" };
+	private static final String[] LOAN_COLUMNS = { "Call Number", "Copy",
+			"Title", "Borrowed", "Due" };
 	private final int LABEL_ALIGNMENT = GridBagConstraints.LINE_START;
-	
+
 	private JTextField bidField = new JTextField(FIELD_WIDTH);
 	private JPasswordField passwordField = new JPasswordField(FIELD_WIDTH);
-	private JTextField nameField = new JTextField(FIELD_WIDTH);
-	private JTextField addressField = new JTextField(FIELD_WIDTH);
-	private JTextField phoneField = new JTextField(FIELD_WIDTH);
-	private JTextField emailField = new JTextField(FIELD_WIDTH);
-	private JTextField sinField = new JTextField(FIELD_WIDTH);
-	private JTextField expiryField = new JTextField(FIELD_WIDTH);
-	private JTextField typeField = new JTextField(FIELD_WIDTH);
-	
-	private ActionListener submitAction = new ActionListener() {
+	private JLabel balanceLabel = new JLabel(" ");
+	private JPanel results = new JPanel(new GridBagLayout());
+	private Borrower borrower = null;
+
+	private ActionListener showAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			try {
-				int bid = Integer.parseInt(bidField.getText());
-				String password = String.valueOf(passwordField.getPassword()); 
-				String name = nameField.getText();
-				
-				String address = addressField.getText();
-				address = (address.isEmpty() ? null : address);
-				
-				String phoneString = phoneField.getText();
-				int phone = (phoneString.isEmpty() ? 0 : Integer.parseInt(phoneString));
-				
-				String emailAddress = emailField.getText();
-				emailAddress = (emailAddress.isEmpty() ? null : emailAddress);
-				
-				int sinOrStNo = Integer.parseInt(sinField.getText());
-				
-				String dateString = expiryField.getText();
-				Date expiryDate = (dateString.isEmpty() ? null : DateParser.convertToDate(dateString)); 
-				
-				BorrowerType type = BorrowerType.get(typeField.getText());
-				
-				System.out.print("Borrower added!");
-				bidField.setText("");
-				passwordField.setText("");
-				nameField.setText("");
-				addressField.setText("");
-				phoneField.setText("");
-				emailField.setText("");
-				sinField.setText("");
-				expiryField.setText("");
-				typeField.setText("");
-			} catch (SQLException sql) {
-				System.out.print("Could not add Borrower.");
-			}
+			show();
+		}
+	};
+	private ActionListener renewAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			renew();
 		}
 	};
 	private ActionListener closeAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			frame.dispose();	
+			frame.dispose();
 		}
 	};
-	
+
 	/**
 	 * Builds the components and does any initialization for the window
 	 */
@@ -98,17 +73,13 @@ public class Account {
 		initializePane();
 		addBid();
 		addPassword();
-		addName();
-		addAddress();
-		addPhone();
-		addEmail();
-		addSin();
-		addExpiry();
-		addType();
-		addSubmitButton();
+		addBalance();
+		addResults();
+		addShowButton();
+		addRenewButton();
 		addCloseButton();
 	}
-	
+
 	/**
 	 * Builds the base frame and pane for the window
 	 */
@@ -119,13 +90,13 @@ public class Account {
 				frame.dispose();
 			}
 		});
-		
+
 		contentPane.setLayout(gb);
 		contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 	}
 
 	/**
-	 * Builds the bid field and label and adds them to the window 
+	 * Builds the bid field and label and adds them to the window
 	 */
 	private void addBid() {
 		// Place the bid label
@@ -142,9 +113,9 @@ public class Account {
 		gb.setConstraints(bidField, c);
 		contentPane.add(bidField);
 	}
-	
+
 	/**
-	 * Builds the password field and label and adds them to the window 
+	 * Builds the password field and label and adds them to the window
 	 */
 	private void addPassword() {
 		// Place password label
@@ -161,161 +132,182 @@ public class Account {
 		c.insets = new Insets(0, 0, 5, 10);
 		gb.setConstraints(passwordField, c);
 		contentPane.add(passwordField);
+		passwordField.addActionListener(this.showAction);
 	}
 
 	/**
-	 * Builds the name field and label and adds them to the window 
+	 * Builds the balance label and adds it to the window
 	 */
-	private void addName() {
-		// Place the name label
-		JLabel label = new JLabel("Enter Full Name*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the name
+	private void addBalance() {
+		// Place the balance label
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(nameField, c);
-		contentPane.add(nameField);
+		c.insets = new Insets(5, 10, 5, 10);
+		c.anchor = LABEL_ALIGNMENT;
+		gb.setConstraints(balanceLabel, c);
+		contentPane.add(balanceLabel);
 	}
-	
+
 	/**
-	 * Builds the address field and label and adds them to the window 
+	 * Builds the scrolling list of fines and loans and adds it to the window
 	 */
-	private void addAddress() {
-		// Place the address label
-		JLabel label = new JLabel("Enter Full Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the address
+	private void addResults() {
+		JScrollPane scroll = new JScrollPane(results);
+		scroll.setPreferredSize(new Dimension(600, 300));
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(addressField, c);
-		contentPane.add(addressField);
+		c.insets = new Insets(5, 10, 5, 10);
+		c.fill = GridBagConstraints.BOTH;
+		gb.setConstraints(scroll, c);
+		contentPane.add(scroll);
+		c.fill = GridBagConstraints.NONE;
 	}
-	
+
 	/**
-	 * Builds the phone field and label and adds them to the window 
+	 * Looks up the borrower's account on a worker thread and shows it
 	 */
-	private void addPhone() {
-		// Place the phone label
-		JLabel label = new JLabel("Enter Phone Number: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void show() {
+		final int bid;
+		try {
+			bid = Integer.parseInt(bidField.getText().trim());
+		} catch (NumberFormatException e) {
+			System.out.print("Enter a Borrower ID.");
+			return;
+		}
+		final String password = String.valueOf(passwordField.getPassword());
 
-		// Place the text field for the phone
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(phoneField, c);
-		contentPane.add(phoneField);
+		new SwingWorker<AccountStatus, Void>() {
+			protected AccountStatus doInBackground() throws SQLException {
+				Borrower found = Borrower.get(bid);
+				if(!found.getPassword().equals(password)) {
+					throw new SQLException("Wrong password.");
+				}
+				return AccountStatus.get(found);
+			}
+
+			protected void done() {
+				try {
+					showStatus(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not read the account.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the email field and label and adds them to the window 
+	 * Renews every loan of the borrower shown that may be renewed, on a
+	 * worker thread, and shows the account again
 	 */
-	private void addEmail() {
-		// Place the email label
-		JLabel label = new JLabel("Enter Email Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void renew() {
+		if(borrower == null) {
+			System.out.print("Show an account first.");
+			return;
+		}
+		final Borrower renewing = borrower;
 
-		// Place the text field for the email
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(emailField, c);
-		contentPane.add(emailField);
+		new SwingWorker<AccountStatus, Void>() {
+			private int renewed;
+
+			protected AccountStatus doInBackground() throws SQLException {
+				renewed = Borrowing.renew(renewing).size();
+				return AccountStatus.get(renewing);
+			}
+
+			protected void done() {
+				try {
+					AccountStatus status = get();
+					System.out.print(renewed + " loans renewed!");
+					showStatus(status);
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not renew the loans.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the sin field and label and adds them to the window 
+	 * Replaces the balance and lists with those of the given account
 	 */
-	private void addSin() {
-		// Place the sin label
-		JLabel label = new JLabel("Enter Student Number or SIN*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void showStatus(AccountStatus status) {
+		borrower = status.getBid();
+		balanceLabel.setText(status.getBid().getName() + " owes "
+				+ FineLedger.format(status.getBalance()) + " in "
+				+ status.getFines().size() + " fines and has "
+				+ status.getLoans().size() + " books out.");
 
-		// Place the text field for the sin
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(sinField, c);
-		contentPane.add(sinField);
+		results.removeAll();
+		addRow(FINE_COLUMNS);
+		for(Fine fine : status.getFines()) {
+			BookCopy copy = fine.getBorid().getCallNumber();
+			addRow(new String[] { "" + fine.getFid(),
+					"" + copy.getCallNumber().getCallNumber(),
+					copy.getCallNumber().getTitle(), "" + fine.getIssuedDate(),
+					FineLedger.format(FineLedger.toCents(fine.getAmount())) });
+		}
+		addRow(new String[] { " " });
+		addRow(LOAN_COLUMNS);
+		for(Borrowing loan : status.getLoans()) {
+			BookCopy copy = loan.getCallNumber();
+			addRow(new String[] { "" + copy.getCallNumber().getCallNumber(),
+					"" + copy.getCopyNo(), copy.getCallNumber().getTitle(),
+					"" + loan.getOutDate(), "" + loan.getInDate() });
+		}
+		results.revalidate();
+		results.repaint();
 	}
-	
+
 	/**
-	 * Builds the expiry field and label and adds them to the window 
+	 * Builds a row of the list of fines and loans
+	 *
+	 * @param cells
+	 *            Text of each column
 	 */
-	private void addExpiry() {
-		// Place the expiry label
-		JLabel label = new JLabel("Enter Expiry Date (YYYY-MM-DD): ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the expiry
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(expiryField, c);
-		contentPane.add(expiryField);
+	private void addRow(String[] cells) {
+		GridBagConstraints cell = new GridBagConstraints();
+		cell.anchor = GridBagConstraints.LINE_START;
+		cell.insets = new Insets(2, 5, 2, 5);
+		for(int i = 0; i < cells.length; i++) {
+			JLabel label = new JLabel(cells[i]);
+			cell.gridwidth = (i == cells.length - 1 ? GridBagConstraints.REMAINDER : 1);
+			results.add(label, cell);
+		}
 	}
-	
+
 	/**
-	 * Builds the type field and label and adds them to the window 
+	 * Builds the show button and adds it to the window
 	 */
-	private void addType() {
-		// Place the type label
-		JLabel label = new JLabel("Enter Borrower Type*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the type
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(typeField, c);
-		contentPane.add(typeField);
+	private void addShowButton() {
+		// Place the show button
+		JButton button = new JButton("Show");
+		c.gridwidth = 1;
+		c.insets = new Insets(5, 10, 10, 5);
+		c.anchor = GridBagConstraints.LINE_START;
+		gb.setConstraints(button, c);
+		contentPane.add(button);
+		button.addActionListener(this.showAction);
 	}
-	
+
 	/**
-	 * Builds the submit button and adds it to the window 
+	 * Builds the renew button and adds it to the window
 	 */
-	private void addSubmitButton() {
-		// Place the submit button
-		JButton button = new JButton("Submit");
+	private void addRenewButton() {
+		// Place the renew button
+		JButton button = new JButton("Renew Loans");
 		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(5, 10, 10, 5);
-		c.anchor = GridBagConstraints.LINE_START;
+		c.insets = new Insets(5, 5, 10, 5);
+		c.anchor = GridBagConstraints.CENTER;
 		gb.setConstraints(button, c);
 		contentPane.add(button);
-		button.addActionListener(this.submitAction);
+		button.addActionListener(this.renewAction);
 	}
-	
+
 	/**
-	 * Builds the cancel button and adds it to the window 
+	 * Builds the close button and adds it to the window
 	 */
 	private void addCloseButton() {
-		// Place the cancel button
-		JButton button = new JButton("Cancel");
+		// Place the close button
+		JButton button = new JButton("Close");
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(5, 5, 10, 10);
 		c.anchor = GridBagConstraints.LINE_END;
@@ -323,14 +315,14 @@ public class Account {
 		contentPane.add(button);
 		button.addActionListener(this.closeAction);
 	}
-	
+
 	/**
 	 * Packages, places and makes the window visible
 	 */
 	public void displayWindow() {
 		// Size the window to obtain a best fit for the components
 		frame.pack();
-		
+
 		// center the frame
 		Dimension d = frame.getToolkit().getScreenSize();
 		Rectangle r = frame.getBounds();
@@ -340,7 +332,7 @@ public class Account {
 		// make the window visible
 		frame.setVisible(true);
 
-		// place the cursor in the text field for the username
+		// place the cursor in the text field for the bid
 		bidField.requestFocus();
 	}
 }
\ No newline at end of file
@@ -22,10 +22,10 @@ import java.sql.Statement;
 
 import javax.swing.*;
 
-import com.Main;
 import com.borrower.Borrower;
 import com.borrower.BorrowerType;
 import com.date.DateParser;
+import com.db.ConnectionPool;
 
 /**
  * This class implements a graphical login window to connect to the Oracle
@@ -35,7 +35,6 @@ import com.date.DateParser;
  */
 public class HoldRequest {
 	
-	private static Connection con = Main.con;
 	private JFrame frmHoldRequest = new JFrame("New Borrower");
 	private JPanel contentPane = new JPanel();
 	private GridBagLayout gb = new GridBagLayout();
@@ -50,14 +49,14 @@ public class HoldRequest {
 
 				int callNumber = Integer.parseInt(callNumberField.getText());
 				
-				Statement stmt = null;
 				try {
-					stmt = con.createStatement();
-				} catch (SQLException e1) {
-					e1.printStackTrace();
-				}
-				try {
-					stmt.executeQuery("UPDATE BookCopy SET status= onHold WHERE callNumber= " + callNumber + "");
+					Connection con = ConnectionPool.getConnection();
+					try {
+						Statement stmt = con.createStatement();
+						stmt.executeQuery("UPDATE BookCopy SET status= onHold WHERE callNumber= " + callNumber + "");
+					} finally {
+						ConnectionPool.release(con);
+					}
 				} catch (SQLException e1) {
 					e1.printStackTrace();
 				}
@@ -149,21 +148,21 @@ public class HoldRequest {
 
 				int callNumber = Integer.parseInt(callNumberField.getText());
 				
-				Statement stmt = null;
-				try {
-					stmt = con.createStatement();
-				} catch (SQLException e1) {
-					e1.printStackTrace();
-				}
 				try {
-					String onhold = "on-hold";
-					/* 
-					PreparedStatement st = con.prepareStatement("UPDATE BookCopy SET status = ?, WHERE callNumber = ?");
-				        st.setString(1, "onHold");
-				        st.setInt(2, callNumber);
-				        st.executeUpdate();
-				        */
-					stmt.executeUpdate("UPDATE BookCopy SET status=" + onhold + " WHERE callNumber= " + callNumber + "");
+					Connection con = ConnectionPool.getConnection();
+					try {
+						Statement stmt = con.createStatement();
+						String onhold = "on-hold";
+						/* 
+						PreparedStatement st = con.prepareStatement("UPDATE BookCopy SET status = ?, WHERE callNumber = ?");
+					        st.setString(1, "onHold");
+					        st.setInt(2, callNumber);
+					        st.executeUpdate();
+					        */
+						stmt.executeUpdate("UPDATE BookCopy SET status=" + onhold + " WHERE callNumber= " + callNumber + "");
+					} finally {
+						ConnectionPool.release(con);
+					}
 				} catch (SQLException e1) {
 					e1.printStackTrace();
 				}
@@ -13,84 +13,63 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.sql.Date;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
 
+import com.book.BookCopy;
+import com.book.records.AccountStatus;
+import com.book.records.Fine;
+import com.book.records.FineLedger;
 import com.borrower.Borrower;
-import com.borrower.BorrowerType;
 import com.date.DateParser;
 
 /**
- * This class implements a graphical login window to connect to the Oracle
- * database.
- * 
+ * This class implements a graphical window for a borrower to pay any of
+ * their unpaid fines at once.
+ *
  * @author Kevin Petersen
  */
 public class PayFine {
-	private JFrame frame = new JFrame("New Borrower");
+	private JFrame frame = new JFrame("Pay Fines");
 	private JPanel contentPane = new JPanel();
 	private GridBagLayout gb = new GridBagLayout();
 	private GridBagConstraints c = new GridBagConstraints();
-	
+
 	private static final int FIELD_WIDTH = 30;
+	private static final String[] COLUMNS = { "Pay", "Fine", "Call Number",
+			"Title", "Issued", "Amount" };
 	private final int LABEL_ALIGNMENT = GridBagConstraints.LINE_START;
-	
+
 	private JTextField bidField = new JTextField(FIELD_WIDTH);
 	private JPasswordField passwordField = new JPasswordField(FIELD_WIDTH);
-	private JTextField nameField = new JTextField(FIELD_WIDTH);
-	private JTextField addressField = new JTextField(FIELD_WIDTH);
-	private JTextField phoneField = new JTextField(FIELD_WIDTH);
-	private JTextField emailField = new JTextField(FIELD_WIDTH);
-	private JTextField sinField = new JTextField(FIELD_WIDTH);
-	private JTextField expiryField = new JTextField(FIELD_WIDTH);
-	private JTextField typeField = new JTextField(FIELD_WIDTH);
-	
-	private ActionListener submitAction = new ActionListener() {
+	private JLabel balanceLabel = new JLabel(" ");
+	private JPanel results = new JPanel(new GridBagLayout());
+
+	// The fines listed and the box ticked to pay each
+	private List<Fine> fines = new ArrayList<Fine>();
+	private List<JCheckBox> boxes = new ArrayList<JCheckBox>();
+	private Borrower borrower = null;
+
+	private ActionListener findAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			try {
-				int bid = Integer.parseInt(bidField.getText());
-				String password = String.valueOf(passwordField.getPassword()); 
-				String name = nameField.getText();
-				
-				String address = addressField.getText();
-				address = (address.isEmpty() ? null : address);
-				
-				String phoneString = phoneField.getText();
-				int phone = (phoneString.isEmpty() ? 0 : Integer.parseInt(phoneString));
-				
-				String emailAddress = emailField.getText();
-				emailAddress = (emailAddress.isEmpty() ? null : emailAddress);
-				
-				int sinOrStNo = Integer.parseInt(sinField.getText());
-				
-				String dateString = expiryField.getText();
-				Date expiryDate = (dateString.isEmpty() ? null : DateParser.convertToDate(dateString)); 
-				
-				BorrowerType type = BorrowerType.get(typeField.getText());
-				
-				System.out.print("Borrower added!");
-				bidField.setText("");
-				passwordField.setText("");
-				nameField.setText("");
-				addressField.setText("");
-				phoneField.setText("");
-				emailField.setText("");
-				sinField.setText("");
-				expiryField.setText("");
-				typeField.setText("");
-			} catch (SQLException sql) {
-				System.out.print("Could not add Borrower.");
-			}
+			find();
+		}
+	};
+	private ActionListener payAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			pay();
 		}
 	};
 	private ActionListener cancelAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			frame.dispose();	
+			frame.dispose();
 		}
 	};
-	
+
 	/**
 	 * Builds the components and does any initialization for the window
 	 */
@@ -98,17 +77,13 @@ public class PayFine {
 		initializePane();
 		addBid();
 		addPassword();
-		addName();
-		addAddress();
-		addPhone();
-		addEmail();
-		addSin();
-		addExpiry();
-		addType();
-		addSubmitButton();
+		addFindButton();
+		addBalance();
+		addResults();
+		addPayButton();
 		addCancelButton();
 	}
-	
+
 	/**
 	 * Builds the base frame and pane for the window
 	 */
@@ -119,13 +94,13 @@ public class PayFine {
 				frame.dispose();
 			}
 		});
-		
+
 		contentPane.setLayout(gb);
 		contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 	}
 
 	/**
-	 * Builds the bid field and label and adds them to the window 
+	 * Builds the bid field and label and adds them to the window
 	 */
 	private void addBid() {
 		// Place the bid label
@@ -142,9 +117,9 @@ public class PayFine {
 		gb.setConstraints(bidField, c);
 		contentPane.add(bidField);
 	}
-	
+
 	/**
-	 * Builds the password field and label and adds them to the window 
+	 * Builds the password field and label and adds them to the window
 	 */
 	private void addPassword() {
 		// Place password label
@@ -161,161 +136,175 @@ public class PayFine {
 		c.insets = new Insets(0, 0, 5, 10);
 		gb.setConstraints(passwordField, c);
 		contentPane.add(passwordField);
+		passwordField.addActionListener(this.findAction);
 	}
 
 	/**
-	 * Builds the name field and label and adds them to the window 
+	 * Builds the find button and adds it to the window
 	 */
-	private void addName() {
-		// Place the name label
-		JLabel label = new JLabel("Enter Full Name*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the name
+	private void addFindButton() {
+		// Place the find button
+		JButton button = new JButton("Find Fines");
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(nameField, c);
-		contentPane.add(nameField);
+		c.insets = new Insets(0, 10, 5, 10);
+		c.anchor = GridBagConstraints.LINE_END;
+		gb.setConstraints(button, c);
+		contentPane.add(button);
+		button.addActionListener(this.findAction);
 	}
-	
-	/**
-	 * Builds the address field and label and adds them to the window 
-	 */
-	private void addAddress() {
-		// Place the address label
-		JLabel label = new JLabel("Enter Full Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
 
-		// Place the text field for the address
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(addressField, c);
-		contentPane.add(addressField);
-	}
-	
 	/**
-	 * Builds the phone field and label and adds them to the window 
+	 * Builds the balance label and adds it to the window
 	 */
-	private void addPhone() {
-		// Place the phone label
-		JLabel label = new JLabel("Enter Phone Number: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the phone
+	private void addBalance() {
+		// Place the balance label
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(phoneField, c);
-		contentPane.add(phoneField);
+		c.insets = new Insets(5, 10, 5, 10);
+		c.anchor = LABEL_ALIGNMENT;
+		gb.setConstraints(balanceLabel, c);
+		contentPane.add(balanceLabel);
 	}
-	
+
 	/**
-	 * Builds the email field and label and adds them to the window 
+	 * Builds the scrolling list of fines and adds it to the window
 	 */
-	private void addEmail() {
-		// Place the email label
-		JLabel label = new JLabel("Enter Email Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the email
+	private void addResults() {
+		JScrollPane scroll = new JScrollPane(results);
+		scroll.setPreferredSize(new Dimension(600, 250));
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(emailField, c);
-		contentPane.add(emailField);
+		c.insets = new Insets(5, 10, 5, 10);
+		c.fill = GridBagConstraints.BOTH;
+		gb.setConstraints(scroll, c);
+		contentPane.add(scroll);
+		c.fill = GridBagConstraints.NONE;
 	}
-	
+
 	/**
-	 * Builds the sin field and label and adds them to the window 
+	 * Looks up the borrower's unpaid fines on a worker thread and lists them
 	 */
-	private void addSin() {
-		// Place the sin label
-		JLabel label = new JLabel("Enter Student Number or SIN*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void find() {
+		final int bid;
+		try {
+			bid = Integer.parseInt(bidField.getText().trim());
+		} catch (NumberFormatException e) {
+			System.out.print("Enter a Borrower ID.");
+			return;
+		}
+		final String password = String.valueOf(passwordField.getPassword());
 
-		// Place the text field for the sin
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(sinField, c);
-		contentPane.add(sinField);
+		new SwingWorker<AccountStatus, Void>() {
+			protected AccountStatus doInBackground() throws SQLException {
+				Borrower found = Borrower.get(bid);
+				if(!found.getPassword().equals(password)) {
+					throw new SQLException("Wrong password.");
+				}
+				return AccountStatus.get(found);
+			}
+
+			protected void done() {
+				try {
+					showFines(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not read the fines.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the expiry field and label and adds them to the window 
+	 * Pays the ticked fines on a worker thread, all in one transaction, and
+	 * lists what is left
 	 */
-	private void addExpiry() {
-		// Place the expiry label
-		JLabel label = new JLabel("Enter Expiry Date (YYYY-MM-DD): ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void pay() {
+		final List<Fine> paying = new ArrayList<Fine>();
+		for(int i = 0; i < boxes.size(); i++) {
+			if(boxes.get(i).isSelected()) {
+				paying.add(fines.get(i));
+			}
+		}
+		if(paying.isEmpty() || borrower == null) {
+			System.out.print("Tick the fines to pay.");
+			return;
+		}
+		final Borrower payer = borrower;
 
-		// Place the text field for the expiry
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(expiryField, c);
-		contentPane.add(expiryField);
+		new SwingWorker<AccountStatus, Void>() {
+			protected AccountStatus doInBackground() throws SQLException {
+				Fine.pay(paying, DateParser.today());
+				return AccountStatus.get(payer);
+			}
+
+			protected void done() {
+				try {
+					AccountStatus status = get();
+					System.out.print(paying.size() + " fines paid!");
+					showFines(status);
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not pay the fines.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the type field and label and adds them to the window 
+	 * Replaces the balance and list with the unpaid fines of the given
+	 * account, all ticked
 	 */
-	private void addType() {
-		// Place the type label
-		JLabel label = new JLabel("Enter Borrower Type*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void showFines(AccountStatus status) {
+		borrower = status.getBid();
+		fines = status.getFines();
+		boxes.clear();
+		balanceLabel.setText(borrower.getName() + " owes "
+				+ FineLedger.format(status.getBalance()) + " in "
+				+ fines.size() + " fines.");
 
-		// Place the text field for the type
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(typeField, c);
-		contentPane.add(typeField);
+		results.removeAll();
+		GridBagConstraints cell = new GridBagConstraints();
+		cell.anchor = GridBagConstraints.LINE_START;
+		cell.insets = new Insets(2, 5, 2, 5);
+		for(int i = 0; i < COLUMNS.length; i++) {
+			cell.gridwidth = (i == COLUMNS.length - 1 ? GridBagConstraints.REMAINDER : 1);
+			results.add(new JLabel(COLUMNS[i]), cell);
+		}
+		for(Fine fine : fines) {
+			BookCopy copy = fine.getBorid().getCallNumber();
+			JCheckBox box = new JCheckBox("", true);
+			boxes.add(box);
+			cell.gridwidth = 1;
+			results.add(box, cell);
+			results.add(new JLabel("" + fine.getFid()), cell);
+			results.add(new JLabel("" + copy.getCallNumber().getCallNumber()), cell);
+			results.add(new JLabel(copy.getCallNumber().getTitle()), cell);
+			results.add(new JLabel("" + fine.getIssuedDate()), cell);
+			cell.gridwidth = GridBagConstraints.REMAINDER;
+			results.add(new JLabel(FineLedger.format(FineLedger.toCents(fine.getAmount()))), cell);
+		}
+		results.revalidate();
+		results.repaint();
 	}
-	
+
 	/**
-	 * Builds the submit button and adds it to the window 
+	 * Builds the pay button and adds it to the window
 	 */
-	private void addSubmitButton() {
-		// Place the submit button
-		JButton button = new JButton("Submit");
+	private void addPayButton() {
+		// Place the pay button
+		JButton button = new JButton("Pay Selected");
 		c.gridwidth = GridBagConstraints.RELATIVE;
 		c.insets = new Insets(5, 10, 10, 5);
 		c.anchor = GridBagConstraints.LINE_START;
 		gb.setConstraints(button, c);
 		contentPane.add(button);
-		button.addActionListener(this.submitAction);
+		button.addActionListener(this.payAction);
 	}
-	
+
 	/**
-	 * Builds the cancel button and adds it to the window 
+	 * Builds the cancel button and adds it to the window
 	 */
 	private void addCancelButton() {
 		// Place the cancel button
-		JButton button = new JButton("Cancel");
+		JButton button = new JButton("Close");
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(5, 5, 10, 10);
 		c.anchor = GridBagConstraints.LINE_END;
@@ -323,14 +312,14 @@ public class PayFine {
 		contentPane.add(button);
 		button.addActionListener(this.cancelAction);
 	}
-	
+
 	/**
 	 * Packages, places and makes the window visible
 	 */
 	public void displayWindow() {
 		// Size the window to obtain a best fit for the components
 		frame.pack();
-		
+
 		// center the frame
 		Dimension d = frame.getToolkit().getScreenSize();
 		Rectangle r = frame.getBounds();
@@ -340,7 +329,7 @@ public class PayFine {
 		// make the window visible
 		frame.setVisible(true);
 
-		// place the cursor in the text field for the username
+		// place the cursor in the text field for the bid
 		bidField.requestFocus();
 	}
 }
\ No newline at end of file
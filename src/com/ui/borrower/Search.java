@@ -5,110 +5,109 @@
 package com.ui.borrower;
 
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.sql.Date;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
-import com.borrower.Borrower;
-import com.borrower.BorrowerType;
-import com.date.DateParser;
+import com.book.Book;
+import com.book.BookCopy;
+import com.book.records.Recommender;
+import com.search.CatalogIndex;
 
 /**
- * This class implements a graphical login window to connect to the Oracle
- * database.
- * 
+ * This class implements a graphical window for searching the catalog by
+ * keywords from the titles, authors and subjects of the books. Titles, authors
+ * and subjects are suggested while typing, once typing pauses for
+ * SUGGEST_DELAY ms. Suggestions and searches run on worker threads, never the
+ * event dispatch thread, and are dropped if the query changed meanwhile.
+ * Results can be narrowed by subject, author, publisher and year, each value
+ * listed with its number of results, and each result can list the books its
+ * borrowers also borrowed.
+ *
  * @author Kevin Petersen
  */
 public class Search {
-	private JFrame frame = new JFrame("New Borrower");
+	private JFrame frame = new JFrame("Search");
 	private JPanel contentPane = new JPanel();
 	private GridBagLayout gb = new GridBagLayout();
 	private GridBagConstraints c = new GridBagConstraints();
-	
+
 	private static final int FIELD_WIDTH = 30;
+	private static final int MAX_RESULTS = 50;
+	private static final int MAX_SUGGESTIONS = 8;
+	private static final int SUGGEST_DELAY = 150;
+	private static final int MAX_FACET_VALUES = 10;
+	private static final int MAX_RELATED = 5;
+	private static final String[] FACETS = { CatalogIndex.SUBJECT,
+			CatalogIndex.AUTHOR, CatalogIndex.PUBLISHER, CatalogIndex.YEAR };
+	private static final String[] COLUMNS = { "Call Number", "Title",
+			"Main Author", "In", "Out", "On Hold" };
 	private final int LABEL_ALIGNMENT = GridBagConstraints.LINE_START;
-	
-	private JTextField bidField = new JTextField(FIELD_WIDTH);
-	private JPasswordField passwordField = new JPasswordField(FIELD_WIDTH);
-	private JTextField nameField = new JTextField(FIELD_WIDTH);
-	private JTextField addressField = new JTextField(FIELD_WIDTH);
-	private JTextField phoneField = new JTextField(FIELD_WIDTH);
-	private JTextField emailField = new JTextField(FIELD_WIDTH);
-	private JTextField sinField = new JTextField(FIELD_WIDTH);
-	private JTextField expiryField = new JTextField(FIELD_WIDTH);
-	private JTextField typeField = new JTextField(FIELD_WIDTH);
-	
-	private ActionListener submitAction = new ActionListener() {
+
+	private JTextField queryField = new JTextField(FIELD_WIDTH);
+	private JLabel summary = new JLabel(" ");
+	private JPanel results = new JPanel(new GridBagLayout());
+	private JLabel related = new JLabel(" ");
+	private DefaultListModel<String> suggestions = new DefaultListModel<String>();
+	private JList<String> suggestionList = new JList<String>(suggestions);
+	private JPanel facetPanel = new JPanel(new FlowLayout(FlowLayout.LEADING, 5, 0));
+	private Map<String, JComboBox<Object>> facetBoxes = new LinkedHashMap<String, JComboBox<Object>>();
+	// Value chosen for each facet the results are narrowed by
+	private Map<String, String> filters = new HashMap<String, String>();
+	// Set while the facet boxes are refilled, so that is not taken as a choice
+	private boolean fillingFacets = false;
+	private String lastQuery = null;
+	// Number of the latest search, so older ones finishing late are dropped
+	private int searchCount = 0;
+
+	private ActionListener searchAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			try {
-				int bid = Integer.parseInt(bidField.getText());
-				String password = String.valueOf(passwordField.getPassword()); 
-				String name = nameField.getText();
-				
-				String address = addressField.getText();
-				address = (address.isEmpty() ? null : address);
-				
-				String phoneString = phoneField.getText();
-				int phone = (phoneString.isEmpty() ? 0 : Integer.parseInt(phoneString));
-				
-				String emailAddress = emailField.getText();
-				emailAddress = (emailAddress.isEmpty() ? null : emailAddress);
-				
-				int sinOrStNo = Integer.parseInt(sinField.getText());
-				
-				String dateString = expiryField.getText();
-				Date expiryDate = (dateString.isEmpty() ? null : DateParser.convertToDate(dateString)); 
-				
-				BorrowerType type = BorrowerType.get(typeField.getText());
-				
-				System.out.print("Borrower added!");
-				bidField.setText("");
-				passwordField.setText("");
-				nameField.setText("");
-				addressField.setText("");
-				phoneField.setText("");
-				emailField.setText("");
-				sinField.setText("");
-				expiryField.setText("");
-				typeField.setText("");
-			} catch (SQLException sql) {
-				System.out.print("Could not add Borrower.");
-			}
+			search();
 		}
 	};
+	private Timer suggestTimer = new Timer(SUGGEST_DELAY, new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			suggest();
+		}
+	});
 	private ActionListener cancelAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			frame.dispose();	
+			frame.dispose();
 		}
 	};
-	
+
 	/**
 	 * Builds the components and does any initialization for the window
 	 */
 	public Search() {
 		initializePane();
-		addBid();
-		addPassword();
-		addName();
-		addAddress();
-		addPhone();
-		addEmail();
-		addSin();
-		addExpiry();
-		addType();
-		addSubmitButton();
+		addQuery();
+		addSuggestions();
+		addFacets();
+		addResults();
+		addSearchButton();
 		addCancelButton();
 	}
-	
+
 	/**
 	 * Builds the base frame and pane for the window
 	 */
@@ -119,203 +118,416 @@ public class Search {
 				frame.dispose();
 			}
 		});
-		
+
 		contentPane.setLayout(gb);
 		contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 	}
 
 	/**
-	 * Builds the bid field and label and adds them to the window 
+	 * Builds the query field and label and adds them to the window
 	 */
-	private void addBid() {
-		// Place the bid label
-		JLabel label = new JLabel("Enter Borrower ID*: ");
+	private void addQuery() {
+		// Place the query label
+		JLabel label = new JLabel("Keywords (use OR for either): ");
 		c.gridwidth = GridBagConstraints.RELATIVE;
 		c.insets = new Insets(10, 10, 5, 0);
 		c.anchor = LABEL_ALIGNMENT;
 		gb.setConstraints(label, c);
 		contentPane.add(label);
 
-		// Place the text field for the bid
+		// Place the text field for the query
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(10, 0, 5, 10);
-		gb.setConstraints(bidField, c);
-		contentPane.add(bidField);
+		gb.setConstraints(queryField, c);
+		contentPane.add(queryField);
+		queryField.addActionListener(this.searchAction);
+
+		// Suggest only once typing pauses
+		suggestTimer.setRepeats(false);
+		queryField.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				suggestTimer.restart();
+			}
+
+			public void removeUpdate(DocumentEvent e) {
+				suggestTimer.restart();
+			}
+
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
 	}
-	
+
 	/**
-	 * Builds the password field and label and adds them to the window 
+	 * Builds the list of suggestions for the query and adds it to the window
 	 */
-	private void addPassword() {
-		// Place password label
-		JLabel label = new JLabel("Enter Password*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void addSuggestions() {
+		suggestionList.setVisibleRowCount(4);
+		suggestionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		suggestionList.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				String chosen = suggestionList.getSelectedValue();
+				if(chosen != null) {
+					queryField.setText(chosen);
+					suggestTimer.stop();
+					suggestions.clear();
+					search();
+				}
+			}
+		});
 
-		// Place the password field
-		passwordField.setEchoChar('*');
+		// Place the list of suggestions under the query field
+		JScrollPane scroll = new JScrollPane(suggestionList);
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(passwordField, c);
-		contentPane.add(passwordField);
+		c.insets = new Insets(0, 10, 5, 10);
+		c.fill = GridBagConstraints.HORIZONTAL;
+		gb.setConstraints(scroll, c);
+		contentPane.add(scroll);
+		c.fill = GridBagConstraints.NONE;
 	}
 
 	/**
-	 * Builds the name field and label and adds them to the window 
+	 * Builds a box of values for each facet and adds them to the window
 	 */
-	private void addName() {
-		// Place the name label
-		JLabel label = new JLabel("Enter Full Name*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void addFacets() {
+		facetPanel.add(new JLabel("Narrow by: "));
+		for(int i = 0; i < FACETS.length; i++) {
+			final String facet = FACETS[i];
+			final JComboBox<Object> box = new JComboBox<Object>(new Object[] { "Any " + facet });
+			box.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					if(fillingFacets) {
+						return;
+					}
+					Object chosen = box.getSelectedItem();
+					if(chosen instanceof FacetValue) {
+						filters.put(facet, ((FacetValue) chosen).value);
+					} else {
+						filters.remove(facet);
+					}
+					search();
+				}
+			});
+			facetBoxes.put(facet, box);
+			facetPanel.add(box);
+		}
 
-		// Place the text field for the name
+		// Place the facets
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(nameField, c);
-		contentPane.add(nameField);
+		c.insets = new Insets(0, 5, 5, 10);
+		c.anchor = LABEL_ALIGNMENT;
+		gb.setConstraints(facetPanel, c);
+		contentPane.add(facetPanel);
 	}
-	
+
 	/**
-	 * Builds the address field and label and adds them to the window 
+	 * Looks up suggestions for the query on a worker thread and shows them if
+	 * the query has not changed since
 	 */
-	private void addAddress() {
-		// Place the address label
-		JLabel label = new JLabel("Enter Full Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void suggest() {
+		final String typed = queryField.getText();
+		new SwingWorker<List<String>, Void>() {
+			protected List<String> doInBackground() throws SQLException {
+				return CatalogIndex.suggest(typed, MAX_SUGGESTIONS);
+			}
 
-		// Place the text field for the address
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(addressField, c);
-		contentPane.add(addressField);
+			protected void done() {
+				if(!typed.equals(queryField.getText())) {
+					return;
+				}
+				try {
+					List<String> found = get();
+					suggestions.clear();
+					for(String phrase : found) {
+						suggestions.addElement(phrase);
+					}
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not suggest from the catalog.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the phone field and label and adds them to the window 
+	 * Builds the result summary, the scrolling list of results and the books
+	 * also borrowed and adds them to the window
 	 */
-	private void addPhone() {
-		// Place the phone label
-		JLabel label = new JLabel("Enter Phone Number: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
+	private void addResults() {
+		// Place the summary label
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		c.insets = new Insets(0, 10, 5, 10);
 		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+		gb.setConstraints(summary, c);
+		contentPane.add(summary);
 
-		// Place the text field for the phone
+		// Place the list of results
+		JScrollPane scroll = new JScrollPane(results);
+		scroll.setPreferredSize(new Dimension(600, 300));
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(phoneField, c);
-		contentPane.add(phoneField);
+		c.insets = new Insets(0, 10, 5, 10);
+		c.fill = GridBagConstraints.BOTH;
+		gb.setConstraints(scroll, c);
+		contentPane.add(scroll);
+		c.fill = GridBagConstraints.NONE;
+
+		// Place the books also borrowed
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		c.insets = new Insets(0, 10, 5, 10);
+		c.anchor = LABEL_ALIGNMENT;
+		gb.setConstraints(related, c);
+		contentPane.add(related);
 	}
-	
+
 	/**
-	 * Builds the email field and label and adds them to the window 
+	 * Searches the catalog for the query on a worker thread, trying a
+	 * corrected query if nothing matches, and shows the results if no newer
+	 * search was started since
 	 */
-	private void addEmail() {
-		// Place the email label
-		JLabel label = new JLabel("Enter Email Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void search() {
+		final String query = queryField.getText();
+		if(!query.equals(lastQuery)) {
+			// A new query starts out not narrowed
+			filters.clear();
+			lastQuery = query;
+		}
+		final Map<String, String> chosen = new HashMap<String, String>(filters);
+		final int number = ++searchCount;
+		summary.setText("Searching...");
+		new SwingWorker<Found, Void>() {
+			protected Found doInBackground() throws SQLException {
+				Found found = new Found();
+				int[] callNumbers = CatalogIndex.search(query);
+				if(callNumbers.length == 0) {
+					String corrected = CatalogIndex.correct(query);
+					if(!corrected.equals(query)) {
+						found.corrected = corrected;
+						callNumbers = CatalogIndex.search(corrected);
+					}
+				}
+				for(Map.Entry<String, String> e : chosen.entrySet()) {
+					callNumbers = CatalogIndex.narrow(callNumbers, e.getKey(), e.getValue());
+				}
+				for(String facet : FACETS) {
+					found.facets.put(facet, CatalogIndex.facetCounts(callNumbers, facet, MAX_FACET_VALUES));
+				}
+				found.total = callNumbers.length;
+				found.rows = rows(callNumbers);
+				return found;
+			}
 
-		// Place the text field for the email
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(emailField, c);
-		contentPane.add(emailField);
+			protected void done() {
+				if(number != searchCount) {
+					return;
+				}
+				try {
+					showResults(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					summary.setText(" ");
+					System.out.print("Could not search the catalog.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the sin field and label and adds them to the window 
+	 * Books found by a search, read on the worker thread
 	 */
-	private void addSin() {
-		// Place the sin label
-		JLabel label = new JLabel("Enter Student Number or SIN*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private static class Found {
+		String corrected;
+		int total;
+		String[][] rows;
+		Map<String, Map<String, Integer>> facets = new HashMap<String, Map<String, Integer>>();
+	}
 
-		// Place the text field for the sin
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(sinField, c);
-		contentPane.add(sinField);
+	/**
+	 * A value of a facet as listed in its box
+	 */
+	private static class FacetValue {
+		String value;
+		int count;
+
+		FacetValue(String value, int count) {
+			this.value = value;
+			this.count = count;
+		}
+
+		public String toString() {
+			return this.value + " (" + this.count + ")";
+		}
 	}
-	
+
 	/**
-	 * Builds the expiry field and label and adds them to the window 
+	 * @param callNumbers
+	 *            Call numbers of the matching books
+	 * @return A row for each of the first MAX_RESULTS books, with its copy
+	 *         counts
+	 * @throws SQLException
+	 *             if the books or their copies could not be read
 	 */
-	private void addExpiry() {
-		// Place the expiry label
-		JLabel label = new JLabel("Enter Expiry Date (YYYY-MM-DD): ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private static String[][] rows(int[] callNumbers) throws SQLException {
+		int[] shown = Arrays.copyOf(callNumbers, Math.min(callNumbers.length, MAX_RESULTS));
+		Map<Integer, Map<String, Integer>> counts = BookCopy.countByStatus(shown);
 
-		// Place the text field for the expiry
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(expiryField, c);
-		contentPane.add(expiryField);
+		String[][] rows = new String[shown.length][];
+		for(int i = 0; i < shown.length; i++) {
+			Book book = Book.get(shown[i]);
+			Map<String, Integer> copies = counts.get(shown[i]);
+			rows[i] = new String[] { "" + shown[i], book.getTitle(),
+					book.getMainAuthor(), count(copies, "in"),
+					count(copies, "out"), count(copies, "on-hold") };
+		}
+		return rows;
 	}
-	
+
 	/**
-	 * Builds the type field and label and adds them to the window 
+	 * Replaces the list of results with the books found
 	 */
-	private void addType() {
-		// Place the type label
-		JLabel label = new JLabel("Enter Borrower Type*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void showResults(Found found) {
+		results.removeAll();
+		related.setText(" ");
+		addRow(COLUMNS, false);
+		for(String[] row : found.rows) {
+			addRow(row, true);
+		}
 
-		// Place the text field for the type
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(typeField, c);
-		contentPane.add(typeField);
+		String text;
+		if(found.total > found.rows.length) {
+			text = "Showing " + found.rows.length + " of " + found.total
+					+ " books found.";
+		} else {
+			text = found.total + " books found.";
+		}
+		if(found.corrected != null) {
+			text = "Showing results for \"" + found.corrected + "\". " + text;
+		}
+		summary.setText(text);
+		showFacets(found.facets);
+
+		results.revalidate();
+		results.repaint();
 	}
-	
+
+	/**
+	 * Refills the box of each facet with the values found, keeping the value
+	 * chosen selected
+	 */
+	private void showFacets(Map<String, Map<String, Integer>> counts) {
+		fillingFacets = true;
+		try {
+			for(Map.Entry<String, JComboBox<Object>> e : facetBoxes.entrySet()) {
+				JComboBox<Object> box = e.getValue();
+				Object any = box.getItemAt(0);
+				box.removeAllItems();
+				box.addItem(any);
+				String chosen = filters.get(e.getKey());
+				for(Map.Entry<String, Integer> value : counts.get(e.getKey()).entrySet()) {
+					FacetValue item = new FacetValue(value.getKey(), value.getValue());
+					box.addItem(item);
+					if(value.getKey().equals(chosen)) {
+						box.setSelectedItem(item);
+					}
+				}
+			}
+		} finally {
+			fillingFacets = false;
+		}
+	}
+
+	/**
+	 * @return The number of copies with a status, as text
+	 */
+	private static String count(Map<String, Integer> copies, String status) {
+		Integer n = (copies == null ? null : copies.get(status));
+		return "" + (n == null ? 0 : n);
+	}
+
+	/**
+	 * Builds a row of the list of results
+	 *
+	 * @param cells
+	 *            Text of each column, starting with the call number
+	 * @param book
+	 *            true to end the row with a button listing the books also
+	 *            borrowed
+	 */
+	private void addRow(final String[] cells, boolean book) {
+		GridBagConstraints cell = new GridBagConstraints();
+		cell.anchor = GridBagConstraints.LINE_START;
+		cell.insets = new Insets(2, 5, 2, 5);
+		for(int i = 0; i < cells.length; i++) {
+			JLabel label = new JLabel(cells[i]);
+			cell.gridwidth = (i == cells.length - 1 && !book ? GridBagConstraints.REMAINDER : 1);
+			results.add(label, cell);
+		}
+
+		if(book) {
+			JButton button = new JButton("Also Borrowed");
+			cell.gridwidth = GridBagConstraints.REMAINDER;
+			results.add(button, cell);
+			button.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					showRelated(Integer.parseInt(cells[0]), cells[1]);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Looks up the books most often borrowed by the borrowers of a book on a
+	 * worker thread and lists them under the results
+	 *
+	 * @param callNumber
+	 *            Call number of the book
+	 * @param title
+	 *            Title of the book
+	 */
+	private void showRelated(final int callNumber, final String title) {
+		new SwingWorker<String, Void>() {
+			protected String doInBackground() throws SQLException {
+				StringBuilder text = new StringBuilder();
+				for(Map.Entry<Integer, Integer> e : Recommender.related(callNumber, MAX_RELATED).entrySet()) {
+					text.append(text.length() > 0 ? ", " : "");
+					text.append(Book.get(e.getKey()).getTitle()).append(" (").append(e.getValue()).append(")");
+				}
+				if(text.length() == 0) {
+					return "No other books borrowed by borrowers of " + title + ".";
+				}
+				return "Borrowers of " + title + " also borrowed: " + text;
+			}
+
+			protected void done() {
+				try {
+					related.setText(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not read the books also borrowed.");
+				}
+			}
+		}.execute();
+	}
+
 	/**
-	 * Builds the submit button and adds it to the window 
+	 * Builds the search button and adds it to the window
 	 */
-	private void addSubmitButton() {
-		// Place the submit button
-		JButton button = new JButton("Submit");
+	private void addSearchButton() {
+		// Place the search button
+		JButton button = new JButton("Search");
 		c.gridwidth = GridBagConstraints.RELATIVE;
 		c.insets = new Insets(5, 10, 10, 5);
 		c.anchor = GridBagConstraints.LINE_START;
 		gb.setConstraints(button, c);
 		contentPane.add(button);
-		button.addActionListener(this.submitAction);
+		button.addActionListener(this.searchAction);
 	}
-	
+
 	/**
-	 * Builds the cancel button and adds it to the window 
+	 * Builds the cancel button and adds it to the window
 	 */
 	private void addCancelButton() {
 		// Place the cancel button
-		JButton button = new JButton("Cancel");
+		JButton button = new JButton("Close");
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(5, 5, 10, 10);
 		c.anchor = GridBagConstraints.LINE_END;
@@ -323,14 +535,14 @@ public class Search {
 		contentPane.add(button);
 		button.addActionListener(this.cancelAction);
 	}
-	
+
 	/**
 	 * Packages, places and makes the window visible
 	 */
 	public void displayWindow() {
 		// Size the window to obtain a best fit for the components
 		frame.pack();
-		
+
 		// center the frame
 		Dimension d = frame.getToolkit().getScreenSize();
 		Rectangle r = frame.getBounds();
@@ -340,7 +552,7 @@ public class Search {
 		// make the window visible
 		frame.setVisible(true);
 
-		// place the cursor in the text field for the username
-		bidField.requestFocus();
+		// place the cursor in the text field for the query
+		queryField.requestFocus();
 	}
 }
\ No newline at end of file
@@ -24,9 +24,11 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 
-import com.book.Book;
+import com.book.BookCopy;
 import com.book.records.Borrowing;
 import com.borrower.Borrower;
+import com.policy.CheckoutRules;
+import com.policy.Violation;
 
 
 /**
@@ -52,21 +54,33 @@ public class Checkout {
 		public void actionPerformed(ActionEvent e) {
 			try {
 				Borrower bid = Borrower.get(Integer.parseInt(bidField.getText()));
-				if(bid.isValid()) {
+				List<Integer> fields = new ArrayList<Integer>();
+				
+				for(int i = 0; i < NUM_BOOK_FIELDS; i++) {
+					String bookString = bookField[i].getText();
+					if (!bookString.isEmpty()) {
+						fields.add(i);
+					}
+				}
+				
+				int[] callNumbers = new int[fields.size()];
+				for(int i = 0; i < callNumbers.length; i++) {
+					callNumbers[i] = Integer.parseInt(bookField[fields.get(i)].getText());
+				}
+				
+				List<Violation> violations = CheckoutRules.check(bid, callNumbers);
+				if(violations.isEmpty()) {
+					// All the books are checked out together or not at all
+					List<Borrowing> records = BookCopy.checkout(bid, callNumbers);
 					List<Borrowing> receipt = new ArrayList<Borrowing>();
 					
-					for(int i = 0; i < NUM_BOOK_FIELDS; i++) {
-						String bookString = bookField[i].getText();
-						if (bookString.isEmpty()) {
-							continue;
-						}
-						
-						try {
-							Book book = Book.get(Integer.parseInt(bookString));
-							receipt.add(book.findAvailableCopy().checkout(bid));
-							bookField[i].setText("");
-						} catch (SQLException sql) {
-							System.out.println("Could not checkout book " + (i+1));
+					for(int i = 0; i < records.size(); i++) {
+						int field = fields.get(i);
+						if(records.get(i) != null) {
+							receipt.add(records.get(i));
+							bookField[field].setText("");
+						} else {
+							System.out.println("Could not checkout book " + (field+1));
 						}
 					}
 					
@@ -75,7 +89,12 @@ public class Checkout {
 								receipt.get(0).getInDate());
 					}
 				} else {
-					System.out.println("Borrower is cannot borrow books.");
+					System.out.println("Borrower cannot borrow these books:");
+					for(Violation violation : violations) {
+						int item = violation.getItem();
+						System.out.println((item < 0 ? "" : "Book " + (fields.get(item)+1) + ": ")
+								+ violation.getMessage());
+					}
 				}
 			} catch (SQLException sql) {
 			}
@@ -63,7 +63,7 @@ public class CheckedOut {
 			List<Borrowing> booksOut = new ArrayList<Borrowing>();
 			List<Borrowing> booksOverdue = new ArrayList<Borrowing>();
 			
-			Date now = new Date(System.currentTimeMillis());
+			Date now = DateParser.today();
 			
 			for (Borrowing b : borrowedBooks) {
 				if (b.getInDate().after(now)) {
@@ -15,100 +15,70 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.sql.Date;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
 
-import com.borrower.Borrower;
-import com.borrower.BorrowerType;
+import com.book.Book;
+import com.book.records.Popularity;
 import com.date.DateParser;
+import com.search.CatalogIndex;
 
 /**
- * This class implements a graphical login window to connect to the Oracle
- * database.
- * 
+ * This class implements a graphical window listing the most checked out
+ * books of this week, this month, this year or a given year, optionally only
+ * those with a subject.
+ *
  * @author Kevin Petersen
  */
 public class Popular {
-	private JFrame frame = new JFrame("New Borrower");
+	private JFrame frame = new JFrame("Popular Books");
 	private JPanel contentPane = new JPanel();
 	private GridBagLayout gb = new GridBagLayout();
 	private GridBagConstraints c = new GridBagConstraints();
-	
-	private static final int FIELD_WIDTH = 30;
+
+	private static final int FIELD_WIDTH = 6;
+	private static final int MAX_RESULTS = 20;
+	private static final int MAX_SUBJECTS = 100;
+	private static final String[] PERIODS = { "This week", "This month",
+			"This year", "Year" };
+	private static final String ALL_SUBJECTS = "All subjects";
+	private static final String[] COLUMNS = { "Rank", "Call Number", "Title",
+			"Main Author", "Checkouts" };
 	private final int LABEL_ALIGNMENT = GridBagConstraints.LINE_START;
-	
-	private JTextField bidField = new JTextField(FIELD_WIDTH);
-	private JPasswordField passwordField = new JPasswordField(FIELD_WIDTH);
-	private JTextField nameField = new JTextField(FIELD_WIDTH);
-	private JTextField addressField = new JTextField(FIELD_WIDTH);
-	private JTextField phoneField = new JTextField(FIELD_WIDTH);
-	private JTextField emailField = new JTextField(FIELD_WIDTH);
-	private JTextField sinField = new JTextField(FIELD_WIDTH);
-	private JTextField expiryField = new JTextField(FIELD_WIDTH);
-	private JTextField typeField = new JTextField(FIELD_WIDTH);
-	
-	private ActionListener submitAction = new ActionListener() {
+
+	private JComboBox<String> periodBox = new JComboBox<String>(PERIODS);
+	private JTextField yearField = new JTextField(FIELD_WIDTH);
+	private JComboBox<String> subjectBox = new JComboBox<String>(new String[] { ALL_SUBJECTS });
+	private JPanel results = new JPanel(new GridBagLayout());
+
+	private ActionListener showAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			try {
-				int bid = Integer.parseInt(bidField.getText());
-				String password = String.valueOf(passwordField.getPassword()); 
-				String name = nameField.getText();
-				
-				String address = addressField.getText();
-				address = (address.isEmpty() ? null : address);
-				
-				String phoneString = phoneField.getText();
-				int phone = (phoneString.isEmpty() ? 0 : Integer.parseInt(phoneString));
-				
-				String emailAddress = emailField.getText();
-				emailAddress = (emailAddress.isEmpty() ? null : emailAddress);
-				
-				int sinOrStNo = Integer.parseInt(sinField.getText());
-				
-				String dateString = expiryField.getText();
-				Date expiryDate = (dateString.isEmpty() ? null : DateParser.convertToDate(dateString)); 
-				
-				BorrowerType type = BorrowerType.get(typeField.getText());
-				
-				System.out.print("Borrower added!");
-				bidField.setText("");
-				passwordField.setText("");
-				nameField.setText("");
-				addressField.setText("");
-				phoneField.setText("");
-				emailField.setText("");
-				sinField.setText("");
-				expiryField.setText("");
-				typeField.setText("");
-			} catch (SQLException sql) {
-				System.out.print("Could not add Borrower.");
-			}
+			show();
 		}
 	};
 	private ActionListener cancelAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
-			frame.dispose();	
+			frame.dispose();
 		}
 	};
-	
+
 	/**
 	 * Builds the components and does any initialization for the window
 	 */
 	public Popular() {
 		initializePane();
-		addBid();
-		addPassword();
-		addName();
-		addAddress();
-		addPhone();
-		addEmail();
-		addSin();
-		addExpiry();
-		addType();
-		addSubmitButton();
+		addPeriod();
+		addSubject();
+		addResults();
+		addShowButton();
 		addCancelButton();
+		loadSubjects();
 	}
-	
+
 	/**
 	 * Builds the base frame and pane for the window
 	 */
@@ -119,203 +89,205 @@ public class Popular {
 				frame.dispose();
 			}
 		});
-		
+
 		contentPane.setLayout(gb);
 		contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 	}
 
 	/**
-	 * Builds the bid field and label and adds them to the window 
+	 * Builds the period box and year field and adds them to the window
 	 */
-	private void addBid() {
-		// Place the bid label
-		JLabel label = new JLabel("Enter Borrower ID*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
+	private void addPeriod() {
+		// Place the period label
+		JLabel label = new JLabel("Period: ");
+		c.gridwidth = 1;
 		c.insets = new Insets(10, 10, 5, 0);
 		c.anchor = LABEL_ALIGNMENT;
 		gb.setConstraints(label, c);
 		contentPane.add(label);
 
-		// Place the text field for the bid
+		// Place the period box
+		c.insets = new Insets(10, 0, 5, 5);
+		gb.setConstraints(periodBox, c);
+		contentPane.add(periodBox);
+		periodBox.addActionListener(this.showAction);
+
+		// Place the text field for the year
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(10, 0, 5, 10);
-		gb.setConstraints(bidField, c);
-		contentPane.add(bidField);
+		gb.setConstraints(yearField, c);
+		contentPane.add(yearField);
+		yearField.addActionListener(this.showAction);
 	}
-	
+
 	/**
-	 * Builds the password field and label and adds them to the window 
+	 * Builds the subject box and adds it to the window
 	 */
-	private void addPassword() {
-		// Place password label
-		JLabel label = new JLabel("Enter Password*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
+	private void addSubject() {
+		// Place the subject label
+		JLabel label = new JLabel("Subject: ");
+		c.gridwidth = 1;
 		c.insets = new Insets(0, 10, 5, 0);
 		c.anchor = LABEL_ALIGNMENT;
 		gb.setConstraints(label, c);
 		contentPane.add(label);
 
-		// Place the password field
-		passwordField.setEchoChar('*');
+		// Place the subject box
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(passwordField, c);
-		contentPane.add(passwordField);
+		gb.setConstraints(subjectBox, c);
+		contentPane.add(subjectBox);
+		subjectBox.addActionListener(this.showAction);
 	}
 
 	/**
-	 * Builds the name field and label and adds them to the window 
+	 * Builds the scrolling list of books and adds it to the window
 	 */
-	private void addName() {
-		// Place the name label
-		JLabel label = new JLabel("Enter Full Name*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the name
+	private void addResults() {
+		JScrollPane scroll = new JScrollPane(results);
+		scroll.setPreferredSize(new Dimension(600, 300));
 		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(nameField, c);
-		contentPane.add(nameField);
+		c.insets = new Insets(5, 10, 5, 10);
+		c.fill = GridBagConstraints.BOTH;
+		gb.setConstraints(scroll, c);
+		contentPane.add(scroll);
+		c.fill = GridBagConstraints.NONE;
 	}
-	
-	/**
-	 * Builds the address field and label and adds them to the window 
-	 */
-	private void addAddress() {
-		// Place the address label
-		JLabel label = new JLabel("Enter Full Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
 
-		// Place the text field for the address
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(addressField, c);
-		contentPane.add(addressField);
-	}
-	
 	/**
-	 * Builds the phone field and label and adds them to the window 
+	 * Fills the subject box with the subjects of the most books, on a worker
+	 * thread
 	 */
-	private void addPhone() {
-		// Place the phone label
-		JLabel label = new JLabel("Enter Phone Number: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void loadSubjects() {
+		new SwingWorker<Map<String, Integer>, Void>() {
+			protected Map<String, Integer> doInBackground() throws SQLException {
+				return CatalogIndex.facetCounts(null, CatalogIndex.SUBJECT, MAX_SUBJECTS);
+			}
 
-		// Place the text field for the phone
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(phoneField, c);
-		contentPane.add(phoneField);
+			protected void done() {
+				try {
+					for(String subject : get().keySet()) {
+						subjectBox.addItem(subject);
+					}
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not read the subjects.");
+				}
+			}
+		}.execute();
 	}
-	
-	/**
-	 * Builds the email field and label and adds them to the window 
-	 */
-	private void addEmail() {
-		// Place the email label
-		JLabel label = new JLabel("Enter Email Address: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
 
-		// Place the text field for the email
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(emailField, c);
-		contentPane.add(emailField);
-	}
-	
 	/**
-	 * Builds the sin field and label and adds them to the window 
+	 * Looks up the most checked out books of the chosen period and subject on
+	 * a worker thread and shows them
 	 */
-	private void addSin() {
-		// Place the sin label
-		JLabel label = new JLabel("Enter Student Number or SIN*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
+	private void show() {
+		final int period;
+		final Date date;
+		switch(periodBox.getSelectedIndex()) {
+		case 0:
+			period = Popularity.WEEK;
+			date = DateParser.today();
+			break;
+		case 1:
+			period = Popularity.MONTH;
+			date = DateParser.today();
+			break;
+		case 2:
+			period = Popularity.YEAR;
+			date = DateParser.today();
+			break;
+		default:
+			period = Popularity.YEAR;
+			try {
+				date = DateParser.convertToDate(Integer.parseInt(yearField.getText().trim()), 6, 1);
+			} catch (NumberFormatException e) {
+				System.out.print("Enter a year.");
+				return;
+			}
+		}
+		final Object subject = subjectBox.getSelectedItem();
 
-		// Place the text field for the sin
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(sinField, c);
-		contentPane.add(sinField);
+		new SwingWorker<List<String[]>, Void>() {
+			protected List<String[]> doInBackground() throws SQLException {
+				Map<Integer, Integer> top;
+				if(ALL_SUBJECTS.equals(subject)) {
+					top = Popularity.top(period, date, MAX_RESULTS);
+				} else {
+					top = Popularity.top(period, date, subject.toString(), MAX_RESULTS);
+				}
+
+				List<String[]> rows = new ArrayList<String[]>();
+				for(Map.Entry<Integer, Integer> e : top.entrySet()) {
+					Book book = Book.get(e.getKey());
+					rows.add(new String[] { "" + (rows.size() + 1),
+							"" + e.getKey(), book.getTitle(),
+							book.getMainAuthor(), "" + e.getValue() });
+				}
+				return rows;
+			}
+
+			protected void done() {
+				try {
+					showResults(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not read the popular books.");
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
-	 * Builds the expiry field and label and adds them to the window 
+	 * Replaces the list of books with the given rows
 	 */
-	private void addExpiry() {
-		// Place the expiry label
-		JLabel label = new JLabel("Enter Expiry Date (YYYY-MM-DD): ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the expiry
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(expiryField, c);
-		contentPane.add(expiryField);
+	private void showResults(List<String[]> rows) {
+		results.removeAll();
+		addRow(COLUMNS);
+		for(String[] row : rows) {
+			addRow(row);
+		}
+		results.revalidate();
+		results.repaint();
 	}
-	
+
 	/**
-	 * Builds the type field and label and adds them to the window 
+	 * Builds a row of the list of books
+	 *
+	 * @param cells
+	 *            Text of each column
 	 */
-	private void addType() {
-		// Place the type label
-		JLabel label = new JLabel("Enter Borrower Type*: ");
-		c.gridwidth = GridBagConstraints.RELATIVE;
-		c.insets = new Insets(0, 10, 5, 0);
-		c.anchor = LABEL_ALIGNMENT;
-		gb.setConstraints(label, c);
-		contentPane.add(label);
-
-		// Place the text field for the type
-		c.gridwidth = GridBagConstraints.REMAINDER;
-		c.insets = new Insets(0, 0, 5, 10);
-		gb.setConstraints(typeField, c);
-		contentPane.add(typeField);
+	private void addRow(String[] cells) {
+		GridBagConstraints cell = new GridBagConstraints();
+		cell.anchor = GridBagConstraints.LINE_START;
+		cell.insets = new Insets(2, 5, 2, 5);
+		for(int i = 0; i < cells.length; i++) {
+			JLabel label = new JLabel(cells[i]);
+			cell.gridwidth = (i == cells.length - 1 ? GridBagConstraints.REMAINDER : 1);
+			results.add(label, cell);
+		}
 	}
-	
+
 	/**
-	 * Builds the submit button and adds it to the window 
+	 * Builds the show button and adds it to the window
 	 */
-	private void addSubmitButton() {
-		// Place the submit button
-		JButton button = new JButton("Submit");
-		c.gridwidth = GridBagConstraints.RELATIVE;
+	private void addShowButton() {
+		// Place the show button
+		JButton button = new JButton("Show");
+		c.gridwidth = 1;
 		c.insets = new Insets(5, 10, 10, 5);
 		c.anchor = GridBagConstraints.LINE_START;
 		gb.setConstraints(button, c);
 		contentPane.add(button);
-		button.addActionListener(this.submitAction);
+		button.addActionListener(this.showAction);
 	}
-	
+
 	/**
-	 * Builds the cancel button and adds it to the window 
+	 * Builds the cancel button and adds it to the window
 	 */
 	private void addCancelButton() {
 		// Place the cancel button
-		JButton button = new JButton("Cancel");
+		JButton button = new JButton("Close");
 		c.gridwidth = GridBagConstraints.REMAINDER;
 		c.insets = new Insets(5, 5, 10, 10);
 		c.anchor = GridBagConstraints.LINE_END;
@@ -323,14 +295,14 @@ public class Popular {
 		contentPane.add(button);
 		button.addActionListener(this.cancelAction);
 	}
-	
+
 	/**
 	 * Packages, places and makes the window visible
 	 */
 	public void displayWindow() {
 		// Size the window to obtain a best fit for the components
 		frame.pack();
-		
+
 		// center the frame
 		Dimension d = frame.getToolkit().getScreenSize();
 		Rectangle r = frame.getBounds();
@@ -340,7 +312,7 @@ public class Popular {
 		// make the window visible
 		frame.setVisible(true);
 
-		// place the cursor in the text field for the username
-		bidField.requestFocus();
+		// list this week's books
+		show();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+/* CPSC 304 - Library Checkout System
+ * © Mar. 2013 Kevin Petersen. All rights reserved.
+ */
+
+package com.ui.librarian;
+
+import java.awt.Dimension;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.*;
+
+import com.book.Book;
+import com.book.records.Trending;
+
+/**
+ * This class implements a graphical window listing the books trending now,
+ * with a column for each half-life the trending scores are kept for so they
+ * can be compared side by side.
+ *
+ * @author Kevin Petersen
+ */
+public class TrendingNow {
+	private JFrame frame = new JFrame("Trending Now");
+	private JPanel contentPane = new JPanel();
+	private GridBagLayout gb = new GridBagLayout();
+	private GridBagConstraints c = new GridBagConstraints();
+
+	private static final int MAX_RESULTS = 20;
+
+	private JPanel results = new JPanel(new GridBagLayout());
+
+	private ActionListener refreshAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			refresh(false);
+		}
+	};
+	private ActionListener rebuildAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			refresh(true);
+		}
+	};
+	private ActionListener cancelAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			frame.dispose();
+		}
+	};
+
+	/**
+	 * Builds the components and does any initialization for the window
+	 */
+	public TrendingNow() {
+		initializePane();
+		addResults();
+		addRefreshButton();
+		addRebuildButton();
+		addCancelButton();
+	}
+
+	/**
+	 * Builds the base frame and pane for the window
+	 */
+	private void initializePane() {
+		frame.setContentPane(contentPane);
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e) {
+				frame.dispose();
+			}
+		});
+
+		contentPane.setLayout(gb);
+		contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+	}
+
+	/**
+	 * Builds the scrolling list of books and adds it to the window
+	 */
+	private void addResults() {
+		JScrollPane scroll = new JScrollPane(results);
+		scroll.setPreferredSize(new Dimension(700, 400));
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		c.insets = new Insets(10, 10, 5, 10);
+		c.fill = GridBagConstraints.BOTH;
+		gb.setConstraints(scroll, c);
+		contentPane.add(scroll);
+		c.fill = GridBagConstraints.NONE;
+	}
+
+	/**
+	 * Reads the top books for every half-life on a worker thread and shows
+	 * them
+	 *
+	 * @param rebuild
+	 *            true to read the scores again from the database first
+	 */
+	private void refresh(final boolean rebuild) {
+		new SwingWorker<List<String[]>, Void>() {
+			protected List<String[]> doInBackground() throws SQLException {
+				if(rebuild) {
+					Trending.rebuild();
+				}
+
+				int halfLives = Trending.HALF_LIVES.length;
+				List<String[]> rows = new ArrayList<String[]>();
+				String[] header = new String[halfLives + 1];
+				header[0] = "Rank";
+				for(int i = 0; i < halfLives; i++) {
+					header[i + 1] = "Half-life " + Trending.HALF_LIVES[i] + " days";
+				}
+				rows.add(header);
+
+				for(int i = 0; i < halfLives; i++) {
+					int rank = 1;
+					for(Map.Entry<Integer, Double> e : Trending.top(Trending.HALF_LIVES[i], MAX_RESULTS).entrySet()) {
+						if(rows.size() <= rank) {
+							String[] row = new String[halfLives + 1];
+							row[0] = "" + rank;
+							rows.add(row);
+						}
+						Book book = Book.get(e.getKey());
+						rows.get(rank)[i + 1] = book.getTitle()
+								+ String.format(" (%.2f)", e.getValue());
+						rank++;
+					}
+				}
+				return rows;
+			}
+
+			protected void done() {
+				try {
+					showResults(get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					System.out.print("Could not read the trending books.");
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Replaces the list of books with the given rows
+	 */
+	private void showResults(List<String[]> rows) {
+		results.removeAll();
+		GridBagConstraints cell = new GridBagConstraints();
+		cell.anchor = GridBagConstraints.LINE_START;
+		cell.insets = new Insets(2, 5, 2, 5);
+		for(String[] cells : rows) {
+			for(int i = 0; i < cells.length; i++) {
+				JLabel label = new JLabel(cells[i] == null ? "" : cells[i]);
+				cell.gridwidth = (i == cells.length - 1 ? GridBagConstraints.REMAINDER : 1);
+				results.add(label, cell);
+			}
+		}
+		results.revalidate();
+		results.repaint();
+	}
+
+	/**
+	 * Builds the refresh button and adds it to the window
+	 */
+	private void addRefreshButton() {
+		// Place the refresh button
+		JButton button = new JButton("Refresh");
+		c.gridwidth = 1;
+		c.insets = new Insets(5, 10, 10, 5);
+		c.anchor = GridBagConstraints.LINE_START;
+		gb.setConstraints(button, c);
+		contentPane.add(button);
+		button.addActionListener(this.refreshAction);
+	}
+
+	/**
+	 * Builds the rebuild button and adds it to the window
+	 */
+	private void addRebuildButton() {
+		// Place the rebuild button
+		JButton button = new JButton("Rebuild from History");
+		c.gridwidth = GridBagConstraints.RELATIVE;
+		c.insets = new Insets(5, 5, 10, 5);
+		c.anchor = GridBagConstraints.LINE_START;
+		gb.setConstraints(button, c);
+		contentPane.add(button);
+		button.addActionListener(this.rebuildAction);
+	}
+
+	/**
+	 * Builds the cancel button and adds it to the window
+	 */
+	private void addCancelButton() {
+		// Place the cancel button
+		JButton button = new JButton("Close");
+		c.gridwidth = GridBagConstraints.REMAINDER;
+		c.insets = new Insets(5, 5, 10, 10);
+		c.anchor = GridBagConstraints.LINE_END;
+		gb.setConstraints(button, c);
+		contentPane.add(button);
+		button.addActionListener(this.cancelAction);
+	}
+
+	/**
+	 * Packages, places and makes the window visible
+	 */
+	public void displayWindow() {
+		// Size the window to obtain a best fit for the components
+		frame.pack();
+
+		// center the frame
+		Dimension d = frame.getToolkit().getScreenSize();
+		Rectangle r = frame.getBounds();
+		frame.setLocation(	(d.width - r.width) / 2,
+								(d.height - r.height) / 2);
+
+		// make the window visible
+		frame.setVisible(true);
+
+		// list the books trending now
+		refresh(false);
+	}
+}
\ No newline at end of file
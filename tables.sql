@@ -2,6 +2,12 @@
  * © Mar. 2013 Kevin Petersen. All rights reserved.
  */
 
+DROP TABLE JobCheckpoint;
+DROP TABLE CheckoutPolicy;
+DROP TABLE KeyBlock;
+DROP TABLE Notification;
+DROP TABLE HeldCopy;
+DROP TABLE CurrentLoan;
 DROP TABLE Fine;
 DROP TABLE Borrowing;
 DROP TABLE HoldRequest;
@@ -22,6 +28,21 @@ INSERT INTO BorrowerType VALUES	('Student', 14);
 INSERT INTO BorrowerType VALUES	('Faculty', 84);
 INSERT INTO BorrowerType VALUES	('Staff', 42);
 
+/* Checkout limits of each borrower type, compiled into rules by
+ * CheckoutRules. Types with no entry get the defaults in CheckoutPolicy.
+ */
+CREATE TABLE CheckoutPolicy (
+	type			VARCHAR(20)		NOT NULL,
+	maxLoans		INTEGER			NOT NULL,
+	fineLimit		FLOAT			NOT NULL,
+	PRIMARY KEY		(type),
+	FOREIGN KEY		(type)			REFERENCES BorrowerType
+);
+
+INSERT INTO CheckoutPolicy VALUES	('Student', 10, 5.00);
+INSERT INTO CheckoutPolicy VALUES	('Faculty', 50, 20.00);
+INSERT INTO CheckoutPolicy VALUES	('Staff', 20, 10.00);
+
 CREATE TABLE Borrower (
 	bid				INTEGER			NOT NULL,
 	password 		VARCHAR(20)		NOT NULL,
@@ -104,7 +125,22 @@ CREATE TABLE HoldRequest(
 	FOREIGN KEY		(callNumber)	REFERENCES Book
 );
 
-INSERT INTO HoldRequest VALUES (1, 1, 3, '2013-03-14');
+INSERT INTO HoldRequest VALUES (1, 2, 3, '2013-03-21');
+
+/* Copies set aside for the borrower whose hold request they filled, kept by
+ * BookCopy.doReturn() and checkout()
+ */
+CREATE TABLE HeldCopy (
+	callNumber		INTEGER			NOT NULL,
+	copyNo			INTEGER			NOT NULL,
+	bid				INTEGER			NOT NULL,
+	heldDate		DATE			NOT NULL,
+	PRIMARY KEY		(callNumber, copyNo),
+	FOREIGN KEY		(callNumber, copyNo) REFERENCES BookCopy,
+	FOREIGN KEY		(bid)			REFERENCES Borrower
+);
+
+INSERT INTO HeldCopy VALUES (3, 1, 1, '2013-03-20');
 
 CREATE TABLE Borrowing(
 	borid			INTEGER			NOT NULL,
@@ -120,6 +156,20 @@ CREATE TABLE Borrowing(
 
 INSERT INTO Borrowing VALUES (1, 2, 2, 3, '2012-01-01', '2013-01-01');
 
+/* The open borrow of each copy that is checked out, kept by
+ * BookCopy.checkout() and doReturn()
+ */
+CREATE TABLE CurrentLoan (
+	callNumber		INTEGER			NOT NULL,
+	copyNo			INTEGER			NOT NULL,
+	borid			INTEGER			UNIQUE NOT NULL,
+	PRIMARY KEY		(callNumber, copyNo),
+	FOREIGN KEY		(callNumber, copyNo) REFERENCES BookCopy,
+	FOREIGN KEY		(borid)			REFERENCES Borrowing
+);
+
+INSERT INTO CurrentLoan VALUES (2, 3, 1);
+
 CREATE TABLE Fine (
 	fid				INTEGER			NOT NULL,
 	amount			FLOAT			NOT NULL,
@@ -131,3 +181,46 @@ CREATE TABLE Fine (
 );
 
 INSERT INTO Fine VALUES (1, 10.55, '2013-01-01', NULL, 1);
+
+/* Outbox of messages to borrowers, delivered and emptied by the
+ * NotificationWorker. createdAt orders the outbox to the second. A worker
+ * claims a row by setting claimedBy and claimedAt; a claim older than the
+ * lease may be taken over by another worker.
+ */
+CREATE TABLE Notification (
+	nid				INTEGER			NOT NULL,
+	bid				INTEGER			NOT NULL,
+	message			VARCHAR(200)	NOT NULL,
+	createdDate		DATE			NOT NULL,
+	createdAt		DATE			DEFAULT SYSDATE NOT NULL,
+	claimedBy		VARCHAR(40),
+	claimedAt		DATE,
+	PRIMARY KEY		(nid),
+	FOREIGN KEY		(bid)			REFERENCES Borrower
+);
+
+CREATE INDEX NotificationOrder ON Notification (createdAt, nid);
+
+CREATE TABLE KeyBlock (
+	name			VARCHAR(30)		NOT NULL,
+	nextKey			INTEGER			NOT NULL,
+	PRIMARY KEY		(name)
+);
+
+/* First unused key of each table */
+INSERT INTO KeyBlock VALUES ('Book', 4);
+INSERT INTO KeyBlock VALUES ('Borrower', 3);
+INSERT INTO KeyBlock VALUES ('Borrowing', 2);
+INSERT INTO KeyBlock VALUES ('Fine', 2);
+INSERT INTO KeyBlock VALUES ('HoldRequest', 2);
+INSERT INTO KeyBlock VALUES ('Notification', 1);
+
+/* Progress of each batch job run: the day it is for and the last key it has
+ * finished with, so a run that is stopped carries on where it left off.
+ */
+CREATE TABLE JobCheckpoint (
+	job				VARCHAR(30)		NOT NULL,
+	runDate			DATE			NOT NULL,
+	lastKey			INTEGER			NOT NULL,
+	PRIMARY KEY		(job)
+);